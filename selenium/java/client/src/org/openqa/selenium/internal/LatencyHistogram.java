@@ -0,0 +1,135 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of durations, in whatever unit they are recorded in.
+ * Keeps the count, total and max, and counts the samples in buckets which
+ * double in size, so that percentiles can be estimated without keeping every
+ * sample.
+ *
+ * Recording never blocks, so it is safe to call on the path of every request.
+ */
+public class LatencyHistogram {
+
+  // Bucket i holds [2^(i-1), 2^i), bucket 0 holds 0. The last bucket holds
+  // everything from 2^(BUCKETS-2) up.
+  private static final int BUCKETS = 40;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * @param duration negative values are ignored.
+   */
+  public void record(long duration) {
+    if (duration < 0) {
+      return;
+    }
+    buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(duration), BUCKETS - 1));
+    count.incrementAndGet();
+    total.addAndGet(duration);
+    for (long current = max.get(); current < duration; current = max.get()) {
+      if (max.compareAndSet(current, duration)) {
+        break;
+      }
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getTotal() {
+    return total.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return the mean, or 0 if nothing has been recorded.
+   */
+  public long getMean() {
+    long samples = count.get();
+    return samples == 0 ? 0 : total.get() / samples;
+  }
+
+  /**
+   * @param percentile between 0 and 100.
+   * @return the upper bound of the bucket holding the percentile, but never
+   *         more than the max, or 0 if nothing has been recorded.
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException(
+          "The percentile should be between 0 and 100, was " + percentile);
+    }
+    long[] snapshot = new long[BUCKETS];
+    long samples = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = buckets.get(i);
+      samples += snapshot[i];
+    }
+    if (samples == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(samples * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank && snapshot[i] != 0) {
+        return Math.min(upperBound(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  /**
+   * Forgets everything recorded so far.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    max.set(0);
+  }
+
+  private static long upperBound(int bucket) {
+    if (bucket == BUCKETS - 1) {
+      return Long.MAX_VALUE;
+    }
+    return bucket == 0 ? 0 : (1L << bucket) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return "count=" + getCount() + ", mean=" + getMean() + ", p50=" + getPercentile(50)
+        + ", p99=" + getPercentile(99) + ", max=" + getMax();
+  }
+}
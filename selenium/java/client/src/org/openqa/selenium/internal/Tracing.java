@@ -0,0 +1,35 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.internal;
+
+/**
+ * Names shared by everything which passes the id of a traced command along.
+ */
+public class Tracing {
+
+  /**
+   * Header carrying the id of a traced command, from the client through the
+   * hub to the node, and back on the response.
+   */
+  public static final String TRACE_HEADER = "X-Selenium-Trace-Id";
+
+  private Tracing() {
+    // Only constants
+  }
+}
@@ -20,21 +20,17 @@ limitations under the License.
 package org.openqa.selenium.remote;
 
 import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.browserlaunchers.DoNotUseProxyPac;
 
+import java.io.IOException;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -57,146 +53,177 @@ public class BeanToJsonConverter {
     if (object == null)
       return null;
 
+    StringBuilder builder = new StringBuilder();
     try {
-      Object converted = convertObject(object, MAX_DEPTH);
-      if (converted instanceof JSONObject
-          || converted instanceof JSONArray
-          || converted instanceof String
-          || converted instanceof Number) {
-        return converted.toString();
-      }
-
-      return String.valueOf(object);
-    } catch (JSONException e) {
+      convert(object, builder);
+    } catch (IOException e) {
+      // Cannot happen with a StringBuilder
       throw new WebDriverException("Unable to convert: " + object, e);
     }
+    return builder.toString();
   }
 
   /**
-   * Convert a JSON[Array|Object] into the equivalent Java Collection type
-   * (that is, List|Map) returning other objects untouched. This method is used
-   * for preparing values for use by the HttpCommandExecutor
+   * Streams the JSON representation of an object, as returned by
+   * {@link #convert(Object)}, without holding all of it in memory.
    *
-   * @param o Object to convert
-   * @return a Map, List or the unconverted Object.
+   * @param object which needs conversion
+   * @param out where to write it, left untouched if the object is null
    */
-  private Object convertUnknownObjectFromJson(Object o) {
-    if (o instanceof JSONArray) {
-      return convertJsonArray((JSONArray) o);
+  public void convert(Object object, Appendable out) throws IOException {
+    if (object == null)
+      return;
+
+    // Things which don't convert to a JSON object or array are written as
+    // plain strings at the top level.
+    if (object instanceof Boolean ||
+        object instanceof CharSequence ||
+        object instanceof Number) {
+      out.append(String.valueOf(object));
+      return;
     }
 
-    if (o instanceof JSONObject) {
-      return convertJsonObject((JSONObject) o);
+    if (object.getClass().isEnum() || object instanceof Enum) {
+      out.append(object.toString());
+      return;
     }
 
-    return o;
-  }
-
-  private Map<String, Object> convertJsonObject(JSONObject jsonObject) {
-    Map<String, Object> toReturn = new HashMap<String, Object>();
-    Iterator<?> allKeys = jsonObject.keys();
-    while (allKeys.hasNext()) {
-      String key = (String) allKeys.next();
+    if (object instanceof Date) {
+      out.append(String.valueOf(TimeUnit.MILLISECONDS.toSeconds(((Date) object).getTime())));
+      return;
+    }
 
-      try {
-        toReturn.put(key, convertUnknownObjectFromJson(jsonObject.get(key)));
-      } catch (JSONException e) {
-        throw new IllegalStateException("Unable to access key: " + key, e);
+    if (!isConvertedToJson(object)) {
+      Method toJson = getToJsonMethod(object);
+      if (toJson != null) {
+        Object converted = invokeToJson(toJson, object);
+        if (converted instanceof JSONObject
+            || converted instanceof JSONArray
+            || converted instanceof String
+            || converted instanceof Number) {
+          out.append(converted.toString());
+        } else {
+          out.append(String.valueOf(object));
+        }
+        return;
       }
     }
-    return toReturn;
+
+    writeObject(object, MAX_DEPTH, new JsonWriter(out));
   }
 
-  private List<Object> convertJsonArray(JSONArray jsonArray) {
-    List<Object> toReturn = new ArrayList<Object>();
-    for (int i = 0; i < jsonArray.length(); i++) {
-      try {
-        toReturn.add(convertUnknownObjectFromJson(jsonArray.get(i)));
-      } catch (JSONException e) {
-        throw new IllegalStateException("Cannot convert object at index: " + i, e);
-      }
-    }
-    return toReturn;
+  private boolean isConvertedToJson(Object object) {
+    return object instanceof Map
+        || object instanceof JSONObject
+        || object instanceof Collection
+        || object.getClass().isArray()
+        || object instanceof SessionId
+        || object instanceof Capabilities
+        || object instanceof DoNotUseProxyPac;
   }
 
   @SuppressWarnings({"unchecked"})
-  private Object convertObject(Object toConvert, int maxDepth) throws JSONException {
-    if (toConvert == null)
-      return null;
+  private void writeObject(Object toConvert, int maxDepth, JsonWriter out) throws IOException {
+    if (toConvert == null) {
+      out.nullValue();
+      return;
+    }
 
-    if (toConvert instanceof Boolean ||
-        toConvert instanceof CharSequence ||
-        toConvert instanceof Number) {
-      return toConvert;
+    if (toConvert instanceof Boolean) {
+      out.value((Boolean) toConvert);
+      return;
+    }
+
+    if (toConvert instanceof CharSequence) {
+      out.value((CharSequence) toConvert);
+      return;
+    }
+
+    if (toConvert instanceof Number) {
+      out.value((Number) toConvert);
+      return;
     }
 
     if (toConvert.getClass().isEnum() || toConvert instanceof Enum) {
-      return toConvert.toString();
+      out.value(toConvert.toString());
+      return;
     }
 
     if (toConvert instanceof Map) {
-      JSONObject converted = new JSONObject();
+      out.beginObject();
       for (Object objectEntry : ((Map) toConvert).entrySet()) {
-        Map.Entry<String, Object> entry = (Map.Entry) objectEntry;
-        converted.put(entry.getKey(), convertObject(entry.getValue(), maxDepth - 1));
+        Map.Entry<?, Object> entry = (Map.Entry) objectEntry;
+        out.name(String.valueOf(entry.getKey()));
+        writeObject(entry.getValue(), maxDepth - 1, out);
       }
-      return converted;
+      out.endObject();
+      return;
     }
 
-    if (toConvert instanceof JSONObject) {
-      return toConvert;
+    if (toConvert instanceof JSONObject || toConvert instanceof JSONArray) {
+      out.rawValue(toConvert.toString());
+      return;
     }
 
     if (toConvert instanceof Collection) {
-      JSONArray array = new JSONArray();
+      out.beginArray();
       for (Object o : (Collection) toConvert) {
-        array.put(convertObject(o, maxDepth - 1));
+        writeObject(o, maxDepth - 1, out);
       }
-      return array;
+      out.endArray();
+      return;
     }
 
     if (toConvert.getClass().isArray()) {
-      JSONArray converted = new JSONArray();
+      out.beginArray();
       int length = Array.getLength(toConvert);
       for (int i = 0; i < length; i++) {
-        converted.put(convertObject(Array.get(toConvert, i), maxDepth - 1));
+        writeObject(Array.get(toConvert, i), maxDepth - 1, out);
       }
-      return converted;
+      out.endArray();
+      return;
     }
 
     if (toConvert instanceof SessionId) {
-      JSONObject converted = new JSONObject();
-      converted.put("value", toConvert.toString());
-      return converted;
+      out.beginObject();
+      out.name("value").value(toConvert.toString());
+      out.endObject();
+      return;
     }
 
     if (toConvert instanceof Capabilities) {
-      return convertObject(((Capabilities) toConvert).asMap(), maxDepth - 1);
+      writeObject(((Capabilities) toConvert).asMap(), maxDepth - 1, out);
+      return;
     }
 
     if (toConvert instanceof DoNotUseProxyPac) {
-      return convertObject(((DoNotUseProxyPac) toConvert).asMap(), maxDepth -1);
+      writeObject(((DoNotUseProxyPac) toConvert).asMap(), maxDepth -1, out);
+      return;
     }
 
     if (toConvert instanceof Date) {
-      return TimeUnit.MILLISECONDS.toSeconds(((Date) toConvert).getTime());
+      out.value(TimeUnit.MILLISECONDS.toSeconds(((Date) toConvert).getTime()));
+      return;
     }
 
     Method toJson = getToJsonMethod(toConvert);
     if (toJson != null) {
-      try {
-        return toJson.invoke(toConvert);
-      } catch (IllegalArgumentException e) {
-        throw new WebDriverException(e);
-      } catch (IllegalAccessException e) {
-        throw new WebDriverException(e);
-      } catch (InvocationTargetException e) {
-        throw new WebDriverException(e);
+      Object converted = invokeToJson(toJson, toConvert);
+      if (converted == null || converted instanceof Boolean || converted instanceof Number
+          || isConvertedToJson(converted) || converted instanceof JSONArray) {
+        writeObject(converted, maxDepth, out);
+      } else {
+        out.value(String.valueOf(converted));
       }
+      return;
     }
 
     try {
-      return mapObject(toConvert, maxDepth - 1);
+      writeBean(toConvert, maxDepth - 1, out);
+    } catch (IOException e) {
+      throw e;
+    } catch (WebDriverException e) {
+      throw e;
     } catch(Exception e) {
       throw new WebDriverException(e);
     }
@@ -214,16 +241,30 @@ public class BeanToJsonConverter {
     return null;
   }
 
-  private Object mapObject(Object toConvert, int maxDepth) throws Exception {
-    if (maxDepth == 0)
-        return null;
+  private Object invokeToJson(Method toJson, Object toConvert) {
+    try {
+      return toJson.invoke(toConvert);
+    } catch (IllegalArgumentException e) {
+      throw new WebDriverException(e);
+    } catch (IllegalAccessException e) {
+      throw new WebDriverException(e);
+    } catch (InvocationTargetException e) {
+      throw new WebDriverException(e);
+    }
+  }
+
+  private void writeBean(Object toConvert, int maxDepth, JsonWriter out) throws Exception {
+    if (maxDepth == 0) {
+      out.nullValue();
+      return;
+    }
 
     // Raw object via reflection? Nope, not needed
-    JSONObject mapped = new JSONObject();
+    out.beginObject();
     for (SimplePropertyDescriptor pd :
         SimplePropertyDescriptor.getPropertyDescriptors(toConvert.getClass())) {
       if ("class".equals(pd.getName())) {
-        mapped.put("class", toConvert.getClass().getName());
+        out.name("class").value(toConvert.getClass().getName());
         continue;
       }
 
@@ -238,8 +279,9 @@ public class BeanToJsonConverter {
       readMethod.setAccessible(true);
 
       Object result = readMethod.invoke(toConvert);
-      mapped.put(pd.getName(), convertObject(result, maxDepth - 1));
+      out.name(pd.getName());
+      writeObject(result, maxDepth - 1, out);
     }
-    return mapped;
+    out.endObject();
   }
 }
@@ -136,4 +136,7 @@ public interface DriverCommand {
   String IME_IS_ACTIVATED = "imeIsActivated";
   String IME_DEACTIVATE = "imeDeactivate";
   String IME_ACTIVATE_ENGINE = "imeActivateEngine";
+
+  // Runs several commands of a session in one round trip.
+  String BATCH = "batch";
 }
@@ -19,6 +19,8 @@ package org.openqa.selenium.remote;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
@@ -55,6 +57,7 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.List;
 import java.util.Map;
 
 import static org.apache.http.protocol.ExecutionContext.HTTP_TARGET_HOST;
@@ -227,6 +230,8 @@ public class HttpCommandExecutor implements CommandExecutor {
         .put(IME_DEACTIVATE, post("/session/:sessionId/ime/deactivate"))
         .put(IME_ACTIVATE_ENGINE, post("/session/:sessionId/ime/activate"))
 
+        .put(BATCH, post("/session/:sessionId/batch"))
+
         .build();
   }
 
@@ -267,6 +272,61 @@ public class HttpCommandExecutor implements CommandExecutor {
     }
   }
 
+  /**
+   * Sends several commands for the same session in a single request. The
+   * server runs them in order, and stops at the first one which fails.
+   *
+   * @return the responses to the commands which were run. If one failed, its
+   *         response is the last one. If the batch as a whole failed, for
+   *         example because the server doesn't support batches, the only
+   *         response is the one telling why.
+   */
+  public List<Response> executeBatch(List<Command> commands) throws IOException {
+    if (commands.isEmpty()) {
+      return Lists.newArrayList();
+    }
+
+    SessionId sessionId = commands.get(0).getSessionId();
+    List<Map<String, Object>> toSend = Lists.newArrayListWithCapacity(commands.size());
+    for (Command command : commands) {
+      if (sessionId == null || !sessionId.equals(command.getSessionId())) {
+        throw new IllegalArgumentException(
+            "All the commands of a batch must be for the same session");
+      }
+      CommandInfo info = nameToUrl.get(command.getName());
+      if (info == null || BATCH.equals(command.getName())) {
+        throw new IllegalArgumentException("Cannot batch command: " + command.getName());
+      }
+
+      Map<String, Object> entry = Maps.newHashMap();
+      entry.put("method", info.verb.name());
+      entry.put("url", info.getPath(command));
+      if (info.verb == HttpVerb.POST) {
+        entry.put("parameters", command.getParameters());
+      }
+      toSend.add(entry);
+    }
+
+    Response response =
+        execute(new Command(sessionId, BATCH, ImmutableMap.of("commands", toSend)));
+    if (response.getStatus() != ErrorCodes.SUCCESS || !(response.getValue() instanceof List)) {
+      return Lists.newArrayList(response);
+    }
+
+    List<Response> responses = Lists.newArrayList();
+    for (Object raw : (List<?>) response.getValue()) {
+      Map<?, ?> map = (Map<?, ?>) raw;
+      Response single = new Response(sessionId);
+      Object status = map.get("status");
+      if (status instanceof Number) {
+        single.setStatus(((Number) status).intValue());
+      }
+      single.setValue(map.get("value"));
+      responses.add(single);
+    }
+    return responses;
+  }
+
   private HttpResponse fallBackExecute(HttpContext context, HttpUriRequest httpMethod) throws IOException {
     try {
       return client.execute(targetHost, httpMethod, context);
@@ -461,8 +521,15 @@ public class HttpCommandExecutor implements CommandExecutor {
     }
 
     public HttpUriRequest getMethod(URL base, Command command) {
+      return verb.createMethod(base.toExternalForm() + getPath(command));
+    }
+
+    /**
+     * @return the path of the command on the server, with the parameters
+     *         filled in.
+     */
+    public String getPath(Command command) {
       StringBuilder urlBuilder = new StringBuilder();
-      urlBuilder.append(base.toExternalForm());
       for (String part : url.split("/")) {
         if (part.length() == 0) {
           continue;
@@ -479,7 +546,7 @@ public class HttpCommandExecutor implements CommandExecutor {
         }
       }
 
-      return verb.createMethod(urlBuilder.toString());
+      return urlBuilder.toString();
     }
 
     private String get(String propertyName, Command command) {
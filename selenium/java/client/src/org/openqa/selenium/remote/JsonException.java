@@ -24,4 +24,8 @@ public class JsonException extends WebDriverException {
   public JsonException(JSONException e) {
     super(e);
   }
+
+  public JsonException(String message) {
+    super(message);
+  }
 }
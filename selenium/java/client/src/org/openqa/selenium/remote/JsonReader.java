@@ -0,0 +1,285 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses JSON straight from a {@link Reader} into the same values
+ * {@link JsonToBeanConverter} produces for untyped data: HashMaps,
+ * ArrayLists, Strings, Booleans, Longs, Doubles and nulls.
+ */
+class JsonReader {
+
+  private final Reader in;
+  private final char[] buffer = new char[8192];
+  private int position;
+  private int limit;
+  private long consumed;
+
+  JsonReader(Reader in) {
+    this.in = in;
+  }
+
+  /**
+   * @return whether there is anything but whitespace left to read.
+   */
+  public boolean hasValue() throws IOException {
+    return skipWhitespace() != -1;
+  }
+
+  public Object readValue() throws IOException {
+    int c = skipWhitespace();
+    switch (c) {
+      case -1:
+        throw error("Unexpected end of input");
+      case '{':
+        position++;
+        return readObject();
+      case '[':
+        position++;
+        return readArray();
+      case '"':
+      case '\'':
+        position++;
+        return readString((char) c);
+      case 't':
+        readLiteral("true");
+        return Boolean.TRUE;
+      case 'f':
+        readLiteral("false");
+        return Boolean.FALSE;
+      case 'n':
+        readLiteral("null");
+        return null;
+      default:
+        return readNumber();
+    }
+  }
+
+  private Map<String, Object> readObject() throws IOException {
+    Map<String, Object> object = new HashMap<String, Object>();
+    if (skipWhitespace() == '}') {
+      position++;
+      return object;
+    }
+
+    while (true) {
+      int quote = skipWhitespace();
+      if (quote != '"' && quote != '\'') {
+        throw error("Expected a name");
+      }
+      position++;
+      String name = readString((char) quote);
+      expect(':');
+      object.put(name, readValue());
+
+      int c = skipWhitespace();
+      position++;
+      if (c == '}') {
+        return object;
+      } else if (c != ',') {
+        throw error("Expected ',' or '}'");
+      }
+    }
+  }
+
+  private List<Object> readArray() throws IOException {
+    List<Object> array = new ArrayList<Object>();
+    if (skipWhitespace() == ']') {
+      position++;
+      return array;
+    }
+
+    while (true) {
+      array.add(readValue());
+
+      int c = skipWhitespace();
+      position++;
+      if (c == ']') {
+        return array;
+      } else if (c != ',') {
+        throw error("Expected ',' or ']'");
+      }
+    }
+  }
+
+  private String readString(char quote) throws IOException {
+    StringBuilder builder = null;
+    while (true) {
+      // Copy everything up to the next quote or escape in one go.
+      int start = position;
+      while (position < limit) {
+        char c = buffer[position];
+        if (c == quote || c == '\\') {
+          break;
+        }
+        position++;
+      }
+
+      if (position < limit && buffer[position] == quote && builder == null) {
+        String value = new String(buffer, start, position - start);
+        position++;
+        return value;
+      }
+
+      if (builder == null) {
+        builder = new StringBuilder(Math.max(16, position - start));
+      }
+      builder.append(buffer, start, position - start);
+
+      if (position == limit) {
+        if (!fill()) {
+          throw error("Unterminated string");
+        }
+        continue;
+      }
+
+      char c = buffer[position++];
+      if (c == quote) {
+        return builder.toString();
+      }
+      builder.append(readEscape());
+    }
+  }
+
+  private char readEscape() throws IOException {
+    int c = read();
+    switch (c) {
+      case 'b':
+        return '\b';
+      case 't':
+        return '\t';
+      case 'n':
+        return '\n';
+      case 'f':
+        return '\f';
+      case 'r':
+        return '\r';
+      case 'u':
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(read(), 16);
+          if (digit == -1) {
+            throw error("Illegal escape");
+          }
+          value = value * 16 + digit;
+        }
+        return (char) value;
+      case -1:
+        throw error("Unterminated string");
+      default:
+        return (char) c;
+    }
+  }
+
+  private Number readNumber() throws IOException {
+    StringBuilder builder = new StringBuilder();
+    boolean decimal = false;
+    while (true) {
+      if (position == limit && !fill()) {
+        break;
+      }
+      char c = buffer[position];
+      if (c == '.' || c == 'e' || c == 'E') {
+        decimal = true;
+      } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+        break;
+      }
+      builder.append(c);
+      position++;
+    }
+
+    String number = builder.toString();
+    if (number.length() == 0) {
+      throw error("Unexpected character");
+    }
+    try {
+      if (!decimal) {
+        try {
+          return Long.valueOf(number);
+        } catch (NumberFormatException e) {
+          // Too big for a long, fall through
+        }
+      }
+      return Double.valueOf(number);
+    } catch (NumberFormatException e) {
+      throw error("Bad number " + number);
+    }
+  }
+
+  private void readLiteral(String literal) throws IOException {
+    for (int i = 0; i < literal.length(); i++) {
+      if (read() != literal.charAt(i)) {
+        throw error("Expected " + literal);
+      }
+    }
+  }
+
+  private void expect(char expected) throws IOException {
+    if (skipWhitespace() != expected) {
+      throw error("Expected '" + expected + "'");
+    }
+    position++;
+  }
+
+  /**
+   * @return the next character which is not whitespace, without consuming it,
+   *         or -1 at the end of the input.
+   */
+  private int skipWhitespace() throws IOException {
+    while (true) {
+      if (position == limit && !fill()) {
+        return -1;
+      }
+      char c = buffer[position];
+      if (!Character.isWhitespace(c)) {
+        return c;
+      }
+      position++;
+    }
+  }
+
+  private int read() throws IOException {
+    if (position == limit && !fill()) {
+      return -1;
+    }
+    return buffer[position++];
+  }
+
+  private boolean fill() throws IOException {
+    consumed += limit;
+    position = 0;
+    limit = 0;
+    int read = in.read(buffer);
+    if (read <= 0) {
+      return false;
+    }
+    limit = read;
+    return true;
+  }
+
+  private JsonException error(String message) {
+    return new JsonException(message + " at character " + (consumed + position));
+  }
+}
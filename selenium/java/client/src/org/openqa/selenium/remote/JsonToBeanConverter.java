@@ -24,6 +24,8 @@ import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.browserlaunchers.DoNotUseProxyPac;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
@@ -45,6 +47,32 @@ public class JsonToBeanConverter {
     }
   }
 
+  /**
+   * Reads the JSON to convert from a stream. Maps are parsed as they are
+   * read, without going through a JSONObject or holding the text in memory.
+   *
+   * @return the converted value, or null if there was nothing but whitespace
+   *         to read.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T convert(Class<T> clazz, Reader reader) throws JsonException {
+    try {
+      if (Map.class.isAssignableFrom(clazz)) {
+        JsonReader json = new JsonReader(reader);
+        return json.hasValue() ? (T) json.readValue() : null;
+      }
+
+      StringBuilder builder = new StringBuilder();
+      char[] buffer = new char[4096];
+      for (int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+        builder.append(buffer, 0, read);
+      }
+      return builder.toString().trim().length() == 0 ? null : convert(clazz, builder.toString());
+    } catch (IOException e) {
+      throw new WebDriverException(e);
+    }
+  }
+
   @SuppressWarnings("unchecked")
   private <T> T convert(Class<T> clazz, Object text, int depth) throws JSONException {
     if (text == null) {
@@ -0,0 +1,239 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote;
+
+import java.io.IOException;
+
+/**
+ * Writes JSON straight to an {@link Appendable}, without building a tree of
+ * JSONObjects first. Strings and numbers are formatted the way org.json
+ * formats them.
+ *
+ * Names are only written once their value is: a null value in an object
+ * drops the name as well, as JSONObject.put does.
+ */
+class JsonWriter {
+
+  // How much of a CharSequence which isn't a String is copied at a time.
+  private static final int CHUNK = 4096;
+
+  private final Appendable out;
+  // For each open object or array, whether a value has been written in it yet.
+  // Grows with the nesting: like org.json, there is no limit to it.
+  private boolean[] hasValue = new boolean[16];
+  private int nesting;
+  private String pendingName;
+
+  JsonWriter(Appendable out) {
+    this.out = out;
+  }
+
+  public JsonWriter beginObject() throws IOException {
+    return open('{');
+  }
+
+  public JsonWriter endObject() throws IOException {
+    pendingName = null;
+    return close('}');
+  }
+
+  public JsonWriter beginArray() throws IOException {
+    return open('[');
+  }
+
+  public JsonWriter endArray() throws IOException {
+    return close(']');
+  }
+
+  public JsonWriter name(String name) {
+    pendingName = name;
+    return this;
+  }
+
+  public JsonWriter value(String value) throws IOException {
+    beforeValue();
+    quote(value);
+    return this;
+  }
+
+  /**
+   * Writes a string which doesn't have to be held in memory all at once:
+   * anything but a String is read a chunk at a time.
+   */
+  public JsonWriter value(CharSequence value) throws IOException {
+    if (value instanceof String) {
+      return value((String) value);
+    }
+
+    beforeValue();
+    out.append('"');
+    char previous = 0;
+    int length = value.length();
+    for (int start = 0; start < length; start += CHUNK) {
+      String chunk = value.subSequence(start, Math.min(length, start + CHUNK)).toString();
+      previous = quoteRun(chunk, previous);
+    }
+    out.append('"');
+    return this;
+  }
+
+  public JsonWriter value(boolean value) throws IOException {
+    beforeValue();
+    out.append(String.valueOf(value));
+    return this;
+  }
+
+  public JsonWriter value(Number value) throws IOException {
+    beforeValue();
+    out.append(numberToString(value));
+    return this;
+  }
+
+  /**
+   * Writes JSON which has already been serialized.
+   */
+  public JsonWriter rawValue(String json) throws IOException {
+    beforeValue();
+    out.append(json);
+    return this;
+  }
+
+  public JsonWriter nullValue() throws IOException {
+    if (pendingName != null) {
+      pendingName = null;
+      return this;
+    }
+    beforeValue();
+    out.append("null");
+    return this;
+  }
+
+  private JsonWriter open(char c) throws IOException {
+    beforeValue();
+    if (nesting == hasValue.length) {
+      boolean[] grown = new boolean[nesting * 2];
+      System.arraycopy(hasValue, 0, grown, 0, nesting);
+      hasValue = grown;
+    }
+    out.append(c);
+    hasValue[nesting++] = false;
+    return this;
+  }
+
+  private JsonWriter close(char c) throws IOException {
+    nesting--;
+    out.append(c);
+    return this;
+  }
+
+  private void beforeValue() throws IOException {
+    if (nesting == 0) {
+      return;
+    }
+    if (hasValue[nesting - 1]) {
+      out.append(',');
+    }
+    hasValue[nesting - 1] = true;
+    if (pendingName != null) {
+      quote(pendingName);
+      out.append(':');
+      pendingName = null;
+    }
+  }
+
+  /**
+   * Same escaping as JSONObject.quote.
+   */
+  private void quote(String string) throws IOException {
+    out.append('"');
+    quoteRun(string, (char) 0);
+    out.append('"');
+  }
+
+  /**
+   * Writes the escaped characters of a string, without the quotes.
+   *
+   * @param previous the character written before the string, if any.
+   * @return the last character of the string.
+   */
+  private char quoteRun(String string, char previous) throws IOException {
+    int length = string.length();
+    // Copy runs of characters which need no escaping in one go.
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      char c = string.charAt(i);
+      String escaped = escape(previous, c);
+      previous = c;
+      if (escaped == null) {
+        continue;
+      }
+      out.append(string, start, i).append(escaped);
+      start = i + 1;
+    }
+    out.append(string, start, length);
+    return previous;
+  }
+
+  private static String escape(char previous, char c) {
+    switch (c) {
+      case '\\':
+        return "\\\\";
+      case '"':
+        return "\\\"";
+      case '/':
+        return previous == '<' ? "\\/" : null;
+      case '\b':
+        return "\\b";
+      case '\t':
+        return "\\t";
+      case '\n':
+        return "\\n";
+      case '\f':
+        return "\\f";
+      case '\r':
+        return "\\r";
+      default:
+        if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+          String hex = "000" + Integer.toHexString(c);
+          return "\\u" + hex.substring(hex.length() - 4);
+        }
+        return null;
+    }
+  }
+
+  /**
+   * Same formatting as JSONObject.numberToString.
+   */
+  private static String numberToString(Number number) {
+    if ((number instanceof Double && (((Double) number).isInfinite() || ((Double) number).isNaN()))
+        || (number instanceof Float && (((Float) number).isInfinite() || ((Float) number).isNaN()))) {
+      throw new JsonException("JSON does not allow non-finite numbers: " + number);
+    }
+
+    String string = number.toString();
+    if (string.indexOf('.') > 0 && string.indexOf('e') < 0 && string.indexOf('E') < 0) {
+      while (string.endsWith("0")) {
+        string = string.substring(0, string.length() - 1);
+      }
+      if (string.endsWith(".")) {
+        string = string.substring(0, string.length() - 1);
+      }
+    }
+    return string;
+  }
+}
@@ -17,10 +17,21 @@ limitations under the License.
 
 package org.openqa.selenium.remote;
 
+import java.lang.ref.SoftReference;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 public class SimplePropertyDescriptor {
+  // Looking the properties up is costly, and done for every bean converted to
+  // or from JSON. The descriptors refer to their class, hence the soft
+  // reference, so that classes can still be unloaded.
+  private static final Map<Class<?>, SoftReference<SimplePropertyDescriptor[]>> cache =
+      Collections.synchronizedMap(
+          new WeakHashMap<Class<?>, SoftReference<SimplePropertyDescriptor[]>>());
+
    private String name;
    private Method readMethod;
    private Method writeMethod;
@@ -46,6 +57,17 @@ public class SimplePropertyDescriptor {
   }
 
   public static SimplePropertyDescriptor[] getPropertyDescriptors(Class<? extends Object> clazz) {
+    SoftReference<SimplePropertyDescriptor[]> reference = cache.get(clazz);
+    SimplePropertyDescriptor[] cached = reference == null ? null : reference.get();
+    if (cached == null) {
+      cached = findPropertyDescriptors(clazz);
+      cache.put(clazz, new SoftReference<SimplePropertyDescriptor[]>(cached));
+    }
+    // The descriptors never change, but callers could change the array.
+    return cached.clone();
+  }
+
+  private static SimplePropertyDescriptor[] findPropertyDescriptors(Class<?> clazz) {
     HashMap<String, SimplePropertyDescriptor> properties =
         new HashMap<String, SimplePropertyDescriptor>();
     for (Method m : clazz.getMethods()) {
@@ -20,6 +20,7 @@ package org.openqa.selenium.remote;
 import junit.framework.TestCase;
 
 import java.awt.Point;
+import java.io.StringWriter;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -29,6 +30,7 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -297,6 +299,78 @@ public class BeanToJsonConverterTest extends TestCase {
     assertEquals(TimeUnit.MILLISECONDS.toSeconds(expiry.getTime()), json.getLong("expiry"));
   }
 
+  public void testShouldEscapeStringsTheWayOrgJsonDoes() throws JSONException {
+    String awkward = "quote \" slash \\ </script> \n\t\u0001 \u0085 \u2028 caf\u00e9";
+    String json = new BeanToJsonConverter().convert(ImmutableMap.of("text", awkward));
+
+    assertEquals(new JSONObject().put("text", awkward).toString(), json);
+  }
+
+  public void testShouldFormatNumbersTheWayOrgJsonDoes() throws JSONException {
+    List<Object> numbers = Lists.<Object>newArrayList(1, 2L, 3.0, 4.50, -0.25, 1e20);
+    String json = new BeanToJsonConverter().convert(numbers);
+
+    assertEquals(new JSONArray(numbers).toString(), json);
+  }
+
+  public void testShouldLeaveOutMapEntriesWithNullValues() throws JSONException {
+    Map<String, Object> toConvert = new HashMap<String, Object>();
+    toConvert.put("cheese", null);
+    toConvert.put("list", Lists.newArrayList("a", null));
+
+    JSONObject json = new JSONObject(new BeanToJsonConverter().convert(toConvert));
+
+    assertFalse(json.has("cheese"));
+    assertEquals("[\"a\",null]", json.getJSONArray("list").toString());
+  }
+
+  public void testShouldStreamTheSameJsonAsItReturns() throws Exception {
+    Map<String, Object> toConvert = new HashMap<String, Object>();
+    toConvert.put("bean", new SimpleBean());
+    toConvert.put("session", new SessionId("some id"));
+    toConvert.put("values", new int[] {1, 2, 3});
+
+    StringWriter streamed = new StringWriter();
+    new BeanToJsonConverter().convert(toConvert, streamed);
+
+    assertEquals(new BeanToJsonConverter().convert(toConvert), streamed.toString());
+  }
+
+  public void testShouldConvertDeeplyNestedMaps() throws JSONException {
+    Map<String, Object> toConvert = new HashMap<String, Object>();
+    Map<String, Object> innermost = toConvert;
+    for (int i = 0; i < 200; i++) {
+      Map<String, Object> child = new HashMap<String, Object>();
+      innermost.put("child", child);
+      innermost = child;
+    }
+    innermost.put("depth", 200);
+
+    JSONObject json = new JSONObject(new BeanToJsonConverter().convert(toConvert));
+    for (int i = 0; i < 200; i++) {
+      json = json.getJSONObject("child");
+    }
+
+    assertEquals(200, json.getInt("depth"));
+  }
+
+  public void testShouldEscapeCharSequencesWhichAreNotStringsLikeStrings() throws JSONException {
+    // Long enough to be written in several chunks, with a "</" across the
+    // boundary between the first two.
+    StringBuilder text = new StringBuilder();
+    while (text.length() < 4095) {
+      text.append('a');
+    }
+    text.append("</script> \"quoted\" \n");
+    while (text.length() < 10000) {
+      text.append("caf\u00e9 ");
+    }
+
+    String json = new BeanToJsonConverter().convert(ImmutableMap.of("text", text));
+
+    assertEquals(new JSONObject().put("text", text.toString()).toString(), json);
+  }
+
   private static class SimpleBean {
 
     public String getFoo() {
@@ -0,0 +1,170 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the streaming converters with what the remote server used to do
+ * with org.json for large payloads: a screenshot, a page source and a long
+ * list of elements. Writing used to build a JSONObject tree, turn it into a
+ * String and encode it; reading used to collect the body line by line and
+ * parse it into a JSONObject before converting it.
+ *
+ * Run the main method; the numbers are only meaningful relative to each
+ * other.
+ */
+public class JsonCodecBenchmark {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final Map<String, Object> payloads = new HashMap<String, Object>();
+
+  public JsonCodecBenchmark() {
+    Random random = new Random(0);
+
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    StringBuilder screenshot = new StringBuilder();
+    for (int i = 0; i < 2 * 1024 * 1024; i++) {
+      screenshot.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    payloads.put("screenshot", screenshot.toString());
+
+    StringBuilder source = new StringBuilder();
+    while (source.length() < 1024 * 1024) {
+      source.append("<div class=\"row\" id=\"r").append(random.nextInt())
+          .append("\">caf\u00e9 &amp; cr\u00e8me</div>\n");
+    }
+    payloads.put("source", source.toString());
+
+    List<Object> elements = new ArrayList<Object>();
+    for (int i = 0; i < 20000; i++) {
+      elements.add(ImmutableMap.of("ELEMENT", String.valueOf(i)));
+    }
+    payloads.put("elements", elements);
+  }
+
+  private Response response(String name) {
+    Response response = new Response(new SessionId("0d2f6ac1-8b55-4ac8-9d41-3c1e0ddc4a53"));
+    response.setValue(payloads.get(name));
+    return response;
+  }
+
+  public byte[] writeWithTree(String name) throws Exception {
+    Response response = response(name);
+    Object value = response.getValue();
+    JSONObject json = new JSONObject();
+    json.put("sessionId", response.getSessionId());
+    json.put("status", response.getStatus());
+    json.put("value", value instanceof List ? new JSONArray((List) value) : value);
+    String text = json.toString();
+    return UTF_8.encode(text).array();
+  }
+
+  public byte[] writeStreaming(String name) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Writer writer = new BufferedWriter(new OutputStreamWriter(bytes, UTF_8));
+    new BeanToJsonConverter().convert(response(name), writer);
+    writer.flush();
+    return bytes.toByteArray();
+  }
+
+  public Map<?, ?> readWithTree(byte[] body) throws Exception {
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), UTF_8));
+    StringBuilder builder = new StringBuilder();
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      builder.append(line);
+    }
+    return new JsonToBeanConverter().convert(HashMap.class, builder.toString());
+  }
+
+  public Map<?, ?> readStreaming(byte[] body) throws Exception {
+    InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(body), UTF_8);
+    return new JsonToBeanConverter().convert(HashMap.class, reader);
+  }
+
+  private void run(String name, int iterations, boolean report) throws Exception {
+    byte[] body = writeStreaming(name);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      writeWithTree(name);
+    }
+    long treeWrite = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      writeStreaming(name);
+    }
+    long streamingWrite = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      readWithTree(body);
+    }
+    long treeRead = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      readStreaming(body);
+    }
+    long streamingRead = System.nanoTime() - start;
+
+    if (report) {
+      System.out.println(String.format(
+          "%-10s %5d KB  write: org.json %4d ms, streaming %4d ms  "
+              + "read: org.json %4d ms, streaming %4d ms",
+          name, body.length / 1024, millisPer(treeWrite, iterations),
+          millisPer(streamingWrite, iterations), millisPer(treeRead, iterations),
+          millisPer(streamingRead, iterations)));
+    }
+  }
+
+  private static long millisPer(long nanos, int iterations) {
+    return nanos / iterations / 1000000;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    JsonCodecBenchmark benchmark = new JsonCodecBenchmark();
+
+    for (String name : new String[] {"screenshot", "source", "elements"}) {
+      // Warm up before measuring.
+      benchmark.run(name, iterations, false);
+      benchmark.run(name, iterations, true);
+    }
+  }
+}
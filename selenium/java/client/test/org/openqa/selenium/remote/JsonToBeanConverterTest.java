@@ -19,6 +19,7 @@ package org.openqa.selenium.remote;
 
 import junit.framework.TestCase;
 
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Collections;
@@ -307,6 +308,35 @@ public class JsonToBeanConverterTest extends TestCase {
     assertThat(convertedInner.toString(), equalTo(inner.toString()));
   }
 
+  @SuppressWarnings("unchecked")
+  public void testCanReadAMapFromAStream() throws Exception {
+    String json = "{\"string\": \"caf\\u00e9 \\\"quoted\\\"\", \"int\": 1, \"double\": 1.5, "
+        + "\"bool\": true, \"nothing\": null, \"list\": [1, {\"a\": \"b\"}], \"map\": {}}";
+
+    Map<String, Object> map =
+        new JsonToBeanConverter().convert(HashMap.class, new StringReader(json));
+
+    assertThat(map, is(new JsonToBeanConverter().convert(HashMap.class, json)));
+    assertEquals("caf\u00e9 \"quoted\"", map.get("string"));
+    assertEquals(1L, map.get("int"));
+    assertEquals(1.5, map.get("double"));
+    assertTrue(map.containsKey("nothing"));
+    assertNull(map.get("nothing"));
+  }
+
+  public void testShouldReturnNullWhenTheStreamIsEmpty() throws Exception {
+    assertNull(new JsonToBeanConverter().convert(HashMap.class, new StringReader("  \n")));
+  }
+
+  public void testShouldRejectMalformedJsonFromAStream() throws Exception {
+    try {
+      new JsonToBeanConverter().convert(HashMap.class, new StringReader("{\"a\": "));
+      fail("Should have failed");
+    } catch (JsonException e) {
+      // Expected
+    }
+  }
+
   public static class SimpleBean {
 
     private String value;
@@ -4,6 +4,7 @@ import java.math.*;
 import java.security.*;
 import java.security.cert.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.security.auth.x500.*;
 
@@ -30,6 +31,7 @@ public class CertificateCreator {
 	
 	private static final HashSet<String> clientCertOidsNeverToCopy = new HashSet<String>();
 	private static final HashSet<String> clientCertDefaultOidsNotToCopy = new HashSet<String>();
+	private static final AtomicLong lastSerialNumber = new AtomicLong();
 	
 	/**
 	 * The default key generation algorithm for this package is RSA.
@@ -89,7 +91,22 @@ public class CertificateCreator {
 		clientCertDefaultOidsNotToCopy.add(OID_AUTHORITY_INFO_ACCESS);
 	}
 	
-	
+	/**
+	 * The current time in milliseconds, or one more than the last serial number handed out
+	 * if that is later: certificates generated in parallel mustn't share a serial number.
+	 */
+	private static BigInteger nextSerialNumber()
+	{
+		while (true)
+		{
+			long last = lastSerialNumber.get();
+			long next = Math.max(System.currentTimeMillis(), last + 1);
+			if (lastSerialNumber.compareAndSet(last, next)) {
+				return BigInteger.valueOf(next);
+			}
+		}
+	}
+
 	/**
 	 * Utility method for generating a "standard" server certificate. Recognized by most
 	 * browsers as valid for SSL/TLS.  These certificates are generated de novo, not from
@@ -139,7 +156,7 @@ public class CertificateCreator {
 		
 		// Firefox actually tracks serial numbers within a CA and refuses to validate if it sees duplicates
 		// This is not a secure serial number generator, (duh!) but it's good enough for our purposes.
-		v3CertGen.setSerialNumber(new BigInteger(Long.toString(System.currentTimeMillis())));
+		v3CertGen.setSerialNumber(nextSerialNumber());
 
 		v3CertGen.addExtension(
 				X509Extensions.BasicConstraints,
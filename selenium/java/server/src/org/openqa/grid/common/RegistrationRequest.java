@@ -60,6 +60,8 @@ public class RegistrationRequest {
 	public static final String MAX_SESSION = "maxSession";
 	public static final String MAX_TESTS_BEFORE_CLEAN = "maxTestBeforeClean";
 	public static final String CLEAN_SNAPSHOT = "cleanSnapshot";
+	public static final String MAX_SESSION_REUSE = "maxSessionReuse";
+	public static final String WARM_SESSION_TIMEOUT = "warmSessionTimeout";
 
 	public RegistrationRequest() {
 	}
@@ -31,6 +31,7 @@ import java.util.logging.Logger;
 import org.openqa.grid.internal.exception.CapabilityNotPresentOnTheGridException;
 import org.openqa.grid.internal.listeners.Prioritizer;
 import org.openqa.grid.internal.listeners.RegistrationListener;
+import org.openqa.grid.internal.metrics.HubMetrics;
 import org.openqa.grid.web.Hub;
 import org.openqa.grid.web.servlet.handler.RequestHandler;
 
@@ -60,6 +61,7 @@ public class Registry {
 	private final Set<TestSession> activeTestSessions = new CopyOnWriteArraySet<TestSession>();
 	private Thread matcherThread;
 	private boolean stop = false;
+	private final HubMetrics metrics = new HubMetrics(this);
 
 
   private Registry() {
@@ -317,4 +319,13 @@ public class Registry {
 		return prioritizer;
 	}
 
+	/**
+	 * 
+	 * @return the metrics about the queue, the slots and the forwarded
+	 *         commands of this registry.
+	 */
+	public HubMetrics getMetrics() {
+		return metrics;
+	}
+
 }
@@ -54,6 +54,12 @@ public class RemoteProxy implements Comparable<RemoteProxy> {
 	// no timeout
 	private int cleanUpCycle = -1;
 	private int timeOut = -1;
+	// how many times a remote session can be handed to a new test. 0 means
+	// every test gets a new session.
+	private int maxSessionReuse = 0;
+	// how many ms a remote session kept for the next test can wait for one
+	// before it's closed. 5 minutes by default.
+	private int warmSessionTimeout = 5 * 60 * 1000;
 
 	private static final Logger log = Logger.getLogger(RemoteProxy.class.getName());
 
@@ -127,6 +133,8 @@ public class RemoteProxy implements Comparable<RemoteProxy> {
 		maxConcurrentSession = request.getConfigAsInt(RegistrationRequest.MAX_SESSION, 1);
 		cleanUpCycle = request.getConfigAsInt(RegistrationRequest.CLEAN_UP_CYCLE, -1);
 		timeOut = request.getConfigAsInt(RegistrationRequest.TIME_OUT, -1);
+		maxSessionReuse = request.getConfigAsInt(RegistrationRequest.MAX_SESSION_REUSE, 0);
+		warmSessionTimeout = request.getConfigAsInt(RegistrationRequest.WARM_SESSION_TIMEOUT, warmSessionTimeout);
 
 		List<Map<String, Object>> capabilities = request.getCapabilities();
 
@@ -148,6 +156,13 @@ public class RemoteProxy implements Comparable<RemoteProxy> {
 				new Thread(new CleanUpThread(this)).start();
 			}
 		}
+
+		if (maxSessionReuse > 0 && warmSessionTimeout > 0) {
+			log.fine("starting warm session cleanup thread");
+			Thread thread = new Thread(new WarmSessionCleanUpThread(this));
+			thread.setDaemon(true);
+			thread.start();
+		}
 	}
 	private boolean stop = false;
 	public void teardown() {
@@ -181,6 +196,9 @@ public class RemoteProxy implements Comparable<RemoteProxy> {
 								log.warning("session " + session + " has TIMED OUT and will be released");
 								((TimeoutListener) proxy).beforeRelease(session);
 								session.terminate();
+								if (registry != null) {
+									registry.getMetrics().sessionTimedOut();
+								}
 							}
 						}
 					} catch (Throwable t) {
@@ -191,6 +209,38 @@ public class RemoteProxy implements Comparable<RemoteProxy> {
 		}
 	}
 
+	/**
+	 * closes the remote sessions kept warm on the slots that no test took in
+	 * time.
+	 */
+	private class WarmSessionCleanUpThread implements Runnable {
+		private RemoteProxy proxy;
+
+		public WarmSessionCleanUpThread(RemoteProxy proxy) {
+			this.proxy = proxy;
+		}
+
+		public void run() {
+			int cycle = Math.max(1, warmSessionTimeout / 2);
+			while (!proxy.stop) {
+				try {
+					Thread.sleep(cycle);
+				} catch (InterruptedException e) {
+					log.severe("warm session clean up thread died. " + e.getMessage());
+					return;
+				}
+
+				for (TestSlot slot : testSlots) {
+					try {
+						slot.discardIdleWarmSession();
+					} catch (Throwable t) {
+						log.warning("Error closing the idle warm session of slot " + slot + t.getMessage());
+					}
+				}
+			}
+		}
+	}
+
 	public Map<String, Object> getConfig() {
 		return config;
 	}
@@ -369,6 +419,25 @@ public class RemoteProxy implements Comparable<RemoteProxy> {
 		return timeOut;
 	}
 
+	/**
+	 * @see TestSlot#keepWarm(TestSession)
+	 * @return the number of times a remote session can be reused by another
+	 *         test after the one it was created for. 0 if sessions are never
+	 *         reused.
+	 */
+	public int getMaxSessionReuse() {
+		return maxSessionReuse;
+	}
+
+	/**
+	 * @see TestSlot#discardIdleWarmSession()
+	 * @return how many ms a remote session kept warm waits for the next test
+	 *         before it's closed.
+	 */
+	public int getWarmSessionTimeout() {
+		return warmSessionTimeout;
+	}
+
 	
 
 }
@@ -34,8 +34,13 @@ import org.apache.http.message.BasicHttpEntityEnclosingRequest;
 import org.apache.http.message.BasicHttpRequest;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.openqa.grid.internal.listeners.CommandListener;
 import org.openqa.grid.web.Hub;
+import org.openqa.selenium.internal.Tracing;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -51,6 +56,7 @@ import java.net.URL;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
 import java.util.logging.Logger;
 
@@ -67,6 +73,11 @@ public class TestSession {
 
 	private static final Logger log = Logger.getLogger(TestSession.class.getName());
 
+	// the nodes running webdriver log their timings for the commands which
+	// come with a trace id. Fraction of the commands the hub picks for tracing itself.
+	private static final double TRACE_SAMPLE = Double.parseDouble(System.getProperty("grid.trace.sample", "0"));
+	private static final Random traceRandom = new Random();
+
   private final String internalKey;
 	private final TestSlot slot;
 	private String externalKey = null;
@@ -74,6 +85,11 @@ public class TestSession {
 	private final Map<String, Object> requestedCapabilities;
 	private Map<String, Object> objects = new HashMap<String, Object>();
 	private volatile boolean ignoreTimeout = false;
+	// remote session left running on the slot by the previous test.
+	private String warmSession = null;
+	private boolean warmSessionMatches = false;
+	// number of tests that used the remote session before this one.
+	private int reuseCount = 0;
 
 	public String getInternalKey() {
 		return internalKey;
@@ -230,6 +246,35 @@ public class TestSession {
 	 * @throws IOException
 	 */
 	public String forward(HttpServletRequest request, HttpServletResponse response, String content, boolean interceptResponseBody) throws IOException {
+		long start = System.currentTimeMillis();
+		String traceId = getTraceId(request);
+		try {
+			return doForward(request, response, content, interceptResponseBody, traceId);
+		} finally {
+			long elapsed = System.currentTimeMillis() - start;
+			Registry registry = slot.getProxy().getRegistry();
+			if (registry != null) {
+				registry.getMetrics().commandForwarded(elapsed);
+			}
+			if (traceId != null) {
+				log.info("Trace " + traceId + ": " + request.getMethod() + " " + request.getRequestURI() + " forwarded to " + slot.getProxy().getRemoteURL() + " in " + elapsed + "ms");
+			}
+		}
+	}
+
+	/**
+	 * @return the trace id the client sent, a new one if the command is picked
+	 *         for tracing, or null.
+	 */
+	private static String getTraceId(HttpServletRequest request) {
+		String traceId = request.getHeader(Tracing.TRACE_HEADER);
+		if (traceId == null && TRACE_SAMPLE > 0 && traceRandom.nextDouble() < TRACE_SAMPLE) {
+			traceId = Long.toHexString(traceRandom.nextLong());
+		}
+		return traceId;
+	}
+
+	private String doForward(HttpServletRequest request, HttpServletResponse response, String content, boolean interceptResponseBody, String traceId) throws IOException {
 		String res = null;
 
 		if (slot.getProxy() instanceof CommandListener) {
@@ -270,6 +315,9 @@ public class TestSession {
 				continue; // already set
 			proxyRequest.setHeader(headerName, request.getHeader(headerName));
 		}
+		if (traceId != null) {
+			proxyRequest.setHeader(Tracing.TRACE_HEADER, traceId);
+		}
 
 		DefaultHttpClient client = getClient(); /*
 												 * new DefaultHttpClient();
@@ -291,6 +339,10 @@ public class TestSession {
 		HttpResponse proxyResponse = client.execute(host, proxyRequest);
 
 		response.setStatus(proxyResponse.getStatusLine().getStatusCode());
+		if (traceId != null) {
+			// in case the node doesn't pass it back itself.
+			response.setHeader(Tracing.TRACE_HEADER, traceId);
+		}
 		HttpEntity responseBody = proxyResponse.getEntity();
 		for (Header header : proxyResponse.getAllHeaders()) {
 			String name = header.getName();
@@ -410,11 +462,18 @@ public class TestSession {
 	 * @return true is the remote replied successfully to the request.
 	 */
 	public boolean sendDeleteSessionRequest() {
-		if (externalKey == null) {
+		return sendDeleteSessionRequest(externalKey);
+	}
+
+	private boolean sendDeleteSessionRequest(String key) {
+		return sendDeleteSessionRequest(slot.getProxy().getRemoteURL(), key);
+	}
+
+	static boolean sendDeleteSessionRequest(URL remoteURL, String key) {
+		if (key == null) {
 			return false;
 		}
-		URL remoteURL = slot.getProxy().getRemoteURL();
-		String uri = remoteURL.toString() + "/session/" + externalKey;
+		String uri = remoteURL.toString() + "/session/" + key;
 		HttpRequest request = new BasicHttpRequest("DELETE", uri);
 		DefaultHttpClient client = new DefaultHttpClient();
 		boolean ok = false;
@@ -434,6 +493,174 @@ public class TestSession {
 		return ok;
 	}
 
+	/**
+	 * Offer a remote session left running by the previous test of the slot.
+	 * 
+	 * @param key
+	 *            the external key of the remote session
+	 * @param reuses
+	 *            the number of tests that already used it
+	 * @param matches
+	 *            true if it was created for the capabilities this session asks
+	 *            for.
+	 */
+	void setWarmSession(String key, int reuses, boolean matches) {
+		this.warmSession = key;
+		this.reuseCount = reuses;
+		this.warmSessionMatches = matches;
+	}
+
+	/**
+	 * 
+	 * @return the external key of the remote session left by the previous
+	 *         test on the slot, null if there is none.
+	 */
+	public String getWarmSession() {
+		return warmSession;
+	}
+
+	/**
+	 * 
+	 * @return true if there is a warm session on the slot that was created
+	 *         for the same capabilities as the ones requested for this session.
+	 */
+	public boolean canReuseWarmSession() {
+		return warmSession != null && warmSessionMatches;
+	}
+
+	/**
+	 * use the warm session as the remote session of this test session instead
+	 * of asking the remote for a new one.
+	 */
+	public void adoptWarmSession() {
+		if (!canReuseWarmSession()) {
+			throw new IllegalStateException("No warm session matching " + requestedCapabilities + " for " + this);
+		}
+		externalKey = warmSession;
+		warmSession = null;
+		reuseCount++;
+	}
+
+	/**
+	 * close the warm session on the remote, it can't be used for this test.
+	 */
+	public void discardWarmSession() {
+		if (warmSession == null) {
+			return;
+		}
+		String key = warmSession;
+		warmSession = null;
+		reuseCount = 0;
+		if (!sendDeleteSessionRequest(key)) {
+			log.warning("Error closing warm session " + key + " on " + slot.getProxy());
+		}
+	}
+
+	/**
+	 * 
+	 * @return the number of tests that used the remote session before this
+	 *         one. 0 for a new remote session.
+	 */
+	public int getReuseCount() {
+		return reuseCount;
+	}
+
+	/**
+	 * 
+	 * @param key
+	 * @return true if the remote knows the web driver session.
+	 */
+	public boolean isRemoteSessionAlive(String key) {
+		return sendToRemote("GET", "/session/" + key, null);
+	}
+
+	/**
+	 * Resets the state of the browser of this session so that another test
+	 * can use it : an open alert is dismissed, the cookies, local and session
+	 * storage of the page shown in each window are deleted, every window but
+	 * one is closed and the browser goes back to a blank page.
+	 * 
+	 * As the protocol only reaches the storage of the pages shown, that of
+	 * other sites visited by the test is left.
+	 * 
+	 * @return true if the remote accepted all the reset commands. If not, the
+	 *         session shouldn't be reused.
+	 */
+	public boolean resetRemoteState() {
+		if (externalKey == null) {
+			return false;
+		}
+		String session = "/session/" + externalKey;
+		// fails when there is no alert, which is the usual case.
+		sendToRemote("POST", session + "/dismiss_alert", null);
+
+		JSONArray handles;
+		try {
+			String reply = readFromRemote("GET", session + "/window_handles", null);
+			if (reply == null) {
+				return false;
+			}
+			handles = new JSONObject(reply).getJSONArray("value");
+		} catch (JSONException e) {
+			log.warning("Cannot read the windows of " + this + " : " + e.getMessage());
+			return false;
+		}
+		if (handles.length() == 0) {
+			return false;
+		}
+		for (int i = 0; i < handles.length(); i++) {
+			String window = JSONObject.quote(handles.optString(i));
+			boolean last = i == handles.length() - 1;
+			if (!sendToRemote("POST", session + "/window", "{\"name\":" + window + "}")
+					|| !sendToRemote("DELETE", session + "/cookie", null)
+					|| !sendToRemote("DELETE", session + "/local_storage", null)
+					|| !sendToRemote("DELETE", session + "/session_storage", null)
+					|| (!last && !sendToRemote("DELETE", session + "/window", null))) {
+				return false;
+			}
+		}
+		return sendToRemote("POST", session + "/url", "{\"url\":\"about:blank\"}");
+	}
+
+	/**
+	 * sends a web driver command to the remote, outside of any client request.
+	 * 
+	 * @return true if the remote replied with a 2xx.
+	 */
+	private boolean sendToRemote(String method, String path, String json) {
+		return readFromRemote(method, path, json) != null;
+	}
+
+	/**
+	 * sends a web driver command to the remote, outside of any client request.
+	 * 
+	 * @return the body of the reply if the remote replied with a 2xx, null
+	 *         otherwise.
+	 */
+	private String readFromRemote(String method, String path, String json) {
+		URL remoteURL = slot.getProxy().getRemoteURL();
+		String uri = remoteURL.toString() + path;
+		HttpRequest request;
+		try {
+			if (json != null) {
+				BasicHttpEntityEnclosingRequest r = new BasicHttpEntityEnclosingRequest(method, uri);
+				StringEntity entity = new StringEntity(json, "UTF-8");
+				entity.setContentType("application/json; charset=utf-8");
+				r.setEntity(entity);
+				request = r;
+			} else {
+				request = new BasicHttpRequest(method, uri);
+			}
+			HttpResponse response = getClient().execute(new HttpHost(remoteURL.getHost(), remoteURL.getPort()), request);
+			String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), "UTF-8");
+			int code = response.getStatusLine().getStatusCode();
+			return code >= 200 && code <= 299 ? body : null;
+		} catch (Throwable t) {
+			log.warning("Error sending " + method + " " + uri + " : " + t.getMessage());
+			return null;
+		}
+	}
+
 	/**
 	 * Sends a cmd=testComplete command to the remote, following selenium1
 	 * protocol.
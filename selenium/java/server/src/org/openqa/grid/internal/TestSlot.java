@@ -48,6 +48,13 @@ public class TestSlot {
 	private final CapabilityMatcher matcher;
 	private TestSession currentSession;
 
+	// remote session left running by the last test, to be handed to the next
+	// one. null if there is none.
+	private String warmSession;
+	private Map<String, Object> warmCapabilities;
+	private int warmSessionReuses;
+	private long warmSince;
+
 	private final Lock lock = new ReentrantLock();
 	boolean beingReleased = false;
 
@@ -95,6 +102,12 @@ public class TestSlot {
 			} else {
 				if (matches(desiredCapabilities)) {
 					TestSession session = new TestSession(this, desiredCapabilities);
+					if (warmSession != null) {
+						boolean sameCapabilities = desiredCapabilities != null && desiredCapabilities.equals(warmCapabilities);
+						session.setWarmSession(warmSession, warmSessionReuses, sameCapabilities);
+						warmSession = null;
+						warmCapabilities = null;
+					}
 					currentSession = session;
 					return session;
 				} else {
@@ -117,6 +130,87 @@ public class TestSlot {
 		return matcher.matches(capabilities, desiredCapabilities);
 	}
 
+	/**
+	 * 
+	 * @param session
+	 * @return true if the remote session of this test session can be kept
+	 *         running for the next test once the test is over.
+	 */
+	public boolean canKeepWarm(TestSession session) {
+		return session != null && session == currentSession && session.getExternalKey() != null
+				&& session.getReuseCount() < proxy.getMaxSessionReuse();
+	}
+
+	/**
+	 * Keep the remote session of the test running on this slot after the test
+	 * is released. The next test session created on this slot will be offered
+	 * the remote session, and can take it if it asks for the same
+	 * capabilities.
+	 * 
+	 * The remote state has to be reset by the caller first.
+	 * 
+	 * @see TestSession#resetRemoteState()
+	 * @param session
+	 * @return true if the remote session is kept, false if the proxy doesn't
+	 *         allow it to be reused any more.
+	 */
+	public boolean keepWarm(TestSession session) {
+		try {
+			lock.lock();
+			if (!canKeepWarm(session)) {
+				return false;
+			}
+			warmSession = session.getExternalKey();
+			warmCapabilities = session.getRequestedCapabilities();
+			warmSessionReuses = session.getReuseCount();
+			warmSince = System.currentTimeMillis();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 
+	 * @return the external key of the remote session kept for the next test,
+	 *         null if there is none.
+	 */
+	public String getWarmSession() {
+		try {
+			lock.lock();
+			return warmSession;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Close the remote session kept warm on this slot if no test took it
+	 * within {@link RemoteProxy#getWarmSessionTimeout()}, so that it doesn't
+	 * hold a browser on the remote forever.
+	 * 
+	 * @return true if a warm session was closed.
+	 */
+	boolean discardIdleWarmSession() {
+		String key;
+		try {
+			lock.lock();
+			if (warmSession == null || System.currentTimeMillis() - warmSince <= proxy.getWarmSessionTimeout()) {
+				return false;
+			}
+			key = warmSession;
+			warmSession = null;
+			warmCapabilities = null;
+		} finally {
+			lock.unlock();
+		}
+		log.fine("closing warm session " + key + " on " + proxy + ", no test took it");
+		if (!TestSession.sendDeleteSessionRequest(proxy.getRemoteURL(), key)) {
+			log.warning("Error closing warm session " + key + " on " + proxy);
+		}
+		return true;
+	}
+
 	/**
 	 * get the test session currently executed on this test slot.
 	 * 
@@ -0,0 +1,336 @@
+/*
+Copyright 2007-2011 WebDriver committers
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package org.openqa.grid.internal.metrics;
+
+import static org.openqa.grid.common.RegistrationRequest.APP;
+import static org.openqa.grid.common.RegistrationRequest.BROWSER;
+import static org.openqa.grid.common.RegistrationRequest.PLATFORM;
+import static org.openqa.grid.common.RegistrationRequest.VERSION;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.RemoteProxy;
+import org.openqa.grid.web.servlet.handler.RequestHandler;
+import org.openqa.selenium.internal.LatencyHistogram;
+
+/**
+ * Numbers about what the hub is doing : how many requests are waiting for a
+ * slot, how long they wait, how busy the proxies are, and how long it takes to
+ * forward a command to a remote.
+ *
+ * The counters are updated by the registry, the request handlers and the test
+ * sessions. The gauges ( queue depth, slot usage ) are computed from the
+ * registry state when asked for.
+ *
+ * Exposed as JSON by {@link org.openqa.grid.web.servlet.MetricsServlet} and
+ * registered in JMX by the hub.
+ */
+public class HubMetrics implements HubMetricsMBean {
+
+	private final Registry registry;
+
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private final LatencyHistogram forwardLatency = new LatencyHistogram();
+	private final LatencyHistogram processLatency = new LatencyHistogram();
+	private final AtomicLong timeoutReleases = new AtomicLong();
+	private final AtomicLong sessionsReused = new AtomicLong();
+
+	public HubMetrics(Registry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * a new session request has been assigned a test session.
+	 *
+	 * @param waitedMillis
+	 *            time since the request was added to the queue of the registry.
+	 */
+	public void sessionAssigned(long waitedMillis) {
+		queueWait.record(waitedMillis);
+	}
+
+	/**
+	 * a command has been forwarded to a remote and the response sent back to
+	 * the client.
+	 *
+	 * @param millis
+	 */
+	public void commandForwarded(long millis) {
+		forwardLatency.record(millis);
+	}
+
+	/**
+	 * a request sent by a client has been processed by the hub, including the
+	 * time spent waiting for a slot for a new session request.
+	 * 
+	 * @param millis
+	 */
+	public void requestProcessed(long millis) {
+		processLatency.record(millis);
+	}
+
+	/**
+	 * a new session request has been given a warm remote session instead of a
+	 * new one.
+	 */
+	public void sessionReused() {
+		sessionsReused.incrementAndGet();
+	}
+
+	/**
+	 * a test session has been released because it timed out.
+	 */
+	public void sessionTimedOut() {
+		timeoutReleases.incrementAndGet();
+	}
+
+	public LatencyHistogram getQueueWait() {
+		return queueWait;
+	}
+
+	public LatencyHistogram getForwardLatency() {
+		return forwardLatency;
+	}
+
+	public LatencyHistogram getProcessLatency() {
+		return processLatency;
+	}
+
+	/**
+	 * the number of new session requests waiting, grouped by the capability
+	 * they're waiting for.
+	 *
+	 * @see HubMetrics#getCapabilityKey(Map)
+	 * @return capability key -> number of requests waiting.
+	 */
+	public Map<String, Integer> getQueueDepthsPerCapability() {
+		Map<String, Integer> res = new TreeMap<String, Integer>();
+		for (RequestHandler request : getQueuedRequests()) {
+			String key = getCapabilityKey(request.getDesiredCapabilities());
+			Integer current = res.get(key);
+			res.put(key, current == null ? 1 : current + 1);
+		}
+		return res;
+	}
+
+	/**
+	 * a short, stable description of a capability, built from the browser (
+	 * or app ), version and platform. The other keys ( profiles, proxy
+	 * settings ... ) are ignored.
+	 *
+	 * @param capability
+	 * @return
+	 */
+	public static String getCapabilityKey(Map<String, Object> capability) {
+		if (capability == null) {
+			return "unknown";
+		}
+		StringBuilder b = new StringBuilder();
+		Object name = capability.containsKey(BROWSER) ? capability.get(BROWSER) : capability.get(APP);
+		b.append(name == null ? "unknown" : name);
+		if (capability.get(VERSION) != null && !"".equals(capability.get(VERSION))) {
+			b.append(" ").append(capability.get(VERSION));
+		}
+		if (capability.get(PLATFORM) != null) {
+			b.append(" ").append(capability.get(PLATFORM));
+		}
+		return b.toString();
+	}
+
+	private List<RequestHandler> getQueuedRequests() {
+		try {
+			registry.getLock().lock();
+			return new ArrayList<RequestHandler>(registry.getNewSessionRequests());
+		} finally {
+			registry.getLock().unlock();
+		}
+	}
+
+	public int getQueueDepth() {
+		return getQueuedRequests().size();
+	}
+
+	public String getQueueDepthPerCapability() {
+		return getQueueDepthsPerCapability().toString();
+	}
+
+	public int getActiveSessions() {
+		return registry.getActiveSessions().size();
+	}
+
+	public int getTotalSlots() {
+		int total = 0;
+		for (RemoteProxy proxy : registry.getAllProxies()) {
+			total += proxy.getTestSlots().size();
+		}
+		return total;
+	}
+
+	public int getUsedSlots() {
+		int used = 0;
+		for (RemoteProxy proxy : registry.getAllProxies()) {
+			used += proxy.getTotalUsed();
+		}
+		return used;
+	}
+
+	public int getRegisteredProxies() {
+		return registry.getAllProxies().size();
+	}
+
+	public long getSessionsAssigned() {
+		return queueWait.getCount();
+	}
+
+	public long getQueueWaitMean() {
+		return queueWait.getMean();
+	}
+
+	public long getQueueWaitP50() {
+		return queueWait.getPercentile(50);
+	}
+
+	public long getQueueWaitP99() {
+		return queueWait.getPercentile(99);
+	}
+
+	public long getQueueWaitMax() {
+		return queueWait.getMax();
+	}
+
+	public long getCommandsForwarded() {
+		return forwardLatency.getCount();
+	}
+
+	public long getForwardLatencyMean() {
+		return forwardLatency.getMean();
+	}
+
+	public long getForwardLatencyP50() {
+		return forwardLatency.getPercentile(50);
+	}
+
+	public long getForwardLatencyP99() {
+		return forwardLatency.getPercentile(99);
+	}
+
+	public long getForwardLatencyMax() {
+		return forwardLatency.getMax();
+	}
+
+	public long getRequestsProcessed() {
+		return processLatency.getCount();
+	}
+
+	public long getProcessLatencyP50() {
+		return processLatency.getPercentile(50);
+	}
+
+	public long getProcessLatencyP99() {
+		return processLatency.getPercentile(99);
+	}
+
+	public long getTimeoutReleases() {
+		return timeoutReleases.get();
+	}
+
+	public long getSessionsReused() {
+		return sessionsReused.get();
+	}
+
+	public void reset() {
+		queueWait.reset();
+		forwardLatency.reset();
+		processLatency.reset();
+		timeoutReleases.set(0);
+		sessionsReused.set(0);
+	}
+
+	/**
+	 * @return a snapshot of all the metrics.
+	 */
+	public JSONObject toJSON() {
+		try {
+			JSONObject res = new JSONObject();
+
+			JSONObject queue = new JSONObject();
+			Map<String, Integer> depths = getQueueDepthsPerCapability();
+			int depth = 0;
+			for (Integer i : depths.values()) {
+				depth += i;
+			}
+			queue.put("depth", depth);
+			queue.put("depthPerCapability", depths);
+			queue.put("wait", toJSON(queueWait));
+			res.put("queue", queue);
+
+			JSONObject sessions = new JSONObject();
+			sessions.put("active", getActiveSessions());
+			sessions.put("assigned", getSessionsAssigned());
+			sessions.put("timeoutReleases", getTimeoutReleases());
+			sessions.put("reused", getSessionsReused());
+			res.put("sessions", sessions);
+
+			res.put("forward", toJSON(forwardLatency));
+			res.put("process", toJSON(processLatency));
+
+			JSONArray proxies = new JSONArray();
+			int total = 0;
+			int used = 0;
+			for (RemoteProxy proxy : registry.getAllProxies()) {
+				JSONObject p = new JSONObject();
+				int slots = proxy.getTestSlots().size();
+				int busy = proxy.getTotalUsed();
+				p.put("url", String.valueOf(proxy.getRemoteURL()));
+				p.put("totalSlots", slots);
+				p.put("usedSlots", busy);
+				p.put("maxSession", proxy.getMaxNumberOfConcurrentTestSessions());
+				p.put("utilization", slots == 0 ? 0 : (double) busy / slots);
+				proxies.put(p);
+				total += slots;
+				used += busy;
+			}
+			JSONObject slots = new JSONObject();
+			slots.put("total", total);
+			slots.put("used", used);
+			slots.put("utilization", total == 0 ? 0 : (double) used / total);
+			res.put("slots", slots);
+			res.put("proxies", proxies);
+
+			return res;
+		} catch (JSONException e) {
+			throw new RuntimeException("Error encoding the metrics to JSON " + e.getMessage(), e);
+		}
+	}
+
+	private static JSONObject toJSON(LatencyHistogram histogram) throws JSONException {
+		JSONObject res = new JSONObject();
+		res.put("count", histogram.getCount());
+		res.put("mean", histogram.getMean());
+		res.put("p50", histogram.getPercentile(50));
+		res.put("p99", histogram.getPercentile(99));
+		res.put("max", histogram.getMax());
+		return res;
+	}
+}
@@ -0,0 +1,66 @@
+/*
+Copyright 2007-2011 WebDriver committers
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package org.openqa.grid.internal.metrics;
+
+/**
+ * JMX view of the hub metrics. All the durations are in milliseconds.
+ */
+public interface HubMetricsMBean {
+
+	int getQueueDepth();
+
+	int getActiveSessions();
+
+	int getTotalSlots();
+
+	int getUsedSlots();
+
+	int getRegisteredProxies();
+
+	long getSessionsAssigned();
+
+	long getQueueWaitMean();
+
+	long getQueueWaitP50();
+
+	long getQueueWaitP99();
+
+	long getQueueWaitMax();
+
+	long getCommandsForwarded();
+
+	long getForwardLatencyMean();
+
+	long getForwardLatencyP50();
+
+	long getForwardLatencyP99();
+
+	long getForwardLatencyMax();
+
+	long getRequestsProcessed();
+
+	long getProcessLatencyP50();
+
+	long getProcessLatencyP99();
+
+	long getTimeoutReleases();
+
+	long getSessionsReused();
+
+	String getQueueDepthPerCapability();
+
+	void reset();
+}
@@ -92,6 +92,28 @@ public abstract class SelfRegisteringRemote {
 		config.put(RegistrationRequest.CLEAN_UP_CYCLE, cycleMillis);
 	}
 
+	/**
+	 * allow the hub to keep the browser started for a test, reset it, and give
+	 * it to the next test asking for the same capabilities instead of starting
+	 * a new one.
+	 * 
+	 * @param maxReuse
+	 *            how many tests can reuse a browser before it's really closed.
+	 *            0 to always start a new browser.
+	 */
+	public void setMaxSessionReuse(int maxReuse) {
+		config.put(RegistrationRequest.MAX_SESSION_REUSE, maxReuse);
+	}
+
+	/**
+	 * @param timeoutMillis
+	 *            how long a browser kept for the next test can wait for one
+	 *            before it's closed.
+	 */
+	public void setWarmSessionTimeout(long timeoutMillis) {
+		config.put(RegistrationRequest.WARM_SESSION_TIMEOUT, timeoutMillis);
+	}
+
 	public int getPort() {
 		return port;
 	}
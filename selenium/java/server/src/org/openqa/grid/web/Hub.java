@@ -19,13 +19,17 @@ import com.google.common.collect.Maps;
 import org.openqa.grid.internal.Registry;
 import org.openqa.grid.web.servlet.ConsoleServlet;
 import org.openqa.grid.web.servlet.DriverServlet;
+import org.openqa.grid.web.servlet.MetricsServlet;
 import org.openqa.grid.web.servlet.RegistrationServlet;
 import org.openqa.grid.web.servlet.ResourceServlet;
 import org.openqa.jetty.http.SocketListener;
 import org.openqa.jetty.jetty.Server;
 import org.openqa.jetty.jetty.servlet.WebApplicationContext;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.Servlet;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -139,6 +143,7 @@ public class Hub {
       root.setAttribute(Registry.KEY, registry);
 
       root.addServlet("/grid/console/*", ConsoleServlet.class.getName());
+      root.addServlet("/grid/metrics/*", MetricsServlet.class.getName());
       root.addServlet("/grid/register/*", RegistrationServlet.class.getName());
       root.addServlet("/grid/driver/*", DriverServlet.class.getName());
       root.addServlet("/selenium-server/driver/*", DriverServlet.class.getName());
@@ -164,12 +169,53 @@ public class Hub {
 	public void start() throws Exception {
     initServer();
     server.start();
+    registerMetrics();
 	}
 
 	public void stop() throws Exception {
+		unregisterMetrics();
 		server.stop();
 	}
 
+	/**
+	 * the name the registry metrics are registered under in JMX. Includes the
+	 * port so that several hubs can run in the same JVM.
+	 * 
+	 * @return
+	 */
+	public ObjectName getMetricsObjectName() {
+		try {
+			return new ObjectName("org.openqa.grid:type=HubMetrics,port=" + port);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void registerMetrics() {
+		try {
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = getMetricsObjectName();
+			if (mbs.isRegistered(name)) {
+				mbs.unregisterMBean(name);
+			}
+			mbs.registerMBean(registry.getMetrics(), name);
+		} catch (Exception e) {
+			log.warning("Cannot register the hub metrics in JMX : " + e.getMessage());
+		}
+	}
+
+	private void unregisterMetrics() {
+		try {
+			MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = getMetricsObjectName();
+			if (mbs.isRegistered(name)) {
+				mbs.unregisterMBean(name);
+			}
+		} catch (Exception e) {
+			log.warning("Cannot unregister the hub metrics from JMX : " + e.getMessage());
+		}
+	}
+
 	public URL getUrl() {
 		try {
 			return new URL("http://" + getHost() + ":" + getPort());
@@ -59,7 +59,12 @@ public class DriverServlet extends RegistryBasedServlet {
 	}
 
 	protected void process(HttpServletRequest request, HttpServletResponse response) throws IOException {
-		RequestHandler req = RequestHandler.createHandler(request, response, getRegistry());
-		req.process();
+		long start = System.currentTimeMillis();
+		try {
+			RequestHandler req = RequestHandler.createHandler(request, response, getRegistry());
+			req.process();
+		} finally {
+			getRegistry().getMetrics().requestProcessed(System.currentTimeMillis() - start);
+		}
 	}
 }
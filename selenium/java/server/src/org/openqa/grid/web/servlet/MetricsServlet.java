@@ -0,0 +1,72 @@
+/*
+Copyright 2007-2011 WebDriver committers
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package org.openqa.grid.web.servlet;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.metrics.HubMetrics;
+
+/**
+ * Returns the {@link HubMetrics} of the registry as JSON. Meant to be polled
+ * by monitoring / autoscaling tools.
+ *
+ * POST with reset=true resets the counters after the snapshot is taken.
+ */
+public class MetricsServlet extends RegistryBasedServlet {
+
+	private static final long serialVersionUID = -2406361543316584823L;
+
+	public MetricsServlet() {
+		this(null);
+	}
+
+	public MetricsServlet(Registry registry) {
+		super(registry);
+	}
+
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		process(request, response, false);
+	}
+
+	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		process(request, response, "true".equals(request.getParameter("reset")));
+	}
+
+	protected void process(HttpServletRequest request, HttpServletResponse response, boolean reset) throws IOException {
+		HubMetrics metrics = getRegistry().getMetrics();
+		String json = metrics.toJSON().toString();
+		if (reset) {
+			metrics.reset();
+		}
+
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		response.setStatus(200);
+		Writer out = response.getWriter();
+		try {
+			out.write(json);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -58,6 +58,8 @@ public abstract class RequestHandler implements Comparable<RequestHandler> {
 	private Map<String, Object> desiredCapabilities = null;
 	private RequestType requestType = null;
 	private TestSession session = null;
+	// when the request was added to the registry queue, 0 if it wasn't.
+	private long queuedSince = 0;
 
 	private boolean showWarning = true;
 
@@ -148,6 +150,10 @@ public abstract class RequestHandler implements Comparable<RequestHandler> {
 			if (session == null) {
 				throw new GridException("Session not available - " + registry.getActiveSessions());
 			}
+			if (getRequestType() == RequestType.STOP_SESSION && keepSessionWarm(session)) {
+				session.terminate();
+				break;
+			}
 			try {
 				forwardRequest(session, this);
 
@@ -183,6 +189,7 @@ public abstract class RequestHandler implements Comparable<RequestHandler> {
 			// goes fast, there is a chance that bindSession get the lock first,
 			// signal, and only after that await will be reached, never
 			// signalled
+			queuedSince = System.currentTimeMillis();
 			registry.addNewSessionRequest(this);
 			sessionHasBeenAssigned.await();
 		} catch (InterruptedException e) {
@@ -212,6 +219,24 @@ public abstract class RequestHandler implements Comparable<RequestHandler> {
 			}
 		}
 
+		String warmSession = session.getWarmSession();
+		if (warmSession != null) {
+			if (supportsWarmSessions() && session.canReuseWarmSession() && session.isRemoteSessionAlive(warmSession)) {
+				try {
+					if (replyWithWarmSession(session)) {
+						session.adoptWarmSession();
+						registry.getMetrics().sessionReused();
+						return;
+					}
+				} catch (Throwable t) {
+					log.log(Level.WARNING, "cannot reply with the warm session " + warmSession, t);
+					session.terminate();
+					throw new GridException("cannot reply with the warm session " + warmSession, t);
+				}
+			}
+			session.discardWarmSession();
+		}
+
 		String externalKey = forwardNewSessionRequest(session);
 		if (externalKey == null) {
 			session.terminate();
@@ -221,6 +246,79 @@ public abstract class RequestHandler implements Comparable<RequestHandler> {
 		}
 	}
 
+	/**
+	 * Instead of closing the remote session at the end of the test, reset it
+	 * and keep it on the slot for the next test, if the protocol and the proxy
+	 * allow it.
+	 * 
+	 * @param session
+	 * @return true if the session was kept and the client already got its
+	 *         reply, false if the stop request still has to be forwarded.
+	 */
+	private boolean keepSessionWarm(TestSession session) {
+		if (!supportsWarmSessions() || !session.getSlot().canKeepWarm(session)) {
+			return false;
+		}
+		if (!session.resetRemoteState()) {
+			log.warning("Cannot reset " + session + ", closing it.");
+			return false;
+		}
+		try {
+			if (!replyToKeptWarmSession(session)) {
+				return false;
+			}
+		} catch (IOException e) {
+			log.warning("Error replying to the stop request of " + session + " " + e.getMessage());
+		}
+		if (!session.getSlot().keepWarm(session)) {
+			// the client has been told the session is closed, so close it.
+			if (!session.sendDeleteSessionRequest()) {
+				log.warning("Error closing " + session + " on " + session.getSlot().getProxy());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @return true if the protocol allows the hub to keep a remote session for
+	 *         another test.
+	 * @see RemoteProxy#getMaxSessionReuse()
+	 */
+	protected boolean supportsWarmSessions() {
+		return false;
+	}
+
+	/**
+	 * Reply to a new session request with a warm session, as the remote would
+	 * have done for a new one. By default the protocol can't, and a new remote
+	 * session is started instead.
+	 * 
+	 * @param session
+	 *            the test session, {@link TestSession#getWarmSession()} is the
+	 *            session to reply with.
+	 * @return true if the client got the warm session, false if a new session
+	 *         has to be started.
+	 * @throws IOException
+	 */
+	protected boolean replyWithWarmSession(TestSession session) throws IOException {
+		return false;
+	}
+
+	/**
+	 * Reply to a stop session request whose remote session is kept warm, as the
+	 * remote would have done if the session was closed. By default the protocol
+	 * can't, and the stop request is forwarded to the remote instead.
+	 * 
+	 * @param session
+	 * @return true if the client got its reply, false if the stop request has
+	 *         to be forwarded.
+	 * @throws IOException
+	 */
+	protected boolean replyToKeptWarmSession(TestSession session) throws IOException {
+		return false;
+	}
+
 	/**
 	 * return true is the request is using the selenium1 protocol, false if
 	 * that's a web driver protocol.
@@ -321,6 +419,9 @@ public abstract class RequestHandler implements Comparable<RequestHandler> {
 		try {
 			lock.lock();
 			this.session = session;
+			if (queuedSince != 0) {
+				registry.getMetrics().sessionAssigned(System.currentTimeMillis() - queuedSince);
+			}
 			sessionHasBeenAssigned.signalAll();
 		} finally {
 			lock.unlock();
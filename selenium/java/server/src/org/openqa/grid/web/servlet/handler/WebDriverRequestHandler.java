@@ -108,6 +108,30 @@ public class WebDriverRequestHandler extends RequestHandler {
 		return desiredCapability;
 	}
 
+	@Override
+	protected boolean supportsWarmSessions() {
+		return true;
+	}
+
+	@Override
+	protected boolean replyWithWarmSession(TestSession session) throws IOException {
+		HttpServletRequest request = getRequest();
+		getResponse().sendRedirect(request.getContextPath() + request.getServletPath() + "/session/" + session.getWarmSession());
+		return true;
+	}
+
+	@Override
+	protected boolean replyToKeptWarmSession(TestSession session) throws IOException {
+		HttpServletResponse response = getResponse();
+		byte[] body = ("{\"sessionId\":\"" + session.getExternalKey() + "\",\"status\":0,\"value\":null}").getBytes("UTF-8");
+		response.setStatus(200);
+		response.setContentType("application/json; charset=utf-8");
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+		response.getOutputStream().close();
+		return true;
+	}
+
 	@Override
 	public String forwardNewSessionRequest(TestSession session) {
 		try {
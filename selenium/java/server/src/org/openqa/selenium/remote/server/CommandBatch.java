@@ -0,0 +1,163 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.JsonToBeanConverter;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionId;
+import org.openqa.selenium.remote.server.renderer.JsonErrorExceptionResult;
+import org.openqa.selenium.remote.server.renderer.JsonResult;
+import org.openqa.selenium.remote.server.rest.Route;
+import org.openqa.selenium.remote.server.rest.UrlMapper;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+/**
+ * Runs several commands for a session in one request, posted to
+ * /session/:sessionId/batch as:
+ *
+ * <pre>
+ * {"commands": [{"method": "GET", "url": "/session/1/element/2/text"},
+ *               {"method": "POST", "url": "/session/1/element/2/value",
+ *                "parameters": {"value": ["cheese"]}}]}
+ * </pre>
+ *
+ * The commands are run in order on the session's thread. The value of the
+ * response is the list of their responses, up to and including the first
+ * one which failed.
+ */
+class CommandBatch {
+
+  private static final String RESPONSE = ":response";
+  private static final String EXCEPTION = ":exception";
+
+  private final Map<String, UrlMapper> mappers;
+  private final DriverSessions sessions;
+  private final Logger log;
+
+  /**
+   * @param mappers the mappers of the commands, by HTTP method.
+   */
+  CommandBatch(Map<String, UrlMapper> mappers, DriverSessions sessions, Logger log) {
+    this.mappers = mappers;
+    this.sessions = sessions;
+    this.log = log;
+  }
+
+  boolean isFor(String pathInfo) {
+    if (pathInfo == null) {
+      return false;
+    }
+    String[] parts = pathInfo.split("/");
+    return parts.length == 4 && "session".equals(parts[1]) && "batch".equals(parts[3]);
+  }
+
+  @SuppressWarnings("unchecked")
+  void handle(HttpServletRequest request, HttpServletResponse response) throws Exception {
+    final SessionId sessionId = new SessionId(request.getPathInfo().split("/")[2]);
+
+    try {
+      Map<String, Object> body =
+          new JsonToBeanConverter().convert(HashMap.class, request.getReader());
+      Object commands = body == null ? null : body.get("commands");
+      if (!(commands instanceof List)) {
+        throw new WebDriverException("Expected a list of commands");
+      }
+
+      final Session session = sessions.get(sessionId);
+      if (session == null) {
+        throw new WebDriverException("Unknown session: " + sessionId);
+      }
+
+      final List<Map<String, Object>> toRun = (List<Map<String, Object>>) commands;
+      FutureTask<List<Response>> task = new FutureTask<List<Response>>(
+          new Callable<List<Response>>() {
+            public List<Response> call() {
+              return run(sessionId, session, toRun);
+            }
+          });
+
+      Response batch = new Response(sessionId);
+      try {
+        batch.setValue(session.execute(task));
+      } catch (ExecutionException e) {
+        throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }
+
+      request.setAttribute(RESPONSE.substring(1), batch);
+      new JsonResult(RESPONSE).render(request, response, null);
+    } catch (Exception e) {
+      request.setAttribute(EXCEPTION.substring(1), e);
+      new JsonErrorExceptionResult(EXCEPTION, RESPONSE).render(request, response, null);
+    }
+  }
+
+  private List<Response> run(SessionId sessionId, Session session,
+      List<Map<String, Object>> commands) {
+    List<Response> responses = new ArrayList<Response>(commands.size());
+    String prefix = "/session/" + sessionId + "/";
+
+    for (Map<String, Object> command : commands) {
+      Response response = run(prefix, session, command);
+      response.setSessionId(sessionId.toString());
+      responses.add(response);
+      if (response.getStatus() != ErrorCodes.SUCCESS) {
+        log.info("Stopping batch at failed command: " + command.get("url"));
+        break;
+      }
+    }
+    return responses;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Response run(String prefix, Session session, Map<String, Object> command) {
+    String method = String.valueOf(command.get("method"));
+    String url = String.valueOf(command.get("url"));
+
+    // Creating or deleting the session, or nesting batches, makes no sense here.
+    UrlMapper mapper = mappers.get(method);
+    Route route = mapper != null && url.startsWith(prefix) && !isFor(url)
+        ? mapper.getRoute(url) : null;
+    if (route == null) {
+      Response unknown = JsonErrorExceptionResult.toResponse(new UnsupportedOperationException(
+          "Not a command of this session: " + method + " " + url), null);
+      unknown.setStatus(ErrorCodes.UNKNOWN_COMMAND);
+      return unknown;
+    }
+
+    try {
+      Response response =
+          route.executeInline(url, (Map<String, Object>) command.get("parameters"));
+      return response != null ? response : new Response();
+    } catch (Exception e) {
+      return JsonErrorExceptionResult.toResponse(
+          route.getConfig().getRootExceptionCause(e), session.getAndClearScreenshot());
+    }
+  }
+}
@@ -0,0 +1,188 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+import org.openqa.selenium.internal.LatencyHistogram;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.openqa.selenium.remote.server.rest.CommandTimings;
+import org.openqa.selenium.remote.server.rest.ResultConfig;
+import org.openqa.selenium.remote.server.rest.UrlMapper;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The timings of all the routes of a {@link DriverServlet}, to find out which
+ * commands a suite spends its time in, and whether that's waiting for the
+ * session, in the driver or writing the response.
+ */
+public class CommandMetrics implements CommandMetricsMBean {
+
+  private static final int SLOWEST_ROUTES = 10;
+
+  private final Map<String, UrlMapper> mappers;
+
+  /**
+   * @param mappers the mappers of the servlet, by HTTP method.
+   */
+  public CommandMetrics(Map<String, UrlMapper> mappers) {
+    this.mappers = mappers;
+  }
+
+  public long getCommandCount() {
+    long count = 0;
+    for (CommandTimings timings : getTimings().values()) {
+      count += timings.getCount();
+    }
+    return count;
+  }
+
+  public long getFailureCount() {
+    long count = 0;
+    for (CommandTimings timings : getTimings().values()) {
+      count += timings.getFailures();
+    }
+    return count;
+  }
+
+  public long getQueuedMax() {
+    long max = 0;
+    for (CommandTimings timings : getTimings().values()) {
+      max = Math.max(max, timings.getQueued().getMax());
+    }
+    return max;
+  }
+
+  public long getHandledMax() {
+    long max = 0;
+    for (CommandTimings timings : getTimings().values()) {
+      max = Math.max(max, timings.getHandled().getMax());
+    }
+    return max;
+  }
+
+  public long getBytesIn() {
+    long bytes = 0;
+    for (CommandTimings timings : getTimings().values()) {
+      bytes += timings.getBytesIn();
+    }
+    return bytes;
+  }
+
+  public long getBytesOut() {
+    long bytes = 0;
+    for (CommandTimings timings : getTimings().values()) {
+      bytes += timings.getBytesOut();
+    }
+    return bytes;
+  }
+
+  public String getSlowestRoutes() {
+    StringBuilder builder = new StringBuilder();
+    List<Map.Entry<String, CommandTimings>> routes = getUsedRoutes();
+    for (Map.Entry<String, CommandTimings> route
+        : routes.subList(0, Math.min(SLOWEST_ROUTES, routes.size()))) {
+      LatencyHistogram handled = route.getValue().getHandled();
+      builder.append(route.getKey())
+          .append(": count ").append(handled.getCount())
+          .append(", total ").append(handled.getTotal())
+          .append(", p50 ").append(handled.getPercentile(50))
+          .append(", p99 ").append(handled.getPercentile(99))
+          .append(", max ").append(handled.getMax())
+          .append('\n');
+    }
+    return builder.toString();
+  }
+
+  public void reset() {
+    for (CommandTimings timings : getTimings().values()) {
+      timings.reset();
+    }
+  }
+
+  /**
+   * @return the routes which have been used, those which took the most time
+   *         in their handlers first, with their timings.
+   */
+  public Map<String, Object> toJson() {
+    List<Object> routes = Lists.newArrayList();
+    for (Map.Entry<String, CommandTimings> route : getUsedRoutes()) {
+      CommandTimings timings = route.getValue();
+      Map<String, Object> json = Maps.newLinkedHashMap();
+      json.put("route", route.getKey());
+      json.put("count", timings.getCount());
+      json.put("failures", timings.getFailures());
+      json.put("bytesIn", timings.getBytesIn());
+      json.put("bytesOut", timings.getBytesOut());
+      json.put("queued", toJson(timings.getQueued()));
+      json.put("handled", toJson(timings.getHandled()));
+      json.put("rendered", toJson(timings.getRendered()));
+      routes.add(json);
+    }
+
+    Map<String, Object> json = Maps.newLinkedHashMap();
+    json.put("commands", getCommandCount());
+    json.put("failures", getFailureCount());
+    json.put("routes", routes);
+    return json;
+  }
+
+  private static Map<String, Object> toJson(LatencyHistogram histogram) {
+    return ImmutableMap.<String, Object>of(
+        "mean", histogram.getMean(),
+        "p50", histogram.getPercentile(50),
+        "p99", histogram.getPercentile(99),
+        "max", histogram.getMax());
+  }
+
+  private List<Map.Entry<String, CommandTimings>> getUsedRoutes() {
+    List<Map.Entry<String, CommandTimings>> used = Lists.newArrayList();
+    for (Map.Entry<String, CommandTimings> route : getTimings().entrySet()) {
+      if (route.getValue().getCount() > 0) {
+        used.add(route);
+      }
+    }
+    Collections.sort(used, new Comparator<Map.Entry<String, CommandTimings>>() {
+      public int compare(Map.Entry<String, CommandTimings> a, Map.Entry<String, CommandTimings> b) {
+        long difference =
+            b.getValue().getHandled().getTotal() - a.getValue().getHandled().getTotal();
+        return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+      }
+    });
+    return used;
+  }
+
+  /**
+   * @return the timings of each route, keyed by method and url.
+   */
+  private Map<String, CommandTimings> getTimings() {
+    Map<String, CommandTimings> timings = Maps.newLinkedHashMap();
+    for (Map.Entry<String, UrlMapper> mapper : mappers.entrySet()) {
+      for (ResultConfig config : mapper.getValue().getConfigs()) {
+        timings.put(mapper.getKey() + " " + config.getUrl(), config.getTimings());
+      }
+    }
+    return timings;
+  }
+}
@@ -0,0 +1,45 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+/**
+ * JMX view of the {@link CommandMetrics}. All the durations are in
+ * microseconds.
+ */
+public interface CommandMetricsMBean {
+
+  long getCommandCount();
+
+  long getFailureCount();
+
+  long getQueuedMax();
+
+  long getHandledMax();
+
+  long getBytesIn();
+
+  long getBytesOut();
+
+  /**
+   * @return the routes which took the most time in their handlers, with
+   *         their count and percentiles, one per line.
+   */
+  String getSlowestRoutes();
+
+  void reset();
+}
@@ -0,0 +1,63 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+import org.eclipse.jetty.continuation.Continuation;
+import org.eclipse.jetty.continuation.ContinuationSupport;
+import org.openqa.selenium.remote.server.rest.AsyncResponse;
+
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Suspends requests with Jetty continuations, which work on Jetty 6 and 7
+ * and on any Servlet 3.0 container.
+ */
+class ContinuationResponse implements AsyncResponse {
+
+  private final Continuation continuation;
+  private final ServletResponse response;
+
+  private ContinuationResponse(Continuation continuation, ServletResponse response) {
+    this.continuation = continuation;
+    this.response = response;
+  }
+
+  /**
+   * @return null if the container can't suspend this request.
+   */
+  static AsyncResponse of(ServletRequest request, ServletResponse response) {
+    try {
+      Continuation continuation = ContinuationSupport.getContinuation(request);
+      return continuation.isInitial() ? new ContinuationResponse(continuation, response) : null;
+    } catch (IllegalStateException e) {
+      // Neither Jetty nor Servlet 3.0, and no ContinuationFilter.
+      return null;
+    }
+  }
+
+  public void suspend() {
+    // Browsers can take their time, the command has to finish either way.
+    continuation.setTimeout(0);
+    continuation.suspend(response);
+  }
+
+  public void complete() {
+    continuation.complete();
+  }
+}
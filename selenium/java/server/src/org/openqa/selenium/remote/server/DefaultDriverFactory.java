@@ -19,20 +19,125 @@ package org.openqa.selenium.remote.server;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.Platform;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.CapabilityType;
 
+/**
+ * Creates drivers for the capabilities they were registered with.
+ *
+ * Drivers can also be kept warm: a number of instances are started in the
+ * background ahead of time, and handed out to new sessions which don't ask
+ * for anything but the browser, version, platform and javascript support.
+ * Each instance handed out is replaced in the background. The number of warm
+ * instances per browser can be set with the "webdriver.server.warm.drivers"
+ * system property, as in "firefox=2,chrome=1". Warm drivers are started on a
+ * thread of their own and then used from the session's thread, so only the
+ * drivers known to allow that can be kept warm. A warm driver whose browser
+ * died while it was idle is quit rather than handed out.
+ */
 public class DefaultDriverFactory implements DriverFactory {
+  public static final String WARM_DRIVERS_PROPERTY = "webdriver.server.warm.drivers";
+
+  private static final Logger log = Logger.getLogger(DefaultDriverFactory.class.getName());
+
+  // Drivers which may be used from another thread than the one which created
+  // them. Others, such as the IE driver, can't be kept warm.
+  private static final List<String> THREAD_SAFE_DRIVERS = Arrays.asList(
+      "org.openqa.selenium.chrome.ChromeDriver",
+      "org.openqa.selenium.firefox.FirefoxDriver",
+      "org.openqa.selenium.htmlunit.HtmlUnitDriver");
+
+  // Requests with any other capabilities always get a driver of their own.
+  private static final List<String> PLAIN_CAPABILITIES = Arrays.asList(
+      CapabilityType.BROWSER_NAME, CapabilityType.VERSION, CapabilityType.PLATFORM,
+      CapabilityType.SUPPORTS_JAVASCRIPT);
+
   private Map<Capabilities, Class<? extends WebDriver>> capabilitiesToDriver =
       new ConcurrentHashMap<Capabilities, Class<? extends WebDriver>>();
+  private final Map<String, Integer> warmCounts = parseWarmCounts(System.getProperty(WARM_DRIVERS_PROPERTY));
+  private final List<WarmDrivers> warmDrivers = new CopyOnWriteArrayList<WarmDrivers>();
+  private ExecutorService starter;
 
   public void registerDriver(Capabilities capabilities, Class<? extends WebDriver> implementation) {
     capabilitiesToDriver.put(capabilities, implementation);
+
+    Integer count = warmCounts.get(capabilities.getBrowserName());
+    if (count != null) {
+      if (canBeKeptWarm(implementation)) {
+        keepWarm(capabilities, count);
+      } else {
+        log.warning(implementation.getName() + " has to be used from the thread which created it,"
+            + " so it is not kept warm");
+      }
+    }
+  }
+
+  /**
+   * Keeps the given number of drivers registered for these capabilities
+   * started in the background.
+   */
+  public void keepWarm(Capabilities capabilities, int count) {
+    Class<? extends WebDriver> implementation = capabilitiesToDriver.get(capabilities);
+    if (implementation == null) {
+      throw new IllegalArgumentException("No driver registered for " + capabilities);
+    }
+    if (!canBeKeptWarm(implementation)) {
+      throw new IllegalArgumentException(implementation.getName()
+          + " has to be used from the thread which created it, so it can't be kept warm");
+    }
+    if (count <= 0) {
+      return;
+    }
+
+    WarmDrivers warm = new WarmDrivers(capabilities, implementation, count);
+    warmDrivers.add(warm);
+    for (int i = 0; i < count; i++) {
+      refill(warm);
+    }
+  }
+
+  /**
+   * Quits the warm drivers which haven't been handed out, and stops starting
+   * new ones.
+   */
+  public synchronized void stopWarmDrivers() {
+    if (starter != null) {
+      starter.shutdownNow();
+    }
+    for (WarmDrivers warm : warmDrivers) {
+      warm.quitAll();
+    }
+    warmDrivers.clear();
+  }
+
+  /**
+   * @return whether drivers of this class may be started on one thread and
+   *         used from another.
+   */
+  protected boolean canBeKeptWarm(Class<? extends WebDriver> implementation) {
+    for (Class<?> type = implementation; type != null; type = type.getSuperclass()) {
+      if (THREAD_SAFE_DRIVERS.contains(type.getName())) {
+        return true;
+      }
+    }
+    return false;
   }
 
   protected Class<? extends WebDriver> getBestMatchFor(Capabilities desired) {
@@ -77,10 +182,74 @@ public class DefaultDriverFactory implements DriverFactory {
   public WebDriver newInstance(Capabilities capabilities) {
     Class<? extends WebDriver> clazz = getBestMatchFor(capabilities);
 
+    WarmDrivers warm = getWarmDriversFor(clazz, capabilities);
+    if (warm != null) {
+      for (WebDriver driver = warm.drivers.poll(); driver != null; driver = warm.drivers.poll()) {
+        refill(warm);
+        if (isAlive(driver)) {
+          return driver;
+        }
+        log.warning("A warm driver for " + warm.capabilities + " died while idle");
+        quit(driver);
+      }
+      refill(warm);
+    }
+
     // Try and call the single arg constructor that takes a capabilities first
     return callConstructor(clazz, capabilities);
   }
 
+  private WarmDrivers getWarmDriversFor(Class<? extends WebDriver> clazz, Capabilities desired) {
+    if (warmDrivers.isEmpty()) {
+      return null;
+    }
+    for (String name : desired.asMap().keySet()) {
+      if (!PLAIN_CAPABILITIES.contains(name)) {
+        return null;
+      }
+    }
+    for (WarmDrivers warm : warmDrivers) {
+      if (warm.implementation.equals(clazz)
+          && warm.capabilities.isJavascriptEnabled() == desired.isJavascriptEnabled()) {
+        return warm;
+      }
+    }
+    return null;
+  }
+
+  private synchronized void refill(final WarmDrivers warm) {
+    if (starter == null) {
+      starter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "Warm driver starter");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          stopWarmDrivers();
+        }
+      });
+    } else if (starter.isShutdown()) {
+      return;
+    }
+
+    starter.execute(new Runnable() {
+      public void run() {
+        if (warm.drivers.size() >= warm.count) {
+          return;
+        }
+        try {
+          warm.drivers.add(callConstructor(warm.implementation, warm.capabilities));
+        } catch (RuntimeException e) {
+          log.log(Level.WARNING, "Unable to start a warm driver for " + warm.capabilities, e);
+        }
+      }
+    });
+  }
+
   private WebDriver callConstructor(Class<? extends WebDriver> from, Capabilities capabilities) {
     try {
       Constructor<? extends WebDriver> constructor = from.getConstructor(Capabilities.class);
@@ -102,7 +271,59 @@ public class DefaultDriverFactory implements DriverFactory {
     }
   }
 
+  private static boolean isAlive(WebDriver driver) {
+    try {
+      driver.getWindowHandle();
+      return true;
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  private static void quit(WebDriver driver) {
+    try {
+      driver.quit();
+    } catch (RuntimeException e) {
+      log.log(Level.WARNING, "Unable to quit a warm driver", e);
+    }
+  }
+
   public boolean hasMappingFor(Capabilities capabilities) {
     return capabilitiesToDriver.containsKey(capabilities);
   }
+
+  private static Map<String, Integer> parseWarmCounts(String property) {
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    if (property == null) {
+      return counts;
+    }
+    for (String entry : property.split(",")) {
+      String[] nameAndCount = entry.split("=");
+      if (nameAndCount.length != 2) {
+        throw new IllegalArgumentException(
+            "Expected browser=count in " + WARM_DRIVERS_PROPERTY + ": " + entry);
+      }
+      counts.put(nameAndCount[0].trim(), Integer.parseInt(nameAndCount[1].trim()));
+    }
+    return counts;
+  }
+
+  private static class WarmDrivers {
+    private final Capabilities capabilities;
+    private final Class<? extends WebDriver> implementation;
+    private final int count;
+    private final BlockingQueue<WebDriver> drivers = new LinkedBlockingQueue<WebDriver>();
+
+    WarmDrivers(Capabilities capabilities, Class<? extends WebDriver> implementation, int count) {
+      this.capabilities = capabilities;
+      this.implementation = implementation;
+      this.count = count;
+    }
+
+    void quitAll() {
+      for (WebDriver driver = drivers.poll(); driver != null; driver = drivers.poll()) {
+        quit(driver);
+      }
+    }
+  }
 }
@@ -39,6 +39,8 @@ public class DefaultDriverSessions implements DriverSessions {
   private final Map<SessionId, Session> sessionIdToDriver =
       new ConcurrentHashMap<SessionId, Session>();
 
+  private volatile SessionCleaner sessionCleaner;
+
   private static Map<Capabilities, String> defaultDrivers = new HashMap<Capabilities, String>() {{
     put(DesiredCapabilities.chrome(), "org.openqa.selenium.chrome.ChromeDriver");
     put(DesiredCapabilities.firefox(), "org.openqa.selenium.firefox.FirefoxDriver");
@@ -87,9 +89,18 @@ public class DefaultDriverSessions implements DriverSessions {
     SessionId sessionId = new SessionId(String.valueOf(sessionKeyFactory.getAndIncrement()));
     sessionIdToDriver.put(sessionId, session);
 
+    SessionCleaner cleaner = sessionCleaner;
+    if (cleaner != null) {
+      cleaner.track(sessionId, session);
+    }
+
     return sessionId;
   }
 
+  void setSessionCleaner(SessionCleaner sessionCleaner) {
+    this.sessionCleaner = sessionCleaner;
+  }
+
   public Session get(SessionId sessionId) {
     return sessionIdToDriver.get(sessionId);
   }
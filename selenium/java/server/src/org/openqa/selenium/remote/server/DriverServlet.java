@@ -18,13 +18,23 @@ limitations under the License.
 package org.openqa.selenium.remote.server;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.common.collect.ImmutableMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.openqa.selenium.remote.BeanToJsonConverter;
 import org.openqa.selenium.remote.server.handler.*;
 import org.openqa.selenium.remote.server.handler.html5.ClearLocalStorage;
 import org.openqa.selenium.remote.server.handler.html5.ClearSessionStorage;
@@ -57,8 +67,10 @@ import org.openqa.selenium.remote.server.renderer.JsonErrorExceptionResult;
 import org.openqa.selenium.remote.server.renderer.JsonResult;
 import org.openqa.selenium.remote.server.renderer.RedirectResult;
 import org.openqa.selenium.remote.server.rest.Handler;
+import org.openqa.selenium.remote.server.rest.AsyncResponse;
 import org.openqa.selenium.remote.server.rest.ResultConfig;
 import org.openqa.selenium.remote.server.rest.ResultType;
+import org.openqa.selenium.remote.server.rest.Route;
 import org.openqa.selenium.remote.server.rest.UrlMapper;
 
 
@@ -67,11 +79,16 @@ public class DriverServlet extends HttpServlet {
 
   private static final String EXCEPTION = ":exception";
   private static final String RESPONSE = ":response";
+  private static final String METRICS = "/metrics";
 
   private UrlMapper getMapper;
   private UrlMapper postMapper;
   private UrlMapper deleteMapper;
+  private CommandBatch batch;
+  private CommandMetrics metrics;
+  private ObjectName metricsName;
   private SessionCleaner sessionCleaner;
+  private boolean suspendRequests;
 
   @Override
   public void init() throws ServletException {
@@ -87,6 +104,16 @@ public class DriverServlet extends HttpServlet {
     Logger logger = getLogger();
 
     setupMappings(driverSessions, logger);
+    Map<String, UrlMapper> mappers =
+        ImmutableMap.of("GET", getMapper, "POST", postMapper, "DELETE", deleteMapper);
+    batch = new CommandBatch(mappers, driverSessions, logger);
+    metrics = new CommandMetrics(mappers);
+    registerMetrics(logger);
+
+    // Don't hold a container thread per running command when the container
+    // lets us suspend the request.
+    suspendRequests = Boolean.parseBoolean(System.getProperty("webdriver.server.async", "true"))
+        && isContinuationAvailable();
 
     int sessionTimeOut = Integer.parseInt(System.getProperty("webdriver.server.session.timeout", "1800"));
     if (sessionTimeOut > 0) {
@@ -100,6 +127,48 @@ public class DriverServlet extends HttpServlet {
     if (sessionCleaner != null) {
       sessionCleaner.stopCleaner();
     }
+    unregisterMetrics();
+  }
+
+  public CommandMetrics getMetrics() {
+    return metrics;
+  }
+
+  private void registerMetrics(Logger logger) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      metricsName = new ObjectName("org.openqa.selenium.remote.server:type=CommandMetrics,context="
+          + ObjectName.quote(getServletContext().getContextPath()));
+      if (server.isRegistered(metricsName)) {
+        server.unregisterMBean(metricsName);
+      }
+      server.registerMBean(metrics, metricsName);
+    } catch (Exception e) {
+      logger.log(Level.WARNING, "Cannot register the command metrics in JMX", e);
+    }
+  }
+
+  private void unregisterMetrics() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (metricsName != null && server.isRegistered(metricsName)) {
+        server.unregisterMBean(metricsName);
+      }
+    } catch (Exception e) {
+      getLogger().log(Level.WARNING, "Cannot unregister the command metrics from JMX", e);
+    }
+  }
+
+  // Checked before touching ContinuationResponse, which needs the classes.
+  private static boolean isContinuationAvailable() {
+    try {
+      Class.forName("org.eclipse.jetty.continuation.ContinuationSupport");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    } catch (LinkageError e) {
+      return false;
+    }
   }
 
   protected Logger getLogger() {
@@ -339,12 +408,20 @@ public class DriverServlet extends HttpServlet {
   @Override
   protected void doGet(HttpServletRequest request, HttpServletResponse response)
       throws ServletException, IOException {
+    if (METRICS.equals(request.getPathInfo())) {
+      writeMetrics(response);
+      return;
+    }
     handleRequest(getMapper, request, response);
   }
 
   @Override
   protected void doPost(HttpServletRequest request, HttpServletResponse response)
       throws ServletException, IOException {
+    if (batch.isFor(request.getPathInfo())) {
+      handleBatch(request, response);
+      return;
+    }
     handleRequest(postMapper, request, response);
   }
 
@@ -355,15 +432,35 @@ public class DriverServlet extends HttpServlet {
     handleRequest(deleteMapper, request, response);
   }
 
+  private void writeMetrics(HttpServletResponse response) throws IOException {
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    Writer writer = new OutputStreamWriter(response.getOutputStream(), "UTF-8");
+    new BeanToJsonConverter().convert(metrics.toJson(), writer);
+    writer.flush();
+  }
+
+  private void handleBatch(HttpServletRequest request, HttpServletResponse response)
+      throws ServletException {
+    try {
+      batch.handle(request, response);
+    } catch (Exception e) {
+      log("Fatal, unhandled exception: " + request.getPathInfo() + ": " + e);
+      throw new ServletException(e);
+    }
+  }
+
   protected void handleRequest(UrlMapper mapper, HttpServletRequest request,
                                HttpServletResponse response)
       throws ServletException {
     try {
-      ResultConfig config = mapper.getConfig(request.getPathInfo());
-      if (config == null) {
+      Route route = mapper.getRoute(request.getPathInfo());
+      if (route == null) {
         response.setStatus(HttpServletResponse.SC_NOT_FOUND);
       } else {
-        config.handle(request.getPathInfo(), request, response);
+        AsyncResponse asyncResponse =
+            suspendRequests ? ContinuationResponse.of(request, response) : null;
+        route.handle(request.getPathInfo(), request, response, asyncResponse);
       }
     } catch (Exception e) {
       log("Fatal, unhandled exception: " + request.getPathInfo() + ": " + e);
@@ -0,0 +1,86 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+/**
+ * The base64 encoding of a PNG, worked out as it is read rather than held
+ * as a String. Only the PNG itself is kept in memory, and the JSON converters
+ * write it to the response a chunk at a time.
+ */
+public class EncodedScreenshot implements CharSequence {
+
+  private static final char[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private final byte[] png;
+
+  public EncodedScreenshot(byte[] png) {
+    this.png = png;
+  }
+
+  public byte[] getPng() {
+    return png;
+  }
+
+  public int length() {
+    return (png.length + 2) / 3 * 4;
+  }
+
+  public char charAt(int index) {
+    if (index < 0 || index >= length()) {
+      throw new IndexOutOfBoundsException(String.valueOf(index));
+    }
+
+    int offset = index / 4 * 3;
+    int position = index % 4;
+    // Characters past the end of the data are padding.
+    if (offset + position - 1 >= png.length) {
+      return '=';
+    }
+
+    int b0 = png[offset] & 0xff;
+    int b1 = offset + 1 < png.length ? png[offset + 1] & 0xff : 0;
+    int b2 = offset + 2 < png.length ? png[offset + 2] & 0xff : 0;
+    switch (position) {
+      case 0:
+        return ALPHABET[b0 >> 2];
+      case 1:
+        return ALPHABET[((b0 & 0x03) << 4) | (b1 >> 4)];
+      case 2:
+        return ALPHABET[((b1 & 0x0f) << 2) | (b2 >> 6)];
+      default:
+        return ALPHABET[b2 & 0x3f];
+    }
+  }
+
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length() || start > end) {
+      throw new IndexOutOfBoundsException(start + ", " + end);
+    }
+    char[] chars = new char[end - start];
+    for (int i = start; i < end; i++) {
+      chars[i - start] = charAt(i);
+    }
+    return new String(chars);
+  }
+
+  @Override
+  public String toString() {
+    return subSequence(0, length()).toString();
+  }
+}
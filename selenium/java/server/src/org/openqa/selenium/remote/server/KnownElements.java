@@ -18,21 +18,59 @@ limitations under the License.
 package org.openqa.selenium.remote.server;
 
 import org.openqa.selenium.RenderedWebElement;
+import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.internal.Locatable;
 import org.openqa.selenium.internal.WrapsElement;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * The elements a session has handed out to its client, by id.
+ *
+ * The registry is bounded: once it holds more than the configured number of
+ * elements, the least recently used one is forgotten, and so are elements
+ * which turned out to be stale. Using the id of a forgotten element fails
+ * with a {@link StaleElementReferenceException}, just as if it had been
+ * removed from the DOM.
+ */
 public class KnownElements {
 
-  private final Map<String, WebElement> elements = new HashMap<String, WebElement>();
+  /**
+   * System property with the maximum number of elements kept per session,
+   * 0 or less for no limit.
+   */
+  public static final String MAX_ELEMENTS_PROPERTY = "webdriver.server.session.elements";
+  public static final int DEFAULT_MAX_ELEMENTS = 10000;
+
+  // Shared by the sessions, which look their element classes up concurrently.
+  private static final ConcurrentMap<Class<?>, Constructor<?>> proxyConstructors =
+      new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+  private final Map<String, WebElement> elements;
   private int nextId;
 
+  public KnownElements() {
+    this(Integer.getInteger(MAX_ELEMENTS_PROPERTY, DEFAULT_MAX_ELEMENTS));
+  }
+
+  public KnownElements(final int maxElements) {
+    elements = new LinkedHashMap<String, WebElement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, WebElement> eldest) {
+        return maxElements > 0 && size() > maxElements;
+      }
+    };
+  }
+
   public String add(WebElement element) {
     String id = getNextId();
     elements.put(id, proxyElement(element, id));
@@ -40,7 +78,16 @@ public class KnownElements {
   }
 
   public WebElement get(String elementId) {
-    return elements.get(elementId);
+    WebElement element = elements.get(elementId);
+    if (element == null && wasHandedOut(elementId)) {
+      throw new StaleElementReferenceException(
+          "Element " + elementId + " is no longer known to the server");
+    }
+    return element;
+  }
+
+  public int size() {
+    return elements.size();
   }
 
   // WebDriver is single threaded. Expect only a single thread at a time to access this
@@ -48,6 +95,15 @@ public class KnownElements {
     return String.valueOf(nextId++);
   }
 
+  private boolean wasHandedOut(String elementId) {
+    try {
+      int id = Integer.parseInt(elementId);
+      return id >= 0 && id < nextId;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
   private WebElement proxyElement(final WebElement element, final String id) {
     InvocationHandler handler = new InvocationHandler() {
       public Object invoke(Object object, Method method, Object[] objects) throws Throwable {
@@ -56,14 +112,35 @@ public class KnownElements {
         } else if ("getWrappedElement".equals(method.getName())) {
           return element;
         } else {
-          return method.invoke(element, objects);
+          try {
+            return method.invoke(element, objects);
+          } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof StaleElementReferenceException) {
+              // Gone from the DOM, nothing to keep it around for.
+              elements.remove(id);
+            }
+            throw e;
+          }
         }
       }
     };
 
+    try {
+      return (WebElement) getProxyConstructor(element.getClass()).newInstance(handler);
+    } catch (Exception e) {
+      throw new IllegalStateException("Unable to proxy element " + element, e);
+    }
+  }
+
+  private static Constructor<?> getProxyConstructor(Class<?> elementClass) throws NoSuchMethodException {
+    Constructor<?> constructor = proxyConstructors.get(elementClass);
+    if (constructor != null) {
+      return constructor;
+    }
+
     Class[] proxyThese;
-    if (element instanceof RenderedWebElement) {
-      if (element instanceof Locatable) {
+    if (RenderedWebElement.class.isAssignableFrom(elementClass)) {
+      if (Locatable.class.isAssignableFrom(elementClass)) {
         proxyThese = new Class[]{RenderedWebElement.class, ProxiedElement.class,
           Locatable.class};
       } else {
@@ -73,9 +150,10 @@ public class KnownElements {
       proxyThese = new Class[]{WebElement.class, ProxiedElement.class};
     }
 
-    return (WebElement) Proxy.newProxyInstance(element.getClass().getClassLoader(),
-                                               proxyThese,
-                                               handler);
+    constructor = Proxy.getProxyClass(elementClass.getClassLoader(), proxyThese)
+        .getConstructor(InvocationHandler.class);
+    proxyConstructors.put(elementClass, constructor);
+    return constructor;
   }
 
   public interface ProxiedElement extends WrapsElement {
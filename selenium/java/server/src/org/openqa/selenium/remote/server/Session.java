@@ -37,6 +37,7 @@ import org.openqa.selenium.support.events.EventFiringWebDriver;
 import java.util.concurrent.Callable;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -45,7 +46,7 @@ public class Session {
   private final KnownElements knownElements;
   private final ThreadPoolExecutor executor;
   private final Capabilities capabilities;
-  private volatile String base64EncodedImage;
+  private volatile CharSequence base64EncodedImage;
   private volatile long lastAccess;
   private final BrowserCreator browserCreator;
 
@@ -81,6 +82,10 @@ public class Session {
     lastAccess = System.currentTimeMillis();
   }
 
+  long getLastAccessTime() {
+    return lastAccess;
+  }
+
   boolean isTimedOut(int timeout){
      return (lastAccess + timeout) < System.currentTimeMillis();
   }
@@ -94,6 +99,19 @@ public class Session {
     return future.get();
   }
 
+  /**
+   * Queues the task on the thread of this session, without waiting for it.
+   * If the session has been closed in the meantime, the task is run on the
+   * calling thread instead, so that it still gets to answer its request.
+   */
+  public void submit(Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      task.run();
+    }
+  }
+
   public WebDriver getDriver() {
     updateLastAccessTime();
     return driver;
@@ -107,14 +125,18 @@ public class Session {
     return capabilities;
   }
 
-  public void attachScreenshot(String base64EncodedImage) {
+  public void attachScreenshot(CharSequence base64EncodedImage) {
     this.base64EncodedImage = base64EncodedImage;
   }
 
+  /**
+   * @return the base64 encoded screenshot taken when the last command failed,
+   *         if any. It is only encoded now, once it is asked for.
+   */
   public String getAndClearScreenshot() {
-    String temp = this.base64EncodedImage;
+    CharSequence temp = this.base64EncodedImage;
     base64EncodedImage = null;
-    return temp;
+    return temp == null ? null : temp.toString();
   }
 
   private class BrowserCreator implements Callable<EventFiringWebDriver> {
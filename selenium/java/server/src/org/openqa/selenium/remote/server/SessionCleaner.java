@@ -19,13 +19,40 @@ package org.openqa.selenium.remote.server;
 import org.openqa.selenium.remote.SessionId;
 import org.openqa.selenium.remote.server.handler.DeleteSession;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Deletes sessions which haven't been used for longer than the timeout.
+ *
+ * Every session has an entry in a queue ordered by the time it would expire
+ * if it were not used again, and the cleaner sleeps until the first of them
+ * is due. Touching a session doesn't move its entry: when an entry comes up,
+ * the session's last access is checked and the entry is put back with the
+ * new deadline if the session has been used since. The sessions which did
+ * expire are deleted just as if the client had asked for it, on a small pool
+ * of threads, so that one slow browser doesn't hold up the others.
+ */
 class SessionCleaner extends Thread {
 
+  private static final int TEARDOWN_THREADS = 8;
+
   private final DriverSessions driverSessions;
   private final int timeoutMs;
   private final Logger log;
+  private final DelayQueue<Expiry> expiries = new DelayQueue<Expiry>();
+  private final Map<SessionId, Session> tracked = new ConcurrentHashMap<SessionId, Session>();
+  private final ThreadPoolExecutor teardown;
   private volatile boolean running = true;
 
   SessionCleaner(DriverSessions driverSessions, Logger log, int sessionTimeOutInMs) {
@@ -33,16 +60,37 @@ class SessionCleaner extends Thread {
     this.log = log;
     timeoutMs = sessionTimeOutInMs;
     this.driverSessions = driverSessions;
+
+    teardown = new ThreadPoolExecutor(TEARDOWN_THREADS, TEARDOWN_THREADS,
+        60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new TeardownThreadFactory());
+    teardown.allowCoreThreadTimeOut(true);
+
+    if (driverSessions instanceof DefaultDriverSessions) {
+      ((DefaultDriverSessions) driverSessions).setSessionCleaner(this);
+    }
+    for (SessionId sessionId : driverSessions.getSessions()) {
+      Session session = driverSessions.get(sessionId);
+      if (session != null) {
+        track(sessionId, session);
+      }
+    }
   }
 
+  /**
+   * Starts watching a new session.
+   */
+  void track(SessionId sessionId, Session session) {
+    if (tracked.put(sessionId, session) != session) {
+      expiries.add(new Expiry(sessionId, session, session.getLastAccessTime() + timeoutMs));
+    }
+  }
 
-  @SuppressWarnings({"InfiniteLoopStatement"})
   @Override
   public void run() {
     while (running) {
-      checkExpiry();
       try {
-        Thread.sleep(timeoutMs / 10);
+        expire(expiries.take());
+        checkExpiry();
       } catch (InterruptedException e) {
         log.info("Exiting session cleaner thread");
       }
@@ -54,22 +102,87 @@ class SessionCleaner extends Thread {
     synchronized (this) {
       this.interrupt();
     }
-
+    teardown.shutdown();
   }
 
+  /**
+   * Deals with every entry which is due, without waiting for any others.
+   */
   void checkExpiry() {
-    for (SessionId sessionId : driverSessions.getSessions()) {
-      Session session = driverSessions.get(sessionId);
-      if (session != null && session.isTimedOut(timeoutMs)) {
-        DeleteSession deleteSession = new DeleteSession(driverSessions);
-        deleteSession.setSessionId(sessionId.toString());
-        try {
-          deleteSession.call();
-          log.info("Session " + session + " deleted due to timeout");
-        } catch (Exception e) {
-          throw new RuntimeException(e);
+    for (Expiry expiry = expiries.poll(); expiry != null; expiry = expiries.poll()) {
+      expire(expiry);
+    }
+  }
+
+  private void expire(final Expiry expiry) {
+    Session session = expiry.session;
+    if (driverSessions.get(expiry.sessionId) != session) {
+      // Deleted by the client in the meantime.
+      tracked.remove(expiry.sessionId);
+      return;
+    }
+
+    long deadline = session.getLastAccessTime() + timeoutMs;
+    if (deadline >= System.currentTimeMillis()) {
+      expiries.add(new Expiry(expiry.sessionId, session, deadline));
+      return;
+    }
+
+    tracked.remove(expiry.sessionId);
+    try {
+      teardown.execute(new Runnable() {
+        public void run() {
+          delete(expiry.sessionId);
         }
-      }
+      });
+    } catch (RejectedExecutionException e) {
+      // The cleaner is being stopped, delete the session before going.
+      delete(expiry.sessionId);
+    }
+  }
+
+  private void delete(SessionId sessionId) {
+    // The same as a DELETE of the session: the browser is quit on the
+    // session's own thread, and then the session is closed and forgotten.
+    DeleteSession deleteSession = new DeleteSession(driverSessions);
+    deleteSession.setSessionId(sessionId.toString());
+    try {
+      deleteSession.handle();
+      log.info("Session " + sessionId + " deleted due to timeout");
+    } catch (Exception e) {
+      log.log(Level.WARNING, "Unable to quit the browser of expired session " + sessionId, e);
+      driverSessions.deleteSession(sessionId);
+    }
+  }
+
+  private static class Expiry implements Delayed {
+    private final SessionId sessionId;
+    private final Session session;
+    private final long deadline;
+
+    Expiry(SessionId sessionId, Session session, long deadline) {
+      this.sessionId = sessionId;
+      this.session = session;
+      this.deadline = deadline;
+    }
+
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public int compareTo(Delayed other) {
+      long otherDeadline = ((Expiry) other).deadline;
+      return deadline < otherDeadline ? -1 : (deadline == otherDeadline ? 0 : 1);
+    }
+  }
+
+  private static class TeardownThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "Session teardown " + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
     }
   }
 }
@@ -17,45 +17,102 @@ limitations under the License.
 
 package org.openqa.selenium.remote.server;
 
-import org.apache.commons.codec.binary.Base64;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.Platform;
 import org.openqa.selenium.support.events.AbstractWebDriverEventListener;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 
 import javax.imageio.ImageIO;
 
+/**
+ * Takes a screenshot of the whole screen when a command fails.
+ *
+ * The screenshot is kept as a PNG and only base64 encoded as it is written
+ * to the response. When the screen hasn't changed since the last failure,
+ * the last PNG is used again rather than encoded afresh. Screenshots can be
+ * scaled down with the "webdriver.server.screenshot.scale" system property,
+ * for example 0.5 for half the width and height.
+ */
 public class SnapshotScreenListener extends AbstractWebDriverEventListener {
 
   private final Session session;
+  private final double scale;
+  private int lastWidth;
+  private int lastHeight;
+  private int[] lastPixels;
+  private EncodedScreenshot lastScreenshot;
 
   public SnapshotScreenListener(Session session) {
     this.session = session;
+    double configured = 1;
+    try {
+      configured = Double.parseDouble(System.getProperty("webdriver.server.screenshot.scale", "1"));
+    } catch (NumberFormatException e) {
+      // Keep them full size
+    }
+    this.scale = configured > 0 && configured < 1 ? configured : 1;
   }
 
   @Override
   public void onException(Throwable throwable, WebDriver driver) {
-    String encoded;
     try {
       workAroundD3dBugInVista();
 
       Rectangle size = new Rectangle(Toolkit.getDefaultToolkit().getScreenSize());
       BufferedImage image = new Robot().createScreenCapture(size);
 
-      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-      ImageIO.write(image, "png", outputStream);
-      encoded = new String(Base64.encodeBase64(outputStream.toByteArray()), "UTF-8");
-
-      session.attachScreenshot(encoded);
+      session.attachScreenshot(encode(image));
     } catch (Throwable e) {
       System.out.println("e = " + e);
       // Alright. No screen shot. Propogate the original exception
     }
   }
 
+  synchronized EncodedScreenshot encode(BufferedImage image) throws Exception {
+    int[] pixels = pixelsOf(image);
+    if (lastScreenshot != null && image.getWidth() == lastWidth
+        && image.getHeight() == lastHeight && Arrays.equals(pixels, lastPixels)) {
+      return lastScreenshot;
+    }
+
+    BufferedImage toWrite = image;
+    if (scale < 1) {
+      int width = Math.max(1, (int) (image.getWidth() * scale));
+      int height = Math.max(1, (int) (image.getHeight() * scale));
+      toWrite = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = toWrite.createGraphics();
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(image, 0, 0, width, height, null);
+      graphics.dispose();
+    }
+
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    ImageIO.write(toWrite, "png", outputStream);
+
+    lastWidth = image.getWidth();
+    lastHeight = image.getHeight();
+    lastPixels = pixels;
+    lastScreenshot = new EncodedScreenshot(outputStream.toByteArray());
+    return lastScreenshot;
+  }
+
+  private static int[] pixelsOf(BufferedImage image) {
+    DataBuffer buffer = image.getRaster().getDataBuffer();
+    if (buffer instanceof DataBufferInt) {
+      // The pixels themselves, without copying them. Each capture is a new
+      // image, so keeping hold of them is safe.
+      return ((DataBufferInt) buffer).getData();
+    }
+    return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+  }
+
   private void workAroundD3dBugInVista() {
     if (Platform.getCurrent().is(Platform.WINDOWS)) {
       System.setProperty("sun.java2d.d3d", "false");
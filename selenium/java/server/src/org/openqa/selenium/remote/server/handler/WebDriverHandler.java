@@ -90,6 +90,18 @@ public abstract class WebDriverHandler implements Handler, Callable<ResultType>
       task.run();
   }
   
+  /**
+   * Runs the task on the thread of the session without waiting for it, or
+   * straight away on the calling thread if there is no such session.
+   */
+  public void submit(Runnable task) {
+    Session session = sessionId == null ? null : sessions.get(sessionId);
+    if (session != null)
+      session.submit(task);
+    else
+      task.run();
+  }
+
   protected WebDriver unwrap(WebDriver driver) {
     WebDriver toReturn = driver;
     while (toReturn instanceof WrapsDriver) {
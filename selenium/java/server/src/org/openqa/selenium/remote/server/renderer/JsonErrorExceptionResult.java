@@ -19,39 +19,50 @@ package org.openqa.selenium.remote.server.renderer;
 
 import org.openqa.selenium.remote.BeanToJsonConverter;
 import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.JsonToBeanConverter;
 import org.openqa.selenium.remote.Response;
 import org.openqa.selenium.remote.server.rest.Handler;
-import org.json.JSONObject;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
 
 public class JsonErrorExceptionResult extends ErrorJsonResult {
-  private final ErrorCodes errorCodes;
   private final String exceptionName;
 
   public JsonErrorExceptionResult(String exceptionName, String responseOn) {
     super(responseOn);
     this.exceptionName = exceptionName.substring(1);
-    this.errorCodes = new ErrorCodes();
   }
 
   public void render(HttpServletRequest request, HttpServletResponse response, Handler handler)
       throws Exception {
     Throwable thrown = (Throwable) request.getAttribute(exceptionName);
 
+    request.setAttribute(propertyName, toResponse(thrown, (String) request.getAttribute("screen")));
+
+    super.render(request, response, handler);
+  }
+
+  /**
+   * @return the response telling the client about the exception.
+   */
+  public static Response toResponse(Throwable thrown, String screen) {
     Response res = new Response();
-    res.setStatus(errorCodes.toStatusCode(thrown));
+    res.setStatus(new ErrorCodes().toStatusCode(thrown));
 
     if (thrown != null) {
       String raw = new BeanToJsonConverter().convert(thrown);
-      JSONObject error = new JSONObject(raw);
-      error.put("screen", request.getAttribute("screen"));
+      @SuppressWarnings("unchecked")
+      Map<String, Object> error =
+          new JsonToBeanConverter().convert(HashMap.class, new StringReader(raw));
+      // Added to the map rather than to the JSON text, so that the
+      // screenshot is only serialized once, straight to the response.
+      error.put("screen", screen);
       res.setValue(error);
     }
-
-    request.setAttribute(propertyName, res);
-
-    super.render(request, response, handler);
+    return res;
   }
 }
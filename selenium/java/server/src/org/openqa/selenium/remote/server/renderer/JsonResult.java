@@ -17,7 +17,9 @@ limitations under the License.
 
 package org.openqa.selenium.remote.server.renderer;
 
-import java.nio.charset.Charset;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -41,15 +43,18 @@ public class JsonResult implements Renderer {
       throws Exception {
     Object result = request.getAttribute(propertyName);
 
-    String json = new BeanToJsonConverter().convert(result);
-    byte[] data = Charset.forName("utf-8").encode(json).array();
-
-    int length = json == null ? 0 : data.length;
-
-    response.setContentLength(length);
     response.setContentType("application/json");
     response.setCharacterEncoding("UTF-8");
-    response.getOutputStream().write(data);
-    response.getOutputStream().flush();
+    if (result == null) {
+      response.setContentLength(0);
+      response.getOutputStream().flush();
+      return;
+    }
+
+    // Screenshots and page sources can be megabytes, stream them rather
+    // than building the whole response in memory first.
+    Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+    new BeanToJsonConverter().convert(result, writer);
+    writer.flush();
   }
 }
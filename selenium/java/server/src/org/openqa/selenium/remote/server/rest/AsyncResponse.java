@@ -0,0 +1,39 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server.rest;
+
+/**
+ * A response which can be completed after the request has returned, so that
+ * the container's thread isn't held while a browser works.
+ *
+ * @see ResultConfig#handle(String, javax.servlet.http.HttpServletRequest,
+ *      javax.servlet.http.HttpServletResponse, AsyncResponse)
+ */
+public interface AsyncResponse {
+
+  /**
+   * Called on the request thread, before the command is handed over. The
+   * container must not commit the response when the request returns.
+   */
+  void suspend();
+
+  /**
+   * Called once the response has been rendered, from any thread.
+   */
+  void complete();
+}
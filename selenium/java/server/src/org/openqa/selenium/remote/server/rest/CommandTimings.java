@@ -0,0 +1,86 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server.rest;
+
+import org.openqa.selenium.internal.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What the commands of one route have cost: how long they waited for the
+ * session's thread, how long the handler and the rendering of the response
+ * took, and how much they read and wrote.
+ */
+public class CommandTimings {
+
+  private final LatencyHistogram queued = new LatencyHistogram();
+  private final LatencyHistogram handled = new LatencyHistogram();
+  private final LatencyHistogram rendered = new LatencyHistogram();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong bytesIn = new AtomicLong();
+  private final AtomicLong bytesOut = new AtomicLong();
+
+  public void record(long queuedMicros, long handledMicros, long renderedMicros,
+      long in, long out, boolean failed) {
+    queued.record(queuedMicros);
+    handled.record(handledMicros);
+    rendered.record(renderedMicros);
+    bytesIn.addAndGet(Math.max(0, in));
+    bytesOut.addAndGet(Math.max(0, out));
+    if (failed) {
+      failures.incrementAndGet();
+    }
+  }
+
+  public long getCount() {
+    return handled.getCount();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  public LatencyHistogram getQueued() {
+    return queued;
+  }
+
+  public LatencyHistogram getHandled() {
+    return handled;
+  }
+
+  public LatencyHistogram getRendered() {
+    return rendered;
+  }
+
+  public long getBytesIn() {
+    return bytesIn.get();
+  }
+
+  public long getBytesOut() {
+    return bytesOut.get();
+  }
+
+  public void reset() {
+    queued.reset();
+    handled.reset();
+    rendered.reset();
+    failures.set(0);
+    bytesIn.set(0);
+    bytesOut.set(0);
+  }
+}
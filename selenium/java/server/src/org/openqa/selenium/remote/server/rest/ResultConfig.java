@@ -18,9 +18,11 @@ limitations under the License.
 package org.openqa.selenium.remote.server.rest;
 
 import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.internal.Tracing;
 import org.openqa.selenium.remote.ErrorCodes;
 import org.openqa.selenium.remote.JsonToBeanConverter;
 import org.openqa.selenium.remote.PropertyMunger;
+import org.openqa.selenium.remote.Response;
 import org.openqa.selenium.remote.SimplePropertyDescriptor;
 import org.openqa.selenium.remote.server.DriverSessions;
 import org.openqa.selenium.remote.server.JsonParametersAware;
@@ -30,7 +32,6 @@ import com.google.common.collect.Lists;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.UndeclaredThrowableException;
@@ -39,14 +40,22 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ResultConfig {
 
+  // Commands which come with a trace id are traced, and a fraction of the
+  // others, as set by webdriver.server.trace.sample, get one.
+  private static final double TRACE_SAMPLE =
+      Double.parseDouble(System.getProperty("webdriver.server.trace.sample", "0"));
+  private static final Random TRACE_RANDOM = new Random();
+
   private final String[] sections;
   private final Class<? extends Handler> handlerClazz;
   private final DriverSessions sessions;
@@ -54,6 +63,13 @@ public class ResultConfig {
       new HashMap<ResultType, Set<Result>>();
   private final String url;
   private final Logger log;
+  // Looked up once at bind time, rather than for every command.
+  private final Constructor<? extends Handler> constructor;
+  private final boolean constructorTakesSessions;
+  // The setters of the url's parameters, in the order they come in the url.
+  private final Method[] parameterSetters;
+  private final SimplePropertyDescriptor[] readableProperties;
+  private final CommandTimings timings = new CommandTimings();
 
   public ResultConfig(String url, Class<? extends Handler> handlerClazz, DriverSessions sessions, Logger log) {
     this.url = url;
@@ -65,51 +81,128 @@ public class ResultConfig {
     sections = url.split("/");
     this.handlerClazz = handlerClazz;
     this.sessions = sessions;
+
+    Constructor<? extends Handler> sessionsConstructor =
+        getConstructor(handlerClazz, DriverSessions.class);
+    constructorTakesSessions = sessionsConstructor != null;
+    constructor = constructorTakesSessions ? sessionsConstructor : getConstructor(handlerClazz);
+
+    SimplePropertyDescriptor[] properties =
+        SimplePropertyDescriptor.getPropertyDescriptors(handlerClazz);
+    List<Method> setters = Lists.newArrayList();
+    for (String section : sections) {
+      if (section.startsWith(":")) {
+        setters.add(getStringSetter(properties, section.substring(1)));
+      }
+    }
+    parameterSetters = setters.toArray(new Method[setters.size()]);
+    readableProperties = getReadableProperties(properties);
+  }
+
+  private static Constructor<? extends Handler> getConstructor(
+      Class<? extends Handler> handlerClazz, Class<?>... parameterTypes) {
+    try {
+      return handlerClazz.getConstructor(parameterTypes);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the setter of the named property if it takes a String, as
+   *         {@link PropertyMunger#set(String, Object, Object)} would use it.
+   */
+  private static Method getStringSetter(SimplePropertyDescriptor[] properties, String name) {
+    for (SimplePropertyDescriptor property : properties) {
+      if (!property.getName().equals(name)) {
+        continue;
+      }
+      Method writeMethod = property.getWriteMethod();
+      if (writeMethod != null && writeMethod.getParameterTypes().length == 1
+          && String.class.equals(writeMethod.getParameterTypes()[0])) {
+        return writeMethod;
+      }
+    }
+    return null;
+  }
+
+  private static SimplePropertyDescriptor[] getReadableProperties(
+      SimplePropertyDescriptor[] properties) {
+    List<SimplePropertyDescriptor> readable = Lists.newArrayList();
+    for (SimplePropertyDescriptor property : properties) {
+      if (property.getReadMethod() != null) {
+        readable.add(property);
+      }
+    }
+    return readable.toArray(new SimplePropertyDescriptor[readable.size()]);
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public CommandTimings getTimings() {
+    return timings;
   }
 
   public Handler getHandler(String url) throws Exception {
-    if (!isFor(url)) {
+    String[] parameters = parametersOf(url);
+    if (parameters == null) {
       return null;
     }
 
-    return populate(createInstance(handlerClazz), url);
+    return populate(createInstance(handlerClazz), parameters);
   }
 
   private Handler createInstance(Class<? extends Handler> handlerClazz) throws Exception {
-    try {
-      Constructor<? extends Handler> constructor =
-          handlerClazz.getConstructor(DriverSessions.class);
+    if (constructorTakesSessions) {
       return constructor.newInstance(sessions);
-    } catch (NoSuchMethodException e) {
-      return handlerClazz.newInstance();
+    } else if (constructor != null) {
+      return constructor.newInstance();
     }
+    // No public no-arg constructor either, let the class report why.
+    return handlerClazz.newInstance();
   }
 
   public boolean isFor(String urlToMatch) {
+    return parametersOf(urlToMatch) != null;
+  }
+
+  /**
+   * @return the values the url gives the parameters, in the order they come
+   *         in, or null if the url isn't one of this config.
+   */
+  private String[] parametersOf(String urlToMatch) {
     String[] allParts = urlToMatch.split("/");
 
     if (sections.length != allParts.length) {
-      return false;
+      return null;
     }
 
+    String[] parameters = new String[parameterSetters.length];
+    int count = 0;
     for (int i = 0; i < sections.length; i++) {
-      if (!(sections[i].startsWith(":") || sections[i].equals(allParts[i]))) {
-        return false;
+      if (sections[i].startsWith(":")) {
+        parameters[count++] = allParts[i];
+      } else if (!sections[i].equals(allParts[i])) {
+        return null;
       }
     }
 
-    return true;
+    return parameters;
   }
 
-  protected Handler populate(Handler handler, String pathString) {
-    String[] strings = pathString.split("/");
-
-    for (int i = 0; i < sections.length; i++) {
-      if (!sections[i].startsWith(":")) {
+  /**
+   * @param parameters the values of the url's parameters, in the order they
+   *        come in the url.
+   */
+  protected Handler populate(Handler handler, String[] parameters) {
+    for (int i = 0; i < parameterSetters.length; i++) {
+      if (parameterSetters[i] == null) {
         continue;
       }
       try {
-        PropertyMunger.set(sections[i].substring(1), handler, strings[i]);
+        parameterSetters[i].invoke(handler, parameters[i]);
       } catch (Exception e) {
         throw new WebDriverException(e);
       }
@@ -144,9 +237,33 @@ public class ResultConfig {
     return this;
   }
 
-  public void handle(String pathInfo, final HttpServletRequest request, final HttpServletResponse response)
+  public void handle(String pathInfo, HttpServletRequest request, HttpServletResponse response)
       throws Exception {
-    final Handler handler = getHandler(pathInfo);
+    String[] parameters = parametersOf(pathInfo);
+    if (parameters == null) {
+      throw new IllegalArgumentException(pathInfo + " is not a url of " + url);
+    }
+    handle(pathInfo, parameters, request, response, null);
+  }
+
+  /**
+   * Handles the request. Commands of a session are always run on the thread
+   * of that session. Without an AsyncResponse the calling thread waits for
+   * them. With one, the request is suspended instead, and the response is
+   * rendered and completed from the session's thread once the command is
+   * done.
+   *
+   * @param parameters the values of the url's parameters, as matched by the
+   *        {@link UrlMapper}.
+   * @see Route#handle(String, HttpServletRequest, HttpServletResponse, AsyncResponse)
+   */
+  public void handle(final String pathInfo, String[] parameters, final HttpServletRequest request,
+      HttpServletResponse servletResponse, final AsyncResponse asyncResponse) throws Exception {
+    final Stopwatch stopwatch = new Stopwatch(pathInfo, request.getContentLength(),
+        getTraceId(request, servletResponse));
+    final CountingResponse response = new CountingResponse(servletResponse);
+
+    final Handler handler = populate(createInstance(handlerClazz), parameters);
 
     if (handler instanceof JsonParametersAware) {
       setJsonParameters(request, handler);
@@ -154,13 +271,129 @@ public class ResultConfig {
 
     request.setAttribute("handler", handler);
 
+    if (asyncResponse != null && handler instanceof WebDriverHandler) {
+      final WebDriverHandler webDriverHandler = (WebDriverHandler) handler;
+      asyncResponse.suspend();
+      webDriverHandler.submit(new Runnable() {
+        public void run() {
+          stopwatch.started();
+          ResultType result = ResultType.EXCEPTION;
+          try {
+            // Already on the session's thread, so run the command directly.
+            result = execute(pathInfo, request, handler, webDriverHandler);
+            stopwatch.handled();
+            getResult(result, request).getRenderer().render(request, response, handler);
+          } catch (Exception e) {
+            log.log(Level.WARNING, "Unable to render the response to " + pathInfo, e);
+            if (!response.isCommitted()) {
+              response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+          } finally {
+            stopwatch.rendered(response.getCount(), result == ResultType.EXCEPTION);
+            asyncResponse.complete();
+          }
+        }
+      });
+      return;
+    }
+
+    ResultType result = execute(pathInfo, request, handler, new Callable<ResultType>() {
+      public ResultType call() throws Exception {
+        if (!(handler instanceof WebDriverHandler)) {
+          stopwatch.started();
+          return handler.handle();
+        }
+
+        // As WebDriverHandler.handle does, but noting when the session's
+        // thread gets round to the command.
+        FutureTask<ResultType> task = new FutureTask<ResultType>(new Callable<ResultType>() {
+          public ResultType call() throws Exception {
+            stopwatch.started();
+            return ((WebDriverHandler) handler).call();
+          }
+        });
+        try {
+          ((WebDriverHandler) handler).execute(task);
+          return task.get();
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof Exception) {
+            throw (Exception) cause;
+          }
+          throw e;
+        }
+      }
+    });
+    stopwatch.handled();
+    final Result toUse = getResult(result, request);
+
+    try {
+      if (handler instanceof WebDriverHandler) {
+        FutureTask<ResultType> task = new FutureTask<ResultType>(new Callable<ResultType>() {
+          public ResultType call() throws Exception {
+            toUse.getRenderer().render(request, response, handler);
+            return null;
+          }
+        });
+
+        ((WebDriverHandler) handler).execute(task);
+        task.get();
+      } else {
+        toUse.getRenderer().render(request, response, handler);
+      }
+    } finally {
+      stopwatch.rendered(response.getCount(), result == ResultType.EXCEPTION);
+    }
+  }
+
+  /**
+   * Runs a command straight away on the calling thread, which has to be the
+   * thread of the session when the command is for one, as for the commands
+   * of a batch.
+   *
+   * @param parameters the values of the url's parameters, as matched by the
+   *        {@link UrlMapper}.
+   * @return the response the handler produced, or null if it doesn't
+   *         produce one.
+   * @see Route#executeInline(String, Map)
+   */
+  public Response executeInline(String pathInfo, String[] parameters,
+      Map<String, Object> jsonParameters) throws Exception {
+    Handler handler = populate(createInstance(handlerClazz), parameters);
+    if (handler instanceof JsonParametersAware && jsonParameters != null) {
+      ((JsonParametersAware) handler).setJsonParameters(jsonParameters);
+    }
+
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("Executing: " + handler + " at URL: " + pathInfo);
+    }
+    if (handler instanceof WebDriverHandler) {
+      ((WebDriverHandler) handler).call();
+    } else {
+      handler.handle();
+    }
+    log.fine("Done: " + pathInfo);
+
+    for (SimplePropertyDescriptor property : readableProperties) {
+      if ("response".equals(property.getName())) {
+        return (Response) property.getReadMethod().invoke(handler);
+      }
+    }
+    return null;
+  }
+
+  private ResultType execute(String pathInfo, HttpServletRequest request, Handler handler,
+      Callable<ResultType> command) {
     ResultType result;
 
     try {
-      log.info(String.format("Executing: %s at URL: %s)", handler.toString(), pathInfo));
-      result = handler.handle();
+      // Formatting the handler isn't free, so only do it when it is logged.
+      if (log.isLoggable(Level.FINE)) {
+        log.fine("Executing: " + handler + " at URL: " + pathInfo);
+      }
+      result = command.call();
       addHandlerAttributesToRequest(request, handler);
-      log.info("Done: " + pathInfo);
+      log.fine("Done: " + pathInfo);
     } catch (Exception e) {
       result = ResultType.EXCEPTION;
       log.log(Level.WARNING, "Exception thrown", e);
@@ -177,7 +410,71 @@ public class ResultConfig {
       result = ResultType.EXCEPTION;
       request.setAttribute("exception", e);
     }
+    return result;
+  }
 
+  /**
+   * @return the id the client gave the command, one for a command picked for
+   *         tracing, or null. The id is passed back on the response.
+   */
+  private static String getTraceId(HttpServletRequest request, HttpServletResponse response) {
+    String traceId = request.getHeader(Tracing.TRACE_HEADER);
+    if (traceId == null && TRACE_SAMPLE > 0 && TRACE_RANDOM.nextDouble() < TRACE_SAMPLE) {
+      traceId = Long.toHexString(TRACE_RANDOM.nextLong());
+    }
+    if (traceId != null) {
+      response.setHeader(Tracing.TRACE_HEADER, traceId);
+    }
+    return traceId;
+  }
+
+  /**
+   * Notes when a command reached the session's thread, and when it was
+   * handled and rendered.
+   */
+  private class Stopwatch {
+    private final String pathInfo;
+    private final long requestBytes;
+    private final String traceId;
+    private final long submitted = System.nanoTime();
+    private long started;
+    private long handled;
+
+    Stopwatch(String pathInfo, long requestBytes, String traceId) {
+      this.pathInfo = pathInfo;
+      this.requestBytes = requestBytes;
+      this.traceId = traceId;
+    }
+
+    void started() {
+      started = System.nanoTime();
+    }
+
+    void handled() {
+      handled = System.nanoTime();
+    }
+
+    void rendered(long responseBytes, boolean failed) {
+      long rendered = System.nanoTime();
+      // Whatever didn't happen took no time.
+      long start = started == 0 ? submitted : started;
+      long end = handled == 0 ? rendered : handled;
+      long queuedMicros = (start - submitted) / 1000;
+      long handledMicros = Math.max(0, end - start) / 1000;
+      long renderedMicros = (rendered - end) / 1000;
+      timings.record(queuedMicros, handledMicros, renderedMicros, requestBytes, responseBytes,
+          failed);
+
+      if (traceId != null) {
+        log.info(String.format(
+            "Trace %s: %s queued %dus, handled %dus, rendered %dus, %d bytes in, %d bytes out",
+            traceId, pathInfo, queuedMicros, handledMicros, renderedMicros,
+            Math.max(0, requestBytes), responseBytes));
+      }
+    }
+  }
+
+  private Result getResult(ResultType result, HttpServletRequest request) {
     Set<Result> results = resultToRender.get(result);
     Result tempToUse = null;
     for (Result res : results) {
@@ -185,50 +482,28 @@ public class ResultConfig {
         tempToUse = res;
       }
     }
-    final Result toUse = tempToUse;
-
-    if (handler instanceof WebDriverHandler) {
-      FutureTask<ResultType> task = new FutureTask<ResultType>(new Callable<ResultType>() {
-        public ResultType call() throws Exception {
-          toUse.getRenderer().render(request, response, handler);
-          return null;
-        }
-      });
-
-      ((WebDriverHandler) handler).execute(task);
-      task.get();
-    } else {
-      toUse.getRenderer().render(request, response, handler);
-    }
+    return tempToUse;
   }
 
   @SuppressWarnings("unchecked")
   private void setJsonParameters(HttpServletRequest request, Handler handler) throws Exception {
-    BufferedReader reader = request.getReader();
-    StringBuilder builder = new StringBuilder();
-    for (String line = reader.readLine(); line != null; line=reader.readLine())
-      builder.append(line);
-
-    String raw = builder.toString();
-    if (raw.length() > 0) {
-      Map<String, Object> parameters = (Map<String, Object>) new JsonToBeanConverter()
-          .convert(HashMap.class, builder.toString());
+    Map<String, Object> parameters = (Map<String, Object>) new JsonToBeanConverter()
+        .convert(HashMap.class, request.getReader());
 
+    if (parameters != null) {
       ((JsonParametersAware) handler).setJsonParameters(parameters);
     }
   }
 
   protected void addHandlerAttributesToRequest(HttpServletRequest request, Handler handler)
       throws Exception {
-    SimplePropertyDescriptor[] properties =
-        SimplePropertyDescriptor.getPropertyDescriptors(handler.getClass());
+    SimplePropertyDescriptor[] properties = readableProperties;
+    if (handler.getClass() != handlerClazz) {
+      properties = getReadableProperties(
+          SimplePropertyDescriptor.getPropertyDescriptors(handler.getClass()));
+    }
     for (SimplePropertyDescriptor property : properties) {
-      Method readMethod = property.getReadMethod();
-      if (readMethod == null) {
-        continue;
-      }
-
-      Object result = readMethod.invoke(handler);
+      Object result = property.getReadMethod().invoke(handler);
       request.setAttribute(property.getName(), result);
     }
   }
@@ -0,0 +1,67 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server.rest;
+
+import org.openqa.selenium.remote.Response;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * A path matched by a {@link UrlMapper}: the config bound at it and the
+ * values the path gives the parameters of the config's url, such as
+ * ":sessionId".
+ */
+public class Route {
+
+  private final ResultConfig config;
+  private final String[] parameters;
+
+  Route(ResultConfig config, String[] parameters) {
+    this.config = config;
+    this.parameters = parameters;
+  }
+
+  public ResultConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * @return the values of the parameters, in the order they come in the url.
+   */
+  public String[] getParameters() {
+    return parameters.clone();
+  }
+
+  /**
+   * @see ResultConfig#handle(String, String[], HttpServletRequest, HttpServletResponse, AsyncResponse)
+   */
+  public void handle(String pathInfo, HttpServletRequest request, HttpServletResponse response,
+      AsyncResponse asyncResponse) throws Exception {
+    config.handle(pathInfo, parameters, request, response, asyncResponse);
+  }
+
+  /**
+   * @see ResultConfig#executeInline(String, String[], Map)
+   */
+  public Response executeInline(String pathInfo, Map<String, Object> jsonParameters)
+      throws Exception {
+    return config.executeInline(pathInfo, parameters, jsonParameters);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+Copyright 2007-2011 WebDriver committers
+Copyright 2007-2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Routes a path to its {@link ResultConfig} by walking the path segments
+ * once, instead of trying every bound url in turn. Literal segments take
+ * precedence over named parameters ("/element/active" wins over
+ * "/element/:id"), and the walk backtracks to the parameter when the
+ * literal branch has no match further down. The values of the parameters
+ * are picked up on the way.
+ */
+class RouteTrie {
+
+  private final Node root = new Node();
+
+  /**
+   * Binds the config at the given url sections, as produced by
+   * <code>url.split("/")</code>.
+   *
+   * @return the config previously bound to the same route, if any. Two urls
+   *         are the same route if they only differ by the names of their
+   *         parameters.
+   */
+  public ResultConfig put(String[] sections, ResultConfig config) {
+    Node node = root;
+    for (String section : sections) {
+      node = node.child(section);
+    }
+    ResultConfig previous = node.config;
+    node.config = config;
+    return previous;
+  }
+
+  /**
+   * @return the config bound at the path, with the values of its parameters,
+   *         or null if there is none.
+   */
+  public Route get(String[] parts) {
+    return find(root, parts, 0, new String[parts.length], 0);
+  }
+
+  /**
+   * @param values the values of the parameters met so far.
+   * @param count how many there are.
+   */
+  private static Route find(Node node, String[] parts, int index, String[] values, int count) {
+    if (index == parts.length) {
+      if (node.config == null) {
+        return null;
+      }
+      String[] parameters = new String[count];
+      System.arraycopy(values, 0, parameters, 0, count);
+      return new Route(node.config, parameters);
+    }
+
+    if (node.literals != null) {
+      Node literal = node.literals.get(parts[index]);
+      if (literal != null) {
+        Route route = find(literal, parts, index + 1, values, count);
+        if (route != null) {
+          return route;
+        }
+      }
+    }
+
+    if (node.parameter != null) {
+      values[count] = parts[index];
+      return find(node.parameter, parts, index + 1, values, count + 1);
+    }
+    return null;
+  }
+
+  private static class Node {
+    private Map<String, Node> literals;
+    private Node parameter;
+    private ResultConfig config;
+
+    Node child(String section) {
+      if (section.startsWith(":")) {
+        if (parameter == null) {
+          parameter = new Node();
+        }
+        return parameter;
+      }
+
+      if (literals == null) {
+        literals = new HashMap<String, Node>();
+      }
+      Node child = literals.get(section);
+      if (child == null) {
+        child = new Node();
+        literals.put(section, child);
+      }
+      return child;
+    }
+  }
+}
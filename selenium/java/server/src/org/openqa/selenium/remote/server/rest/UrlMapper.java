@@ -19,6 +19,8 @@ package org.openqa.selenium.remote.server.rest;
 
 import org.openqa.selenium.remote.server.DriverSessions;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -29,6 +31,7 @@ public class UrlMapper {
 
   private final Map<ResultType, Renderer> globals = new LinkedHashMap<ResultType, Renderer>();
   private final Set<ResultConfig> configs = new LinkedHashSet<ResultConfig>();
+  private final RouteTrie routes = new RouteTrie();
   private final DriverSessions sessions;
   private final Logger log;
 
@@ -38,12 +41,11 @@ public class UrlMapper {
   }
 
   public ResultConfig bind(String url, Class<? extends Handler> handlerClazz) {
-    ResultConfig existingConfig = getConfig(url);
+    ResultConfig config = new ResultConfig(url, handlerClazz, sessions, log);
+    ResultConfig existingConfig = routes.put(url.split("/"), config);
     if (existingConfig != null) {
       configs.remove(existingConfig);
     }
-
-    ResultConfig config = new ResultConfig(url, handlerClazz, sessions, log);
     configs.add(config);
     for (Map.Entry<ResultType, Renderer> entry : globals.entrySet()) {
       config.on(entry.getKey(), entry.getValue());
@@ -52,13 +54,23 @@ public class UrlMapper {
   }
 
   public ResultConfig getConfig(String url) {
-    for (ResultConfig config : configs) {
-      if (config.isFor(url)) {
-        return config;
-      }
-    }
+    Route route = getRoute(url);
+    return route == null ? null : route.getConfig();
+  }
+
+  /**
+   * @return the config bound at the url, with the values the url gives its
+   *         parameters, or null if there is none.
+   */
+  public Route getRoute(String url) {
+    return routes.get(url.split("/"));
+  }
 
-    return null;
+  /**
+   * @return the configs bound so far, in the order they were bound.
+   */
+  public Collection<ResultConfig> getConfigs() {
+    return Collections.unmodifiableCollection(configs);
   }
 
   public void addGlobalHandler(ResultType type, Renderer renderer) {
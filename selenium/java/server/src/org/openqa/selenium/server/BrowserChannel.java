@@ -0,0 +1,289 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Carries the commands and results of all the frames of a browser window over
+ * one connection, instead of each frame polling the server for its own
+ * commands. The injected runner of the top frame opens it, by posting to the
+ * driver with a channel parameter naming it, when the server runs with
+ * -browserChannel; frames which can't reach the top frame keep polling.
+ *
+ * The browser posts the results of any number of frames, each addressed by
+ * its uniqueId, and gets back the next command of every waiting frame which
+ * has one. If no command turns up before the retry timeout, it gets nothing
+ * back and simply asks again; the frames keep waiting in between. Only one
+ * exchange waits at a time: a new one releases the previous one.
+ *
+ * Each message is the frame's parameters as a query string on one line (the
+ * same parameters a frame polling on its own sends), the length of the
+ * content on the next, and then the content itself: the result of the
+ * frame's previous command, or the command for the frame. Commands are not
+ * padded, as the channel is not rendered by the browser.
+ */
+public class BrowserChannel {
+
+  private static final Logger log = Logger.getLogger(BrowserChannel.class.getName());
+
+  private final FrameGroupCommandQueueSet queueSet;
+  private final long timeoutInMillis;
+  private final Lock lock = new ReentrantLock();
+  private final Condition commandQueued = lock.newCondition();
+  // The uniqueIds of the frames waiting for a command, in the order they asked.
+  private final Set<String> waiting = new LinkedHashSet<String>();
+  private int exchanges;
+  private boolean closed;
+
+  public BrowserChannel(FrameGroupCommandQueueSet queueSet, int timeoutInSeconds) {
+    this.queueSet = queueSet;
+    this.timeoutInMillis = TimeUnit.SECONDS.toMillis(timeoutInSeconds);
+  }
+
+  /**
+   * Hands over the results the browser posted and waits for the next
+   * commands.
+   *
+   * @param results the results of the frames, in the order they came.
+   * @return the commands for the frames, which may be none if the wait timed
+   *         out, the session ended or another exchange came in.
+   */
+  public List<Message> exchange(List<Message> results) {
+    List<Message> commands = new ArrayList<Message>();
+    for (Message result : results) {
+      accept(result, commands);
+    }
+
+    lock.lock();
+    try {
+      int exchange = ++exchanges;
+      // An older exchange still waiting gives way to this one.
+      commandQueued.signalAll();
+
+      long deadline = System.currentTimeMillis() + timeoutInMillis;
+      while (!closed && exchange == exchanges) {
+        collectCommands(commands);
+        long left = deadline - System.currentTimeMillis();
+        if (!commands.isEmpty() || left <= 0) {
+          break;
+        }
+        try {
+          commandQueued.await(left, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      return commands;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void accept(Message result, List<Message> commands) {
+    String uniqueId = result.getParameter("uniqueId");
+    if (uniqueId == null) {
+      throw new IllegalArgumentException("Message without a uniqueId: " + result);
+    }
+    FrameAddress frameAddress = FrameGroupCommandQueueSet.makeFrameAddress(
+        result.getParameter("seleniumWindowName"), result.getParameter("localFrameAddress"));
+    boolean justLoaded = "true".equals(result.getParameter("seleniumStart"));
+    boolean retrying = "true".equals(result.getParameter("retry"));
+    String content = result.getContent();
+    // As when polling, a retry has no result, and neither has a frame which just asks for work.
+    String commandResult = retrying || content.length() == 0 ? null : content;
+
+    log.fine("Channel got from " + uniqueId + ": " + content);
+    queueSet.getCommandQueue(uniqueId).setChannel(this);
+    RemoteCommand command = queueSet.acceptCommandResult(commandResult, frameAddress, uniqueId,
+        justLoaded, result.getParameters("jsWindowNameVar"));
+
+    lock.lock();
+    try {
+      if (command != null) {
+        waiting.remove(uniqueId);
+        commands.add(new Message(uniqueId, command));
+      } else {
+        waiting.add(uniqueId);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void collectCommands(List<Message> commands) {
+    for (Iterator<String> iterator = waiting.iterator(); iterator.hasNext();) {
+      String uniqueId = iterator.next();
+      CommandQueue queue = queueSet.getCommandQueue(uniqueId);
+      RemoteCommand command = queue.pollNextCommand();
+      if (command != null) {
+        iterator.remove();
+        commands.add(new Message(uniqueId, command));
+      } else if (queue.isClosed()) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Wakes up the waiting exchange, if any, to collect the new command.
+   */
+  void commandQueued() {
+    lock.lock();
+    try {
+      commandQueued.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Releases the waiting exchange, if any, for good.
+   */
+  void close() {
+    lock.lock();
+    try {
+      closed = true;
+      waiting.clear();
+      commandQueued.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public static List<Message> parse(String body) {
+    List<Message> messages = new ArrayList<Message>();
+    int position = 0;
+    while (position < body.length()) {
+      int endOfParameters = body.indexOf('\n', position);
+      int endOfLength = endOfParameters == -1 ? -1 : body.indexOf('\n', endOfParameters + 1);
+      if (endOfLength == -1) {
+        throw new IllegalArgumentException("Truncated message at " + position);
+      }
+      String parameters = body.substring(position, endOfParameters);
+      int length = Integer.parseInt(body.substring(endOfParameters + 1, endOfLength).trim());
+      int start = endOfLength + 1;
+      if (length < 0 || start + length > body.length()) {
+        throw new IllegalArgumentException("Bad content length at " + position + ": " + length);
+      }
+      messages.add(new Message(parameters, body.substring(start, start + length)));
+      position = start + length;
+    }
+    return messages;
+  }
+
+  public static String format(List<Message> messages) {
+    StringBuilder builder = new StringBuilder();
+    for (Message message : messages) {
+      builder.append(message.getParameters()).append('\n')
+          .append(message.getContent().length()).append('\n')
+          .append(message.getContent());
+    }
+    return builder.toString();
+  }
+
+  /**
+   * What is said about one frame: a result from it or a command for it.
+   */
+  public static class Message {
+    private final String parameters;
+    private final String content;
+
+    /**
+     * @param parameters the parameters as a query string, without the "?".
+     */
+    public Message(String parameters, String content) {
+      this.parameters = parameters;
+      this.content = content;
+    }
+
+    public Message(String uniqueId, RemoteCommand command) {
+      this("uniqueId=" + encode(uniqueId), command.toString());
+    }
+
+    public String getParameters() {
+      return parameters;
+    }
+
+    /**
+     * @return the first value of the parameter, or null if there is none.
+     */
+    public String getParameter(String name) {
+      List<String> values = getParameters(name);
+      return values == null ? null : values.get(0);
+    }
+
+    /**
+     * @return all the values of the parameter, or null if there are none.
+     */
+    public List<String> getParameters(String name) {
+      List<String> values = null;
+      for (String pair : parameters.split("&")) {
+        int equals = pair.indexOf('=');
+        String key = decode(equals == -1 ? pair : pair.substring(0, equals));
+        if (key.equals(name)) {
+          if (values == null) {
+            values = new ArrayList<String>();
+          }
+          values.add(equals == -1 ? "" : decode(pair.substring(equals + 1)));
+        }
+      }
+      return values == null ? null : Collections.unmodifiableList(values);
+    }
+
+    public String getContent() {
+      return content;
+    }
+
+    @Override
+    public String toString() {
+      return parameters + ": " + content;
+    }
+  }
+
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String decode(String value) {
+    try {
+      return URLDecoder.decode(value, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -5,6 +5,7 @@ import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.browserlaunchers.BrowserLauncher;
 import org.openqa.selenium.server.browserlaunchers.BrowserLauncherFactory;
 import org.openqa.selenium.server.browserlaunchers.InvalidBrowserExecutableException;
+import org.openqa.selenium.server.commands.CaptureNetworkTrafficCommand;
 import org.openqa.selenium.server.log.LoggingManager;
 
 import java.io.IOException;
@@ -111,6 +112,7 @@ public class BrowserSessionFactory {
 
         if (configuration.getProxyInjectionModeArg()) {
             InjectionHelper.setBrowserSideLogEnabled(configuration.isBrowserSideLogEnabled());
+            InjectionHelper.setBrowserChannelEnabled(configuration.isBrowserChannelEnabled());
             InjectionHelper.init();
         }
 
@@ -216,6 +218,7 @@ public class BrowserSessionFactory {
                 } catch (IOException ex) {
                     // ignore
                 }
+                clearSessionState(sessionId);
                 if (ensureClean) {
                     // need to add this to the launcher API.
                     // sessionInfo.launcher.restoreOriginalSessionData();
@@ -234,6 +237,7 @@ public class BrowserSessionFactory {
                     } catch (IOException e) {
                         // ignore
                     }
+                    clearSessionState(sessionId);
                     if (ensureClean) {
                         // sessionInfo.launcher.restoreOriginalSessionData();
                     }
@@ -242,6 +246,17 @@ public class BrowserSessionFactory {
         }
     }
 
+    /**
+     * Drops the state other parts of the server keep for an ended session.
+     *
+     * @param sessionId the id of the session which ended.
+     */
+    protected void clearSessionState(String sessionId) {
+        InjectionHelper.clearSession(sessionId);
+        SeleniumDriverResourceHandler.forgetDomain(sessionId);
+        CaptureNetworkTrafficCommand.remove(sessionId);
+    }
+
     /**
      * Shuts down this browser session's launcher and clears out its session
      * data (if session is not null).
@@ -363,7 +378,6 @@ public class BrowserSessionFactory {
         }
         
         sessionInfo = new BrowserSessionInfo(sessionId, browserString, startURL, launcher, queueSet);
-        SeleniumDriverResourceHandler.setLastSessionId(sessionId);
         log.info("Allocated session " + sessionId + " for " + startURL + ", launching...");
                 
         LoggingManager.perSessionLogHandler().setThreadToSessionMapping(Thread.currentThread().getId(), sessionId);
@@ -76,6 +76,21 @@ public class CommandHolder {
         return command;
     }
 
+    /**
+     * Get, and remove from the holder, the next command to run, without
+     * waiting for it.
+     *
+     * @return the next command to execute, or null if there is none yet or
+     *         the queue was poisoned.
+     */
+    public RemoteCommand pollCommand() {
+        RemoteCommand command = queue.poll();
+        if (null != command && queue.isPoison(command)) {
+            command = null;
+        }
+        return command;
+    }
+
     public boolean putCommand(RemoteCommand cmd) {
         log.fine(hdr());
         return queue.putContent(cmd);
@@ -50,6 +50,8 @@ public class CommandQueue {
     private FrameAddress frameAddress;
     private AtomicBoolean closed;
     private AtomicInteger queueDelay;
+    private volatile long lastResultMillis;
+    private volatile BrowserChannel channel;
 
     public CommandQueue(String newSessionId, String newUniqueId, RemoteControlConfiguration configuration) {
         sessionId = newSessionId;
@@ -120,10 +122,12 @@ public class CommandQueue {
             + " in place before new command " + command + " could be added");
       }
 
-      // wait a bit if we're adding delay between commands
-      if (queueDelay.get() > 0) {
-        log.fine("    Slow mode in effect: sleep " + queueDelay + " milliseconds...");
-        FrameGroupCommandQueueSet.sleepForAtLeast(queueDelay.get());
+      // wait a bit if we're adding delay between commands; the time since the
+      // browser's last result already counts towards it
+      long delay = queueDelay.get() - (System.currentTimeMillis() - lastResultMillis);
+      if (queueDelay.get() > 0 && delay > 0) {
+        log.fine("    Slow mode in effect: sleep " + delay + " milliseconds...");
+        FrameGroupCommandQueueSet.sleepForAtLeast(delay);
         log.fine("    ...done");
       }
       
@@ -159,6 +163,7 @@ public class CommandQueue {
         throw new IllegalStateException("commandHolder got filled during " +
             "execution of doCommandWithoutWaitingForAReponse");
       }
+      notifyChannel();
     }
 
   	/** Get, and remove from the command holder, the next command to run */
@@ -194,18 +199,28 @@ public class CommandQueue {
      */
     public RemoteCommand handleCommandResult(String commandResult) {
 
+     acceptCommandResult(commandResult);
+     
+     // get the next command to execute
+     return getNextCommand();
+    }
+
+    /**
+     * <p>Accepts a command reply, without waiting for the next command.</p>
+     * 
+     * @param commandResult - the reply from the previous command, or null
+     */
+    public void acceptCommandResult(String commandResult) {
      // first, handle the new result
      handleCommandResultWithoutWaitingForACommand(commandResult);
      
      // increase the browser response sequencer
      browserResponseSequencer.increaseNum();
-     
-     // get the next command to execute
-     return getNextCommand();
     }
    
     protected void handleCommandResultWithoutWaitingForACommand(String commandResult) {
       if (commandResult != null) {
+        lastResultMillis = System.currentTimeMillis();
         if (!resultExpected.get() ) {
           if (proxyInjectionMode) {
             // This logic is to account for the case where in proxy injection mode, it is possible 
@@ -244,6 +259,26 @@ public class CommandQueue {
 	protected RemoteCommand getNextCommand() {
 	  return commandHolder.getCommand();
 	}
+
+	/** Get, and remove from the command holder, the next command to run if there is one yet */
+	protected RemoteCommand pollNextCommand() {
+	  return commandHolder.pollCommand();
+	}
+
+    /**
+     * Sets the channel the frame of this queue is talking to the server on,
+     * which is told whenever a command is queued.
+     */
+    public void setChannel(BrowserChannel channel) {
+      this.channel = channel;
+    }
+
+    private void notifyChannel() {
+      BrowserChannel current = channel;
+      if (current != null) {
+        current.commandQueued();
+      }
+    }
     
     protected static String getIdentification(String caller, String queueId) {
         StringBuffer sb = new StringBuffer();
@@ -267,6 +302,7 @@ public class CommandQueue {
     public void endOfLife() {
       resultHolder.poisonPollers();
       commandHolder.poisonPollers();
+      notifyChannel();
     }
    
     public FrameAddress getFrameAddress() {
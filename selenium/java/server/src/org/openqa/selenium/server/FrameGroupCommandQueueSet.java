@@ -27,11 +27,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 import org.openqa.selenium.net.Urls;
@@ -46,8 +45,12 @@ public class FrameGroupCommandQueueSet {
     private static final Logger log = Logger.getLogger(FrameGroupCommandQueueSet.class.getName());
 
     static private final Map<String, FrameGroupCommandQueueSet> queueSets = new ConcurrentHashMap<String, FrameGroupCommandQueueSet>();
-    static private Lock dataLock = new ReentrantLock(); //
-    static private Condition resultArrivedOnAnyQueue = dataLock.newCondition();
+    /**
+     * The next load of each local frame address of this session, counted down
+     * by handleCommandResult when a frame at that address has just loaded.  A
+     * wait for a frame only wakes up for the loads of frames at its address.
+     */
+    private final ConcurrentMap<String, CountDownLatch> nextLoads = new ConcurrentHashMap<String, CountDownLatch>();
 
     /**
      * JavaScript expression telling where the frame is within the current window (i.e., "local"
@@ -90,6 +93,10 @@ public class FrameGroupCommandQueueSet {
      * destroyed because their corresponding windows may still be listening.
      */
     private Set<CommandQueue> orphanedQueues = new HashSet<CommandQueue>();
+    // The channels the windows of the browser talk to the server on, by the id each window picked.
+    private final ConcurrentMap<String, BrowserChannel> channels =
+        new ConcurrentHashMap<String, BrowserChannel>();
+    private volatile boolean ended;
 
     public static final String DEFAULT_LOCAL_FRAME_ADDRESS = "top";
     /**
@@ -334,7 +341,7 @@ public class FrameGroupCommandQueueSet {
             // Wait for the popup window to load, if it throws
             // an exception then we should simply return the
         	// command result
-        	uniqueId = waitForLoad(waitingForThisWindowName, "top", (int)(timeoutInMilliseconds / 1000l));
+        	uniqueId = waitForLoad(waitingForThisWindowName, "top", timeoutInMilliseconds);
         	 
         	// if (!result.equals("OK")) {
         	// 	return result;
@@ -356,7 +363,7 @@ public class FrameGroupCommandQueueSet {
           String currentWindowName = getCommandQueue().getFrameAddress().getWindowName();
           String result;
           try {
-			result = waitForLoad(currentWindowName, waitingForThisFrameName, (int)(timeoutInMilliseconds / 1000l));
+			result = waitForLoad(currentWindowName, waitingForThisFrameName, timeoutInMilliseconds);
           } catch (RemoteCommandException e) {
 			return e.getMessage();
           }
@@ -390,7 +397,7 @@ public class FrameGroupCommandQueueSet {
         CommandQueue queue = getCommandQueue();
         if (queue.isClosed()) {
           try {
-            String uniqueId = waitForLoad(currentSeleniumWindowName, currentLocalFrameAddress, 1);
+            String uniqueId = waitForLoad(currentSeleniumWindowName, currentLocalFrameAddress, 1000);
             setCurrentFrameAddress(uniqueId);
           } catch (RemoteCommandException e) {
             return WindowClosedException.WINDOW_CLOSED_ERROR;
@@ -514,11 +521,10 @@ public class FrameGroupCommandQueueSet {
     public String waitForLoad(long timeoutInMilliseconds) throws RemoteCommandException {
         final String uniqueId;
 
-        int timeoutInSeconds = (int)(timeoutInMilliseconds / 1000l);
-        if (timeoutInSeconds == 0) {
-            timeoutInSeconds = 1;
+        if (timeoutInMilliseconds <= 0) {
+            timeoutInMilliseconds = 1000;
         }
-        uniqueId = waitForLoad(currentSeleniumWindowName, currentLocalFrameAddress, timeoutInSeconds);
+        uniqueId = waitForLoad(currentSeleniumWindowName, currentLocalFrameAddress, timeoutInMilliseconds);
         setCurrentFrameAddress(uniqueId);
       	if (uniqueId == null) {
       		throw new RuntimeException("uniqueId is null in waitForLoad...this should not happen.");
@@ -531,66 +537,50 @@ public class FrameGroupCommandQueueSet {
     }
 
     private String waitForLoad(String waitingForThisWindowName, String waitingForThisLocalFrame,
-                               int timeoutInSeconds) throws RemoteCommandException {
+                               long timeoutInMilliseconds) throws RemoteCommandException {
+
+        if (waitingForThisLocalFrame == null) {
+            waitingForThisLocalFrame = DEFAULT_LOCAL_FRAME_ADDRESS;
+        }
+        long deadline = System.currentTimeMillis() + timeoutInMilliseconds;
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            log.fine("waiting for window '" + waitingForThisWindowName
+                    + "' local frame '" + waitingForThisLocalFrame
+                    + "' for " + remaining + " more ms");
+
+            // Taken before looking, so that a load in the meantime isn't missed
+            CountDownLatch nextLoad = nextLoadOf(waitingForThisLocalFrame);
+            String matchingFrameAddress = findMatchingFrameAddress(
+                    frameAddressToJustLoaded.keySet(),
+                    waitingForThisWindowName, waitingForThisLocalFrame);
+            if (null != matchingFrameAddress) {
+                log.fine("wait is over: window '" + waitingForThisWindowName
+                        + "' was seen at last (" + matchingFrameAddress + ")");
+                /*
+                 * Remove it from the list of matching frame addresses
+                 * since it just loaded. Mark whether just loaded
+                 * to aid debugging.
+                 */
+                markWhetherJustLoaded(matchingFrameAddress, false);
+                return matchingFrameAddress;
+            }
 
-        for (String matchingFrameAddress = null; timeoutInSeconds >= 0; timeoutInSeconds--) {
-            dataLock.lock();
+            if (remaining <= 0) {
+                break;
+            }
+            // The window name is matched above rather than by the latch, as a
+            // freshly loaded window may only be recognised by its title.
             try {
-                log.fine("waiting for window '" + waitingForThisWindowName
-                        + "' local frame '" + waitingForThisLocalFrame
-                        + "' for " + timeoutInSeconds + " more secs");
-
-                matchingFrameAddress = findMatchingFrameAddress(
-                        frameAddressToJustLoaded.keySet(),
-                        waitingForThisWindowName, waitingForThisLocalFrame);
-                if (null != matchingFrameAddress) {
-                    log.fine("wait is over: window '" + waitingForThisWindowName
-                            + "' was seen at last (" + matchingFrameAddress + ")");
-                    /*
-                     * Remove it from the list of matching frame addresses
-                     * since it just loaded. Mark whether just loaded
-                     * to aid debugging.
-                     */
-                    markWhetherJustLoaded(matchingFrameAddress, false);
-                    return matchingFrameAddress;
-                }
-
-                waitUntilSignalOrNumSecondsPassed(resultArrivedOnAnyQueue, 1);
-            } finally {
-                dataLock.unlock();
+                nextLoad.await(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // Keep waiting until the deadline, as before
             }
         }
         String result = "timed out waiting for window '" + waitingForThisWindowName + "' to appear";
         throw new RemoteCommandException(result, result);
     }
 
-    /**
-     *  Waits on the condition, making sure to wait at least as
-     *  many seconds as specified, unless the condition is signaled
-     *  first.
-     *
-     *@param condition
-     *@param numSeconds
-     **/
-    protected static boolean waitUntilSignalOrNumSecondsPassed(Condition condition, int numSeconds) {
-      boolean result = false;
-      if (numSeconds > 0) {
-        long now = System.currentTimeMillis();
-        long deadline = now + (numSeconds * 1000);
-        while(now < deadline) {
-          try {
-            log.fine("waiting for condition for " + (deadline-now) + " more ms");
-            result = condition.await(deadline - now, TimeUnit.MILLISECONDS);
-            log.fine("got condition? : " + result);
-            now = deadline;
-          } catch (InterruptedException ie) {
-            now = System.currentTimeMillis();
-          }
-        }
-      }
-      return result;
-    }
-
     protected static void sleepForAtLeast(long ms) {
       if (ms > 0) {
         long now = System.currentTimeMillis();
@@ -679,6 +669,23 @@ public class FrameGroupCommandQueueSet {
     public RemoteCommand handleCommandResult(
         String commandResult, FrameAddress incomingFrameAddress, 
         String uniqueId, boolean justLoaded, List<?> jsWindowNameVars) {
+      RemoteCommand command = acceptCommandResult(commandResult, incomingFrameAddress, uniqueId,
+          justLoaded, jsWindowNameVars);
+      if (command != null) {
+        return command;
+      }
+      return getCommandQueue(uniqueId).getNextCommand();
+    }
+
+    /**
+     * Accepts the result a frame posted, without waiting for the frame's
+     * next command.
+     *
+     * @return the command to send the frame straight away, if there is one.
+     */
+    public RemoteCommand acceptCommandResult(
+        String commandResult, FrameAddress incomingFrameAddress, 
+        String uniqueId, boolean justLoaded, List<?> jsWindowNameVars) {
       CommandQueue queue = getCommandQueue(uniqueId);
       queue.setFrameAddress(incomingFrameAddress);
       if (jsWindowNameVars!=null) {
@@ -697,7 +704,30 @@ public class FrameGroupCommandQueueSet {
         return new DefaultRemoteCommand("testComplete", "", "");
       }
       
-      return queue.handleCommandResult(commandResult);
+      queue.acceptCommandResult(commandResult);
+      return null;
+    }
+
+    /**
+     * @param channelId the id a window of the browser picked for its channel.
+     * @return the channel the window can use to talk to the server for all
+     *         of its frames at once. Each window has its own, so that their
+     *         exchanges don't release each other.
+     */
+    public BrowserChannel getChannel(String channelId) {
+      BrowserChannel channel = channels.get(channelId);
+      if (channel == null) {
+        BrowserChannel created = new BrowserChannel(this, configuration.getRetryTimeoutInSeconds());
+        channel = channels.putIfAbsent(channelId, created);
+        if (channel == null) {
+          channel = created;
+        }
+      }
+      if (ended) {
+        // the session ended while the channel was being made
+        channel.close();
+      }
+      return channel;
     }
 
     /**
@@ -709,6 +739,10 @@ public class FrameGroupCommandQueueSet {
       for (CommandQueue frameQ : uniqueIdToCommandQueue.values()) {
           frameQ.endOfLife();
       }
+      ended = true;
+      for (BrowserChannel channel : channels.values()) {
+        channel.close();
+      }
     }
 
     private boolean justLoaded(String uniqueId) {
@@ -722,22 +756,34 @@ public class FrameGroupCommandQueueSet {
     private void markWhetherJustLoaded(String frameAddress, boolean justLoaded) {
       boolean oldState = justLoaded(frameAddress);
       if (oldState!=justLoaded) {
-        dataLock.lock();
-        try {       
-          if (justLoaded) {
-            log.fine(frameAddress + " marked as just loaded");
-            frameAddressToJustLoaded.put(frameAddress, true);
-          }
-          else {
-            log.fine(frameAddress + " marked as NOT just loaded");
-            frameAddressToJustLoaded.remove(frameAddress);
+        if (justLoaded) {
+          log.fine(frameAddress + " marked as just loaded");
+          frameAddressToJustLoaded.put(frameAddress, true);
+          CommandQueue queue = uniqueIdToCommandQueue.get(frameAddress);
+          if (queue != null && queue.getFrameAddress() != null) {
+            CountDownLatch load = nextLoads.remove(queue.getFrameAddress().getLocalFrameAddress());
+            if (load != null) {
+              load.countDown();
+            }
           }
-          resultArrivedOnAnyQueue.signalAll();
         }
-        finally {
-          dataLock.unlock();
+        else {
+          log.fine(frameAddress + " marked as NOT just loaded");
+          frameAddressToJustLoaded.remove(frameAddress);
+        }
+      }
+    }
+
+    private CountDownLatch nextLoadOf(String localFrameAddress) {
+      CountDownLatch load = nextLoads.get(localFrameAddress);
+      if (load == null) {
+        CountDownLatch created = new CountDownLatch(1);
+        load = nextLoads.putIfAbsent(localFrameAddress, created);
+        if (load == null) {
+          load = created;
         }
       }
+      return load;
     }
 
     private void setCurrentFrameAddress(String uniqueId) {
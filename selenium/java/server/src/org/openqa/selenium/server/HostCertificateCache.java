@@ -0,0 +1,311 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server;
+
+import cybervillains.ca.CertificateCreator;
+import cybervillains.ca.KeyStoreManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out a certificate for a host, signed by the cybervillains CA, and its private key, for
+ * the proxy to impersonate the host with.
+ *
+ * Each host's certificate is only generated once, and different hosts are generated in
+ * parallel. Making RSA keys is what takes the time, so a few key pairs are generated ahead in
+ * the background; each certificate takes one of its own and a replacement is started. If given
+ * a store, the certificates are appended to
+ * it as they are made and read back when the server starts again.
+ */
+public class HostCertificateCache {
+  private static final Logger log = Logger.getLogger(HostCertificateCache.class.getName());
+
+  static final int KEY_POOL_SIZE = Integer.getInteger("selenium.ssl.keyPoolSize", 4);
+
+  private final File store;
+  private final X509Certificate caCert;
+  private final PrivateKey caKey;
+  private final ExecutorService executor;
+  // keys have their own threads, so certificates waiting for a key can't hold up making one
+  private final ExecutorService keyExecutor;
+  private final BlockingQueue<Future<KeyPair>> keyPool = new LinkedBlockingQueue<Future<KeyPair>>();
+  private final Map<String, HostCertificate> stored;
+  private final ConcurrentMap<String, Future<HostCertificate>> certificatesByHost =
+      new ConcurrentHashMap<String, Future<HostCertificate>>();
+  private final Object storeLock = new Object();
+
+  /**
+   * @param root a directory holding the CA keystore; one is made if it doesn't.
+   * @param store where to keep certificates across restarts, or null not to keep them.
+   */
+  public HostCertificateCache(File root, File store) throws GeneralSecurityException {
+    this.store = store;
+    KeyStoreManager manager = new KeyStoreManager(root);
+    caCert = manager.getSigningCert();
+    caKey = manager.getSigningPrivateKey();
+    stored = load();
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    executor = Executors.newFixedThreadPool(threads, daemons("Certificate generator "));
+    keyExecutor = Executors.newFixedThreadPool(threads, daemons("Key generator "));
+    for (int i = 0; i < Math.max(1, KEY_POOL_SIZE); i++) {
+      generateKeyPair();
+    }
+  }
+
+  private static ThreadFactory daemons(final String name) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  private void generateKeyPair() {
+    keyPool.add(keyExecutor.submit(new Callable<KeyPair>() {
+      public KeyPair call() throws GeneralSecurityException {
+        // generators aren't thread safe, so each has its own
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        return generator.generateKeyPair();
+      }
+    }));
+  }
+
+  /**
+   * Takes a key pair no other certificate has, starting another to take its place.
+   */
+  private KeyPair takeKeyPair() throws Exception {
+    Future<KeyPair> keyPair = keyPool.take();
+    generateKeyPair();
+    return keyPair.get();
+  }
+
+  /**
+   * Starts making the certificate for a host, if it isn't already made or being made.
+   */
+  public Future<?> prepare(String hostname) {
+    return certificateFor(hostname);
+  }
+
+  /**
+   * @return the host's certificate, followed by the CA's.
+   */
+  public X509Certificate[] getCertificateChain(String hostname) throws Exception {
+    return new X509Certificate[] {get(hostname).cert, caCert};
+  }
+
+  public PrivateKey getPrivateKey(String hostname) throws Exception {
+    return get(hostname).key;
+  }
+
+  /**
+   * Stops the generator threads.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+    keyExecutor.shutdownNow();
+  }
+
+  private Future<HostCertificate> certificateFor(final String hostname) {
+    Future<HostCertificate> certificate = certificatesByHost.get(hostname);
+    if (certificate != null) {
+      return certificate;
+    }
+    FutureTask<HostCertificate> task = new FutureTask<HostCertificate>(new Callable<HostCertificate>() {
+      public HostCertificate call() throws Exception {
+        return makeCertificate(hostname);
+      }
+    });
+    certificate = certificatesByHost.putIfAbsent(hostname, task);
+    if (certificate != null) {
+      return certificate;
+    }
+    executor.execute(task);
+    return task;
+  }
+
+  private HostCertificate get(String hostname) throws Exception {
+    Future<HostCertificate> certificate = certificateFor(hostname);
+    try {
+      return certificate.get();
+    } catch (ExecutionException e) {
+      // let the next caller try again
+      certificatesByHost.remove(hostname, certificate);
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+    }
+  }
+
+  private HostCertificate makeCertificate(String hostname) throws Exception {
+    HostCertificate certificate = stored.get(hostname);
+    if (certificate != null) {
+      return certificate;
+    }
+
+    KeyPair keyPair = takeKeyPair();
+    X509Certificate cert = CertificateCreator.generateStdSSLServerCertificate(
+        keyPair.getPublic(), caCert, caKey, subject(hostname));
+    certificate = new HostCertificate(keyPair.getPrivate(), cert);
+    append(hostname, certificate);
+    return certificate;
+  }
+
+  private static String subject(String hostname) {
+    return "CN=" + hostname + ", OU=Test, O=CyberVillainsCA, L=Seattle, S=Washington, C=US";
+  }
+
+  /**
+   * Adds a record to the end of the store: the host name, the algorithm and PKCS#8 encoding of
+   * the private key, and the DER encoding of the certificate.
+   */
+  private void append(String hostname, HostCertificate certificate) {
+    if (store == null) {
+      return;
+    }
+    synchronized (storeLock) {
+      try {
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(store, true)));
+        try {
+          out.writeUTF(hostname);
+          out.writeUTF(certificate.key.getAlgorithm());
+          writeBytes(out, certificate.key.getEncoded());
+          writeBytes(out, certificate.cert.getEncoded());
+        } finally {
+          out.close();
+        }
+      } catch (Exception e) {
+        log.log(Level.WARNING, "Couldn't keep the certificate for " + hostname + " in " + store, e);
+      }
+    }
+  }
+
+  /**
+   * Reads the store back, keeping the last certificate for each host which was signed by our CA
+   * and hasn't expired.
+   */
+  private Map<String, HostCertificate> load() {
+    Map<String, HostCertificate> certificates = new HashMap<String, HostCertificate>();
+    if (store == null || !store.exists()) {
+      return certificates;
+    }
+
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(store)));
+      try {
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        while (true) {
+          String hostname;
+          try {
+            hostname = in.readUTF();
+          } catch (EOFException e) {
+            break;
+          }
+          String algorithm = in.readUTF();
+          byte[] key = readBytes(in);
+          byte[] cert = readBytes(in);
+
+          try {
+            PrivateKey privateKey =
+                KeyFactory.getInstance(algorithm).generatePrivate(new PKCS8EncodedKeySpec(key));
+            X509Certificate certificate = (X509Certificate) factory.generateCertificate(
+                new ByteArrayInputStream(cert));
+            certificate.verify(caCert.getPublicKey());
+            certificate.checkValidity();
+            certificates.put(hostname, new HostCertificate(privateKey, certificate));
+          } catch (GeneralSecurityException e) {
+            log.fine("Ignoring the stored certificate for " + hostname + ": " + e);
+          }
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      // most likely the end of a record which was being written when the server went down
+      log.log(Level.WARNING, "Couldn't read all of the certificates in " + store, e);
+    } catch (GeneralSecurityException e) {
+      log.log(Level.WARNING, "Couldn't read the certificates in " + store, e);
+    }
+    log.fine("Read " + certificates.size() + " certificates from " + store);
+    return certificates;
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > 1024 * 1024) {
+      throw new IOException("Bad record length " + length);
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static class HostCertificate {
+    private final PrivateKey key;
+    private final X509Certificate cert;
+
+    HostCertificate(PrivateKey key, X509Certificate cert) {
+      this.key = key;
+      this.cert = cert;
+    }
+  }
+}
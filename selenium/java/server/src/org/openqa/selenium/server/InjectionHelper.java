@@ -6,12 +6,18 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.openqa.jetty.http.HttpRequest;
 import org.openqa.jetty.http.HttpResponse;
@@ -21,11 +27,23 @@ public class InjectionHelper {
     static Logger log = Logger.getLogger(InjectionHelper.class.getName());
   private static boolean failOnError = true;
     private static boolean browserSideLogEnabled = true;
+    private static boolean browserChannelEnabled = false;
     private static boolean INJECT_SCRIPT_TAGS = true;
     private static boolean tryToInjectInHead = false;
     private static String injectionHtml = "/core/scripts/injection.html";
-    private static HashMap<String, HashMap<String, String>> jsStateInitializersBySessionId = new HashMap<String, HashMap<String,String>>();
-    private static HashMap<String, String> sessionIdToUniqueId = new HashMap<String, String>();
+    private static final ConcurrentMap<String, Map<String, String>> jsStateInitializersBySessionId =
+        new ConcurrentHashMap<String, Map<String, String>>();
+    // What gets written into each page of a session; built on its first page.
+    private static final ConcurrentMap<String, byte[]> injectedScriptBySessionId =
+        new ConcurrentHashMap<String, byte[]>();
+    // How much of a response is looked at to decide whether it is HTML.
+    private static final int PREVIEW_LENGTH = 102400;
+    private static final byte[] HTML_TAG = "<html".getBytes();
+    private static final byte[] HEAD_TAG = "<head".getBytes();
+    private static final byte[] HEAD = "<head>".getBytes();
+    private static final Pattern HEAD_PATTERN = Pattern.compile("<head>", Pattern.CASE_INSENSITIVE);
+    private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static volatile String seleniumJs;
     
     private static HashMap<String, String> contentTransformations = new HashMap<String, String>();
     private static List<String> userJsInjectionFiles = new LinkedList<String>();
@@ -33,6 +51,10 @@ public class InjectionHelper {
     public static void setBrowserSideLogEnabled(boolean browserSideLogEnabled) {
         InjectionHelper.browserSideLogEnabled = browserSideLogEnabled; 
     }
+
+    public static void setBrowserChannelEnabled(boolean browserChannelEnabled) {
+        InjectionHelper.browserChannelEnabled = browserChannelEnabled;
+    }
     
     public static void setInjectScriptTags(boolean injectScriptTags) {
 	    InjectionHelper.INJECT_SCRIPT_TAGS = injectScriptTags;
@@ -47,17 +69,15 @@ public class InjectionHelper {
     }
 
     public static void saveJsStateInitializer(String sessionId, String uniqueId, String jsVarName, String jsStateInitializer) {
-        // when a new uniqueId is seen for a given sessionId, that means the page has 
-        // reloaded and the old state should be discarded
-        if (sessionIdToUniqueId.containsKey(sessionId) && !sessionIdToUniqueId.get(sessionId).equals(uniqueId)) {
-            jsStateInitializersBySessionId.remove(sessionId);
-            sessionIdToUniqueId.put(sessionId, uniqueId);
-        }
         log.fine("Saving JavaScript state for session " + sessionId + "/" + uniqueId + " " + jsVarName + ": " + jsStateInitializer);
-        if (!jsStateInitializersBySessionId.containsKey(sessionId)) {
-            jsStateInitializersBySessionId.put(sessionId, new HashMap<String, String>());
+        Map<String, String> h = jsStateInitializersBySessionId.get(sessionId);
+        if (h == null) {
+            Map<String, String> created = new ConcurrentHashMap<String, String>();
+            h = jsStateInitializersBySessionId.putIfAbsent(sessionId, created);
+            if (h == null) {
+                h = created;
+            }
         }
-        HashMap<String, String> h = jsStateInitializersBySessionId.get(sessionId);
         StringBuffer sb = new StringBuffer("if (uniqueId!='");
         sb.append(uniqueId)
             .append("') {")
@@ -67,11 +87,8 @@ public class InjectionHelper {
     }
     
     public static String restoreJsStateInitializer(String sessionId, String uniqueId) {
-        if (!jsStateInitializersBySessionId.containsKey(sessionId)) {
-            return "";
-        }
-        HashMap<String, String> h = jsStateInitializersBySessionId.get(sessionId);
-        if (h.isEmpty()) {
+        Map<String, String> h = jsStateInitializersBySessionId.get(sessionId);
+        if (h == null || h.isEmpty()) {
             return "";
         }
         StringBuffer sb = new StringBuffer();
@@ -85,15 +102,21 @@ public class InjectionHelper {
         }
         return sb.toString();
     }
+
+    /**
+     * Forgets the JavaScript state and the injected script kept for a session which has ended.
+     */
+    public static void clearSession(String sessionId) {
+        jsStateInitializersBySessionId.remove(sessionId);
+        injectedScriptBySessionId.remove(sessionId);
+    }
     
     /**
      * re-read selenium js.  Don't maintain it indefinitely for now since then we would need to
      * restart the server to see changes.  Once the selenium js is firm, this should change.
      */
     public static void init() {
-        String key = "__SELENIUM_JS__";
-        
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
         if (!INJECT_SCRIPT_TAGS) { // DGF experiment with using script tags
             try {
                 appendFileContent(sb, "/core/scripts/xmlextras.js");
@@ -124,7 +147,8 @@ public class InjectionHelper {
                 log.log(Level.FINE, "Ignored exception", e);
             }
         }
-        contentTransformations.put(key, sb.toString());
+        seleniumJs = sb.toString();
+        injectedScriptBySessionId.clear();
     }
     
     private static void writeScriptTags(OutputStream os) throws IOException {
@@ -155,7 +179,7 @@ public class InjectionHelper {
         os.write("\"></script>\n".getBytes());
     }
     
-	private static void appendFileContent(StringBuffer sb, String url) throws IOException {
+    private static void appendFileContent(StringBuilder sb, String url) throws IOException {
         InputStream in = new ClassPathResource(url).getInputStream();
         if (in==null) {
             if (!url.endsWith("user-extensions.js")) {
@@ -163,30 +187,23 @@ public class InjectionHelper {
             }
         }
         else {
-            byte[] buf = new byte[8192];
-            while (true) {
-                int len = in.read(buf, 0, 8192);
-                if (len==-1) {
-                    break;
-                }
-                sb.append(new String(buf, 0, len));
-            }
+            // decode the whole file at once, so no character is split between reads
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            IO.copy(in, bytes);
+            in.close();
+            sb.append(bytes.toString());
         }
     }
 
     public static long injectJavaScript(HttpRequest request, HttpResponse response, InputStream in, OutputStream out, String debugURL) throws IOException {
-	    if (!contentTransformations.containsKey("__SELENIUM_JS__")) {
-	        init();   
-        }
-        
-        int len = 102400;
-        byte[] buf = new byte[len];
-        len = readStream(in, buf, len);
-        if (len == -1) {
-            return -1;
+        if (seleniumJs == null) {
+            init();
         }
-        int lengthOfBOM = getBOMLength(buf); 
-        String data = new String(buf, lengthOfBOM, len);
+
+        byte[] buf = new byte[PREVIEW_LENGTH];
+        int len = readPreview(in, buf);
+        int lengthOfBOM = getBOMLength(buf, len);
+        String data = new String(buf, lengthOfBOM, len - lengthOfBOM);
 
         boolean isKnownToBeHtml = HtmlIdentifier.shouldBeInjected(request.getPath(), response.getContentType(), data);
 
@@ -194,143 +211,204 @@ public class InjectionHelper {
         if (debugURL.equals(url)) {
             log.info("debug URL seen");
         }
-       
-        if (!isKnownToBeHtml) {
-            out.write(buf, 0, len);
-        }
-//        else if (lengthOfBOM>0) {
-//            out.write(buf, 0, lengthOfBOM);
-//        }
-        String sessionId = SeleniumDriverResourceHandler.getLastSessionId();
-
-        long bytesCopied = len;
 
         log.fine(url + " (InjectionHelper looking)");
         if (!isKnownToBeHtml) {
-            bytesCopied += ModifiedIO.copy(in, out);
+            out.write(buf, 0, len);
+            return len + ModifiedIO.copy(in, out);
         }
-        else {
-            log.fine("injecting...");
-            response.removeField("Content-Length"); // added js will make it wrong, lead to page getting truncated
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            if (INJECT_SCRIPT_TAGS) {
-            	writeScriptTags(baos);
-            }
-            InputStream jsIn = new ClassPathResource(InjectionHelper.injectionHtml).getInputStream();
-            contentTransformations.put("@SESSION_ID@", sessionId);
-            
-            writeDataWithUserTransformations("", jsIn, baos);
-            jsIn.close();
-            baos.write(setSomeJsVars(sessionId));
-            for (String filename : userJsInjectionFiles) {
-                jsIn = new FileInputStream(filename);
-                IO.copy(jsIn, baos); 
-            }
 
-            int headIndex;
+        log.fine("injecting...");
+        response.removeField("Content-Length"); // added js will make it wrong, lead to page getting truncated
+        String sessionId = SeleniumDriverResourceHandler.getSessionIdFor(request);
+        byte[] script = getInjectedScript(sessionId);
+
+        if (contentTransformations.isEmpty()) {
+            // the page itself goes through untouched, a buffer at a time
+            int insertAt = lengthOfBOM;
             if (tryToInjectInHead) {
-                headIndex = data.toLowerCase().indexOf("<head>");
-            } else {
-                headIndex = -1;
+                int headIndex = indexOfIgnoreCase(buf, lengthOfBOM, len, HEAD);
+                if (headIndex != -1) {
+                    insertAt = headIndex + HEAD.length;
+                }
             }
+            out.write(buf, lengthOfBOM, insertAt - lengthOfBOM);
+            out.write(script);
+            out.write(buf, insertAt, len - insertAt);
+            return len + ModifiedIO.copy(in, out);
+        }
 
-            if (headIndex != -1) {
-                data = data.substring(0, headIndex + 6) + baos.toString() + data.substring(headIndex + 6);
-            } else {
-                data = baos.toString() + data;
-            }
+        // The user's regular expressions may match anywhere in the page, and a
+        // character may be split between reads, so the page is decoded and
+        // transformed as a whole.
+        String charset = getCharset(response);
+        ByteArrayOutputStream page = new ByteArrayOutputStream();
+        page.write(buf, lengthOfBOM, len - lengthOfBOM);
+        long bytesCopied = len + ModifiedIO.copy(in, page);
+        String transformed = transform(page.toString(charset), sessionId);
 
-            bytesCopied += writeDataWithUserTransformations(data, in, out);
+        int insertAt = 0;
+        if (tryToInjectInHead) {
+            Matcher head = HEAD_PATTERN.matcher(transformed);
+            if (head.find()) {
+                insertAt = head.end();
+            }
         }
-
+        out.write(transformed.substring(0, insertAt).getBytes(charset));
+        out.write(script);
+        out.write(transformed.substring(insertAt).getBytes(charset));
         return bytesCopied;
     }
 
-    private static int getBOMLength(byte[] buf) {
-        if ((buf!=null) && (buf.length>=3) && (buf[0]==(byte) -17) && (buf[1]==(byte) -69) && (buf[2]==(byte) -65)) {
-// jeez, what was that, you may be asking?  This comparison is quite wacky.  When I look at the same data hexdumped 
-//            from a file on disk, the bytes are EF BB BF,  so I think I could be comparing against 0xef, 0xbb, and 0xbf.
-//            But that doesn't work.  Here are some interesting evaluations from the Display view in my eclipse:
-//
-//            buf[0]
-//                 (byte) -17
-//            buf[1]
-//                 (byte) -69
-//            buf[2]
-//                 (byte) -65
-//            buf[3]
-//                 (byte) 10
-//            (int)(new String(buf)).charAt(0)
-//                 (int) 239
-//            (int)(new String(buf)).charAt(1)
-//                 (int) 187
-//            (int)(new String(buf)).charAt(2)
-//                 (int) 191
-//            (new String(buf)).charAt(2)
-//                 (char) ¿
-//            (int)(new String(buf)).charAt(3)
-//                 (int) 10
-//
-//            what I would really like would be to recognize any BOM (cf http://en.wikipedia.org/wiki/Byte_Order_Mark).   I could easily set up
-//            the appropriate comparisons if I knew how to translate from the hex form to some appropriate analogue for a Java comparison.
-            return 3;
+    /**
+     * @return the charset the response declares, or else ISO-8859-1, which
+     *         turns every byte into a character and back again unchanged.
+     */
+    private static String getCharset(HttpResponse response) {
+        String charset = response.getCharacterEncoding();
+        try {
+            if (charset != null && Charset.isSupported(charset)) {
+                return charset;
+            }
+        } catch (IllegalCharsetNameException e) {
+            log.fine("Unknown charset " + charset + ", keeping the bytes as they are");
         }
-        return 0; // there was no BOM
+        return "ISO-8859-1";
     }
 
     /**
-     * read bufLen bytes into buf (unless EOF is seen first) from in.
-     * @param in
-     * @param buf
-     * @param bufLen
-     * @return number of bytes read
-     * @throws IOException
+     * Reads the start of a response into buf, stopping early once the tags
+     * which {@link HtmlIdentifier} and the injection look for have gone by.
+     *
+     * @return the number of bytes read
      */
-    private static int readStream(InputStream in, byte[] buf, int bufLen) throws IOException {
-        int offset = 0;
-        do {
-            int bytesRead = in.read(buf, offset, bufLen - offset);
-            if (bytesRead==-1) {
+    static int readPreview(InputStream in, byte[] buf) throws IOException {
+        int len = 0;
+        boolean seenHtml = false;
+        int headIndex = -1;
+        while (len < buf.length) {
+            int bytesRead = in.read(buf, len, buf.length - len);
+            if (bytesRead == -1) {
                 break;
             }
-            offset += bytesRead;
-        } while (offset < bufLen);
-        int bytesReadTotal = offset;
-        return bytesReadTotal;
+            // only look at what's new, plus enough to catch a tag split between reads
+            int from = Math.max(0, len - HEAD.length);
+            len += bytesRead;
+            if (!seenHtml) {
+                seenHtml = indexOfIgnoreCase(buf, from, len, HTML_TAG) != -1;
+            }
+            if (headIndex == -1) {
+                headIndex = indexOfIgnoreCase(buf, from, len, HEAD_TAG);
+            }
+            // a DOCTYPE would have come before both, and the head tag has to be complete
+            if (seenHtml && headIndex != -1 && indexOf(buf, headIndex, len, (byte) '>') != -1) {
+                break;
+            }
+        }
+        return len;
     }
 
-    private static long writeDataWithUserTransformations(String data, InputStream in, OutputStream out) throws IOException {
-        long bytesWritten = 0;
-        byte[] buf = new byte[8192];
-        while (true) {
-            for (String beforeRegexp : contentTransformations.keySet()) {
-                String after = contentTransformations.get(beforeRegexp);
-                if (after==null) {
-                    log.warning("no transformation seen for key " + beforeRegexp);
+    /**
+     * @param lowerCasePattern an ASCII pattern, in lower case.
+     * @return where the pattern starts in buf between from and to, ignoring
+     *         the case of ASCII letters, or -1.
+     */
+    static int indexOfIgnoreCase(byte[] buf, int from, int to, byte[] lowerCasePattern) {
+        int last = to - lowerCasePattern.length;
+        for (int i = from; i <= last; i++) {
+            int matched = 0;
+            while (matched < lowerCasePattern.length) {
+                byte b = buf[i + matched];
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
                 }
-                else {
-                    try {
-                        data = data.replaceAll(beforeRegexp, after);
-                    }
-                    catch (IllegalArgumentException e) {
-                        // bad regexp or bad back ref in the 'after'.  
-                        // Do a straight substitution instead.
-                        // (This logic needed for injection.html's __SELENIUM_JS__
-                        // replacement to work.)
-                        data = data.replace(beforeRegexp, after);       
-                    }
+                if (b != lowerCasePattern[matched]) {
+                    break;
                 }
+                matched++;
             }
-            out.write(data.getBytes());
-            int len = in.read(buf);
-            if (len == -1) {
-                break;
+            if (matched == lowerCasePattern.length) {
+                return i;
             }
-            bytesWritten += len;
-            data = new String(buf, 0, len);
         }
+        return -1;
+    }
 
-        return bytesWritten;
+    private static int indexOf(byte[] buf, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] getInjectedScript(String sessionId) throws IOException {
+        if (sessionId == null) {
+            return makeInjectedScript(null);
+        }
+        byte[] script = injectedScriptBySessionId.get(sessionId);
+        if (script == null) {
+            script = makeInjectedScript(sessionId);
+            injectedScriptBySessionId.put(sessionId, script);
+        }
+        return script;
+    }
+
+    private static byte[] makeInjectedScript(String sessionId) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if (INJECT_SCRIPT_TAGS) {
+            writeScriptTags(baos);
+        }
+        InputStream jsIn = new ClassPathResource(InjectionHelper.injectionHtml).getInputStream();
+        ByteArrayOutputStream injection = new ByteArrayOutputStream();
+        IO.copy(jsIn, injection);
+        jsIn.close();
+        baos.write(transform(injection.toString(), sessionId).getBytes());
+        baos.write(setSomeJsVars(sessionId));
+        for (String filename : userJsInjectionFiles) {
+            jsIn = new FileInputStream(filename);
+            IO.copy(jsIn, baos);
+            jsIn.close();
+        }
+        return baos.toByteArray();
+    }
+
+    private static int getBOMLength(byte[] buf, int len) {
+        if (len >= BOM.length && buf[0] == BOM[0] && buf[1] == BOM[1] && buf[2] == BOM[2]) {
+            // what I would really like would be to recognize any BOM (cf http://en.wikipedia.org/wiki/Byte_Order_Mark).
+            return BOM.length;
+        }
+        return 0; // there was no BOM
+    }
+
+    /**
+     * Applies the user's content transformations, and fills in the selenium
+     * JavaScript and the session id.
+     */
+    private static String transform(String data, String sessionId) {
+        for (Map.Entry<String, String> transformation : contentTransformations.entrySet()) {
+            String beforeRegexp = transformation.getKey();
+            String after = transformation.getValue();
+            if (after==null) {
+                log.warning("no transformation seen for key " + beforeRegexp);
+            }
+            else {
+                try {
+                    data = data.replaceAll(beforeRegexp, after);
+                }
+                catch (IllegalArgumentException e) {
+                    // bad regexp or bad back ref in the 'after'.  
+                    // Do a straight substitution instead.
+                    data = data.replace(beforeRegexp, after);       
+                }
+            }
+        }
+        data = data.replace("__SELENIUM_JS__", seleniumJs);
+        if (sessionId != null) {
+            data = data.replace("@SESSION_ID@", sessionId);
+        }
+        return data;
     }
 
     private static byte[] setSomeJsVars(String sessionId) {
@@ -338,9 +416,15 @@ public class InjectionHelper {
         if (InjectionHelper.browserSideLogEnabled) {
             moreJs.append("debugMode = true;\n");
         }
-        moreJs.append("injectedSessionId = \"")
-            .append(sessionId)
-            .append("\";\n");
+        if (InjectionHelper.browserChannelEnabled) {
+            moreJs.append("useBrowserChannel = true;\n");
+        }
+        if (sessionId != null) {
+            // otherwise the page goes by the session id in its own URL, if any
+            moreJs.append("injectedSessionId = \"")
+                .append(sessionId)
+                .append("\";\n");
+        }
         return makeJsChunk(moreJs.toString());
     }
 
@@ -391,6 +475,10 @@ public class InjectionHelper {
         return true;
     }
     
+    static void removeUserContentTransformation(String before) {
+        contentTransformations.remove(before);
+    }
+
     public static boolean addUserJsInjectionFile(String fileName) {
         File f = new File(fileName);
         if (!f.canRead()) {
@@ -0,0 +1,135 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the results the browser posts back to the driver. Results such as
+ * the HTML source of a page can be several megabytes, so the body is read in
+ * chunks and decoded from UTF-8 once, rather than a character at a time.
+ */
+public class PostedDataReader {
+
+  private static final byte[] PREFIX = {
+      'p', 'o', 's', 't', 'e', 'd', 'D', 'a', 't', 'a', '='};
+  private static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Reads the whole body. A body sent as "postedData=..." is URL-decoded on
+   * the way, as {@link java.net.URLDecoder} would decode it; anything else is
+   * returned as it is.
+   *
+   * @param in            The body of the request. Cannot be null.
+   * @param contentLength The length of the body, or -1 if it isn't known.
+   * @return The posted data. Never null.
+   * @throws IOException on IO error.
+   * @throws IllegalArgumentException if an escape in URL-encoded data is malformed.
+   */
+  public static String read(InputStream in, int contentLength) throws IOException {
+    ByteArrayOutputStream out =
+        new ByteArrayOutputStream(contentLength > 0 ? contentLength : BUFFER_SIZE);
+    byte[] buffer = new byte[BUFFER_SIZE];
+
+    // Enough of the body to tell whether it is URL-encoded.
+    int filled = 0;
+    while (filled < PREFIX.length) {
+      int read = in.read(buffer, filled, buffer.length - filled);
+      if (read == -1) {
+        break;
+      }
+      filled += read;
+    }
+
+    if (!startsWithPrefix(buffer, filled)) {
+      out.write(buffer, 0, filled);
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+        out.write(buffer, 0, read);
+      }
+      return out.toString("UTF-8");
+    }
+
+    Decoder decoder = new Decoder();
+    byte[] decoded = new byte[BUFFER_SIZE];
+    int length = decoder.decode(buffer, PREFIX.length, filled, decoded);
+    out.write(decoded, 0, length);
+    for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+      length = decoder.decode(buffer, 0, read, decoded);
+      out.write(decoded, 0, length);
+    }
+    decoder.finish();
+    return out.toString("UTF-8");
+  }
+
+  private static boolean startsWithPrefix(byte[] buffer, int length) {
+    if (length < PREFIX.length) {
+      return false;
+    }
+    for (int i = 0; i < PREFIX.length; i++) {
+      if (buffer[i] != PREFIX[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Turns '+' into spaces and %xx escapes into bytes. An escape may be split
+   * across two chunks.
+   */
+  private static class Decoder {
+    // How many hex digits of the current escape are still to come, if any.
+    private int digitsLeft;
+    private int value;
+
+    int decode(byte[] in, int start, int end, byte[] out) {
+      int length = 0;
+      for (int i = start; i < end; i++) {
+        byte b = in[i];
+        if (digitsLeft > 0) {
+          int digit = Character.digit((char) b, 16);
+          if (digit == -1) {
+            throw new IllegalArgumentException(
+                "URLDecoder: Illegal hex characters in escape (%) pattern");
+          }
+          value = value * 16 + digit;
+          if (--digitsLeft == 0) {
+            out[length++] = (byte) value;
+          }
+        } else if (b == '%') {
+          digitsLeft = 2;
+          value = 0;
+        } else if (b == '+') {
+          out[length++] = ' ';
+        } else {
+          out[length++] = b;
+        }
+      }
+      return length;
+    }
+
+    void finish() {
+      if (digitsLeft > 0) {
+        throw new IllegalArgumentException(
+            "URLDecoder: Incomplete trailing escape (%) pattern");
+      }
+    }
+  }
+}
@@ -17,11 +17,17 @@
 package org.openqa.selenium.server;
 
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
@@ -29,19 +35,30 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Proxy;
+import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import cybervillains.ca.KeyStoreManager;
 import org.openqa.jetty.http.HttpConnection;
 import org.openqa.jetty.http.HttpContext;
 import org.openqa.jetty.http.HttpException;
@@ -94,6 +111,13 @@ public class ProxyHandler extends AbstractHttpHandler {
     private final boolean proxyInjectionMode;
     private final boolean forceProxyChain;
     private boolean fakeCertsGenerated;
+    private final UpstreamConnections upstreamConnections = new UpstreamConnections();
+    private ProxyResponseCache responseCache;
+    private File sslCertificateStore;
+    private final Object hostCertificatesLock = new Object();
+    private File sslSupportDir;
+    private HostCertificateCache hostCertificates;
+    private SslEndpoint sslEndpoint;
 
     // see docs for the lock object on SeleniumServer for information on this and why it is IMPORTANT!
     private Object shutdownLock;
@@ -178,6 +202,21 @@ public class ProxyHandler extends AbstractHttpHandler {
         super.start();
     }
 
+    public void stop() throws InterruptedException {
+        super.stop();
+        synchronized (hostCertificatesLock) {
+            if (hostCertificates != null) {
+                hostCertificates.shutdown();
+                hostCertificates = null;
+                LauncherUtils.recursivelyDeleteDir(sslSupportDir);
+            }
+        }
+        synchronized (_sslMap) {
+            // stopped along with the server
+            sslEndpoint = null;
+        }
+    }
+
     /* ------------------------------------------------------------ */
 
     /**
@@ -380,7 +419,46 @@ public class ProxyHandler extends AbstractHttpHandler {
         return seleniumServer == nextSlash; 
     }
 
+    /**
+     * Shares static resources fetched through the proxy between sessions. Off unless set.
+     */
+    public void setResponseCache(ProxyResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public ProxyResponseCache getResponseCache() {
+        return responseCache;
+    }
+
     protected long proxyPlainTextRequest(URL url, String pathInContext, String pathParams, HttpRequest request, HttpResponse response) throws IOException {
+        ProxyResponseCache.Hit cached = responseCache == null ? null : responseCache.lookup(url, request);
+        if (cached != null && cached.isFresh()) {
+            CaptureNetworkTrafficCommand.Entry entry = new CaptureNetworkTrafficCommand.Entry(request.getMethod(), url.toString());
+            entry.addRequestHeaders(request);
+            log.fine("PROXY URL=" + url + " (cached)");
+            return serveFromCache(cached, request, response, entry);
+        }
+
+        UpstreamConnections.Exchange exchange;
+        try {
+            exchange = upstreamConnections.start(url);
+        } catch (TimeoutException e) {
+            log.warning("Could not proxy " + url + ": " + e.getMessage());
+            response.sendError(HttpResponse.__503_Service_Unavailable, e.getMessage());
+            return -1;
+        }
+        try {
+            return proxyPlainTextRequest(url, pathInContext, pathParams, request, response, exchange, cached);
+        } finally {
+            exchange.finish();
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Upstream " + exchange.getHost());
+            }
+        }
+    }
+
+    private long proxyPlainTextRequest(URL url, String pathInContext, String pathParams, HttpRequest request, HttpResponse response,
+                                       UpstreamConnections.Exchange exchange, ProxyResponseCache.Hit cached) throws IOException {
         CaptureNetworkTrafficCommand.Entry entry = new CaptureNetworkTrafficCommand.Entry(request.getMethod(), url.toString());
         entry.addRequestHeaders(request);
 
@@ -473,6 +551,10 @@ public class ProxyHandler extends AbstractHttpHandler {
         if (cache_control != null && (cache_control.indexOf("no-cache") >= 0 || cache_control.indexOf("no-store") >= 0))
             connection.setUseCaches(false);
 
+        // only have the server send what we have cached again if it changed
+        if (cached != null)
+            responseCache.addValidators(cached, connection);
+
         // customize Connection
         customizeConnection(pathInContext, pathParams, request, connection);
 
@@ -483,15 +565,26 @@ public class ProxyHandler extends AbstractHttpHandler {
             InputStream in = request.getInputStream();
             if (hasContent) {
                 connection.setDoOutput(true);
-                IO.copy(in, connection.getOutputStream());
+                // stream the body rather than have the connection buffer all of it first
+                if (http != null) {
+                    int contentLength = request.getContentLength();
+                    if (contentLength >= 0) {
+                        http.setFixedLengthStreamingMode(contentLength);
+                    } else {
+                        http.setChunkedStreamingMode(0);
+                    }
+                }
+                OutputStream out = connection.getOutputStream();
+                exchange.sent(ModifiedIO.copy(in, out));
+                out.close();
             }
 
             // Connect
             connection.connect();
         }
         catch (Exception e) {
-            // TODO(simon): Whhhaaaat?
-            // LogSupport.ignore(log, e);
+            // Asking for the response below fails with the same problem, and is what gets reported
+            log.log(Level.FINE, "Problem sending the request to " + url, e);
         }
 
         InputStream proxy_in = null;
@@ -506,11 +599,19 @@ public class ProxyHandler extends AbstractHttpHandler {
             } catch (SSLHandshakeException e) {
                 throw new RuntimeException("Couldn't establish SSL handshake.  Try using trustAllSSLCertificates.\n"+e.getLocalizedMessage(), e);
             }
+            exchange.responded();
             response.setStatus(code);
             response.setReason(http.getResponseMessage());
 
             String contentType = http.getContentType();
             log.fine("Content-Type is: " + contentType);
+
+            if (cached != null && code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                responseCache.revalidated(cached, connection);
+                if (proxy_in != null)
+                    proxy_in.close();
+                return serveFromCache(cached, request, response, entry);
+            }
         }
 
         if (proxy_in == null) {
@@ -529,12 +630,15 @@ public class ProxyHandler extends AbstractHttpHandler {
         response.removeField(HttpFields.__Server);
 
         // set response headers
+        List<String[]> headers = new ArrayList<String[]>();
         int h = 0;
         String hdr = connection.getHeaderFieldKey(h);
         String val = connection.getHeaderField(h);
         while (hdr != null || val != null) {
-            if (hdr != null && val != null && !_DontProxyHeaders.containsKey(hdr) && (_chained || !_ProxyAuthHeaders.containsKey(hdr)))
+            if (hdr != null && val != null && !_DontProxyHeaders.containsKey(hdr) && (_chained || !_ProxyAuthHeaders.containsKey(hdr))) {
                 response.addField(hdr, val);
+                headers.add(new String[] {hdr, val});
+            }
             h++;
             hdr = connection.getHeaderFieldKey(h);
             val = connection.getHeaderField(h);
@@ -545,22 +649,37 @@ public class ProxyHandler extends AbstractHttpHandler {
         response.removeField(HttpFields.__ETag); // possible cksum?  Stop caching...
         response.removeField(HttpFields.__LastModified); // Stop caching...
 
+        ProxyResponseCache.Store store = null;
+        if (responseCache != null && http != null)
+            store = responseCache.store(url, request, http, code, headers);
+
         // Handled
         long bytesCopied = -1;
         request.setHandled(true);
         if (proxy_in != null) {
-            boolean injectableResponse = http.getResponseCode() == HttpURLConnection.HTTP_OK ||
-                    (http.getResponseCode() >= 400 && http.getResponseCode() < 600);
-            if (proxyInjectionMode && injectableResponse) {
-                // check if we should proxy this path based on the dontProxyRegex that can be user-specified
-                if (shouldInject(request.getPath())) {
-                    bytesCopied = InjectionHelper.injectJavaScript(request, response, proxy_in, response.getOutputStream(), debugURL);
-                } else {
-                    bytesCopied = ModifiedIO.copy(proxy_in, response.getOutputStream());
+            try {
+                OutputStream out = response.getOutputStream();
+                if (store != null)
+                    out = store.tee(out);
+                boolean injectableResponse = http.getResponseCode() == HttpURLConnection.HTTP_OK ||
+                        (http.getResponseCode() >= 400 && http.getResponseCode() < 600);
+                if (proxyInjectionMode && injectableResponse) {
+                    // check if we should proxy this path based on the dontProxyRegex that can be user-specified
+                    if (shouldInject(request.getPath())) {
+                        bytesCopied = InjectionHelper.injectJavaScript(request, response, proxy_in, out, debugURL);
+                    } else {
+                        bytesCopied = ModifiedIO.copy(proxy_in, out);
+                    }
                 }
-            }
-            else {
-                bytesCopied = ModifiedIO.copy(proxy_in, response.getOutputStream());
+                else {
+                    bytesCopied = ModifiedIO.copy(proxy_in, out);
+                }
+                exchange.received(bytesCopied);
+                if (store != null)
+                    store.commit();
+            } finally {
+                // closing a response read to the end hands its connection back for the next request
+                proxy_in.close();
             }
         }
 
@@ -572,6 +691,32 @@ public class ProxyHandler extends AbstractHttpHandler {
         return bytesCopied;
     }
 
+    private long serveFromCache(ProxyResponseCache.Hit cached, HttpRequest request, HttpResponse response,
+                                CaptureNetworkTrafficCommand.Entry entry) throws IOException {
+        response.setStatus(HttpResponse.__200_OK);
+        response.setReason("OK");
+        response.removeField(HttpFields.__Date);
+        response.removeField(HttpFields.__Server);
+        for (String[] header : cached.getHeaders())
+            response.addField(header[0], header[1]);
+        if (!_anonymous)
+            response.setField("Via", "1.1 (jetty)");
+
+        // the browser still mustn't cache anything
+        response.removeField(HttpFields.__ETag);
+        response.removeField(HttpFields.__LastModified);
+
+        request.setHandled(true);
+        byte[] body = cached.getBody();
+        response.getOutputStream().write(body);
+
+        entry.finish(HttpResponse.__200_OK, body.length);
+        entry.addResponseHeader(response);
+        CaptureNetworkTrafficCommand.capture(entry);
+
+        return body.length;
+    }
+
 
     public boolean shouldInject(String path) {
         if (dontInjectRegex == null) {
@@ -609,6 +754,19 @@ public class ProxyHandler extends AbstractHttpHandler {
 
     public synchronized void generateSSLCertsForLoggingHosts(HttpServer server) {
         if (fakeCertsGenerated) return;
+        if (useCyberVillains) {
+            log.info("Creating 16 fake SSL certificates for browser side logging");
+            try {
+                getSslEndpoint(server);
+            } catch (Exception e) {
+                log.log(Level.SEVERE, "Could not start the SSL endpoint", e);
+            }
+            for (int i = 1; i <= 16; i++) {
+                getHostCertificates().prepare(i + ".selenium.doesnotexist");
+            }
+            fakeCertsGenerated = true;
+            return;
+        }
         log.info("Creating 16 fake SSL servers for browser side logging");
         for (int i = 1; i <= 16; i++) {
             String uri = i + ".selenium.doesnotexist:443";
@@ -644,9 +802,18 @@ public class ProxyHandler extends AbstractHttpHandler {
 
                 HttpServer server = http_connection.getHttpServer();
 
-                SslRelay listener = getSslRelayOrCreateNew(uri, addrPort, server);
-                                                     
-                int port = listener.getPort();
+                // we do this because the URI above doesn't actually have the host broken up (it returns null on getHost())
+                String host = new URL("https://" + uri.toString()).getHost();
+                SslEndpoint endpoint = null;
+                int port;
+                if (useCyberVillains) {
+                    // every host goes to the same endpoint, which presents the certificate made up for it
+                    getHostCertificates().prepare(host);
+                    endpoint = getSslEndpoint(server);
+                    port = endpoint.getPort();
+                } else {
+                    port = getSslRelayOrCreateNew(uri, addrPort, server).getPort();
+                }
 
                 // Get the timeout
                 int timeoutMs = 30000;
@@ -660,6 +827,10 @@ public class ProxyHandler extends AbstractHttpHandler {
                 HttpTunnel tunnel = newHttpTunnel(request, response, InetAddress.getByName(null), port, timeoutMs);
 
                 if (tunnel != null) {
+                    if (endpoint != null) {
+                        // before the browser is told to go ahead, so before the handshake starts
+                        endpoint.expect(tunnel.getSocket().getLocalPort(), host, addrPort);
+                    }
                     // TODO - need to setup semi-busy loop for IE.
                     if (_tunnelTimeoutMs > 0) {
                         tunnel.getSocket().setSoTimeout(_tunnelTimeoutMs);
@@ -686,20 +857,23 @@ public class ProxyHandler extends AbstractHttpHandler {
 
     protected SslRelay getSslRelayOrCreateNew(URI uri, InetAddrPort addrPort, HttpServer server) throws Exception {
         SslRelay listener;
+        synchronized(_sslMap) {
+            listener = _sslMap.get(uri.toString());
+        }
+        if (listener != null) {
+            return listener;
+        }
+
+        // we do this because the URI above doesn't actually have the host broken up (it returns null on getHost())
+        String host = new URL("https://" + uri.toString()).getHost();
+
         synchronized(_sslMap) {
             listener = _sslMap.get(uri.toString());
             if (listener==null)
             {
-                // we do this because the URI above doesn't actually have the host broken up (it returns null on getHost())
-                String host = new URL("https://" + uri.toString()).getHost();
-
                 listener = new SslRelay(addrPort);
 
-                if (useCyberVillains) {
-                    wireUpSslWithCyberVilliansCA(host, listener);
-                } else {
-                    wireUpSslWithRemoteService(host, listener);
-                }
+                wireUpSslWithRemoteService(host, listener);
 
                 listener.setPassword("password");
                 listener.setKeyPassword("password");
@@ -751,24 +925,52 @@ public class ProxyHandler extends AbstractHttpHandler {
         listener.setNukeDirOrFile(keystore);
     }
 
-    protected void wireUpSslWithCyberVilliansCA(String host, SslRelay listener) {
-        try {
-            File root = File.createTempFile("seleniumSslSupport", host);
-            root.delete();
-            root.mkdirs();
-
-            ResourceExtractor.extractResourcePath(getClass(), "/sslSupport", root);
+    /**
+     * @return the one endpoint which terminates SSL for every host, when the certificates are
+     *         made up with the cybervillains CA.
+     */
+    protected SslEndpoint getSslEndpoint(HttpServer server) throws Exception {
+        synchronized (_sslMap) {
+            if (sslEndpoint == null) {
+                SslEndpoint endpoint = new SslEndpoint(getHostCertificates());
+                server.addListener(endpoint);
 
+                synchronized (shutdownLock) {
+                    if (server.isStarted()) {
+                        endpoint.start();
+                    } else {
+                        throw new RuntimeException("Can't start SslEndpoint: server is not started (perhaps it was just shut down?)");
+                    }
+                }
+                sslEndpoint = endpoint;
+            }
+            return sslEndpoint;
+        }
+    }
 
-            KeyStoreManager mgr = new KeyStoreManager(root);
-            mgr.getCertificateByHostname(host);
-            mgr.getKeyStore().deleteEntry(KeyStoreManager._caPrivKeyAlias);
-            mgr.persist();
+    /**
+     * Where the certificates made for each host are kept, so that the next server doesn't make
+     * them again. They're only kept for as long as the server runs unless this is set.
+     */
+    public void setSslCertificateStore(File sslCertificateStore) {
+        this.sslCertificateStore = sslCertificateStore;
+    }
 
-            listener.setKeystore(new File(root, "cybervillainsCA.jks").getAbsolutePath());
-            listener.setNukeDirOrFile(root);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    protected HostCertificateCache getHostCertificates() {
+        synchronized (hostCertificatesLock) {
+            if (hostCertificates == null) {
+                try {
+                    sslSupportDir = File.createTempFile("seleniumSslSupport", "");
+                    sslSupportDir.delete();
+                    sslSupportDir.mkdirs();
+
+                    ResourceExtractor.extractResourcePath(getClass(), "/sslSupport", sslSupportDir);
+                    hostCertificates = new HostCertificateCache(sslSupportDir, sslCertificateStore);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return hostCertificates;
         }
     }
 
@@ -915,6 +1117,134 @@ public class ProxyHandler extends AbstractHttpHandler {
         this.shutdownLock = shutdownLock;
     }
 
+    /**
+     * Terminates SSL for all the hosts the browser CONNECTs to, instead of a listener with its own
+     * threads and keystore for each. The tunnels are told apart by the port they connect from:
+     * each is presented the certificate of the host it was opened for, and its requests are sent
+     * on to that host.
+     */
+    public static class SslEndpoint extends SslListener
+    {
+        private final HostCertificateCache certificates;
+        private final ConcurrentMap<Integer, Target> targetsByTunnelPort = new ConcurrentHashMap<Integer, Target>();
+        private final Map<Socket, Target> targetsBySocket = Collections.synchronizedMap(new WeakHashMap<Socket, Target>());
+
+        SslEndpoint(HostCertificateCache certificates)
+        {
+            this.certificates = certificates;
+        }
+
+        /**
+         * Notes the host a tunnel connecting from the given port was opened for.
+         */
+        public void expect(int tunnelPort, String host, InetAddrPort addr)
+        {
+            targetsByTunnelPort.put(tunnelPort, new Target(host, addr));
+        }
+
+        private Target targetOf(Socket socket)
+        {
+            Target target = targetsBySocket.get(socket);
+            if (target == null) {
+                target = targetsByTunnelPort.remove(socket.getPort());
+                if (target != null) {
+                    targetsBySocket.put(socket, target);
+                }
+            }
+            return target;
+        }
+
+        protected SSLServerSocketFactory createFactory() throws Exception
+        {
+            SSLContext context = SSLContext.getInstance(getProtocol());
+            context.init(new KeyManager[] {new HostKeyManager()}, null, new SecureRandom());
+            return context.getServerSocketFactory();
+        }
+
+        protected Socket accept(ServerSocket serverSocket) throws IOException
+        {
+            // Leave the handshake to the thread handling the connection: a slow one mustn't hold up
+            // the tunnels of other hosts.
+            Socket socket = serverSocket.accept();
+            if (getMaxIdleTimeMs() > 0) socket.setSoTimeout(getMaxIdleTimeMs());
+            return socket;
+        }
+
+        protected void customizeRequest(Socket socket, HttpRequest request)
+        {
+            super.customizeRequest(socket, request);
+            Target target = targetOf(socket);
+            if (target == null) {
+                log.warning("Request on a tunnel nobody opened: " + request.getURI());
+                return;
+            }
+            // See SslRelay.customizeRequest
+            URI uri = request.getURI();
+            request.setURI(new URI("https://" + target.addr.getHost() + ":" + target.addr.getPort() + uri.toString()));
+        }
+
+        private class HostKeyManager extends X509ExtendedKeyManager
+        {
+            public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket)
+            {
+                Target target = socket == null ? null : targetOf(socket);
+                return "RSA".equals(keyType) && target != null ? target.host : null;
+            }
+
+            public X509Certificate[] getCertificateChain(String alias)
+            {
+                try {
+                    return certificates.getCertificateChain(alias);
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Couldn't make a certificate for " + alias, e);
+                    return null;
+                }
+            }
+
+            public PrivateKey getPrivateKey(String alias)
+            {
+                try {
+                    return certificates.getPrivateKey(alias);
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Couldn't make a certificate for " + alias, e);
+                    return null;
+                }
+            }
+
+            public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine)
+            {
+                return null;
+            }
+
+            public String[] getServerAliases(String keyType, Principal[] issuers)
+            {
+                return null;
+            }
+
+            public String[] getClientAliases(String keyType, Principal[] issuers)
+            {
+                return null;
+            }
+
+            public String chooseClientAlias(String[] keyTypes, Principal[] issuers, Socket socket)
+            {
+                return null;
+            }
+        }
+
+        private static class Target
+        {
+            private final String host;
+            private final InetAddrPort addr;
+
+            Target(String host, InetAddrPort addr)
+            {
+                this.host = host;
+                this.addr = addr;
+            }
+        }
+    }
+
     public static class SslRelay extends SslListener
     {
         InetAddrPort _addr;
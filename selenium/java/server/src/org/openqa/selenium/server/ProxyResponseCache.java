@@ -0,0 +1,581 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server;
+
+import org.openqa.jetty.http.HttpFields;
+import org.openqa.jetty.http.HttpRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A cache of static resources (scripts, style sheets, images and fonts) fetched through the
+ * proxy, shared by all sessions so that a suite doesn't download the same assets for every test.
+ *
+ * Entries are keyed by URL and by the request headers the response varies on. Fresh entries are
+ * served without asking the server, stale ones are revalidated with If-None-Match or
+ * If-Modified-Since. The least recently used entries are spilled to a directory once the memory
+ * budget is used up, and dropped once the disk budget is too. The browser is still told not to
+ * cache anything, since the proxy strips the validators from what it sends on.
+ */
+public class ProxyResponseCache {
+  private static final Logger log = Logger.getLogger(ProxyResponseCache.class.getName());
+
+  public static final long DEFAULT_MEMORY_BYTES = 32L * 1024 * 1024;
+  public static final long DEFAULT_DISK_BYTES = 256L * 1024 * 1024;
+  // Anything bigger goes through without being cached.
+  static final int MAX_ENTRY_BYTES = 4 * 1024 * 1024;
+  private static final String[] CACHEABLE_TYPES = {
+      "text/css", "javascript", "ecmascript", "image/", "font/", "application/font",
+      "application/x-font", "application/vnd.ms-fontobject"};
+
+  private final File directory;
+  private final long memoryBytes;
+  private final long diskBytes;
+
+  // Guarded by this
+  private final Map<String, List<Entry>> variantsByUrl = new HashMap<String, List<Entry>>();
+  private final LinkedHashMap<Entry, Boolean> inMemory = new LinkedHashMap<Entry, Boolean>(16, 0.75f, true);
+  private final LinkedHashMap<Entry, Boolean> onDisk = new LinkedHashMap<Entry, Boolean>(16, 0.75f, true);
+  private long memoryUsed;
+  private long diskUsed;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong revalidations = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong stores = new AtomicLong();
+
+  /**
+   * @param directory where entries are spilled to, or null to keep them in memory only.
+   */
+  public ProxyResponseCache(File directory, long memoryBytes, long diskBytes) {
+    if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalArgumentException("Can't create the proxy cache directory " + directory);
+    }
+    this.directory = directory;
+    this.memoryBytes = memoryBytes;
+    this.diskBytes = directory == null ? 0 : diskBytes;
+  }
+
+  /**
+   * @return the cached response to the request, or null if there is none or the request mustn't
+   *         be answered from the cache.
+   */
+  public Hit lookup(URL url, HttpRequest request) {
+    if (!isCacheable(request)) {
+      return null;
+    }
+
+    Entry entry = null;
+    synchronized (this) {
+      List<Entry> variants = variantsByUrl.get(url.toString());
+      if (variants != null) {
+        for (Entry variant : variants) {
+          if (variant.matches(request)) {
+            entry = variant;
+            // touch it, so it is the last to be spilled or dropped
+            if (inMemory.get(entry) == null) {
+              onDisk.get(entry);
+            }
+            break;
+          }
+        }
+      }
+    }
+    byte[] body = entry == null ? null : read(entry);
+    if (body == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    boolean fresh = entry.expiresAt > System.currentTimeMillis() && !mustRevalidate(request);
+    if (fresh) {
+      hits.incrementAndGet();
+    }
+    return new Hit(entry, body, fresh);
+  }
+
+  /**
+   * Asks the server to only send the resource again if it changed since it was cached.
+   */
+  public void addValidators(Hit hit, URLConnection connection) {
+    if (hit.entry.etag != null) {
+      connection.setRequestProperty(HttpFields.__IfNoneMatch, hit.entry.etag);
+    }
+    if (hit.entry.lastModified != null) {
+      connection.setRequestProperty(HttpFields.__IfModifiedSince, hit.entry.lastModified);
+    }
+  }
+
+  /**
+   * Notes that the server answered a revalidation with 304 Not Modified.
+   */
+  public void revalidated(Hit hit, URLConnection connection) {
+    revalidations.incrementAndGet();
+    hit.entry.expiresAt = System.currentTimeMillis() + freshnessLifetime(connection);
+  }
+
+  /**
+   * @param headers the end to end headers of the response, as sent on to the browser.
+   * @return where to copy the body of the response to as it goes by, or null if the response
+   *         can't be cached.
+   */
+  public Store store(URL url, HttpRequest request, HttpURLConnection connection, int code,
+      List<String[]> headers) {
+    if (code != HttpURLConnection.HTTP_OK || !isCacheable(request) || !isCacheable(connection)) {
+      return null;
+    }
+    return new Store(url.toString(), request, connection, headers);
+  }
+
+  public synchronized void clear() {
+    for (Entry entry : onDisk.keySet()) {
+      entry.file.delete();
+    }
+    variantsByUrl.clear();
+    inMemory.clear();
+    onDisk.clear();
+    memoryUsed = 0;
+    diskUsed = 0;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getRevalidations() {
+    return revalidations.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getStores() {
+    return stores.get();
+  }
+
+  public synchronized long getMemoryUsed() {
+    return memoryUsed;
+  }
+
+  public synchronized long getDiskUsed() {
+    return diskUsed;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d hits, %d revalidated, %d misses, %d stored, %d bytes in memory, "
+        + "%d bytes on disk", getHits(), getRevalidations(), getMisses(), getStores(),
+        getMemoryUsed(), getDiskUsed());
+  }
+
+  private static boolean isCacheable(HttpRequest request) {
+    if (!HttpRequest.__GET.equals(request.getMethod())
+        || request.getField(HttpFields.__Authorization) != null
+        || request.getField(HttpFields.__Range) != null
+        // the browser is revalidating something of its own, let it talk to the server
+        || request.getField(HttpFields.__IfNoneMatch) != null
+        || request.getField(HttpFields.__IfModifiedSince) != null) {
+      return false;
+    }
+    String cacheControl = request.getField(HttpFields.__CacheControl);
+    return cacheControl == null || cacheControl.indexOf("no-store") == -1;
+  }
+
+  private static boolean mustRevalidate(HttpRequest request) {
+    String cacheControl = request.getField(HttpFields.__CacheControl);
+    String pragma = request.getField(HttpFields.__Pragma);
+    return (cacheControl != null && (cacheControl.indexOf("no-cache") != -1
+        || cacheControl.indexOf("max-age=0") != -1))
+        || (pragma != null && pragma.indexOf("no-cache") != -1);
+  }
+
+  private static boolean isCacheable(HttpURLConnection connection) {
+    String contentType = connection.getContentType();
+    if (contentType == null || !isStatic(contentType.toLowerCase())) {
+      return false;
+    }
+    String cacheControl = connection.getHeaderField(HttpFields.__CacheControl);
+    if (cacheControl != null
+        && (cacheControl.indexOf("no-store") != -1 || cacheControl.indexOf("private") != -1)) {
+      return false;
+    }
+    String vary = connection.getHeaderField(HttpFields.__Vary);
+    if (connection.getHeaderField(HttpFields.__SetCookie) != null
+        || (vary != null && vary.indexOf('*') != -1)
+        || connection.getContentLength() > MAX_ENTRY_BYTES) {
+      return false;
+    }
+    // without a validator an entry can only be used while it is fresh
+    return connection.getHeaderField(HttpFields.__ETag) != null
+        || connection.getHeaderField(HttpFields.__LastModified) != null
+        || freshnessLifetime(connection) > 0;
+  }
+
+  private static boolean isStatic(String contentType) {
+    for (String type : CACHEABLE_TYPES) {
+      if (contentType.indexOf(type) != -1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return how long a response stays fresh, in milliseconds, going by Cache-Control or Expires.
+   */
+  static long freshnessLifetime(URLConnection connection) {
+    String cacheControl = connection.getHeaderField(HttpFields.__CacheControl);
+    if (cacheControl != null) {
+      if (cacheControl.indexOf("no-cache") != -1 || cacheControl.indexOf("must-revalidate") != -1) {
+        return 0;
+      }
+      long maxAge = -1;
+      for (String directive : cacheControl.split(",")) {
+        directive = directive.trim().toLowerCase();
+        try {
+          if (directive.startsWith("s-maxage=")) {
+            // meant for shared caches like this one, so it wins
+            return Math.max(0, Long.parseLong(directive.substring(9)) * 1000);
+          } else if (directive.startsWith("max-age=")) {
+            maxAge = Long.parseLong(directive.substring(8)) * 1000;
+          }
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+      if (maxAge != -1) {
+        return Math.max(0, maxAge);
+      }
+    }
+    long expires = connection.getExpiration();
+    if (expires == 0) {
+      return 0;
+    }
+    long date = connection.getDate();
+    return Math.max(0, expires - (date == 0 ? System.currentTimeMillis() : date));
+  }
+
+  private byte[] read(Entry entry) {
+    byte[] body = entry.body;
+    if (body != null) {
+      return body;
+    }
+    File file = entry.file;
+    if (file == null) {
+      return null;
+    }
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.length);
+        ModifiedIO.copy(in, bytes);
+        return bytes.size() == entry.length ? bytes.toByteArray() : null;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      // dropped from the disk in the meantime
+      return null;
+    }
+  }
+
+  private void put(Entry entry) {
+    List<Entry> spill = new ArrayList<Entry>();
+    synchronized (this) {
+      List<Entry> variants = variantsByUrl.get(entry.url);
+      if (variants == null) {
+        variants = new ArrayList<Entry>();
+        variantsByUrl.put(entry.url, variants);
+      }
+      for (Iterator<Entry> iterator = variants.iterator(); iterator.hasNext();) {
+        Entry variant = iterator.next();
+        if (Arrays.equals(variant.varyNames, entry.varyNames)
+            && Arrays.equals(variant.varyValues, entry.varyValues)) {
+          iterator.remove();
+          forget(variant);
+        }
+      }
+      variants.add(entry);
+      inMemory.put(entry, Boolean.TRUE);
+      memoryUsed += entry.length;
+
+      Iterator<Entry> eldest = inMemory.keySet().iterator();
+      while (memoryUsed > memoryBytes && eldest.hasNext()) {
+        Entry evicted = eldest.next();
+        eldest.remove();
+        memoryUsed -= evicted.length;
+        if (directory != null && evicted.length <= diskBytes) {
+          spill.add(evicted);
+        } else {
+          remove(evicted);
+        }
+      }
+    }
+    stores.incrementAndGet();
+
+    // write outside the lock; the bodies stay readable in memory until they're on disk
+    for (Entry evicted : spill) {
+      spill(evicted);
+    }
+  }
+
+  private void spill(Entry entry) {
+    File file = null;
+    try {
+      file = File.createTempFile("proxy", ".cache", directory);
+      OutputStream out = new FileOutputStream(file);
+      try {
+        out.write(entry.body);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      log.log(Level.FINE, "Couldn't spill " + entry.url + " to disk", e);
+      if (file != null) {
+        file.delete();
+      }
+      file = null;
+    }
+
+    synchronized (this) {
+      List<Entry> variants = variantsByUrl.get(entry.url);
+      if (file == null || variants == null || !variants.contains(entry)) {
+        // replaced while it was being written, or it couldn't be
+        if (file != null) {
+          file.delete();
+        }
+        remove(entry);
+        return;
+      }
+      entry.file = file;
+      entry.body = null;
+      onDisk.put(entry, Boolean.TRUE);
+      diskUsed += entry.length;
+
+      Iterator<Entry> eldest = onDisk.keySet().iterator();
+      while (diskUsed > diskBytes && eldest.hasNext()) {
+        Entry evicted = eldest.next();
+        eldest.remove();
+        diskUsed -= evicted.length;
+        evicted.file.delete();
+        remove(evicted);
+      }
+    }
+  }
+
+  // Guarded by this
+  private void remove(Entry entry) {
+    List<Entry> variants = variantsByUrl.get(entry.url);
+    if (variants != null) {
+      variants.remove(entry);
+      if (variants.isEmpty()) {
+        variantsByUrl.remove(entry.url);
+      }
+    }
+  }
+
+  // Guarded by this
+  private void forget(Entry entry) {
+    if (inMemory.remove(entry) != null) {
+      memoryUsed -= entry.length;
+    }
+    if (onDisk.remove(entry) != null) {
+      diskUsed -= entry.length;
+      entry.file.delete();
+    }
+  }
+
+  private static class Entry {
+    private final String url;
+    private final String[] varyNames;
+    private final String[] varyValues;
+    private final List<String[]> headers;
+    private final String etag;
+    private final String lastModified;
+    private final int length;
+    private volatile long expiresAt;
+    private volatile byte[] body;
+    private volatile File file;
+
+    Entry(String url, String[] varyNames, String[] varyValues, List<String[]> headers,
+        String etag, String lastModified, long expiresAt, byte[] body) {
+      this.url = url;
+      this.varyNames = varyNames;
+      this.varyValues = varyValues;
+      this.headers = headers;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.expiresAt = expiresAt;
+      this.body = body;
+      this.length = body.length;
+    }
+
+    boolean matches(HttpRequest request) {
+      return Arrays.equals(varyValues, varyValues(varyNames, request));
+    }
+  }
+
+  private static String[] varyNames(String vary) {
+    if (vary == null) {
+      return new String[0];
+    }
+    List<String> names = new ArrayList<String>();
+    for (String name : vary.split(",")) {
+      name = name.trim().toLowerCase();
+      if (name.length() > 0) {
+        names.add(name);
+      }
+    }
+    return names.toArray(new String[names.size()]);
+  }
+
+  private static String[] varyValues(String[] names, HttpRequest request) {
+    String[] values = new String[names.length];
+    for (int i = 0; i < names.length; i++) {
+      String value = request.getField(names[i]);
+      values[i] = value == null ? "" : value;
+    }
+    return values;
+  }
+
+  /**
+   * A cached response, with its body.
+   */
+  public static class Hit {
+    private final Entry entry;
+    private final byte[] body;
+    private final boolean fresh;
+
+    Hit(Entry entry, byte[] body, boolean fresh) {
+      this.entry = entry;
+      this.body = body;
+      this.fresh = fresh;
+    }
+
+    /**
+     * @return whether the response can be sent without asking the server first.
+     */
+    public boolean isFresh() {
+      return fresh;
+    }
+
+    /**
+     * @return the end to end headers the response came with.
+     */
+    public List<String[]> getHeaders() {
+      return entry.headers;
+    }
+
+    public byte[] getBody() {
+      return body;
+    }
+  }
+
+  /**
+   * Collects the body of a response while it is copied to the browser.
+   */
+  public class Store {
+    private final String url;
+    private final String[] varyNames;
+    private final String[] varyValues;
+    private final List<String[]> headers;
+    private final String etag;
+    private final String lastModified;
+    private final long freshnessLifetime;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private boolean tooBig;
+
+    Store(String url, HttpRequest request, HttpURLConnection connection, List<String[]> headers) {
+      this.url = url;
+      this.varyNames = varyNames(connection.getHeaderField(HttpFields.__Vary));
+      this.varyValues = varyValues(varyNames, request);
+      this.headers = new ArrayList<String[]>(headers);
+      this.etag = connection.getHeaderField(HttpFields.__ETag);
+      this.lastModified = connection.getHeaderField(HttpFields.__LastModified);
+      this.freshnessLifetime = freshnessLifetime(connection);
+    }
+
+    /**
+     * @return a stream which writes to out and keeps a copy of what is written.
+     */
+    public OutputStream tee(OutputStream out) {
+      return new FilterOutputStream(out) {
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          keep(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          keep(b, off, len);
+        }
+      };
+    }
+
+    private void keep(byte[] b, int off, int len) {
+      if (tooBig) {
+        return;
+      }
+      if (body.size() + len > MAX_ENTRY_BYTES) {
+        tooBig = true;
+        body.reset();
+        return;
+      }
+      body.write(b, off, len);
+    }
+
+    /**
+     * Caches the response, once all of its body went by.
+     */
+    public void commit() {
+      if (tooBig) {
+        return;
+      }
+      byte[] bytes = body.toByteArray();
+      if (bytes.length > memoryBytes && bytes.length > diskBytes) {
+        return;
+      }
+      put(new Entry(url, varyNames, varyValues, headers, etag, lastModified,
+          System.currentTimeMillis() + freshnessLifetime, bytes));
+    }
+  }
+}
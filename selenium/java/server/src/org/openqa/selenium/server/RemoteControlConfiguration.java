@@ -45,6 +45,9 @@ public class RemoteControlConfiguration {
     private String debugURL;
     private String dontInjectRegex;
     private File firefoxProfileTemplate;
+    private boolean proxyCache;
+    private File proxyCacheDir;
+    private File sslCertificateStore;
     private boolean reuseBrowserSessions;
     private String logOutFileName;
     private String forcedBrowserMode;
@@ -57,6 +60,7 @@ public class RemoteControlConfiguration {
     private boolean avoidProxy;
     private boolean debugMode;
     private boolean browserSideLogEnabled;
+    private boolean browserChannelEnabled;
     private int jettyThreads = SeleniumServer.DEFAULT_JETTY_THREADS;
     private SslCertificateGenerator sslCertGenerator;
     private boolean singleWindow;
@@ -207,6 +211,30 @@ public class RemoteControlConfiguration {
         firefoxProfileTemplate = newFirefoxProfileTemplate;
     }
 
+    public boolean proxyCache() {
+        return proxyCache;
+    }
+
+    public void setProxyCache(boolean proxyCache) {
+        this.proxyCache = proxyCache;
+    }
+
+    public File getProxyCacheDir() {
+        return proxyCacheDir;
+    }
+
+    public void setProxyCacheDir(File proxyCacheDir) {
+        this.proxyCacheDir = proxyCacheDir;
+    }
+
+    public File getSslCertificateStore() {
+        return sslCertificateStore;
+    }
+
+    public void setSslCertificateStore(File sslCertificateStore) {
+        this.sslCertificateStore = sslCertificateStore;
+    }
+
     public void setReuseBrowserSessions(boolean reuseBrowserSessions) {
         this.reuseBrowserSessions = reuseBrowserSessions;
     }
@@ -323,6 +351,14 @@ public class RemoteControlConfiguration {
     public void setBrowserSideLogEnabled(boolean value) {
         browserSideLogEnabled = value;
     }
+
+    public boolean isBrowserChannelEnabled() {
+        return browserChannelEnabled;
+    }
+
+    public void setBrowserChannelEnabled(boolean value) {
+        browserChannelEnabled = value;
+    }
     
     public int getJettyThreads() {
         return jettyThreads;
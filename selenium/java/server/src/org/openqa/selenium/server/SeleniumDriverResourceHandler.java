@@ -53,20 +53,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLDecoder;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -87,8 +84,11 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
       LogFactory.getLog(SeleniumDriverResourceHandler.class.getName() + ".browserSideLog");
 
   private SeleniumServer remoteControl;
-  private static String lastSessionId = null;
-  private Map<String, String> domainsBySessionId = new HashMap<String, String>();
+  /**
+   * The URL each session started on, or last opened.  Also used to tell which session a page
+   * fetched through the proxy belongs to.
+   */
+  private static final Map<String, String> domainsBySessionId = new ConcurrentHashMap<String, String>();
   private StringBuffer logMessagesBuffer = new StringBuffer();
 
   private BrowserLauncherFactory browserLauncherFactory = new BrowserLauncherFactory();
@@ -135,6 +135,7 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
       boolean justLoaded = "true".equals(seleniumStart);
       boolean retrying = "true".equals(retry);
       boolean closing = "true".equals(closingParam);
+      String channelId = getParam(req, "channel");
 
       if (sessionId != null) {
         LoggingManager.perSessionLogHandler()
@@ -144,6 +145,8 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
       // If this is a browser requesting work for the first time...
       if (cmd != null) {
         handleCommandRequest(req, res, cmd, sessionId);
+      } else if (channelId != null) {
+        handleChannelExchange(req, res, sessionId, channelId);
       } else if ("POST".equalsIgnoreCase(method) || justLoaded || logging) {
         handleBrowserResponse(req, res, sessionId, logging, jsState,
             justLoaded, retrying, closing);
@@ -170,6 +173,25 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
     }
   }
 
+  /**
+   * Takes the results of any number of frames from the browser and answers
+   * with their next commands, see {@link BrowserChannel}.
+   */
+  private void handleChannelExchange(HttpRequest req, HttpResponse res, String sessionId,
+      String channelId) throws IOException {
+    BrowserChannel channel = FrameGroupCommandQueueSet.getQueueSet(sessionId).getChannel(channelId);
+    String body = PostedDataReader.read(req.getInputStream(), req.getContentLength());
+    List<BrowserChannel.Message> commands = channel.exchange(BrowserChannel.parse(body));
+
+    String response = BrowserChannel.format(commands);
+    log.fine("Channel to " + sessionId + ": " + response);
+    res.setField(HttpFields.__ContentType, "text/plain; charset=utf-8");
+    Writer writer = new OutputStreamWriter(res.getOutputStream(), StringUtil.__UTF_8);
+    writer.write(response);
+    writer.flush();
+    req.setHandled(true);
+  }
+
   private void handleBrowserResponse(HttpRequest req, HttpResponse res,
                                      String sessionId, boolean logging, boolean jsState,
                                      boolean justLoaded, boolean retrying, boolean closing)
@@ -220,6 +242,10 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
   }
 
   private void logPostedData(FrameAddress frameAddress, boolean justLoaded, String sessionId, String postedData, String uniqueId) {
+    // The results can be megabytes, don't copy them for nothing.
+    if (!log.isLoggable(Level.FINE)) {
+      return;
+    }
     StringBuffer sb = new StringBuffer();
     sb.append(
         "Browser " + sessionId + "/" + frameAddress + " " + uniqueId + " posted " + postedData);
@@ -271,34 +297,26 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
       return req.getParameter("postedData");
     }
 
-    InputStream is = req.getInputStream();
-    StringBuffer sb = new StringBuffer();
-    InputStreamReader r = new InputStreamReader(is, "UTF-8");
-    int c;
-    while ((c = r.read()) != -1) {
-      sb.append((char) c);
-    }
-
-    String postedData = sb.toString();
-
     // we check here because, depending on the Selenium Core version you have, specifically the selenium-testrunner.js,
     // the data could be sent back directly or as URL-encoded for the parameter "postedData" (see above). Because
     // firefox and other browsers like to send it back as application/xml (opposite of Safari), we need to be prepared
     // to decode the data ourselves. Also, we check for the string starting with the key because in the rare case
     // someone has an outdated version selenium-testrunner.js, which, until today (3/25/2007) sent back the data
-    // *un*-encoded, we'd like to be as flexible as possible.
-    if (postedData.startsWith("postedData=")) {
-      postedData = postedData.substring(11);
-      postedData = URLDecoder.decode(postedData, "UTF-8");
-    }
+    // *un*-encoded, we'd like to be as flexible as possible. The reader decodes it as it reads it.
+    String postedData = PostedDataReader.read(req.getInputStream(), req.getContentLength());
 
     return postedData;
   }
 
   private void handleLogMessages(String s) {
-    String[] lines = s.split("\n");
-    for (String line : lines) {
-      if (line.startsWith("logLevel=")) {
+    // Walk the lines rather than splitting them all out, only log lines are of interest.
+    for (int start = 0; start < s.length();) {
+      int end = s.indexOf('\n', start);
+      if (end == -1) {
+        end = s.length();
+      }
+      if (s.startsWith("logLevel=", start)) {
+        String line = s.substring(start, end);
         int logLevelIdx = line.indexOf(':', "logLevel=".length());
         String logLevel = line.substring("logLevel=".length(), logLevelIdx).toUpperCase();
         String logMessage = line.substring(logLevelIdx + 1);
@@ -313,6 +331,7 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
           browserSideLog.debug(logMessage);
         }
       }
+      start = end + 1;
     }
   }
 
@@ -419,9 +438,20 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
         String extensionJs = values.size() > 2 ? values.get(2) : "";
         String browserConfigurations = values.size() > 3 ? values.get(3) : "";
         try {
+          Capabilities browserOptions = BrowserOptions.newBrowserOptions(browserConfigurations);
           sessionId = getNewBrowserSession(browserString, values.get(1), extensionJs,
-              BrowserOptions.newBrowserOptions(browserConfigurations));
+              browserOptions);
           setDomain(sessionId, values.get(1));
+          // start afresh on any network traffic captured but never pulled back by a
+          // previous client of this session id, and only keep traffic for sessions
+          // which asked for it
+          if (browserOptions.is("captureNetworkTraffic")
+              || browserOptions.is("captureNetworkTrafficSummary")) {
+            CaptureNetworkTrafficCommand.clear(sessionId,
+                browserOptions.is("captureNetworkTrafficSummary"));
+          } else {
+            CaptureNetworkTrafficCommand.remove(sessionId);
+          }
           results = "OK," + sessionId;
         } catch (RemoteCommandException rce) {
           results = "Failed to start new browser session: " + rce.getMessage();
@@ -432,12 +462,12 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
         } catch (RuntimeException rte) {
           results = "Failed to start new browser session: " + rte.getMessage();
         }
-        // clear out any network traffic captured but never pulled back by the last client (this feature only works with one concurrent browser, similar to PI mode)
-        CaptureNetworkTrafficCommand.clear();
-
         break;
       case testComplete:
         browserSessionFactory.endBrowserSession(sessionId, remoteControl.getConfiguration());
+        if (sessionId != null) {
+          domainsBySessionId.remove(sessionId);
+        }
         results = "OK";
         break;
       case getLog:
@@ -471,7 +501,20 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
         results = new CaptureScreenshotToStringCommand().execute();
         break;
       case captureNetworkTraffic:
-        results = new CaptureNetworkTrafficCommand(values.get(0)).execute();
+        CaptureNetworkTrafficCommand captureNetworkTraffic =
+            new CaptureNetworkTrafficCommand(sessionId, values.get(0));
+        if (res == null) {
+          results = captureNetworkTraffic.execute();
+          break;
+        }
+        // the traffic of a long session can be large, send it as it is formatted
+        try {
+          Writer writer = new OutputStreamWriter(res.getOutputStream(), StringUtil.__UTF_8);
+          captureNetworkTraffic.execute(writer);
+          writer.flush();
+        } catch (IOException e) {
+          log.log(Level.WARNING, "Problem sending the network traffic of session " + sessionId, e);
+        }
         break;
       case addCustomRequestHeader:
         results = new AddCustomRequestHeaderCommand(values.get(0), values.get(1)).execute();
@@ -608,6 +651,10 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
         || SeleniumCoreCommand.CAPTURE_ENTIRE_PAGE_SCREENSHOT_ID.equals(cmd)) {
       return "Got result: [base64 encoded PNG] on session " + sessionId;
     }
+    if (CaptureNetworkTrafficCommand.ID.equals(cmd)) {
+      /* The traffic can be large, and is not kept when it is streamed */
+      return "Got result: [network traffic] on session " + sessionId;
+    }
     if (RetrieveLastRemoteControlLogsCommand.ID.equals(cmd)) {
       /* Trim logs to avoid Larsen effect (see remote control stability tests) */
       trucatedResults = results.length() > 30 ? results.substring(0, 30) : results;
@@ -632,7 +679,7 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
   }
 
   private String getDomain(String sessionId) {
-    return domainsBySessionId.get(sessionId);
+    return sessionId == null ? null : domainsBySessionId.get(sessionId);
   }
 
 
@@ -784,7 +831,6 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
     BrowserSessionInfo sessionInfo = browserSessionFactory
         .getNewBrowserSession(browserString, startURL, extensionJs,
             browserConfigurations, remoteControl.getConfiguration());
-    setLastSessionId(sessionInfo.sessionId);
     return sessionInfo.sessionId;
   }
 
@@ -870,16 +916,73 @@ public class SeleniumDriverResourceHandler extends ResourceHandler {
     res.setField(HttpFields.__Expires, HttpFields.__01Jan1970);
   }
 
-  private void setDomain(String sessionId, String domain) {
-    domainsBySessionId.put(sessionId, domain);
+  static void setDomain(String sessionId, String domain) {
+    if (sessionId != null && domain != null) {
+      domainsBySessionId.put(sessionId, domain);
+    }
+  }
+
+  static void forgetDomain(String sessionId) {
+    domainsBySessionId.remove(sessionId);
+  }
+
+  /**
+   * Works out which session a page going to the browser belongs to, in proxy injection mode.
+   * That is the session named in the URL of the selenium page a browser is launched with, or else
+   * the only session on the page's host, or on the host of the page which linked to it, or else
+   * the only session there is.
+   *
+   * @return the session id, or null if the sessions can't be told apart.
+   */
+  public static String getSessionIdFor(HttpRequest request) {
+    String sessionId = null;
+    String path = request.getPath();
+    if (path != null && path.startsWith("/selenium-server/")) {
+      sessionId = request.getParameter("sessionId");
+    }
+    if (sessionId == null) {
+      sessionId = getSessionIdOnHost(request.getRequestURL().toString());
+    }
+    if (sessionId == null) {
+      String referer = request.getField(HttpFields.__Referer);
+      if (referer != null) {
+        sessionId = getSessionIdOnHost(referer);
+      }
+    }
+    if (sessionId == null && domainsBySessionId.size() == 1) {
+      for (String onlySessionId : domainsBySessionId.keySet()) {
+        sessionId = onlySessionId;
+      }
+    }
+    return sessionId;
   }
 
-  public static String getLastSessionId() {
-    return lastSessionId;
+  private static String getSessionIdOnHost(String url) {
+    String host = toProtocolHostAndPort(url);
+    if (host == null) {
+      return null;
+    }
+    String found = null;
+    for (Map.Entry<String, String> entry : domainsBySessionId.entrySet()) {
+      if (host.equals(toProtocolHostAndPort(entry.getValue()))) {
+        if (found != null) {
+          // more than one session on this host
+          return null;
+        }
+        found = entry.getKey();
+      }
+    }
+    return found;
   }
 
-  public static void setLastSessionId(String sessionId) {
-    SeleniumDriverResourceHandler.lastSessionId = sessionId;
+  private static String toProtocolHostAndPort(String url) {
+    try {
+      URL u = new URL(url);
+      String authority = u.getAuthority();
+      return authority == null ? null : u.getProtocol() + "://" + authority.toLowerCase();
+    } catch (MalformedURLException e) {
+      return null;
+    }
   }
 
   public BrowserLauncherFactory getBrowserLauncherFactory() {
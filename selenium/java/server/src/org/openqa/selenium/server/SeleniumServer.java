@@ -373,6 +373,11 @@ public class SeleniumServer implements SslCertificateGenerator {
         } else {
             proxyHandler = customProxyHandler;
         }
+        proxyHandler.setSslCertificateStore(configuration.getSslCertificateStore());
+        if (configuration.proxyCache()) {
+            proxyHandler.setResponseCache(new ProxyResponseCache(configuration.getProxyCacheDir(),
+                    ProxyResponseCache.DEFAULT_MEMORY_BYTES, ProxyResponseCache.DEFAULT_DISK_BYTES));
+        }
         return proxyHandler;
     }
 
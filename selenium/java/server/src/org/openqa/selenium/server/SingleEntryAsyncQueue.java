@@ -87,6 +87,11 @@ public class SingleEntryAsyncQueue<T> {
         return null;
     }
 
+    /** Takes the content if there is any, without waiting for it. */
+    protected T poll() {
+        return holder.poll();
+    }
+
     protected boolean putContent(T thing) {
         final boolean result;
         log.fine("putting command: " + thing);
@@ -0,0 +1,249 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server;
+
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the connections the proxy makes to the servers it proxies: how many are open to
+ * each host at once, and how long they take.
+ *
+ * The sockets themselves are pooled by HttpURLConnection, which keeps a connection alive for the
+ * next request to the same host once its response has been read to the end and closed (up to
+ * "http.maxConnections" idle ones per host). On top of that, the number of requests in flight to a
+ * host is capped, so a page with hundreds of resources doesn't open hundreds of sockets. A request
+ * which can't get one of the host's connections in time fails rather than holding a proxy thread
+ * behind requests which may never finish.
+ */
+public class UpstreamConnections {
+
+  public static final String MAX_PER_HOST_PROPERTY = "selenium.proxy.maxConnectionsPerHost";
+  private static final int DEFAULT_MAX_PER_HOST = 32;
+  public static final String WAIT_PROPERTY = "selenium.proxy.connectionWaitMs";
+  // as long as the proxy waits on a tunnel's socket
+  private static final int DEFAULT_WAIT_MILLIS = 30000;
+
+  private final int maxPerHost;
+  private final long waitMillis;
+  private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<String, Host>();
+
+  public UpstreamConnections() {
+    this(Integer.getInteger(MAX_PER_HOST_PROPERTY, DEFAULT_MAX_PER_HOST));
+  }
+
+  public UpstreamConnections(int maxPerHost) {
+    this(maxPerHost, Integer.getInteger(WAIT_PROPERTY, DEFAULT_WAIT_MILLIS));
+  }
+
+  public UpstreamConnections(int maxPerHost, long waitMillis) {
+    if (maxPerHost < 1) {
+      throw new IllegalArgumentException("At least one connection per host is needed: " + maxPerHost);
+    }
+    this.maxPerHost = maxPerHost;
+    this.waitMillis = waitMillis;
+  }
+
+  /**
+   * Waits until another request may be made to the host of the url.
+   *
+   * @return the exchange to finish once the response has been read.
+   * @throws TimeoutException if none of the host's connections came free in time.
+   */
+  public Exchange start(URL url) throws InterruptedIOException, TimeoutException {
+    Host host = getHost(url);
+    try {
+      if (!host.permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+        throw new TimeoutException("All " + maxPerHost + " connections to " + host.getName()
+            + " were still busy after " + waitMillis + " ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a connection to " + host.getName());
+    }
+    return new Exchange(host);
+  }
+
+  public Collection<Host> getHosts() {
+    return new ArrayList<Host>(hosts.values());
+  }
+
+  private Host getHost(URL url) {
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    String name = url.getProtocol() + "://" + url.getHost().toLowerCase() + ":" + port;
+    Host host = hosts.get(name);
+    if (host == null) {
+      Host created = new Host(name, maxPerHost);
+      host = hosts.putIfAbsent(name, created);
+      if (host == null) {
+        host = created;
+      }
+    }
+    return host;
+  }
+
+  /**
+   * The counters for one host.
+   */
+  public static class Host {
+    private final String name;
+    private final int maxConnections;
+    private final Semaphore permits;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong responseNanos = new AtomicLong();
+    private final AtomicLong maxResponseNanos = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    Host(String name, int maxConnections) {
+      this.name = name;
+      this.maxConnections = maxConnections;
+      this.permits = new Semaphore(maxConnections);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getActive() {
+      return maxConnections - permits.availablePermits();
+    }
+
+    public long getRequests() {
+      return requests.get();
+    }
+
+    /**
+     * @return the number of requests which never got a response.
+     */
+    public long getFailures() {
+      return failures.get();
+    }
+
+    /**
+     * @return the mean time from asking for a connection until the response started to arrive.
+     */
+    public long getMeanResponseMillis() {
+      long responded = requests.get() - failures.get();
+      return responded == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(responseNanos.get() / responded);
+    }
+
+    public long getMaxResponseMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(maxResponseNanos.get());
+    }
+
+    public long getMeanTotalMillis() {
+      long count = requests.get();
+      return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / count);
+    }
+
+    public long getBytesSent() {
+      return bytesSent.get();
+    }
+
+    public long getBytesReceived() {
+      return bytesReceived.get();
+    }
+
+    private void record(long response, long total, long sent, long received) {
+      requests.incrementAndGet();
+      if (response < 0) {
+        failures.incrementAndGet();
+      } else {
+        responseNanos.addAndGet(response);
+        long max = maxResponseNanos.get();
+        while (response > max && !maxResponseNanos.compareAndSet(max, response)) {
+          max = maxResponseNanos.get();
+        }
+      }
+      totalNanos.addAndGet(total);
+      bytesSent.addAndGet(sent);
+      bytesReceived.addAndGet(Math.max(0, received));
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d requests (%d failed, %d active), response %d ms mean %d ms max, "
+          + "total %d ms mean, %d bytes sent, %d bytes received", name, getRequests(), getFailures(),
+          getActive(), getMeanResponseMillis(), getMaxResponseMillis(), getMeanTotalMillis(),
+          getBytesSent(), getBytesReceived());
+    }
+  }
+
+  /**
+   * One request to a host, holding one of its connections until it is finished.
+   */
+  public static class Exchange {
+    private final Host host;
+    private final long start = System.nanoTime();
+    private long respondedAt = -1;
+    private long bytesSent;
+    private long bytesReceived;
+    private boolean finished;
+
+    Exchange(Host host) {
+      this.host = host;
+    }
+
+    public Host getHost() {
+      return host;
+    }
+
+    public void sent(long bytes) {
+      bytesSent += bytes;
+    }
+
+    /**
+     * Notes that the status line and headers of the response have arrived.
+     */
+    public void responded() {
+      if (respondedAt == -1) {
+        respondedAt = System.nanoTime();
+      }
+    }
+
+    public void received(long bytes) {
+      bytesReceived += bytes;
+    }
+
+    /**
+     * Records the exchange and lets the next request to the host go ahead.
+     */
+    public void finish() {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      long now = System.nanoTime();
+      host.record(respondedAt == -1 ? -1 : respondedAt - start, now - start, bytesSent,
+          bytesReceived);
+      host.permits.release();
+    }
+  }
+}
@@ -197,6 +197,7 @@ public class FirefoxChromeLauncher extends AbstractBrowserLauncher {
   protected void generatePacAndPrefJs(String homePage) throws IOException {
     browserConfigurationOptions = Proxies.setProxyRequired(browserConfigurationOptions, false);
     if (browserConfigurationOptions.is("captureNetworkTraffic") ||
+        browserConfigurationOptions.is("captureNetworkTrafficSummary") ||
         browserConfigurationOptions.is("addCustomRequestHeaders") ||
         browserConfigurationOptions.is("trustAllSSLCertificates")) {
       browserConfigurationOptions = Proxies.setProxyEverything(browserConfigurationOptions, true);
@@ -34,6 +34,9 @@ public class RemoteControlLauncher {
         printWrappedErrorLine(INDENT, "-browserSideLog: enables logging on the browser side; logging messages will be transmitted to the server.  This can affect performance.");
         printWrappedErrorLine(INDENT, "-ensureCleanSession: If the browser does not have user profiles, make sure every new session has no artifacts from previous sessions.  For example, enabling this option will cause all user cookies to be archived before launching IE, and restored after IE is closed.");
         printWrappedErrorLine(INDENT, "-trustAllSSLCertificates: Forces the Selenium proxy to trust all SSL certificates.  This doesn't work in browsers that don't use the Selenium proxy.");
+        printWrappedErrorLine(INDENT, "-proxyCache: keeps the scripts, style sheets and images fetched through the Selenium proxy in memory, so that each session doesn't download them again.  They are revalidated with the server once they are stale.");
+        printWrappedErrorLine(INDENT, "-proxyCacheDir <dir>: like -proxyCache, but also spills what doesn't fit in memory to the given directory");
+        printWrappedErrorLine(INDENT, "-sslCertificateStore <file>: keeps the certificates the Selenium proxy makes up for each HTTPS host in the given file, so that they don't have to be made again the next time the server starts");
         printWrappedErrorLine(INDENT, "-log <logFileName>: writes lots of debug information out to a log file");
         printWrappedErrorLine(INDENT, "-htmlSuite <browser> <startURL> <suiteFile> <resultFile>: Run a single HTML Selenese (Selenium Core) suite and then exit immediately, using the specified browser (e.g. \"*firefox\") on the specified URL (e.g. \"http://www.google.com\").  You need to specify the absolute path to the HTML test suite as well as the path to the HTML results file we'll generate.");
         printWrappedErrorLine(INDENT, "-proxyInjectionMode: puts you into proxy injection mode, a mode where the selenium server acts as a proxy server " +
@@ -41,6 +44,7 @@ public class RemoteControlLauncher {
                 "following additional flags are supported:\n");
         printWrappedErrorLine(INDENT2X, "-dontInjectRegex <regex>: an optional regular expression that proxy injection mode can use to know when to bypss injection");
         printWrappedErrorLine(INDENT2X, "-userJsInjection <file>: specifies a JavaScript file which will then be injected into all pages");
+        printWrappedErrorLine(INDENT2X, "-browserChannel: the frames of each browser window get their commands over one connection to the server, instead of each frame polling for its own");
         printWrappedErrorLine(INDENT2X, "-userContentTransformation <regex> <replacement>: a regular expression which is matched " +
                 "against all test HTML content; the second is a string which will replace matches.  These flags can be used any " +
                 "number of times.  A simple example of how this could be useful: if you add \"-userContentTransformation https http\" " +
@@ -109,10 +113,19 @@ public class RemoteControlLauncher {
                 }
             } else if ("-ensureCleanSession".equalsIgnoreCase(arg)) {
                 configuration.setEnsureCleanSession(true);
+            } else if ("-proxyCache".equalsIgnoreCase(arg)) {
+                configuration.setProxyCache(true);
+            } else if ("-proxyCacheDir".equalsIgnoreCase(arg)) {
+                configuration.setProxyCache(true);
+                configuration.setProxyCacheDir(new File(getArg(args, ++i)));
+            } else if ("-sslCertificateStore".equalsIgnoreCase(arg)) {
+                configuration.setSslCertificateStore(new File(getArg(args, ++i)));
             } else if ("-dontInjectRegex".equalsIgnoreCase(arg)) {
                 configuration.setDontInjectRegex(getArg(args, ++i));
             } else if ("-browserSideLog".equalsIgnoreCase(arg)) {
                 configuration.setBrowserSideLogEnabled(true);
+            } else if ("-browserChannel".equalsIgnoreCase(arg)) {
+                configuration.setBrowserChannelEnabled(true);
             } else if ("-debug".equalsIgnoreCase(arg)) {
                 configuration.setDebugMode(true);
             } else if ("-debugURL".equalsIgnoreCase(arg)) {
@@ -3,27 +3,132 @@ package org.openqa.selenium.server.commands;
 import org.openqa.jetty.http.HttpRequest;
 import org.openqa.jetty.http.HttpResponse;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
 import java.text.SimpleDateFormat;
 
 public class CaptureNetworkTrafficCommand extends Command {
-    private static final List<Entry> entries = Collections.synchronizedList(new ArrayList<Entry>());
+    private static final Logger log = Logger.getLogger(CaptureNetworkTrafficCommand.class.getName());
 
-    public static void clear() {
-        entries.clear();
+    public static final String ID = "captureNetworkTraffic";
+
+    /**
+     * How many entries are kept for a session between two calls; older ones are dropped.
+     */
+    public static final int MAX_ENTRIES = Integer.getInteger("selenium.captureNetworkTraffic.maxEntries", 10000);
+
+    private static final ConcurrentMap<String, TrafficRing> entriesBySessionId =
+            new ConcurrentHashMap<String, TrafficRing>();
+    private static final ConcurrentMap<String, TrafficSummary> summariesBySessionId =
+            new ConcurrentHashMap<String, TrafficSummary>();
+
+    /**
+     * Starts capturing traffic for a session, dropping anything captured for it so far.
+     */
+    public static void clear(String sessionId) {
+        clear(sessionId, false);
+    }
+
+    /**
+     * Starts capturing traffic for a session, dropping anything captured for it so far.
+     *
+     * @param summaryOnly only count requests, bytes and response times by host and content
+     *        type, rather than keeping each entry.
+     */
+    public static void clear(String sessionId, boolean summaryOnly) {
+        remove(sessionId);
+        if (summaryOnly) {
+            summariesBySessionId.put(sessionId, new TrafficSummary());
+        } else {
+            entriesBySessionId.put(sessionId, new TrafficRing(MAX_ENTRIES));
+        }
     }
 
+    /**
+     * Stops capturing traffic for a session which has ended.
+     */
+    public static void remove(String sessionId) {
+        entriesBySessionId.remove(sessionId);
+        summariesBySessionId.remove(sessionId);
+    }
+
+    /**
+     * The proxy can't tell which session a request was made for, so every session
+     * which is capturing gets the entry.
+     */
     public static void capture(Entry entry) {
-        entries.add(entry);
+        for (TrafficRing entries : entriesBySessionId.values()) {
+            entries.add(entry);
+        }
+        for (TrafficSummary summary : summariesBySessionId.values()) {
+            summary.add(entry);
+        }
     }
 
+    private String sessionId;
     private String type; // ie: XML, JSON, plain text, etc
 
-    public CaptureNetworkTrafficCommand(String type) {
+    public CaptureNetworkTrafficCommand(String sessionId, String type) {
+        this.sessionId = sessionId;
         this.type = type;
     }
 
+    /**
+     * Takes the entries captured for the session so far; anything captured while
+     * they're being formatted is left for the next call.
+     */
+    private List<Entry> takeEntries() {
+        TrafficRing captured = sessionId == null ? null : entriesBySessionId.get(sessionId);
+        if (captured == null) {
+            return Collections.emptyList();
+        }
+        long dropped = captured.getDropped();
+        List<Entry> entries = captured.take();
+        dropped = captured.getDropped() - dropped;
+        if (dropped > 0) {
+            log.warning("Dropped " + dropped + " entries of the network traffic of session " + sessionId
+                    + "; only the last " + MAX_ENTRIES + " are kept between calls");
+        }
+        return entries;
+    }
+
+    /**
+     * Takes the summary of the session so far and starts a new one. Entries which go by while
+     * it is swapped may count towards the old one without being reported.
+     */
+    private TrafficSummary takeSummary() {
+        if (sessionId == null || !summariesBySessionId.containsKey(sessionId)) {
+            return null;
+        }
+        return summariesBySessionId.replace(sessionId, new TrafficSummary());
+    }
+
     public String execute() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            execute(sb);
+        } catch (IOException e) {
+            // can't happen with a StringBuilder
+            throw new RuntimeException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the result to out an entry at a time, rather than building all of it in memory.
+     */
+    public void execute(Appendable out) throws IOException {
+        out.append("OK,");
+        TrafficSummary summary = takeSummary();
+        if (summary != null) {
+            writeSummary(summary, out);
+            return;
+        }
+
+        List<Entry> entries = takeEntries();
         StringBuilder sb = new StringBuilder();
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
 
@@ -53,38 +158,38 @@ public class CaptureNetworkTrafficCommand extends Command {
 
              */
 
-            sb.append("[");
+            out.append("[");
 
-            synchronized(entries) {
-                for (final Iterator<Entry> iterator = entries.iterator(); iterator.hasNext();) {
-                    final Entry entry = iterator.next();
-                    sb.append("{\n");
+            for (final Iterator<Entry> iterator = entries.iterator(); iterator.hasNext();) {
+                final Entry entry = iterator.next();
+                sb.setLength(0);
+                sb.append("{\n");
 
-                    sb.append(jsonKey("statusCode")).append(entry.statusCode).append(",\n");
-                    sb.append(jsonKey("method")).append(json(entry.method)).append(",\n");
-                    sb.append(jsonKey("url")).append(json(entry.url)).append(",\n");
-                    sb.append(jsonKey("bytes")).append(entry.bytes).append(",\n");
-                    sb.append(jsonKey("start")).append(json(sdf.format(entry.start))).append(",\n");
-                    sb.append(jsonKey("end")).append(json(sdf.format(entry.end))).append(",\n");
-                    sb.append(jsonKey("timeInMillis")).append((entry.end.getTime() - entry.start.getTime())).append(",\n");
+                sb.append(jsonKey("statusCode")).append(entry.statusCode).append(",\n");
+                sb.append(jsonKey("method")).append(json(entry.method)).append(",\n");
+                sb.append(jsonKey("url")).append(json(entry.url)).append(",\n");
+                sb.append(jsonKey("bytes")).append(entry.bytes).append(",\n");
+                sb.append(jsonKey("start")).append(json(sdf.format(entry.start))).append(",\n");
+                sb.append(jsonKey("end")).append(json(sdf.format(entry.end))).append(",\n");
+                sb.append(jsonKey("timeInMillis")).append((entry.end.getTime() - entry.start.getTime())).append(",\n");
 
-                    sb.append(jsonKey("requestHeaders")).append("[");
-                    jsonHeaders(sb, entry.requestHeaders);
-                    sb.append("],\n");
+                sb.append(jsonKey("requestHeaders")).append("[");
+                jsonHeaders(sb, entry.requestHeaders);
+                sb.append("],\n");
 
-                    sb.append(jsonKey("responseHeaders")).append("[");
-                    jsonHeaders(sb, entry.responseHeaders);
-                    sb.append("]\n");
+                sb.append(jsonKey("responseHeaders")).append("[");
+                jsonHeaders(sb, entry.responseHeaders);
+                sb.append("]\n");
 
-                    sb.append("}");
+                sb.append("}");
 
-                    if (iterator.hasNext()) {
-                        sb.append(",\n");
-                    }
+                if (iterator.hasNext()) {
+                    sb.append(",\n");
                 }
+                out.append(sb);
             }
 
-            sb.append("]");
+            out.append("]");
         } else if ("xml".equalsIgnoreCase(type)) {
             /*
             <traffic>
@@ -98,33 +203,33 @@ public class CaptureNetworkTrafficCommand extends Command {
              </entry>
             </traffic>
              */
-            sb.append("<traffic>\n");
+            out.append("<traffic>\n");
 
-            synchronized(entries) {
-                for (final Entry entry : entries) {
-                    sb.append("<entry ");
+            for (final Entry entry : entries) {
+                sb.setLength(0);
+                sb.append("<entry ");
 
-                    sb.append("statusCode=\"").append(entry.statusCode).append("\" ");
-                    sb.append("method=\"").append(json(entry.method)).append("\" ");
-                    sb.append("url=\"").append(xml(entry.url)).append("\" ");
-                    sb.append("bytes=\"").append(entry.bytes).append("\" ");
-                    sb.append("start=\"").append(sdf.format(entry.start)).append("\" ");
-                    sb.append("end=\"").append(sdf.format(entry.end)).append("\" ");
-                    sb.append("timeInMillis=\"").append((entry.end.getTime() - entry.start.getTime())).append("\">\n");
+                sb.append("statusCode=\"").append(entry.statusCode).append("\" ");
+                sb.append("method=\"").append(json(entry.method)).append("\" ");
+                sb.append("url=\"").append(xml(entry.url)).append("\" ");
+                sb.append("bytes=\"").append(entry.bytes).append("\" ");
+                sb.append("start=\"").append(sdf.format(entry.start)).append("\" ");
+                sb.append("end=\"").append(sdf.format(entry.end)).append("\" ");
+                sb.append("timeInMillis=\"").append((entry.end.getTime() - entry.start.getTime())).append("\">\n");
 
-                    sb.append("    <requestHeaders>\n");
-                    xmlHeaders(sb, entry.requestHeaders);
-                    sb.append("    </requestHeaders>\n");
+                sb.append("    <requestHeaders>\n");
+                xmlHeaders(sb, entry.requestHeaders);
+                sb.append("    </requestHeaders>\n");
 
-                    sb.append("    <responseHeaders>\n");
-                    xmlHeaders(sb, entry.responseHeaders);
-                    sb.append("    </responseHeaders>\n");
+                sb.append("    <responseHeaders>\n");
+                xmlHeaders(sb, entry.responseHeaders);
+                sb.append("    </responseHeaders>\n");
 
 
-                    sb.append("</entry>\n");
-                }
+                sb.append("</entry>\n");
+                out.append(sb);
             }
-            sb.append("</traffic>\n");
+            out.append("</traffic>\n");
         } else {
             /*
              200 GET http://foo.com/index.html
@@ -139,29 +244,109 @@ public class CaptureNetworkTrafficCommand extends Command {
 
              */
 
-            synchronized(entries) {
-                for (final Entry entry : entries) {
-                    sb.append(entry.statusCode).append(" ").append(entry.method).append(" ").append(entry.url).append("\n");
-                    sb.append(entry.bytes).append(" bytes\n");
-                    sb.append(entry.end.getTime() - entry.start.getTime()).append("ms (").append(sdf.format(entry.start)).append(" - ").append(sdf.format(entry.end)).append("\n");
-                    sb.append("\n");
-                    sb.append("Request Headers\n");
-                    for (Header header : entry.requestHeaders) {
-                        sb.append(" - ").append(header.name).append(" => ").append(header.value).append("\n");
-                    }
-                    sb.append("Response Headers\n");
-                    for (Header header : entry.responseHeaders) {
-                        sb.append(" - ").append(header.name).append(" => ").append(header.value).append("\n");
-                    }
-                    sb.append("================================================================\n");
-                    sb.append("\n");
+            for (final Entry entry : entries) {
+                sb.setLength(0);
+                sb.append(entry.statusCode).append(" ").append(entry.method).append(" ").append(entry.url).append("\n");
+                sb.append(entry.bytes).append(" bytes\n");
+                sb.append(entry.end.getTime() - entry.start.getTime()).append("ms (").append(sdf.format(entry.start)).append(" - ").append(sdf.format(entry.end)).append("\n");
+                sb.append("\n");
+                sb.append("Request Headers\n");
+                for (Header header : entry.requestHeaders) {
+                    sb.append(" - ").append(header.name).append(" => ").append(header.value).append("\n");
                 }
+                sb.append("Response Headers\n");
+                for (Header header : entry.responseHeaders) {
+                    sb.append(" - ").append(header.name).append(" => ").append(header.value).append("\n");
+                }
+                sb.append("================================================================\n");
+                sb.append("\n");
+                out.append(sb);
             }
         }
+    }
+
+    private void writeSummary(TrafficSummary summary, Appendable out) throws IOException {
+        /*
+         {"hosts": [{"name": "foo.com", "count": 12, "bytes": 124220, "p50": 63, "p90": 127, "p99": 255, "maxTimeInMillis": 204}],
+          "contentTypes": [...]}
+
+         <summary>
+          <hosts>
+           <aggregate name="foo.com" count="12" bytes="124220" p50="63" p90="127" p99="255" maxTimeInMillis="204"/>
+          </hosts>
+          <contentTypes>...</contentTypes>
+         </summary>
+
+         Hosts
+          - foo.com: 12 requests, 124220 bytes, 50% within 63ms, 90% within 127ms, 99% within 255ms, max 204ms
+         Content Types
+          - ...
+         */
+        if ("json".equalsIgnoreCase(type)) {
+            out.append("{").append(jsonKey("hosts")).append("[");
+            jsonAggregates(out, summary.getByHost());
+            out.append("],\n").append(jsonKey("contentTypes")).append("[");
+            jsonAggregates(out, summary.getByContentType());
+            out.append("]}");
+        } else if ("xml".equalsIgnoreCase(type)) {
+            out.append("<summary>\n    <hosts>\n");
+            xmlAggregates(out, summary.getByHost());
+            out.append("    </hosts>\n    <contentTypes>\n");
+            xmlAggregates(out, summary.getByContentType());
+            out.append("    </contentTypes>\n</summary>\n");
+        } else {
+            out.append("Hosts\n");
+            plainAggregates(out, summary.getByHost());
+            out.append("Content Types\n");
+            plainAggregates(out, summary.getByContentType());
+        }
+    }
+
+    private void jsonAggregates(Appendable out, Map<String, TrafficSummary.Aggregate> aggregates) throws IOException {
+        for (Iterator<Map.Entry<String, TrafficSummary.Aggregate>> iterator = aggregates.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<String, TrafficSummary.Aggregate> e = iterator.next();
+            TrafficSummary.Aggregate aggregate = e.getValue();
+            StringBuilder sb = new StringBuilder("{\n");
+            sb.append("    ").append(jsonKey("name")).append(json(e.getKey())).append(",\n");
+            sb.append("    ").append(jsonKey("count")).append(aggregate.getCount()).append(",\n");
+            sb.append("    ").append(jsonKey("bytes")).append(aggregate.getBytes()).append(",\n");
+            sb.append("    ").append(jsonKey("p50")).append(aggregate.getPercentileInMillis(50)).append(",\n");
+            sb.append("    ").append(jsonKey("p90")).append(aggregate.getPercentileInMillis(90)).append(",\n");
+            sb.append("    ").append(jsonKey("p99")).append(aggregate.getPercentileInMillis(99)).append(",\n");
+            sb.append("    ").append(jsonKey("maxTimeInMillis")).append(aggregate.getMaxTimeInMillis()).append("\n");
+            sb.append(iterator.hasNext() ? "  }," : "  }");
+            out.append(sb);
+        }
+    }
 
-        clear();
+    private void xmlAggregates(Appendable out, Map<String, TrafficSummary.Aggregate> aggregates) throws IOException {
+        for (Map.Entry<String, TrafficSummary.Aggregate> e : aggregates.entrySet()) {
+            TrafficSummary.Aggregate aggregate = e.getValue();
+            StringBuilder sb = new StringBuilder("        <aggregate ");
+            sb.append("name=\"").append(xml(e.getKey())).append("\" ");
+            sb.append("count=\"").append(aggregate.getCount()).append("\" ");
+            sb.append("bytes=\"").append(aggregate.getBytes()).append("\" ");
+            sb.append("p50=\"").append(aggregate.getPercentileInMillis(50)).append("\" ");
+            sb.append("p90=\"").append(aggregate.getPercentileInMillis(90)).append("\" ");
+            sb.append("p99=\"").append(aggregate.getPercentileInMillis(99)).append("\" ");
+            sb.append("maxTimeInMillis=\"").append(aggregate.getMaxTimeInMillis()).append("\"/>\n");
+            out.append(sb);
+        }
+    }
 
-        return "OK," + sb.toString();
+    private void plainAggregates(Appendable out, Map<String, TrafficSummary.Aggregate> aggregates) throws IOException {
+        for (Map.Entry<String, TrafficSummary.Aggregate> e : aggregates.entrySet()) {
+            TrafficSummary.Aggregate aggregate = e.getValue();
+            StringBuilder sb = new StringBuilder(" - ");
+            sb.append(e.getKey()).append(": ");
+            sb.append(aggregate.getCount()).append(" requests, ");
+            sb.append(aggregate.getBytes()).append(" bytes, ");
+            sb.append("50% within ").append(aggregate.getPercentileInMillis(50)).append("ms, ");
+            sb.append("90% within ").append(aggregate.getPercentileInMillis(90)).append("ms, ");
+            sb.append("99% within ").append(aggregate.getPercentileInMillis(99)).append("ms, ");
+            sb.append("max ").append(aggregate.getMaxTimeInMillis()).append("ms\n");
+            out.append(sb);
+        }
     }
 
     private void xmlHeaders(final StringBuilder sb, final List<Header> headers) {
@@ -257,6 +442,27 @@ public class CaptureNetworkTrafficCommand extends Command {
             }
         }
 
+        String getUrl() {
+            return url;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        long getTimeInMillis() {
+            return end == null ? 0 : end.getTime() - start.getTime();
+        }
+
+        String getResponseHeader(String name) {
+            for (Header header : responseHeaders) {
+                if (name.equalsIgnoreCase(header.name)) {
+                    return header.value;
+                }
+            }
+            return null;
+        }
+
         public void setStart(Date start) {
             this.start = start;
         }
@@ -0,0 +1,117 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recent network traffic captured for a session. Adding an entry never blocks: once
+ * the ring is full, the oldest entries are overwritten and counted as dropped.
+ */
+class TrafficRing {
+    private final AtomicReferenceArray<Slot> slots;
+    private final AtomicLong next = new AtomicLong();
+    // Guarded by this
+    private long taken;
+    private long dropped;
+
+    TrafficRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        slots = new AtomicReferenceArray<Slot>(capacity);
+    }
+
+    public void add(CaptureNetworkTrafficCommand.Entry entry) {
+        put(next.getAndIncrement(), entry);
+    }
+
+    /**
+     * Writes the entry into its slot, unless a writer a lap or more ahead has already put a
+     * later entry there, in which case this one counts as overwritten.
+     */
+    void put(long sequence, CaptureNetworkTrafficCommand.Entry entry) {
+        int index = index(sequence);
+        Slot slot = new Slot(sequence, entry);
+        while (true) {
+            Slot current = slots.get(index);
+            if (current != null && current.sequence > sequence) {
+                return;
+            }
+            if (slots.compareAndSet(index, current, slot)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes the entries added since the last call, oldest first. Entries which are still being
+     * added are left for the next call.
+     */
+    public synchronized List<CaptureNetworkTrafficCommand.Entry> take() {
+        long end = next.get();
+        long start = Math.max(taken, end - slots.length());
+        dropped += start - taken;
+
+        List<CaptureNetworkTrafficCommand.Entry> entries =
+                new ArrayList<CaptureNetworkTrafficCommand.Entry>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            int index = index(sequence);
+            Slot slot = slots.get(index);
+            if (slot == null || slot.sequence < sequence) {
+                // claimed, but not written yet
+                end = sequence;
+                break;
+            }
+            if (slot.sequence > sequence) {
+                // overwritten since we started
+                dropped++;
+                continue;
+            }
+            slots.compareAndSet(index, slot, null);
+            entries.add(slot.entry);
+        }
+        taken = end;
+        return entries;
+    }
+
+    /**
+     * @return how many entries were overwritten before they could be taken.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % slots.length());
+    }
+
+    private static class Slot {
+        private final long sequence;
+        private final CaptureNetworkTrafficCommand.Entry entry;
+
+        Slot(long sequence, CaptureNetworkTrafficCommand.Entry entry) {
+            this.sequence = sequence;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.server.commands;
+
+import org.openqa.selenium.internal.LatencyHistogram;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the network traffic of a session by host and by content type, instead of keeping
+ * every entry with its headers.
+ */
+class TrafficSummary {
+    private final ConcurrentMap<String, Aggregate> byHost = new ConcurrentHashMap<String, Aggregate>();
+    private final ConcurrentMap<String, Aggregate> byContentType = new ConcurrentHashMap<String, Aggregate>();
+
+    public void add(CaptureNetworkTrafficCommand.Entry entry) {
+        aggregate(byHost, host(entry.getUrl())).add(entry);
+        aggregate(byContentType, contentType(entry.getResponseHeader("Content-Type"))).add(entry);
+    }
+
+    public SortedMap<String, Aggregate> getByHost() {
+        return new TreeMap<String, Aggregate>(byHost);
+    }
+
+    public SortedMap<String, Aggregate> getByContentType() {
+        return new TreeMap<String, Aggregate>(byContentType);
+    }
+
+    private static Aggregate aggregate(ConcurrentMap<String, Aggregate> aggregates, String key) {
+        Aggregate aggregate = aggregates.get(key);
+        if (aggregate == null) {
+            Aggregate created = new Aggregate();
+            aggregate = aggregates.putIfAbsent(key, created);
+            if (aggregate == null) {
+                aggregate = created;
+            }
+        }
+        return aggregate;
+    }
+
+    private static String host(String url) {
+        try {
+            URL parsed = new URL(url);
+            return parsed.getPort() == -1 ? parsed.getHost() : parsed.getHost() + ":" + parsed.getPort();
+        } catch (MalformedURLException e) {
+            return "unknown";
+        }
+    }
+
+    private static String contentType(String header) {
+        if (header == null) {
+            return "unknown";
+        }
+        int parameters = header.indexOf(';');
+        return (parameters == -1 ? header : header.substring(0, parameters)).trim().toLowerCase();
+    }
+
+    /**
+     * Request count, bytes and response times of part of the traffic. Response times are kept
+     * in buckets of powers of two, so percentiles are only as precise as their bucket.
+     */
+    public static class Aggregate {
+        private final AtomicLong bytes = new AtomicLong();
+        private final LatencyHistogram timesInMillis = new LatencyHistogram();
+
+        void add(CaptureNetworkTrafficCommand.Entry entry) {
+            bytes.addAndGet(Math.max(0, entry.getBytes()));
+            timesInMillis.record(Math.max(0, entry.getTimeInMillis()));
+        }
+
+        public long getCount() {
+            return timesInMillis.getCount();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getMaxTimeInMillis() {
+            return timesInMillis.getMax();
+        }
+
+        /**
+         * @param percent between 0 and 100.
+         * @return the time within which that share of the requests got their response.
+         */
+        public long getPercentileInMillis(double percent) {
+            return timesInMillis.getPercentile(percent);
+        }
+    }
+}
@@ -27,7 +27,8 @@ public class LoggingManager {
     private static Map<Handler, Level> originalLogLevels;
     private static Map<File, FileHandler> seleniumFileHandlers = new HashMap<File, FileHandler>();
     private static ShortTermMemoryHandler shortTermMemoryHandler;
-    private static PerSessionLogHandler perSessionLogHandler;
+    // read by every request, so without taking the class lock
+    private static volatile PerSessionLogHandler perSessionLogHandler;
 
     
     public static synchronized Log configureLogging(RemoteControlConfiguration configuration, boolean debugMode) {
@@ -60,7 +61,7 @@ public class LoggingManager {
         return shortTermMemoryHandler;
     }
     
-    public static synchronized PerSessionLogHandler perSessionLogHandler() {
+    public static PerSessionLogHandler perSessionLogHandler() {
         return perSessionLogHandler;
     }
     
@@ -3,31 +3,45 @@ package org.openqa.selenium.server.log;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 /**
  * Handler which keeps in memory the log records per session so that users can
  * retrieve logs per session.
+ *
+ * Every request thread logs through this handler, so none of it takes a lock:
+ * the mappings are concurrent maps, and each session buffers its records in a
+ * lock-free queue. Once a session has more than capacity records, whichever
+ * thread notices hands them over to the file repository, and the others carry
+ * on logging.
  */
 public class PerSessionLogHandler extends java.util.logging.Handler {
+    private static final Logger log = Logger.getLogger(PerSessionLogHandler.class.getName());
 
-    private final Map<String, List<LogRecord>> perSessionRecords;
+    private final ConcurrentMap<String, SessionRecords> perSessionRecords;
 
     // Used to store log records that doesnt have associated session.
     // These records get mapped to session id once the session gets created
     // Useful for commands like: getNewBrowseSession() which doesnt have session
     // associated till the session gets created.
-    private final Map<Long, List<LogRecord>> perThreadTempRecords;
+    private final ConcurrentMap<Long, Queue<LogRecord>> perThreadTempRecords;
     private final Formatter formatter;
-    private Map<Long, String> threadToSessionMap;
-    private Map<String, Long> sessionToThreadMap;
-    private SessionLogsToFileRepository logFileRepository;
-    private int capacity;
+    private final ConcurrentMap<Long, String> threadToSessionMap;
+    private final ConcurrentMap<String, Long> sessionToThreadMap;
+    private final SessionLogsToFileRepository logFileRepository;
+    private final int capacity;
 
     /**
      * New handler keeping track of log records per session.
@@ -41,44 +55,67 @@ public class PerSessionLogHandler extends java.util.logging.Handler {
     public PerSessionLogHandler(int capacity, Level minimumLevel, Formatter formatter) {
         this.capacity = capacity;
         this.formatter = formatter;
-        this.perSessionRecords = new HashMap<String, List<LogRecord>>();
-        this.perThreadTempRecords = new HashMap<Long, List<LogRecord>>();
-        this.threadToSessionMap = new HashMap<Long, String>();
-        this.sessionToThreadMap = new HashMap<String, Long>();
+        this.perSessionRecords = new ConcurrentHashMap<String, SessionRecords>();
+        this.perThreadTempRecords = new ConcurrentHashMap<Long, Queue<LogRecord>>();
+        this.threadToSessionMap = new ConcurrentHashMap<Long, String>();
+        this.sessionToThreadMap = new ConcurrentHashMap<String, Long>();
         this.logFileRepository = new SessionLogsToFileRepository();
         
     }
     
     @Override
-    synchronized public void publish(LogRecord record) {
+    public void publish(LogRecord record) {
         long threadId = Thread.currentThread().getId();
         String sessionId = threadToSessionMap.get(threadId);
 
         if (sessionId != null) {
-            List<LogRecord> records = perSessionRecords.get(sessionId);
-            if (records == null) {
-                records = new ArrayList<LogRecord>();
-            }
-            records.add(record);
-            perSessionRecords.put(sessionId, records);
-            if (records.size() > capacity) {
-                // flush records to file;
-                try {
-                    logFileRepository.flushRecordsToLogFile(sessionId, records);
-                    // clear in memory session records
-                    records.clear();
-                    perSessionRecords.put(sessionId, records);
-                } catch (IOException ex) {
-                    ex.printStackTrace();
+            SessionRecords session = perSessionRecords.get(sessionId);
+            if (session == null) {
+                SessionRecords created = new SessionRecords();
+                session = perSessionRecords.putIfAbsent(sessionId, created);
+                if (session == null) {
+                    session = created;
                 }
             }
+            if (session.add(record) > capacity) {
+                flushRecordsToLogFile(sessionId, session);
+            }
         } else {
-            List<LogRecord> records = perThreadTempRecords.get(threadId);
+            Queue<LogRecord> records = perThreadTempRecords.get(threadId);
             if (records == null) {
-                records = new ArrayList<LogRecord>();
+                // only this thread adds records for itself
+                records = new ConcurrentLinkedQueue<LogRecord>();
+                perThreadTempRecords.put(threadId, records);
             }
             records.add(record);
-            perThreadTempRecords.put(threadId, records);
+        }
+    }
+
+    /**
+     * Hands the session's records over to the file repository, unless another
+     * thread is already doing so. The records stay in memory until the
+     * repository has them, so that reading the log never misses them.
+     */
+    private void flushRecordsToLogFile(String sessionId, SessionRecords session) {
+        if (!session.flushing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<LogRecord> records = new ArrayList<LogRecord>(session.records);
+            logFileRepository.flushRecordsToLogFile(sessionId, records);
+            for (int i = 0; i < records.size(); i++) {
+                session.records.poll();
+            }
+            session.size.addAndGet(-records.size());
+            if (perSessionRecords.get(sessionId) != session) {
+                // the session's logs were cleared meanwhile
+                logFileRepository.removeLogFile(sessionId);
+            }
+        } catch (IOException ex) {
+            // the records stay in memory, and are handed over again next time
+            log.log(Level.WARNING, "Could not hand the logs of session " + sessionId + " to the log file", ex);
+        } finally {
+            session.flushing.set(false);
         }
     }
 
@@ -86,16 +123,29 @@ public class PerSessionLogHandler extends java.util.logging.Handler {
         /* NOOP */
     }
     
-    public synchronized void close() throws SecurityException {
+    public void close() throws SecurityException {
         perSessionRecords.clear();
         perThreadTempRecords.clear();
     }
 
-    private LogRecord[] records(String sessionId) throws IOException {
-        List<LogRecord> logFileRecords = logFileRepository.getLogRecords(sessionId);
-        List<LogRecord> records = perSessionRecords.get(sessionId);
-        logFileRecords.addAll(records);
-        return logFileRecords.toArray(new LogRecord[0]);
+    private List<LogRecord> records(String sessionId) throws IOException {
+        SessionRecords session = perSessionRecords.get(sessionId);
+        // Look at the records in memory before those in the repository: records
+        // flushed meanwhile are then in one or the other, if not both.
+        List<LogRecord> inMemory = session == null
+                ? new ArrayList<LogRecord>() : new ArrayList<LogRecord>(session.records);
+        List<LogRecord> records = logFileRepository.getLogRecords(sessionId);
+
+        Set<Long> inRepository = new HashSet<Long>();
+        for (LogRecord record : records) {
+            inRepository.add(record.getSequenceNumber());
+        }
+        for (LogRecord record : inMemory) {
+            if (!inRepository.contains(record.getSequenceNumber())) {
+                records.add(record);
+            }
+        }
+        return records;
     }
 
     private String formattedRecords(String sessionId) throws IOException {
@@ -108,41 +158,40 @@ public class PerSessionLogHandler extends java.util.logging.Handler {
         return writer.toString();
     }
 
-    public synchronized void setThreadToSessionMapping(long threadId, String sessionId) {
-        if (threadToSessionMap.get(threadId) == null
-                || threadToSessionMap.get(threadId).equals(sessionId)) {
-            threadToSessionMap.put(threadId, sessionId);
+    public void setThreadToSessionMapping(long threadId, String sessionId) {
+        String current = threadToSessionMap.putIfAbsent(threadId, sessionId);
+        if (current == null || current.equals(sessionId)) {
             sessionToThreadMap.put(sessionId, threadId);
         }
     }
 
-    public synchronized void clearThreadToSessionMapping(long threadId) {
-        String sessionId = threadToSessionMap.get(threadId);
+    public void clearThreadToSessionMapping(long threadId) {
+        String sessionId = threadToSessionMap.remove(threadId);
         if (sessionId != null) {
-            threadToSessionMap.remove(threadId);
             sessionToThreadMap.remove(sessionId);
         }
     }
     
-    public synchronized void clearSessionLogRecords(String sessionId) throws IOException {
+    public void clearSessionLogRecords(String sessionId) throws IOException {
         Long threadId = sessionToThreadMap.get(sessionId);
-        String sessionIdForThread = threadToSessionMap.get(threadId);
-        if (threadId != null && sessionIdForThread != null && sessionIdForThread.equals(sessionId)) {
-            threadToSessionMap.remove(threadId);
+        if (threadId != null && threadToSessionMap.remove(threadId, sessionId)) {
             sessionToThreadMap.remove(sessionId);
         }
         perSessionRecords.remove(sessionId);
         logFileRepository.removeLogFile(sessionId);
     }
 
-    public synchronized void copyThreadTempLogsToSessionLogs(String sessionId, long threadId) {
-        List<LogRecord> records = perThreadTempRecords.get(threadId);
-        List<LogRecord> sessionRecords = new ArrayList<LogRecord>();
+    public void copyThreadTempLogsToSessionLogs(String sessionId, long threadId) {
+        Queue<LogRecord> records = perThreadTempRecords.get(threadId);
 
         if (perSessionRecords.get(sessionId) == null && records != null) {
-            sessionRecords.addAll(records);
-            perSessionRecords.put(sessionId, sessionRecords);
-            perThreadTempRecords.remove(threadId);
+            SessionRecords sessionRecords = new SessionRecords();
+            for (LogRecord record : records) {
+                sessionRecords.add(record);
+            }
+            if (perSessionRecords.putIfAbsent(sessionId, sessionRecords) == null) {
+                perThreadTempRecords.remove(threadId);
+            }
         }
     }
 
@@ -152,11 +201,30 @@ public class PerSessionLogHandler extends java.util.logging.Handler {
      * @return String RC logs for the sessionId
      * @throws IOException 
      */
-    public synchronized String getLog(String sessionId) throws IOException {
+    public String getLog(String sessionId) throws IOException {
         // TODO(chandra): Provide option to clear logs after getLog()
         String logs = formattedRecords(sessionId);
         logs = "\n<RC_Logs RC_Session_ID=" + sessionId + ">\n" + logs
                 + "\n</RC_Logs>\n";
         return logs;
     }
+
+    /**
+     * The records of a session which haven't been handed over to the file
+     * repository yet, oldest first.
+     */
+    private static class SessionRecords {
+        private final Queue<LogRecord> records = new ConcurrentLinkedQueue<LogRecord>();
+        // ConcurrentLinkedQueue.size() walks the whole queue
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean flushing = new AtomicBoolean();
+
+        /**
+         * @return how many records there are now.
+         */
+        public int add(LogRecord record) {
+            records.add(record);
+            return size.incrementAndGet();
+        }
+    }
 }
@@ -1,156 +1,475 @@
 package org.openqa.selenium.server.log;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
-class LogFile {
-    private String logName;
-    private ObjectOutputStream logWriter;
-    private ObjectInputStream logReader;
+/**
+ * A file which log records are only ever appended to, by the writer thread of
+ * the repository. The records of all sessions share the segments; which bytes
+ * belong to which session is kept in the repository's index.
+ */
+class LogSegment {
+    private final File file;
+    private final FileChannel channel;
+    private long length;
+    private int liveChunks;
 
-    public LogFile(String logName) {
-        this.logName = logName;
+    public LogSegment() throws IOException {
+        file = File.createTempFile("session", ".rclog");
+        file.deleteOnExit();
+        channel = new RandomAccessFile(file, "rw").getChannel();
     }
-   
-    public void openLogWriter() throws IOException {
-        logWriter = new ObjectOutputStream(new FileOutputStream(logName));
-    }
-    
-    public void closeLogWriter() throws IOException {
-        if (logWriter != null) {
-            logWriter.close();
+
+    /**
+     * @return the offset the bytes were written at.
+     */
+    public long append(byte[] bytes, int count) throws IOException {
+        long offset = length;
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, count);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, length + buffer.position());
         }
+        length += count;
+        return offset;
     }
-    
-    public void openLogReader() throws IOException {
-        logReader = new ObjectInputStream(new FileInputStream(logName));
-    }
-    
-    public void closeLogReader() throws IOException {
-        if (logReader != null) {
-            logReader.close();
+
+    public byte[] read(long offset, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Log segment " + file + " is shorter than expected");
+            }
         }
+        return buffer.array();
     }
 
-    public ObjectOutputStream getLogWriter() {
-        return logWriter;
+    public long length() {
+        return length;
     }
 
-    public ObjectInputStream getLogReader() {
-        return logReader;
+    public void addChunk() {
+        liveChunks++;
     }
-    public void removeLogFile() throws IOException {        
-        if (logName != null) {
-            closeLogReader();
-            closeLogWriter();
-            new File(logName).delete();
+
+    /**
+     * @return whether any chunk of the segment is still wanted.
+     */
+    public boolean removeChunk() {
+        return --liveChunks > 0;
+    }
+
+    public void delete() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing more can be done with it
         }
+        file.delete();
     }
 }
 
+/**
+ * Keeps the log records which no longer fit in memory, for all sessions, in
+ * append-only segment files.
+ *
+ * Records are handed over in batches and written by a single background
+ * thread, so that logging never waits for the disk. Each batch becomes a
+ * chunk of one segment, and the repository indexes the chunks by session and
+ * by the time span of their records: reading the logs of a session only reads
+ * the chunks of that session, and reading a time range skips the chunks
+ * outside of it. Batches which haven't been written yet are read from memory.
+ */
 public class SessionLogsToFileRepository {
-    private Map<String, LogFile> sessionToLogFileMap;
+    private static final Logger log = Logger.getLogger(SessionLogsToFileRepository.class.getName());
+    private static final long MAX_SEGMENT_BYTES = 16 * 1024 * 1024;
 
-    public SessionLogsToFileRepository() {
-        sessionToLogFileMap = new HashMap<String, LogFile>();
-    }
+    private final Map<String, SessionLog> sessionToLogMap;
+    private final Queue<Batch> unwritten;
+    private final ExecutorService writer;
+    private LogSegment currentSegment;
 
-    /**
-     * This creates log file object which represents logs in file form. This
-     * opens ObjectOutputStream which is used to write logRecords to log file
-     * and opens a ObjectInputStream which is used to read logRecords from the
-     * file.
-     * 
-     * @param sessionId
-     *            session-id for the log file entry needs to be created.
-     * @throws IOException
-     */
-    private void createLogFileAndAddToMap(String sessionId) throws IOException {
-        File rcLogFile;
-        // create logFile;
-        rcLogFile = File.createTempFile(sessionId, ".rclog");
-        rcLogFile.deleteOnExit();
-        LogFile logFile = new LogFile(rcLogFile.getAbsolutePath());
-        sessionToLogFileMap.put(sessionId, logFile);
+    public SessionLogsToFileRepository() {
+        sessionToLogMap = new HashMap<String, SessionLog>();
+        unwritten = new LinkedList<Batch>();
+        // one thread, so that batches are written in the order they came in;
+        // it goes away when there is nothing to write.
+        writer = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "Session log writer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
     }
 
     /**
-     * This creates a mapping between session and file representation of logs if
-     * doesnt exist already. Writes the log records to the log file. This does
-     * *NOT* flush the logs to file. This does *NOT* clear the records after
-     * writing to file.
-     * 
+     * Hands the log records over to be written to the session's log. They are
+     * written in the background: this doesn't wait for the disk. The records
+     * are copied, so the caller can clear the list afterwards.
+     *
      * @param sessionId
      *            session-id to which the log records belong
      * @param records
      *            logRecords that need to be stored
-     * @throws IOException 
      */
-    synchronized public void flushRecordsToLogFile(String sessionId,
-            List<LogRecord> records) throws IOException {
-        LogFile logFile = sessionToLogFileMap.get(sessionId);
-
-        if (logFile == null) {
-            createLogFileAndAddToMap(sessionId);
-            logFile = sessionToLogFileMap.get(sessionId);
+    public void flushRecordsToLogFile(String sessionId, List<LogRecord> records) {
+        if (records.isEmpty()) {
+            return;
         }
-        
-        logFile.openLogWriter();
-        for (LogRecord record : records) {
-            logFile.getLogWriter().writeObject(record);
+        Batch batch = new Batch(sessionId, new ArrayList<LogRecord>(records));
+        synchronized (this) {
+            SessionLog log = sessionToLogMap.get(sessionId);
+            if (log == null) {
+                log = new SessionLog();
+                sessionToLogMap.put(sessionId, log);
+            }
+            log.pending.add(batch);
+            unwritten.add(batch);
         }
-        logFile.closeLogWriter();
+        writer.execute(new Runnable() {
+            public void run() {
+                writeUnwrittenBatches();
+            }
+        });
     }
 
     /**
-     * This returns the log records storied in the corresponding log file. This
+     * Waits until the records handed over so far have been written.
+     */
+    public void flush() throws IOException {
+        try {
+            writer.submit(new Runnable() {
+                public void run() {
+                    // The writer handles tasks in order: by now the batches before are written.
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException("Could not write the session logs", e.getCause());
+        }
+    }
+
+    /**
+     * This returns the log records stored for the session, oldest first. This
      * does *NOT* clear the log records in the file.
-     * 
+     *
      * @param sessionId
      *            session-id for which the file logs needs to be returned.
-     * @return
-     * @throws IOException 
+     * @return the log records of the session
+     * @throws IOException
      */
     public List<LogRecord> getLogRecords(String sessionId) throws IOException {
-        LogFile logFile = sessionToLogFileMap.get(sessionId);
-        if (logFile == null) {
-            return new ArrayList<LogRecord>();
+        return getLogRecords(sessionId, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * This returns the log records stored for the session which were logged
+     * between the two times, oldest first. Only the chunks of the session's log
+     * which span some of that time are read.
+     *
+     * @param sessionId
+     *            session-id for which the file logs needs to be returned.
+     * @param fromMillis
+     *            the earliest time of the records to return, inclusive.
+     * @param toMillis
+     *            the latest time of the records to return, inclusive.
+     * @return the log records of the session in that range
+     * @throws IOException
+     */
+    public List<LogRecord> getLogRecords(String sessionId, long fromMillis, long toMillis)
+            throws IOException {
+        List<Chunk> chunks;
+        List<Batch> pending;
+        synchronized (this) {
+            SessionLog log = sessionToLogMap.get(sessionId);
+            if (log == null) {
+                return new ArrayList<LogRecord>();
+            }
+            chunks = new ArrayList<Chunk>(log.chunks);
+            pending = new ArrayList<Batch>(log.pending);
         }
-        logFile.openLogReader();
-        ObjectInputStream logObjInStream = logFile.getLogReader();
+
         List<LogRecord> logRecords = new ArrayList<LogRecord>();
-        try {
-            LogRecord tmpLogRecord;
-            while (null != (tmpLogRecord = (LogRecord) logObjInStream
-                    .readObject())) {
-                logRecords.add(tmpLogRecord);
-            }
-        } catch (IOException ex) {
-            logFile.closeLogReader();
-            return logRecords;
-        } catch (ClassNotFoundException e) {
-            logFile.closeLogReader();
-            return logRecords;
-        }
-        logFile.closeLogReader();
+        for (Chunk chunk : chunks) {
+            if (chunk.maxMillis < fromMillis || chunk.minMillis > toMillis) {
+                continue;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    chunk.segment.read(chunk.offset, chunk.length)));
+            for (int i = 0; i < chunk.count; i++) {
+                addIfInRange(logRecords, readRecord(in), fromMillis, toMillis);
+            }
+        }
+        for (Batch batch : pending) {
+            for (LogRecord record : batch.records) {
+                addIfInRange(logRecords, record, fromMillis, toMillis);
+            }
+        }
         return logRecords;
     }
 
     public void removeLogFile(String sessionId) throws IOException {
-        LogFile logFile = sessionToLogFileMap.get(sessionId);
-        sessionToLogFileMap.remove(sessionId);
-        if (logFile == null) {
+        List<LogSegment> unused = new ArrayList<LogSegment>();
+        synchronized (this) {
+            SessionLog log = sessionToLogMap.remove(sessionId);
+            if (log == null) {
+                return;
+            }
+            for (Chunk chunk : log.chunks) {
+                if (!chunk.segment.removeChunk() && !unused.contains(chunk.segment)) {
+                    unused.add(chunk.segment);
+                }
+            }
+        }
+        for (LogSegment segment : unused) {
+            segment.delete();
+        }
+    }
+
+    private static void addIfInRange(List<LogRecord> records, LogRecord record,
+            long fromMillis, long toMillis) {
+        if (record.getMillis() >= fromMillis && record.getMillis() <= toMillis) {
+            records.add(record);
+        }
+    }
+
+    /**
+     * Appends every batch handed over so far to the current segment in one go,
+     * then adds them to the index. Only ever runs on the writer thread.
+     */
+    private void writeUnwrittenBatches() {
+        List<Batch> batches;
+        synchronized (this) {
+            if (unwritten.isEmpty()) {
+                return;
+            }
+            batches = new ArrayList<Batch>(unwritten);
+            unwritten.clear();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<Chunk> chunks = new ArrayList<Chunk>(batches.size());
+        try {
+            LogSegment segment = currentSegment;
+            if (segment == null || segment.length() > MAX_SEGMENT_BYTES) {
+                segment = new LogSegment();
+            }
+            for (Batch batch : batches) {
+                Chunk chunk = new Chunk(segment, bytes.size(), batch.records.size());
+                for (LogRecord record : batch.records) {
+                    writeRecord(out, record);
+                    chunk.minMillis = Math.min(chunk.minMillis, record.getMillis());
+                    chunk.maxMillis = Math.max(chunk.maxMillis, record.getMillis());
+                }
+                chunk.length = bytes.size() - (int) chunk.offset;
+                chunks.add(chunk);
+            }
+            out.flush();
+            long offset = segment.append(bytes.toByteArray(), bytes.size());
+            for (Chunk chunk : chunks) {
+                chunk.offset += offset;
+            }
+            switchTo(segment);
+        } catch (IOException e) {
+            // Keep the records in memory rather than lose them
+            log.log(Level.WARNING, "Could not write the session logs, keeping them in memory", e);
+            return;
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < batches.size(); i++) {
+                Batch batch = batches.get(i);
+                SessionLog log = sessionToLogMap.get(batch.sessionId);
+                if (log == null) {
+                    // removed while it was being written
+                    continue;
+                }
+                log.pending.remove(batch);
+                log.chunks.add(chunks.get(i));
+                chunks.get(i).segment.addChunk();
+            }
+        }
+    }
+
+    private void switchTo(LogSegment segment) {
+        LogSegment unused = null;
+        synchronized (this) {
+            if (segment != currentSegment) {
+                if (currentSegment != null && !currentSegment.removeChunk()) {
+                    unused = currentSegment;
+                }
+                currentSegment = segment;
+                // the current segment counts as a chunk, so that it isn't deleted while it's being written
+                currentSegment.addChunk();
+            }
+        }
+        if (unused != null) {
+            unused.delete();
+        }
+    }
+
+    /**
+     * Writes the fields of the record which the formatters use, plus the
+     * parameters as strings, as java.util.logging's own serialization does.
+     */
+    private static void writeRecord(DataOutputStream out, LogRecord record) throws IOException {
+        out.writeLong(record.getMillis());
+        out.writeLong(record.getSequenceNumber());
+        out.writeInt(record.getThreadID());
+        writeString(out, record.getLevel().getName());
+        out.writeInt(record.getLevel().intValue());
+        writeString(out, record.getLoggerName());
+        writeString(out, record.getMessage());
+        writeString(out, record.getResourceBundleName());
+        writeString(out, record.getSourceClassName());
+        writeString(out, record.getSourceMethodName());
+
+        Object[] parameters = record.getParameters();
+        out.writeInt(parameters == null ? -1 : parameters.length);
+        if (parameters != null) {
+            for (Object parameter : parameters) {
+                writeString(out, parameter == null ? null : parameter.toString());
+            }
+        }
+
+        if (record.getThrown() == null) {
+            out.writeInt(-1);
+        } else {
+            ByteArrayOutputStream thrown = new ByteArrayOutputStream();
+            ObjectOutputStream objects = new ObjectOutputStream(thrown);
+            objects.writeObject(record.getThrown());
+            objects.close();
+            out.writeInt(thrown.size());
+            thrown.writeTo(out);
+        }
+    }
+
+    private static LogRecord readRecord(DataInputStream in) throws IOException {
+        long millis = in.readLong();
+        long sequenceNumber = in.readLong();
+        int threadId = in.readInt();
+        String levelName = readString(in);
+        int levelValue = in.readInt();
+        Level level;
+        try {
+            level = Level.parse(levelName);
+        } catch (IllegalArgumentException e) {
+            level = Level.parse(String.valueOf(levelValue));
+        }
+
+        LogRecord record = new LogRecord(level, null);
+        record.setMillis(millis);
+        record.setSequenceNumber(sequenceNumber);
+        record.setThreadID(threadId);
+        record.setLoggerName(readString(in));
+        record.setMessage(readString(in));
+        record.setResourceBundleName(readString(in));
+        record.setSourceClassName(readString(in));
+        record.setSourceMethodName(readString(in));
+
+        int parameterCount = in.readInt();
+        if (parameterCount >= 0) {
+            Object[] parameters = new Object[parameterCount];
+            for (int i = 0; i < parameterCount; i++) {
+                parameters[i] = readString(in);
+            }
+            record.setParameters(parameters);
+        }
+
+        int thrownLength = in.readInt();
+        if (thrownLength >= 0) {
+            byte[] thrown = new byte[thrownLength];
+            in.readFully(thrown);
+            try {
+                ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(thrown));
+                record.setThrown((Throwable) objects.readObject());
+            } catch (ClassNotFoundException e) {
+                // Leave it out, as the message is still worth having
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Unlike writeUTF, copes with nulls and strings longer than 64K.
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
             return;
         }
-        logFile.removeLogFile();
+        byte[] bytes = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static class SessionLog {
+        private final List<Chunk> chunks = new ArrayList<Chunk>();
+        private final List<Batch> pending = new ArrayList<Batch>();
+    }
+
+    private static class Batch {
+        private final String sessionId;
+        private final List<LogRecord> records;
+
+        Batch(String sessionId, List<LogRecord> records) {
+            this.sessionId = sessionId;
+            this.records = records;
+        }
+    }
+
+    /**
+     * Where the records of one batch are, and the time they span.
+     */
+    private static class Chunk {
+        private final LogSegment segment;
+        private final int count;
+        private long offset;
+        private int length;
+        private long minMillis = Long.MAX_VALUE;
+        private long maxMillis = Long.MIN_VALUE;
+
+        Chunk(LogSegment segment, long offset, int count) {
+            this.segment = segment;
+            this.offset = offset;
+            this.count = count;
+        }
     }
 }
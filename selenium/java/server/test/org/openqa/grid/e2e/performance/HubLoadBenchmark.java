@@ -0,0 +1,356 @@
+package org.openqa.grid.e2e.performance;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.params.ConnManagerPNames;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.params.HttpParams;
+import org.openqa.grid.internal.Registry;
+import org.openqa.grid.internal.RemoteProxy;
+import org.openqa.grid.internal.metrics.HubMetrics;
+import org.openqa.grid.web.Hub;
+import org.openqa.selenium.internal.LatencyHistogram;
+import org.openqa.selenium.net.PortProber;
+
+/**
+ * Load test for the hub. Starts a hub in process, registers a lot of
+ * {@link MockNodes} and has a number of clients creating sessions and sending
+ * commands through the hub as fast as possible, or at the configured rates.
+ *
+ * Reports the throughput, the latencies seen by the clients, the latencies
+ * measured by the hub itself ( {@link HubMetrics} ) and the cpu / heap used by
+ * the JVM. The nodes and the clients run in the same JVM, so the cpu and heap
+ * are an upper bound of what the hub uses.
+ *
+ * Run with the main method, the parameters are system properties, for
+ * instance : -Dnodes=500 -Dclients=100 -DcommandRate=2000
+ *
+ * @see Config
+ */
+public class HubLoadBenchmark {
+
+	/**
+	 * parameters of a run.
+	 */
+	public static class Config {
+		/** number of fake nodes registered to the hub */
+		public int nodes = 200;
+		/** test slots per node */
+		public int slotsPerNode = 1;
+		/** ports the nodes are spread on */
+		public int listeners = 4;
+		/** concurrent clients */
+		public int clients = 50;
+		/** sessions created by each client, one after the other */
+		public int sessionsPerClient = 20;
+		/** commands sent in each session, the DELETE excluded */
+		public int commandsPerSession = 20;
+		/** new sessions per second for all the clients, 0 = no limit */
+		public double sessionRate = 0;
+		/** commands per second for all the clients, 0 = no limit */
+		public double commandRate = 0;
+		/** time the nodes take to answer, in ms */
+		public long nodeDelay = 0;
+		/** extra time the nodes take to start a session, in ms */
+		public long sessionStartDelay = 0;
+		/** times the hub can hand a session to another test, 0 = never */
+		public int maxSessionReuse = 0;
+
+		public static Config fromSystemProperties() {
+			Config c = new Config();
+			c.nodes = Integer.getInteger("nodes", c.nodes);
+			c.slotsPerNode = Integer.getInteger("slotsPerNode", c.slotsPerNode);
+			c.listeners = Integer.getInteger("listeners", c.listeners);
+			c.clients = Integer.getInteger("clients", c.clients);
+			c.sessionsPerClient = Integer.getInteger("sessionsPerClient", c.sessionsPerClient);
+			c.commandsPerSession = Integer.getInteger("commandsPerSession", c.commandsPerSession);
+			c.sessionRate = Double.parseDouble(System.getProperty("sessionRate", String.valueOf(c.sessionRate)));
+			c.commandRate = Double.parseDouble(System.getProperty("commandRate", String.valueOf(c.commandRate)));
+			c.nodeDelay = Long.getLong("nodeDelay", c.nodeDelay);
+			c.sessionStartDelay = Long.getLong("sessionStartDelay", c.sessionStartDelay);
+			c.maxSessionReuse = Integer.getInteger("maxSessionReuse", c.maxSessionReuse);
+			return c;
+		}
+
+		@Override
+		public String toString() {
+			return "nodes=" + nodes + " slotsPerNode=" + slotsPerNode + " clients=" + clients + " sessionsPerClient=" + sessionsPerClient
+					+ " commandsPerSession=" + commandsPerSession + " sessionRate=" + sessionRate + " commandRate=" + commandRate
+					+ " nodeDelay=" + nodeDelay + " sessionStartDelay=" + sessionStartDelay + " maxSessionReuse=" + maxSessionReuse;
+		}
+	}
+
+	/**
+	 * what was measured during a run.
+	 */
+	public static class Result {
+		public final LatencyHistogram newSession = new LatencyHistogram();
+		public final LatencyHistogram command = new LatencyHistogram();
+		public final AtomicLong errors = new AtomicLong();
+		public long durationMs;
+		public long cpuMs = -1;
+		public long heapBeforeMb;
+		public long heapPeakMb;
+		public String hubProcess;
+		public String hubForward;
+		public String hubQueueWait;
+		public long sessionsReused;
+
+		public long getRequests() {
+			return newSession.getCount() + command.getCount();
+		}
+
+		public double getThroughput() {
+			return durationMs == 0 ? 0 : getRequests() * 1000.0 / durationMs;
+		}
+
+		public String report() {
+			StringBuilder b = new StringBuilder();
+			b.append(String.format("requests       : %d in %d ms, %.1f req/s, %d errors%n", getRequests(), durationMs, getThroughput(),
+					errors.get()));
+			b.append("new session ms : ").append(newSession).append("\n");
+			b.append("command ms     : ").append(command).append("\n");
+			b.append("hub process ms : ").append(hubProcess).append("\n");
+			b.append("hub forward ms : ").append(hubForward).append("\n");
+			b.append("hub queue ms   : ").append(hubQueueWait).append("\n");
+			b.append("reused sessions: ").append(sessionsReused).append("\n");
+			b.append("cpu            : ").append(cpuMs == -1 ? "n/a" : cpuMs + " ms").append("\n");
+			b.append("heap           : ").append(heapBeforeMb).append(" MB before, ").append(heapPeakMb).append(" MB peak\n");
+			return b.toString();
+		}
+	}
+
+	/**
+	 * spreads the calls of all the threads sharing it evenly in time.
+	 */
+	private static class Throttle {
+		private final long intervalNanos;
+		private long next = System.nanoTime();
+
+		Throttle(double perSecond) {
+			intervalNanos = perSecond <= 0 ? 0 : (long) (1000000000L / perSecond);
+		}
+
+		void acquire() throws InterruptedException {
+			if (intervalNanos == 0) {
+				return;
+			}
+			long slot;
+			synchronized (this) {
+				slot = Math.max(next, System.nanoTime());
+				next = slot + intervalNanos;
+			}
+			long wait = slot - System.nanoTime();
+			if (wait > 0) {
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			}
+		}
+	}
+
+	private static final String CAPABILITY = "{\"desiredCapabilities\":{\"browserName\":\"mock\"}}";
+
+	private final Config config;
+
+	public HubLoadBenchmark(Config config) {
+		this.config = config;
+	}
+
+	public Result run() throws Exception {
+		MockNodes nodes = new MockNodes(config.listeners);
+		nodes.setCommandDelay(config.nodeDelay);
+		nodes.setSessionStartDelay(config.sessionStartDelay);
+		Registry registry = Registry.getNewInstanceForTestOnly();
+		Hub hub = Hub.getNewInstanceForTest(PortProber.findFreePort(), registry);
+		nodes.start();
+		try {
+			hub.start();
+			return run(hub, registry, nodes);
+		} finally {
+			hub.stop();
+			registry.stop();
+			nodes.stop();
+		}
+	}
+
+	private Result run(Hub hub, Registry registry, MockNodes nodes) throws Exception {
+		final Result result = new Result();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+		Map<String, Object> capability = new HashMap<String, Object>();
+		capability.put("browserName", "mock");
+		for (RemoteProxy proxy : nodes.createProxies(config.nodes, capability, config.slotsPerNode, config.maxSessionReuse)) {
+			registry.add(proxy);
+		}
+
+		System.gc();
+		result.heapBeforeMb = memory.getHeapMemoryUsage().getUsed() / (1024 * 1024);
+		final AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+		long cpuBefore = getProcessCpuTime();
+
+		final DefaultHttpClient client = newClient(config.clients);
+		final HttpHost host = new HttpHost(hub.getHost(), hub.getPort());
+		final Throttle sessionThrottle = new Throttle(config.sessionRate);
+		final Throttle commandThrottle = new Throttle(config.commandRate);
+		final CountDownLatch done = new CountDownLatch(config.clients);
+
+		List<Thread> clients = new ArrayList<Thread>();
+		for (int i = 0; i < config.clients; i++) {
+			clients.add(new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int s = 0; s < config.sessionsPerClient; s++) {
+							sessionThrottle.acquire();
+							String session = newSession(client, host, result);
+							if (session == null) {
+								continue;
+							}
+							for (int c = 0; c < config.commandsPerSession; c++) {
+								commandThrottle.acquire();
+								command(client, host, new BasicHttpRequest("GET", "/grid/driver/session/" + session + "/title"), result);
+							}
+							command(client, host, new BasicHttpRequest("DELETE", "/grid/driver/session/" + session), result);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "benchmark client " + i));
+		}
+
+		Thread sampler = new Thread(new Runnable() {
+			public void run() {
+				MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+				while (!Thread.currentThread().isInterrupted()) {
+					long used = memory.getHeapMemoryUsage().getUsed();
+					if (used > peakHeap.get()) {
+						peakHeap.set(used);
+					}
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		});
+		sampler.setDaemon(true);
+		sampler.start();
+
+		long start = System.currentTimeMillis();
+		for (Thread t : clients) {
+			t.start();
+		}
+		done.await();
+		result.durationMs = System.currentTimeMillis() - start;
+		sampler.interrupt();
+		client.getConnectionManager().shutdown();
+
+		long cpuAfter = getProcessCpuTime();
+		if (cpuBefore != -1 && cpuAfter != -1) {
+			result.cpuMs = (cpuAfter - cpuBefore) / 1000000;
+		}
+		result.heapPeakMb = peakHeap.get() / (1024 * 1024);
+
+		HubMetrics metrics = registry.getMetrics();
+		result.hubProcess = metrics.getProcessLatency().toString();
+		result.hubForward = metrics.getForwardLatency().toString();
+		result.hubQueueWait = metrics.getQueueWait().toString();
+		result.sessionsReused = metrics.getSessionsReused();
+		return result;
+	}
+
+	private static DefaultHttpClient newClient(int connections) {
+		DefaultHttpClient client = new DefaultHttpClient();
+		HttpParams params = client.getParams().copy();
+		params.setParameter(ConnManagerPNames.MAX_CONNECTIONS_PER_ROUTE, new ConnPerRouteBean(connections));
+		params.setIntParameter(ConnManagerPNames.MAX_TOTAL_CONNECTIONS, connections);
+		params.setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, false);
+		ThreadSafeClientConnManager manager = new ThreadSafeClientConnManager(params, client.getConnectionManager().getSchemeRegistry());
+		return new DefaultHttpClient(manager, params);
+	}
+
+	/**
+	 * @return the external key of the new session, null if it failed.
+	 */
+	private static String newSession(DefaultHttpClient client, HttpHost host, Result result) {
+		long start = System.currentTimeMillis();
+		try {
+			BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest("POST", "/grid/driver/session");
+			request.setEntity(new StringEntity(CAPABILITY, "UTF-8"));
+			HttpResponse response = client.execute(host, request);
+			consume(response.getEntity());
+			Header location = response.getFirstHeader("Location");
+			if (location == null) {
+				result.errors.incrementAndGet();
+				return null;
+			}
+			String value = location.getValue();
+			return value.substring(value.lastIndexOf('/') + 1);
+		} catch (Exception e) {
+			result.errors.incrementAndGet();
+			return null;
+		} finally {
+			result.newSession.record(System.currentTimeMillis() - start);
+		}
+	}
+
+	private static void command(DefaultHttpClient client, HttpHost host, BasicHttpRequest request, Result result) {
+		long start = System.currentTimeMillis();
+		try {
+			HttpResponse response = client.execute(host, request);
+			consume(response.getEntity());
+			if (response.getStatusLine().getStatusCode() != 200) {
+				result.errors.incrementAndGet();
+			}
+		} catch (Exception e) {
+			result.errors.incrementAndGet();
+		} finally {
+			result.command.record(System.currentTimeMillis() - start);
+		}
+	}
+
+	private static void consume(HttpEntity entity) throws java.io.IOException {
+		if (entity != null) {
+			entity.consumeContent();
+		}
+	}
+
+	/**
+	 * @return the cpu time used by the JVM in ns, -1 if the JVM doesn't tell.
+	 */
+	private static long getProcessCpuTime() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config config = Config.fromSystemProperties();
+		System.out.println(config);
+		Result result = new HubLoadBenchmark(config).run();
+		System.out.println(result.report());
+		System.exit(0);
+	}
+}
@@ -0,0 +1,47 @@
+package org.openqa.grid.e2e.performance;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * small run of the benchmark, to make sure the harness itself keeps working.
+ * Use {@link HubLoadBenchmark#main(String[])} for real measurements.
+ */
+@Test(groups = { "slow" }, timeOut = 60000)
+public class HubLoadBenchmarkTest {
+
+	@Test
+	public void smallLoad() throws Exception {
+		HubLoadBenchmark.Config config = new HubLoadBenchmark.Config();
+		config.nodes = 20;
+		config.listeners = 2;
+		config.clients = 5;
+		config.sessionsPerClient = 3;
+		config.commandsPerSession = 5;
+
+		HubLoadBenchmark.Result result = new HubLoadBenchmark(config).run();
+
+		Assert.assertEquals(result.errors.get(), 0, result.report());
+		Assert.assertEquals(result.newSession.getCount(), 15);
+		// 5 commands + the DELETE per session.
+		Assert.assertEquals(result.command.getCount(), 15 * 6);
+		Assert.assertEquals(result.getRequests(), 15 * 7);
+	}
+
+	@Test
+	public void warmSessionsAreReused() throws Exception {
+		HubLoadBenchmark.Config config = new HubLoadBenchmark.Config();
+		config.nodes = 2;
+		config.listeners = 1;
+		config.clients = 2;
+		config.sessionsPerClient = 4;
+		config.commandsPerSession = 2;
+		config.maxSessionReuse = 10;
+
+		HubLoadBenchmark.Result result = new HubLoadBenchmark(config).run();
+
+		Assert.assertEquals(result.errors.get(), 0, result.report());
+		Assert.assertEquals(result.newSession.getCount(), 8);
+		Assert.assertTrue(result.sessionsReused > 0, result.report());
+	}
+}
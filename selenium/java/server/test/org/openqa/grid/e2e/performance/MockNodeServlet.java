@@ -0,0 +1,87 @@
+package org.openqa.grid.e2e.performance;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Pretends to be a webdriver remote. Every node hosted by {@link MockNodes}
+ * is a different path on the same servlet, http://host:port/nodeX/wd/hub
+ *
+ * New session requests are redirected to a new random session, every other
+ * command returns a successful empty response, immediately or after the delay
+ * configured on the {@link MockNodes}. Sessions have two windows, so that the
+ * hub has one to close when it resets a session to keep it warm.
+ */
+public class MockNodeServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 8041524355286011537L;
+
+	private MockNodes getNodes() {
+		return (MockNodes) getServletContext().getAttribute(MockNodes.KEY);
+	}
+
+	@Override
+	protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		MockNodes nodes = getNodes();
+		nodes.getRequestCount().incrementAndGet();
+
+		// consume the body, like a real remote would.
+		InputStream in = request.getInputStream();
+		byte[] buffer = new byte[4096];
+		while (in.read(buffer) != -1) {
+		}
+
+		if (nodes.getCommandDelay() > 0) {
+			try {
+				Thread.sleep(nodes.getCommandDelay());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		String path = request.getPathInfo();
+		if ("POST".equalsIgnoreCase(request.getMethod()) && path != null && path.endsWith("/session")) {
+			if (nodes.getSessionStartDelay() > 0) {
+				try {
+					Thread.sleep(nodes.getSessionStartDelay());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			String session = UUID.randomUUID().toString();
+			nodes.getSessionCount().incrementAndGet();
+			response.setStatus(302);
+			response.setHeader("Location", request.getRequestURL() + "/" + session);
+			response.setContentLength(0);
+			return;
+		}
+
+		String session = extractSession(path);
+		String value = path != null && path.endsWith("/window_handles") ? "[\"main\",\"popup\"]" : "null";
+		byte[] body = ("{\"sessionId\":" + (session == null ? "null" : "\"" + session + "\"") + ",\"status\":0,\"value\":" + value + "}")
+				.getBytes("UTF-8");
+		response.setStatus(200);
+		response.setContentType("application/json; charset=utf-8");
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+	}
+
+	private static String extractSession(String path) {
+		if (path == null) {
+			return null;
+		}
+		int index = path.indexOf("/session/");
+		if (index == -1) {
+			return null;
+		}
+		index += "/session/".length();
+		int end = path.indexOf('/', index);
+		return end == -1 ? path.substring(index) : path.substring(index, end);
+	}
+}
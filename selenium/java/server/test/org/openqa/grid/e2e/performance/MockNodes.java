@@ -0,0 +1,151 @@
+package org.openqa.grid.e2e.performance;
+
+import static org.openqa.grid.common.RegistrationRequest.MAX_INSTANCES;
+import static org.openqa.grid.common.RegistrationRequest.MAX_SESSION;
+import static org.openqa.grid.common.RegistrationRequest.MAX_SESSION_REUSE;
+import static org.openqa.grid.common.RegistrationRequest.REMOTE_URL;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.RemoteProxy;
+import org.openqa.jetty.http.SocketListener;
+import org.openqa.jetty.jetty.Server;
+import org.openqa.jetty.jetty.servlet.WebApplicationContext;
+import org.openqa.selenium.net.PortProber;
+
+/**
+ * A farm of fake webdriver nodes, all served by the same in-process jetty
+ * server by {@link MockNodeServlet}. Hundreds of nodes cost a few threads.
+ *
+ * The nodes are spread over several ports so that the hub doesn't hit the
+ * limit of connections per route of its http client, which a real grid with
+ * one node per machine wouldn't hit either.
+ */
+public class MockNodes {
+
+	public static final String KEY = MockNodes.class.getName();
+
+	private final int listeners;
+	private final int[] ports;
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong sessionCount = new AtomicLong();
+	private volatile long commandDelay = 0;
+	private volatile long sessionStartDelay = 0;
+	private Server server;
+
+	public MockNodes(int listeners) {
+		this.listeners = listeners;
+		this.ports = new int[listeners];
+	}
+
+	public void start() throws Exception {
+		server = new Server();
+		for (int i = 0; i < listeners; i++) {
+			ports[i] = PortProber.findFreePort();
+			SocketListener socketListener = new SocketListener();
+			socketListener.setMaxIdleTimeMs(60000);
+			socketListener.setMaxThreads(256);
+			socketListener.setPort(ports[i]);
+			server.addListener(socketListener);
+		}
+		WebApplicationContext root = server.addWebApplication("", ".");
+		root.setAttribute(KEY, this);
+		root.addServlet("/*", MockNodeServlet.class.getName());
+		server.start();
+	}
+
+	public void stop() throws Exception {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return the url of the index-th node.
+	 */
+	public String getNodeURL(int index) {
+		return "http://localhost:" + ports[index % listeners] + "/node" + index + "/wd/hub";
+	}
+
+	/**
+	 * Creates the proxies for the nodes 0 to count-1, each supporting the
+	 * given capability on a number of slots.
+	 *
+	 * @param count
+	 * @param capability
+	 * @param slots
+	 *            maxSession of the node, and maxInstances of the capability
+	 * @return
+	 */
+	public List<RemoteProxy> createProxies(int count, Map<String, Object> capability, int slots) {
+		return createProxies(count, capability, slots, 0);
+	}
+
+	/**
+	 * @see #createProxies(int, Map, int)
+	 * @param maxSessionReuse
+	 *            how many times the hub can reuse a session of these nodes.
+	 */
+	public List<RemoteProxy> createProxies(int count, Map<String, Object> capability, int slots, int maxSessionReuse) {
+		List<RemoteProxy> res = new ArrayList<RemoteProxy>();
+		for (int i = 0; i < count; i++) {
+			RegistrationRequest req = new RegistrationRequest();
+			Map<String, Object> cap = new HashMap<String, Object>(capability);
+			cap.put(MAX_INSTANCES, slots);
+			req.addDesiredCapabilitiy(cap);
+
+			Map<String, Object> config = new HashMap<String, Object>();
+			config.put(REMOTE_URL, getNodeURL(i));
+			config.put(MAX_SESSION, slots);
+			config.put(MAX_SESSION_REUSE, maxSessionReuse);
+			req.setConfiguration(config);
+			res.add(new RemoteProxy(req));
+		}
+		return res;
+	}
+
+	/**
+	 * @return the number of requests received by all the nodes.
+	 */
+	public AtomicLong getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * @return the number of sessions created by all the nodes.
+	 */
+	public AtomicLong getSessionCount() {
+		return sessionCount;
+	}
+
+	public long getCommandDelay() {
+		return commandDelay;
+	}
+
+	public long getSessionStartDelay() {
+		return sessionStartDelay;
+	}
+
+	/**
+	 * @param sessionStartDelay
+	 *            time in ms the nodes take to start a new session, on top of
+	 *            the command delay. Simulates the browser start up.
+	 */
+	public void setSessionStartDelay(long sessionStartDelay) {
+		this.sessionStartDelay = sessionStartDelay;
+	}
+
+	/**
+	 * @param commandDelay
+	 *            time in ms the nodes wait before answering, 0 by default.
+	 */
+	public void setCommandDelay(long commandDelay) {
+		this.commandDelay = commandDelay;
+	}
+}
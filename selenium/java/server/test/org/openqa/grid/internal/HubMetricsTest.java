@@ -0,0 +1,136 @@
+package org.openqa.grid.internal;
+
+import static org.openqa.grid.common.RegistrationRequest.APP;
+import static org.openqa.grid.common.RegistrationRequest.MAX_INSTANCES;
+import static org.openqa.grid.common.RegistrationRequest.MAX_SESSION;
+import static org.openqa.grid.common.RegistrationRequest.REMOTE_URL;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.grid.internal.metrics.HubMetrics;
+import org.openqa.grid.internal.mock.MockedNewSessionRequestHandler;
+import org.openqa.grid.internal.mock.MockedRequestHandler;
+import org.openqa.selenium.internal.LatencyHistogram;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+@Test(singleThreaded = true, timeOut = 10000)
+public class HubMetricsTest {
+
+	RegistrationRequest req = null;
+	Map<String, Object> app1 = new HashMap<String, Object>();
+
+	@BeforeClass(alwaysRun = true)
+	public void prepareReqRequest() {
+		Map<String, Object> config = new HashMap<String, Object>();
+		app1.put(APP, "app1");
+		app1.put(MAX_INSTANCES, 2);
+
+		config.put(REMOTE_URL, "http://machine1:4444");
+		config.put(MAX_SESSION, 2);
+
+		req = new RegistrationRequest();
+		req.addDesiredCapabilitiy(app1);
+		req.setConfiguration(config);
+	}
+
+	@Test
+	public void percentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(histogram.getPercentile(99), 0);
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		Assert.assertEquals(histogram.getCount(), 100);
+		Assert.assertEquals(histogram.getMax(), 100);
+		Assert.assertEquals(histogram.getMean(), 50);
+		long p50 = histogram.getPercentile(50);
+		Assert.assertTrue(p50 >= 50 && p50 < 100, "p50 = " + p50);
+		Assert.assertEquals(histogram.getPercentile(99), 100);
+
+		histogram.reset();
+		Assert.assertEquals(histogram.getCount(), 0);
+		Assert.assertEquals(histogram.getMax(), 0);
+	}
+
+	@Test
+	public void capabilityKey() {
+		Map<String, Object> cap = new HashMap<String, Object>();
+		cap.put("browserName", "firefox");
+		cap.put("version", "3.6");
+		cap.put("platform", "LINUX");
+		cap.put("firefox_profile", "a very long base64 string");
+		Assert.assertEquals(HubMetrics.getCapabilityKey(cap), "firefox 3.6 LINUX");
+		Assert.assertEquals(HubMetrics.getCapabilityKey(app1), "app1");
+	}
+
+	@Test
+	public void sessionsAndSlotsAreTracked() throws Exception {
+		Registry registry = Registry.getNewInstanceForTestOnly();
+		try {
+			registry.add(new RemoteProxy(req));
+			HubMetrics metrics = registry.getMetrics();
+			Assert.assertEquals(metrics.getTotalSlots(), 2);
+			Assert.assertEquals(metrics.getUsedSlots(), 0);
+
+			MockedRequestHandler newSessionRequest = new MockedNewSessionRequestHandler(registry, app1);
+			newSessionRequest.process();
+			TestSession session = newSessionRequest.getTestSession();
+
+			Assert.assertEquals(metrics.getSessionsAssigned(), 1);
+			Assert.assertEquals(metrics.getActiveSessions(), 1);
+			Assert.assertEquals(metrics.getUsedSlots(), 1);
+			Assert.assertEquals(metrics.getQueueDepth(), 0);
+
+			JSONObject json = metrics.toJSON();
+			Assert.assertEquals(json.getJSONObject("slots").getInt("used"), 1);
+			Assert.assertEquals(json.getJSONObject("slots").getDouble("utilization"), 0.5, 0.001);
+			Assert.assertEquals(json.getJSONArray("proxies").length(), 1);
+			Assert.assertEquals(json.getJSONObject("queue").getJSONObject("wait").getInt("count"), 1);
+
+			session.terminateSyncronousFOR_TEST_ONLY();
+			Assert.assertEquals(metrics.getUsedSlots(), 0);
+		} finally {
+			registry.stop();
+		}
+	}
+
+	@Test
+	public void queueDepthPerCapability() throws Exception {
+		Registry registry = Registry.getNewInstanceForTestOnly();
+		try {
+			registry.add(new RemoteProxy(req));
+			HubMetrics metrics = registry.getMetrics();
+
+			MockedRequestHandler s1 = new MockedNewSessionRequestHandler(registry, app1);
+			s1.process();
+			MockedRequestHandler s2 = new MockedNewSessionRequestHandler(registry, app1);
+			s2.process();
+
+			// the proxy is full, the third request has to wait.
+			final MockedRequestHandler queued = new MockedNewSessionRequestHandler(registry, app1);
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					queued.process();
+				}
+			});
+			t.start();
+			while (metrics.getQueueDepth() != 1) {
+				Thread.sleep(20);
+			}
+			Assert.assertEquals(metrics.getQueueDepthsPerCapability().get("app1"), Integer.valueOf(1));
+
+			s1.getTestSession().terminateSyncronousFOR_TEST_ONLY();
+			t.join();
+			Assert.assertEquals(metrics.getQueueDepth(), 0);
+			Assert.assertEquals(metrics.getSessionsAssigned(), 3);
+			Assert.assertTrue(metrics.getQueueWaitMax() > 0);
+		} finally {
+			registry.stop();
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package org.openqa.grid.internal;
+
+import static org.openqa.grid.common.RegistrationRequest.APP;
+import static org.openqa.grid.common.RegistrationRequest.MAX_SESSION_REUSE;
+import static org.openqa.grid.common.RegistrationRequest.REMOTE_URL;
+import static org.openqa.grid.common.RegistrationRequest.WARM_SESSION_TIMEOUT;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.openqa.grid.common.RegistrationRequest;
+import org.openqa.jetty.http.SocketListener;
+import org.openqa.jetty.jetty.Server;
+import org.openqa.jetty.jetty.servlet.WebApplicationContext;
+import org.openqa.selenium.net.PortProber;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class WarmSessionTest {
+
+	Map<String, Object> app1 = new HashMap<String, Object>();
+	TestSlot slot;
+
+	@BeforeMethod
+	public void prepareSlot() {
+		app1.put(APP, "app1");
+		slot = createSlot("http://machine1:4444", null);
+	}
+
+	private TestSlot createSlot(String url, Integer warmSessionTimeout) {
+		Map<String, Object> config = new HashMap<String, Object>();
+		config.put(REMOTE_URL, url);
+		config.put(MAX_SESSION_REUSE, 2);
+		if (warmSessionTimeout != null) {
+			config.put(WARM_SESSION_TIMEOUT, warmSessionTimeout);
+		}
+
+		RegistrationRequest req = new RegistrationRequest();
+		req.addDesiredCapabilitiy(app1);
+		req.setConfiguration(config);
+		RemoteProxy proxy = new RemoteProxy(req);
+		proxy.setRegistry(Registry.getNewInstanceForTestOnly());
+		return proxy.getTestSlots().get(0);
+	}
+
+	@Test
+	public void newSlotHasNoWarmSession() {
+		TestSession session = slot.getNewSession(app1);
+		Assert.assertNull(session.getWarmSession());
+		Assert.assertFalse(session.canReuseWarmSession());
+		Assert.assertEquals(session.getReuseCount(), 0);
+	}
+
+	@Test
+	public void warmSessionIsOfferedToTheNextSession() {
+		TestSession first = slot.getNewSession(app1);
+		first.setExternalKey("remote1");
+		Assert.assertTrue(slot.keepWarm(first));
+		Assert.assertEquals(slot.getWarmSession(), "remote1");
+		first.terminateSyncronousFOR_TEST_ONLY();
+
+		TestSession second = slot.getNewSession(new HashMap<String, Object>(app1));
+		Assert.assertEquals(second.getWarmSession(), "remote1");
+		Assert.assertTrue(second.canReuseWarmSession());
+		Assert.assertNull(slot.getWarmSession());
+
+		second.adoptWarmSession();
+		Assert.assertEquals(second.getExternalKey(), "remote1");
+		Assert.assertEquals(second.getReuseCount(), 1);
+	}
+
+	@Test
+	public void warmSessionIsNotReusedForOtherCapabilities() {
+		TestSession first = slot.getNewSession(app1);
+		first.setExternalKey("remote1");
+		Assert.assertTrue(slot.keepWarm(first));
+		first.terminateSyncronousFOR_TEST_ONLY();
+
+		Map<String, Object> other = new HashMap<String, Object>(app1);
+		other.put("javascriptEnabled", false);
+		TestSession second = slot.getNewSession(other);
+		Assert.assertEquals(second.getWarmSession(), "remote1");
+		Assert.assertFalse(second.canReuseWarmSession());
+	}
+
+	@Test
+	public void sessionIsReusedAtMostMaxSessionReuseTimes() {
+		TestSession session = slot.getNewSession(app1);
+		session.setExternalKey("remote1");
+		for (int i = 0; i < 2; i++) {
+			Assert.assertTrue(slot.keepWarm(session));
+			session.terminateSyncronousFOR_TEST_ONLY();
+			session = slot.getNewSession(app1);
+			session.adoptWarmSession();
+		}
+		Assert.assertEquals(session.getReuseCount(), 2);
+		Assert.assertFalse(slot.canKeepWarm(session));
+		Assert.assertFalse(slot.keepWarm(session));
+	}
+
+	@Test
+	public void cannotKeepASessionWithoutRemote() {
+		TestSession session = slot.getNewSession(app1);
+		Assert.assertFalse(slot.keepWarm(session));
+	}
+
+	@Test
+	public void warmSessionIsKeptUntilTheTimeout() {
+		TestSession first = slot.getNewSession(app1);
+		first.setExternalKey("remote1");
+		Assert.assertTrue(slot.keepWarm(first));
+		first.terminateSyncronousFOR_TEST_ONLY();
+
+		Assert.assertFalse(slot.discardIdleWarmSession());
+		Assert.assertEquals(slot.getWarmSession(), "remote1");
+	}
+
+	@Test
+	public void idleWarmSessionIsClosedOnTheRemote() throws Exception {
+		DeleteRecorder.deleted.clear();
+		int port = PortProber.findFreePort();
+		Server server = new Server();
+		SocketListener listener = new SocketListener();
+		listener.setPort(port);
+		server.addListener(listener);
+		WebApplicationContext root = server.addWebApplication("", ".");
+		root.addServlet("/*", DeleteRecorder.class.getName());
+		server.start();
+		try {
+			TestSlot slot = createSlot("http://localhost:" + port + "/wd/hub", 100);
+			TestSession first = slot.getNewSession(app1);
+			first.setExternalKey("remote1");
+			Assert.assertTrue(slot.keepWarm(first));
+			first.terminateSyncronousFOR_TEST_ONLY();
+
+			// the proxy checks twice per timeout
+			long end = System.currentTimeMillis() + 5000;
+			while (DeleteRecorder.deleted.isEmpty() && System.currentTimeMillis() < end) {
+				Thread.sleep(50);
+			}
+
+			Assert.assertEquals(DeleteRecorder.deleted.size(), 1);
+			Assert.assertEquals(DeleteRecorder.deleted.get(0), "/wd/hub/session/remote1");
+			Assert.assertNull(slot.getWarmSession());
+			TestSession second = slot.getNewSession(app1);
+			Assert.assertNull(second.getWarmSession());
+		} finally {
+			server.stop();
+		}
+	}
+
+	/**
+	 * a remote that answers every request successfully, and records the
+	 * DELETE ones.
+	 */
+	public static class DeleteRecorder extends HttpServlet {
+
+		private static final long serialVersionUID = 1L;
+
+		static final List<String> deleted = new CopyOnWriteArrayList<String>();
+
+		@Override
+		protected void service(HttpServletRequest request, HttpServletResponse response) throws IOException {
+			if ("DELETE".equals(request.getMethod())) {
+				deleted.add(request.getRequestURI());
+			}
+			response.setStatus(200);
+			response.setContentLength(0);
+		}
+	}
+}
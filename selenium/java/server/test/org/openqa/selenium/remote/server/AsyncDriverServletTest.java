@@ -0,0 +1,130 @@
+/*
+Copyright 2007-2011 WebDriver committers
+Copyright 2007-2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.StubDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.SessionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class AsyncDriverServletTest extends TestCase {
+
+  private static final int SESSIONS = 12;
+  private static final long COMMAND_MILLIS = 1000;
+
+  private DriverServletServer server;
+  private DriverSessions sessions;
+
+  @Override
+  protected void setUp() throws Exception {
+    sessions = new DefaultDriverSessions();
+    sessions.registerDriver(new DesiredCapabilities("slow", "", Platform.ANY), SlowDriver.class);
+
+    // Leaves a handful of threads for requests once the connector has its own.
+    QueuedThreadPool threadPool = new QueuedThreadPool();
+    threadPool.setMinThreads(2);
+    threadPool.setMaxThreads(6);
+    server = new DriverServletServer(sessions, threadPool);
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+  }
+
+  public void testSlowCommandsDoNotHoldOnToContainerThreads() throws Exception {
+    List<String> urls = new ArrayList<String>();
+    for (int i = 0; i < SESSIONS; i++) {
+      SessionId sessionId =
+          sessions.newSession(new DesiredCapabilities("slow", "", Platform.ANY));
+      urls.add(server.getUrl() + "/session/" + sessionId + "/title");
+    }
+
+    ExecutorService clients = Executors.newFixedThreadPool(SESSIONS);
+    try {
+      List<Future<String>> responses = new ArrayList<Future<String>>();
+      long start = System.currentTimeMillis();
+      for (final String url : urls) {
+        responses.add(clients.submit(new Callable<String>() {
+          public String call() throws Exception {
+            return get(url);
+          }
+        }));
+      }
+      for (Future<String> response : responses) {
+        assertTrue(response.get().contains("\"value\":\"slow\""));
+      }
+      long elapsed = System.currentTimeMillis() - start;
+
+      // Blocking each container thread for the length of its command would
+      // take at least three times as long.
+      assertTrue("Took " + elapsed + "ms", elapsed < 2 * COMMAND_MILLIS + COMMAND_MILLIS / 2);
+    } finally {
+      clients.shutdownNow();
+    }
+  }
+
+  private static String get(String url) throws Exception {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    connection.setRequestProperty("Accept", "application/json");
+    assertEquals(200, connection.getResponseCode());
+    InputStream in = connection.getInputStream();
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+        bytes.write(buffer, 0, read);
+      }
+      return new String(bytes.toByteArray(), "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  public static class SlowDriver extends StubDriver {
+    @Override
+    public String getTitle() {
+      try {
+        Thread.sleep(COMMAND_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "slow";
+    }
+
+    @Override
+    public void quit() {
+      // Nothing to clean up
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+import junit.framework.TestCase;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.StubDriver;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionId;
+
+import java.net.URL;
+import java.util.List;
+
+public class CommandBatchTest extends TestCase {
+
+  private DriverServletServer server;
+  private DriverSessions sessions;
+  private HttpCommandExecutor executor;
+  private SessionId sessionId;
+
+  @Override
+  protected void setUp() throws Exception {
+    sessions = new DefaultDriverSessions();
+    sessions.registerDriver(new DesiredCapabilities("titled", "", Platform.ANY),
+        TitledDriver.class);
+
+    server = new DriverServletServer(sessions);
+    server.start();
+
+    executor = new HttpCommandExecutor(new URL(server.getUrl()));
+    sessionId = sessions.newSession(new DesiredCapabilities("titled", "", Platform.ANY));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+  }
+
+  public void testShouldReturnTheResponsesOfAllTheCommandsInOrder() throws Exception {
+    List<Response> responses = executor.executeBatch(Lists.newArrayList(
+        new Command(sessionId, DriverCommand.GET_TITLE),
+        new Command(sessionId, DriverCommand.GET, ImmutableMap.of("url", "http://example.com")),
+        new Command(sessionId, DriverCommand.GET_TITLE)));
+
+    assertEquals(3, responses.size());
+    assertEquals("nothing", responses.get(0).getValue());
+    assertEquals(ErrorCodes.SUCCESS, responses.get(1).getStatus());
+    assertEquals("http://example.com", responses.get(2).getValue());
+  }
+
+  public void testShouldStopAtTheFirstCommandWhichFails() throws Exception {
+    List<Response> responses = executor.executeBatch(Lists.newArrayList(
+        new Command(sessionId, DriverCommand.GET_TITLE),
+        new Command(sessionId, DriverCommand.GET_PAGE_SOURCE),
+        new Command(sessionId, DriverCommand.GET_TITLE)));
+
+    assertEquals(2, responses.size());
+    assertEquals(ErrorCodes.SUCCESS, responses.get(0).getStatus());
+    assertTrue(responses.get(1).getStatus() != ErrorCodes.SUCCESS);
+  }
+
+  public void testShouldNotRunCommandsForOtherSessions() throws Exception {
+    SessionId other = sessions.newSession(new DesiredCapabilities("titled", "", Platform.ANY));
+    try {
+      List<Response> responses = executor.executeBatch(Lists.newArrayList(
+          new Command(sessionId, DriverCommand.GET_TITLE),
+          new Command(sessionId, DriverCommand.QUIT)));
+
+      assertEquals(2, responses.size());
+      assertEquals(ErrorCodes.UNKNOWN_COMMAND, responses.get(1).getStatus());
+      assertNotNull(sessions.get(sessionId));
+    } finally {
+      sessions.deleteSession(other);
+    }
+  }
+
+  public void testShouldRejectBatchesMixingSessions() throws Exception {
+    try {
+      executor.executeBatch(Lists.newArrayList(
+          new Command(sessionId, DriverCommand.GET_TITLE),
+          new Command(new SessionId("other"), DriverCommand.GET_TITLE)));
+      fail("Should have been rejected");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  public void testShouldReportAnUnknownSession() throws Exception {
+    SessionId unknown = new SessionId("unknown");
+    List<Response> responses = executor.executeBatch(Lists.newArrayList(
+        new Command(unknown, DriverCommand.GET_TITLE)));
+
+    assertEquals(1, responses.size());
+    assertTrue(responses.get(0).getStatus() != ErrorCodes.SUCCESS);
+  }
+
+  public static class TitledDriver extends StubDriver {
+    private String title = "nothing";
+
+    @Override
+    public void get(String url) {
+      title = url;
+    }
+
+    @Override
+    public String getTitle() {
+      return title;
+    }
+
+    @Override
+    public void quit() {
+      // Nothing to clean up
+    }
+  }
+}
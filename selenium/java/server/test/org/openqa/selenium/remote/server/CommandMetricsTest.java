@@ -0,0 +1,134 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package org.openqa.selenium.remote.server;
+
+import junit.framework.TestCase;
+
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.internal.LatencyHistogram;
+import org.openqa.selenium.internal.Tracing;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.JsonToBeanConverter;
+import org.openqa.selenium.remote.SessionId;
+
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CommandMetricsTest extends TestCase {
+
+  private DriverServletServer server;
+  private DriverSessions sessions;
+  private String url;
+  private HttpCommandExecutor executor;
+  private SessionId sessionId;
+
+  @Override
+  protected void setUp() throws Exception {
+    sessions = new DefaultDriverSessions();
+    sessions.registerDriver(new DesiredCapabilities("titled", "", Platform.ANY),
+        CommandBatchTest.TitledDriver.class);
+
+    server = new DriverServletServer(sessions);
+    server.start();
+
+    url = server.getUrl();
+    executor = new HttpCommandExecutor(new URL(url));
+    sessionId = sessions.newSession(new DesiredCapabilities("titled", "", Platform.ANY));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+  }
+
+  public void testShouldCountTheCommandsOfEachRoute() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      executor.execute(new Command(sessionId, DriverCommand.GET_TITLE));
+    }
+    executor.execute(new Command(sessionId, DriverCommand.GET_PAGE_SOURCE));
+
+    Map<String, Object> title = getRoute("GET /session/:sessionId/title");
+    assertEquals(3L, title.get("count"));
+    assertEquals(0L, title.get("failures"));
+    assertTrue((Long) title.get("bytesOut") > 0);
+    assertNotNull(title.get("queued"));
+    assertNotNull(title.get("handled"));
+    assertNotNull(title.get("rendered"));
+
+    Map<String, Object> source = getRoute("GET /session/:sessionId/source");
+    assertEquals(1L, source.get("count"));
+    assertEquals(1L, source.get("failures"));
+  }
+
+  public void testShouldLeaveOutRoutesWhichWereNotUsed() throws Exception {
+    executor.execute(new Command(sessionId, DriverCommand.GET_TITLE));
+
+    assertNull(getRoute("GET /session/:sessionId/url"));
+  }
+
+  public void testShouldPassTheTraceIdBack() throws Exception {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL(url + "/session/" + sessionId + "/title").openConnection();
+    connection.setRequestProperty(Tracing.TRACE_HEADER, "cafebabe");
+    try {
+      assertEquals(200, connection.getResponseCode());
+      assertEquals("cafebabe", connection.getHeaderField(Tracing.TRACE_HEADER));
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  public void testShouldEstimatePercentilesFromTheBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      histogram.record(100);
+    }
+    histogram.record(5000);
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(5000, histogram.getMax());
+    // 100us is counted in the bucket up to 127us.
+    assertEquals(127, histogram.getPercentile(50));
+    assertEquals(127, histogram.getPercentile(99));
+    assertEquals(5000, histogram.getPercentile(100));
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> getRoute(String route) throws Exception {
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL(url + "/metrics").openConnection();
+    try {
+      Map<String, Object> metrics = new JsonToBeanConverter().convert(HashMap.class,
+          new InputStreamReader(connection.getInputStream(), "UTF-8"));
+      for (Map<String, Object> json : (List<Map<String, Object>>) metrics.get("routes")) {
+        if (route.equals(json.get("route"))) {
+          return json;
+        }
+      }
+      return null;
+    } finally {
+      connection.disconnect();
+    }
+  }
+}
@@ -23,14 +23,18 @@ import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.Platform;
 import org.openqa.selenium.StubDriver;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.remote.DesiredCapabilities;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class DriverFactoryTest extends TestCase {
   private DefaultDriverFactory factory;
 
   @Override
   protected void setUp() throws Exception {
     factory = new DefaultDriverFactory();
+    CountingDriver.deadUpTo.set(0);
   }
 
   public void testShouldBeAbleToRegisterNewDrivers() {
@@ -114,6 +118,93 @@ public class DriverFactoryTest extends TestCase {
     assertEquals(caps, driver.getCapabilities());
   }
 
+  public void testShouldHandOutWarmDriversAndStartReplacements() throws Exception {
+    factory = new WarmingFactory();
+    Capabilities caps = new DesiredCapabilities("warm", "", Platform.ANY);
+    factory.registerDriver(caps, CountingDriver.class);
+    CountingDriver.started.set(0);
+    CountingDriver.quit.set(0);
+
+    factory.keepWarm(caps, 2);
+    waitForStartedDrivers(2);
+
+    WebDriver first = factory.newInstance(new DesiredCapabilities("warm", "", Platform.ANY));
+    WebDriver second = factory.newInstance(new DesiredCapabilities("warm", "", Platform.ANY));
+    assertNotSame(first, second);
+    assertTrue(((CountingDriver) first).number <= 2);
+    assertTrue(((CountingDriver) second).number <= 2);
+
+    waitForStartedDrivers(4);
+    factory.stopWarmDrivers();
+    assertEquals(2, CountingDriver.quit.get());
+  }
+
+  public void testShouldNotHandOutWarmDriversWhenOtherCapabilitiesAreRequested() throws Exception {
+    factory = new WarmingFactory();
+    Capabilities caps = new DesiredCapabilities("warm", "", Platform.ANY);
+    factory.registerDriver(caps, CountingDriver.class);
+    CountingDriver.started.set(0);
+
+    factory.keepWarm(caps, 1);
+    waitForStartedDrivers(1);
+
+    DesiredCapabilities withProfile = new DesiredCapabilities("warm", "", Platform.ANY);
+    withProfile.setCapability("firefox_profile", "UEsDBAoAAAAAAA==");
+    CountingDriver driver = (CountingDriver) factory.newInstance(withProfile);
+
+    assertEquals(2, driver.number);
+    factory.stopWarmDrivers();
+  }
+
+  public void testShouldNotHandOutWarmDriversWhichDiedWhileIdle() throws Exception {
+    factory = new WarmingFactory();
+    Capabilities caps = new DesiredCapabilities("warm", "", Platform.ANY);
+    factory.registerDriver(caps, CountingDriver.class);
+    CountingDriver.started.set(0);
+    CountingDriver.quit.set(0);
+    CountingDriver.deadUpTo.set(1);
+
+    factory.keepWarm(caps, 1);
+    waitForStartedDrivers(1);
+
+    CountingDriver driver =
+        (CountingDriver) factory.newInstance(new DesiredCapabilities("warm", "", Platform.ANY));
+
+    assertTrue(driver.number > 1);
+    assertEquals(1, CountingDriver.quit.get());
+    factory.stopWarmDrivers();
+  }
+
+  public void testShouldOnlyKeepWarmTheDriversWhichCanBeUsedFromAnotherThread() {
+    Capabilities caps = new DesiredCapabilities("warm", "", Platform.ANY);
+    factory.registerDriver(caps, CountingDriver.class);
+
+    try {
+      factory.keepWarm(caps, 1);
+      fail("Should not have kept warm a driver which may be bound to its thread");
+    } catch (IllegalArgumentException expected) {
+      // it's not in the list of thread safe drivers
+    }
+  }
+
+  private void waitForStartedDrivers(int count) throws InterruptedException {
+    long giveUp = System.currentTimeMillis() + 5000;
+    while (CountingDriver.started.get() < count && System.currentTimeMillis() < giveUp) {
+      Thread.sleep(5);
+    }
+    // Give the starter a moment to queue the last one it created.
+    Thread.sleep(50);
+    assertEquals(count, CountingDriver.started.get());
+  }
+
+  // Keeps the stub drivers warm, though they aren't known to be thread safe.
+  private static class WarmingFactory extends DefaultDriverFactory {
+    @Override
+    protected boolean canBeKeptWarm(Class<? extends WebDriver> implementation) {
+      return true;
+    }
+  }
+
   public static abstract class DriverOne implements WebDriver {}
   public static abstract class DriverTwo implements WebDriver {}
 
@@ -129,4 +220,27 @@ public class DriverFactoryTest extends TestCase {
       return caps;
     }
   }
+
+  public static class CountingDriver extends StubDriver {
+    static final AtomicInteger started = new AtomicInteger();
+    static final AtomicInteger quit = new AtomicInteger();
+
+    // The drivers started up to this one report their browser as dead.
+    static final AtomicInteger deadUpTo = new AtomicInteger();
+
+    final int number = started.incrementAndGet();
+
+    @Override
+    public String getWindowHandle() {
+      if (number <= deadUpTo.get()) {
+        throw new WebDriverException("The browser has gone away");
+      }
+      return "main";
+    }
+
+    @Override
+    public void quit() {
+      quit.incrementAndGet();
+    }
+  }
 }
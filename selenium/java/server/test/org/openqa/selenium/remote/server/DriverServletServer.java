@@ -0,0 +1,84 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package org.openqa.selenium.remote.server;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.ThreadPool;
+import org.openqa.selenium.net.PortProber;
+import org.openqa.selenium.remote.SessionId;
+
+import java.util.ArrayList;
+
+/**
+ * Serves a {@link DriverServlet} for the given sessions on a free local port, the way the
+ * standalone server mounts it under "/wd/hub".
+ */
+class DriverServletServer {
+
+  private final DriverSessions sessions;
+  private final Server server;
+  private final String url;
+
+  DriverServletServer(DriverSessions sessions) {
+    this(sessions, null);
+  }
+
+  DriverServletServer(DriverSessions sessions, ThreadPool threadPool) {
+    this.sessions = sessions;
+
+    int port = PortProber.findFreePort();
+    server = new Server();
+    if (threadPool != null) {
+      server.setThreadPool(threadPool);
+    }
+
+    SelectChannelConnector connector = new SelectChannelConnector();
+    connector.setPort(port);
+    server.addConnector(connector);
+
+    ServletContextHandler context = new ServletContextHandler();
+    context.setContextPath("/wd/hub");
+    context.setAttribute(DriverServlet.SESSIONS_KEY, sessions);
+    context.addServlet(new ServletHolder(DriverServlet.class), "/*");
+    server.setHandler(context);
+
+    url = "http://localhost:" + port + "/wd/hub";
+  }
+
+  public void start() throws Exception {
+    server.start();
+  }
+
+  /**
+   * Stops the server, and deletes the sessions which the test left behind.
+   */
+  public void stop() throws Exception {
+    server.stop();
+    for (SessionId sessionId : new ArrayList<SessionId>(sessions.getSessions())) {
+      sessions.deleteSession(sessionId);
+    }
+  }
+
+  public String getUrl() {
+    return url;
+  }
+}
@@ -0,0 +1,51 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.util.Random;
+
+public class EncodedScreenshotTest extends TestCase {
+
+  public void testShouldEncodeLikeBase64ForEveryAmountOfPadding() throws Exception {
+    Random random = new Random(0);
+    for (int length = 0; length < 10; length++) {
+      byte[] png = new byte[length];
+      random.nextBytes(png);
+
+      String expected = new String(Base64.encodeBase64(png), "US-ASCII");
+      EncodedScreenshot encoded = new EncodedScreenshot(png);
+
+      assertEquals(expected.length(), encoded.length());
+      assertEquals(expected, encoded.toString());
+    }
+  }
+
+  public void testShouldReturnPartsOfTheEncoding() throws Exception {
+    byte[] png = new byte[1000];
+    new Random(1).nextBytes(png);
+    String expected = new String(Base64.encodeBase64(png), "US-ASCII");
+    EncodedScreenshot encoded = new EncodedScreenshot(png);
+
+    assertEquals(expected.substring(5, 17), encoded.subSequence(5, 17).toString());
+    assertEquals(expected.charAt(333), encoded.charAt(333));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+Copyright 2007-2011 WebDriver committers
+Copyright 2007-2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+import junit.framework.TestCase;
+
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.StubElement;
+import org.openqa.selenium.WebElement;
+
+public class KnownElementsTest extends TestCase {
+
+  public void testShouldReturnTheProxiedElementForItsId() {
+    KnownElements knownElements = new KnownElements();
+    StubElement element = new StubElement();
+
+    String id = knownElements.add(element);
+    WebElement proxied = knownElements.get(id);
+
+    assertEquals(id, ((KnownElements.ProxiedElement) proxied).getId());
+    assertSame(element, ((KnownElements.ProxiedElement) proxied).getWrappedElement());
+  }
+
+  public void testShouldReturnNullForAnIdThatWasNeverHandedOut() {
+    KnownElements knownElements = new KnownElements();
+
+    assertNull(knownElements.get("42"));
+    assertNull(knownElements.get("cheese"));
+  }
+
+  public void testShouldForgetTheLeastRecentlyUsedElementOverTheLimit() {
+    KnownElements knownElements = new KnownElements(2);
+    String first = knownElements.add(new StubElement());
+    String second = knownElements.add(new StubElement());
+
+    knownElements.get(first);
+    String third = knownElements.add(new StubElement());
+
+    assertEquals(2, knownElements.size());
+    assertNotNull(knownElements.get(first));
+    assertNotNull(knownElements.get(third));
+    try {
+      knownElements.get(second);
+      fail("Should have been forgotten");
+    } catch (StaleElementReferenceException e) {
+      // Expected
+    }
+  }
+
+  public void testShouldForgetElementsWhichAreStale() {
+    KnownElements knownElements = new KnownElements();
+    String id = knownElements.add(new StaleElement());
+
+    try {
+      knownElements.get(id).click();
+      fail("Should have thrown");
+    } catch (Exception e) {
+      // Expected
+    }
+
+    assertEquals(0, knownElements.size());
+  }
+
+  public void testShouldNotLimitTheNumberOfElementsWhenTheLimitIsZero() {
+    KnownElements knownElements = new KnownElements(0);
+    for (int i = 0; i < 100; i++) {
+      knownElements.add(new StubElement());
+    }
+
+    assertEquals(100, knownElements.size());
+  }
+
+  public static class StaleElement extends StubElement {
+    @Override
+    public void click() {
+      throw new StaleElementReferenceException("gone");
+    }
+  }
+}
@@ -77,6 +77,16 @@ public class ResultConfigTest extends TestCase {
     assertThat(handler.getBar(), is("fishy"));
   }
 
+  public void testShouldIgnoreNamedParametersWithoutAStringSetter() throws Exception {
+    ResultConfig config = new ResultConfig("/foo/:bar/:count/:missing",
+        NamedParameterHandler.class, null, logger);
+    NamedParameterHandler handler =
+        (NamedParameterHandler) config.getHandler("/foo/fishy/3/whatever");
+
+    assertThat(handler.getBar(), is("fishy"));
+    assertEquals(0, handler.getCount());
+  }
+
   @SuppressWarnings({"ThrowableResultOfMethodCallIgnored"})
   public void testShouldGracefullyHandleNullInputs() {
     ResultConfig config = new ResultConfig("/foo/:bar", StubHandler.class, null, logger);
@@ -116,6 +126,7 @@ public class ResultConfigTest extends TestCase {
   public static class NamedParameterHandler implements Handler {
 
     private String bar;
+    private int count;
 
     public String getBar() {
       return bar;
@@ -126,6 +137,15 @@ public class ResultConfigTest extends TestCase {
       this.bar = bar;
     }
 
+    public int getCount() {
+      return count;
+    }
+
+    @SuppressWarnings({"UnusedDeclaration"})
+    public void setCount(int count) {
+      this.count = count;
+    }
+
     public ResultType handle() {
       return ResultType.SUCCESS;
     }
@@ -24,6 +24,8 @@ import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.remote.DesiredCapabilities;
 import org.openqa.selenium.remote.SessionId;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 /**
@@ -40,7 +42,39 @@ public class SessionCleanerTest extends TestCase {
     SessionCleaner sessionCleaner = new SessionCleaner(defaultDriverSessions, log, 10);
     waitForAllSessionsToExpire();
     sessionCleaner.checkExpiry();
-    assertEquals(0, defaultDriverSessions.getSessions().size());
+    waitForSessionCount(defaultDriverSessions, 0);
+  }
+
+  public void testExpiredSessionsAreQuitAndClosedLikeADelete() throws Exception {
+    final AtomicInteger quits = new AtomicInteger();
+    DriverSessions defaultDriverSessions = new DefaultDriverSessions(Platform.LINUX,
+        new MyDriverFactory() {
+          @Override
+          public WebDriver newInstance(Capabilities capabilities) {
+            return new StubDriver() {
+              @Override
+              public void quit() {
+                quits.incrementAndGet();
+              }
+            };
+          }
+        });
+    SessionId sessionId = defaultDriverSessions.newSession(DesiredCapabilities.firefox());
+    Session session = defaultDriverSessions.get(sessionId);
+    SessionCleaner sessionCleaner = new SessionCleaner(defaultDriverSessions, log, 10);
+    waitForAllSessionsToExpire();
+    sessionCleaner.checkExpiry();
+    waitForSessionCount(defaultDriverSessions, 0);
+
+    assertEquals(1, quits.get());
+    final AtomicInteger ran = new AtomicInteger();
+    session.submit(new Runnable() {
+      public void run() {
+        ran.incrementAndGet();
+      }
+    });
+    // A closed session runs the task on the calling thread.
+    assertEquals(1, ran.get());
   }
 
   public void testCleanupWithThread() throws Exception {
@@ -48,32 +82,96 @@ public class SessionCleanerTest extends TestCase {
     defaultDriverSessions.newSession(DesiredCapabilities.firefox());
     defaultDriverSessions.newSession(DesiredCapabilities.firefox());
     assertEquals(2, defaultDriverSessions.getSessions().size());
-    SessionCleaner sessionCleaner = new TestSessionCleaner(defaultDriverSessions, log, 10);
+    SessionCleaner sessionCleaner = new SessionCleaner(defaultDriverSessions, log, 10);
     sessionCleaner.start();
-    waitForAllSessionsToExpire();
-    synchronized (sessionCleaner) {
-      sessionCleaner.wait();
+    try {
+      waitForSessionCount(defaultDriverSessions, 0);
+    } finally {
+      sessionCleaner.stopCleaner();
     }
-    assertEquals(0, defaultDriverSessions.getSessions().size());
-    sessionCleaner.stopCleaner();
   }
 
-  private void waitForAllSessionsToExpire() throws InterruptedException {
-    Thread.sleep(11);
+  public void testCleanupOfSessionsCreatedAfterTheCleaner() throws Exception {
+    DriverSessions defaultDriverSessions = getDriverSessions();
+    SessionCleaner sessionCleaner = new SessionCleaner(defaultDriverSessions, log, 10);
+    sessionCleaner.start();
+    try {
+      defaultDriverSessions.newSession(DesiredCapabilities.firefox());
+      assertEquals(1, defaultDriverSessions.getSessions().size());
+      waitForSessionCount(defaultDriverSessions, 0);
+    } finally {
+      sessionCleaner.stopCleaner();
+    }
   }
 
-  class TestSessionCleaner extends SessionCleaner {
-    TestSessionCleaner(DriverSessions driverSessions, Logger log, int sessionTimeOutInMs) {
-      super(driverSessions, log, sessionTimeOutInMs);
+  public void testSlowQuitDoesNotHoldUpOtherExpiries() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger quits = new AtomicInteger();
+    DriverSessions defaultDriverSessions = new DefaultDriverSessions(Platform.LINUX,
+        new MyDriverFactory() {
+          @Override
+          public WebDriver newInstance(Capabilities capabilities) {
+            return new StubDriver() {
+              @Override
+              public void quit() {
+                if (quits.incrementAndGet() == 1) {
+                  try {
+                    release.await();
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                }
+              }
+            };
+          }
+        });
+    for (int i = 0; i < 3; i++) {
+      defaultDriverSessions.newSession(DesiredCapabilities.firefox());
     }
+    SessionCleaner sessionCleaner = new SessionCleaner(defaultDriverSessions, log, 10);
+    try {
+      waitForAllSessionsToExpire();
+      sessionCleaner.checkExpiry();
 
-    @Override
-    void checkExpiry() {
-      super.checkExpiry();
-      synchronized (this) {
-        this.notifyAll();
+      long giveUp = System.currentTimeMillis() + 5000;
+      while (quits.get() < 3 && System.currentTimeMillis() < giveUp) {
+        Thread.sleep(5);
       }
+      assertEquals(3, quits.get());
+      // Only the session whose browser is still quitting is left.
+      waitForSessionCount(defaultDriverSessions, 1);
+
+      release.countDown();
+      waitForSessionCount(defaultDriverSessions, 0);
+    } finally {
+      release.countDown();
+      sessionCleaner.stopCleaner();
+    }
+  }
+
+  public void testSessionsDeletedByTheClientAreForgotten() throws Exception {
+    DriverSessions defaultDriverSessions = getDriverSessions();
+    SessionId sessionId = defaultDriverSessions.newSession(DesiredCapabilities.firefox());
+    SessionCleaner sessionCleaner = new SessionCleaner(defaultDriverSessions, log, 10);
+    defaultDriverSessions.deleteSession(sessionId);
+    SessionId other = defaultDriverSessions.newSession(DesiredCapabilities.firefox());
+    waitForAllSessionsToExpire();
+    sessionCleaner.checkExpiry();
+    waitForSessionCount(defaultDriverSessions, 0);
+    assertNull(defaultDriverSessions.get(other));
+  }
+
+  private void waitForAllSessionsToExpire() throws InterruptedException {
+    Thread.sleep(11);
+  }
+
+  private void waitForSessionCount(DriverSessions sessions, int expected)
+      throws InterruptedException {
+    long giveUp = System.currentTimeMillis() + 5000;
+    while (sessions.getSessions().size() != expected && System.currentTimeMillis() < giveUp) {
+      Thread.sleep(5);
     }
+    assertEquals(expected, sessions.getSessions().size());
   }
 
   public void testCleanupWithSessionExtension() throws Exception {
@@ -84,10 +182,10 @@ public class SessionCleanerTest extends TestCase {
     waitForAllSessionsToExpire();
     defaultDriverSessions.get(firstSession).updateLastAccessTime();
     sessionCleaner.checkExpiry();
-    assertEquals(1, defaultDriverSessions.getSessions().size());
+    waitForSessionCount(defaultDriverSessions, 1);
     waitForAllSessionsToExpire();
     sessionCleaner.checkExpiry();
-    assertEquals(0, defaultDriverSessions.getSessions().size());
+    waitForSessionCount(defaultDriverSessions, 0);
   }
 
   private DriverSessions getDriverSessions() {
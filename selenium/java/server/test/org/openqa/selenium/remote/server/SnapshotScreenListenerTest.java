@@ -0,0 +1,116 @@
+/*
+Copyright 2011 WebDriver committers
+Copyright 2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+import junit.framework.TestCase;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.StubDriver;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+
+import javax.imageio.ImageIO;
+
+public class SnapshotScreenListenerTest extends TestCase {
+
+  private Session session;
+
+  @Override
+  protected void setUp() throws Exception {
+    session = Session.createSession(new StubDriverFactory(), DesiredCapabilities.firefox());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    session.close();
+  }
+
+  public void testShouldReuseTheLastScreenshotWhenTheScreenHasNotChanged() throws Exception {
+    SnapshotScreenListener listener = new SnapshotScreenListener(session);
+
+    EncodedScreenshot first = listener.encode(image(0x336699));
+    EncodedScreenshot second = listener.encode(image(0x336699));
+    EncodedScreenshot third = listener.encode(image(0x996633));
+
+    assertSame(first, second);
+    assertNotSame(first, third);
+  }
+
+  public void testShouldNotReuseTheLastScreenshotForADifferentScreenWithTheSameHash()
+      throws Exception {
+    SnapshotScreenListener listener = new SnapshotScreenListener(session);
+    BufferedImage colliding = image(0x336699);
+    // Moving one from the second pixel to the first keeps Arrays.hashCode the same
+    colliding.setRGB(0, 0, 0x336699 + 1);
+    colliding.setRGB(1, 0, 0x336699 - 31);
+
+    EncodedScreenshot first = listener.encode(image(0x336699));
+    EncodedScreenshot second = listener.encode(colliding);
+
+    assertNotSame(first, second);
+  }
+
+  public void testShouldScaleScreenshotsDownWhenAsked() throws Exception {
+    System.setProperty("webdriver.server.screenshot.scale", "0.5");
+    try {
+      SnapshotScreenListener listener = new SnapshotScreenListener(session);
+
+      BufferedImage written = ImageIO.read(
+          new ByteArrayInputStream(listener.encode(image(0x336699)).getPng()));
+
+      assertEquals(40, written.getWidth());
+      assertEquals(30, written.getHeight());
+    } finally {
+      System.clearProperty("webdriver.server.screenshot.scale");
+    }
+  }
+
+  public void testShouldHandOutTheScreenshotInlineOnlyOnce() throws Exception {
+    session.attachScreenshot(new EncodedScreenshot(new byte[] {(byte) 0x89, 'P', 'N', 'G'}));
+
+    assertEquals("iVBORw==", session.getAndClearScreenshot());
+    assertNull(session.getAndClearScreenshot());
+  }
+
+  private static BufferedImage image(int rgb) {
+    BufferedImage image = new BufferedImage(80, 60, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < image.getWidth(); x++) {
+      for (int y = 0; y < image.getHeight(); y++) {
+        image.setRGB(x, y, rgb);
+      }
+    }
+    return image;
+  }
+
+  private static class StubDriverFactory implements DriverFactory {
+    public void registerDriver(Capabilities capabilities,
+        Class<? extends WebDriver> implementation) {
+    }
+
+    public WebDriver newInstance(Capabilities capabilities) {
+      return new StubDriver();
+    }
+
+    public boolean hasMappingFor(Capabilities capabilities) {
+      return true;
+    }
+  }
+}
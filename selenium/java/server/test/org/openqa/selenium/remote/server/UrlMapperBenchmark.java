@@ -0,0 +1,136 @@
+/*
+Copyright 2007-2011 WebDriver committers
+Copyright 2007-2011 Google Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package org.openqa.selenium.remote.server;
+
+import org.openqa.selenium.remote.server.rest.ResultConfig;
+import org.openqa.selenium.remote.server.rest.UrlMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Measures the cost of finding the config of a command among the POST
+ * routes of the {@link DriverServlet}, with the {@link UrlMapper} and with
+ * the linear scan over {@link ResultConfig#isFor(String)} it replaced.
+ *
+ * Run the main method, the numbers are only meaningful relative to each
+ * other.
+ */
+public class UrlMapperBenchmark {
+
+  private static final String[] ROUTES = {
+      "/config/drivers", "/session", "/session/:sessionId/dismiss_alert",
+      "/session/:sessionId/accept_alert", "/session/:sessionId/alert_text",
+      "/session/:sessionId/url", "/session/:sessionId/forward", "/session/:sessionId/back",
+      "/session/:sessionId/refresh", "/session/:sessionId/execute",
+      "/session/:sessionId/execute_async", "/session/:sessionId/element",
+      "/session/:sessionId/elements", "/session/:sessionId/element/active",
+      "/session/:sessionId/element/:id/element", "/session/:sessionId/element/:id/elements",
+      "/session/:sessionId/element/:id/click", "/session/:sessionId/element/:id/submit",
+      "/session/:sessionId/element/:id/value", "/session/:sessionId/modifier",
+      "/session/:sessionId/element/:id/clear", "/session/:sessionId/element/:id/selected",
+      "/session/:sessionId/element/:id/toggle", "/session/:sessionId/element/:id/drag",
+      "/session/:sessionId/cookie", "/session/:sessionId/frame", "/session/:sessionId/window",
+      "/session/:sessionId/timeouts/implicit_wait", "/session/:sessionId/timeouts/async_script",
+      "/session/:sessionId/execute_sql", "/session/:sessionId/location",
+      "/session/:sessionId/browser_connection", "/session/:sessionId/local_storage",
+      "/session/:sessionId/session_storage", "/session/:sessionId/orientation",
+      "/session/:sessionId/moveto", "/session/:sessionId/click",
+      "/session/:sessionId/doubleclick", "/session/:sessionId/buttondown",
+      "/session/:sessionId/buttonup", "/session/:sessionId/ime/deactivate",
+      "/session/:sessionId/ime/activate",
+  };
+
+  private static final String SESSION = "/session/0d2f6ac1-8b55-4ac8-9d41-3c1e0ddc4a53";
+
+  private static final String[] REQUESTS = {
+      SESSION + "/url", SESSION + "/element", SESSION + "/element/7/click",
+      SESSION + "/element/7/value", SESSION + "/execute", SESSION + "/element/active",
+      SESSION + "/timeouts/implicit_wait", SESSION + "/ime/activate", SESSION + "/no_such_command",
+  };
+
+  private final UrlMapper mapper;
+  private final List<ResultConfig> configs = new ArrayList<ResultConfig>();
+
+  public UrlMapperBenchmark() {
+    Logger log = Logger.getLogger(UrlMapperBenchmark.class.getName());
+    DriverSessions sessions = new DefaultDriverSessions();
+    mapper = new UrlMapper(sessions, log);
+    for (String route : ROUTES) {
+      mapper.bind(route, StubHandler.class);
+      configs.add(new ResultConfig(route, StubHandler.class, sessions, log));
+    }
+  }
+
+  /**
+   * @return the number of lookups that found a config, so that the JIT can't
+   *         drop the loop.
+   */
+  public int linearScan(int iterations) {
+    int found = 0;
+    for (int i = 0; i < iterations; i++) {
+      String url = REQUESTS[i % REQUESTS.length];
+      for (ResultConfig config : configs) {
+        if (config.isFor(url)) {
+          found++;
+          break;
+        }
+      }
+    }
+    return found;
+  }
+
+  public int trie(int iterations) {
+    int found = 0;
+    for (int i = 0; i < iterations; i++) {
+      if (mapper.getConfig(REQUESTS[i % REQUESTS.length]) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  private long nanosPerLookup(boolean useTrie, int iterations) {
+    long start = System.nanoTime();
+    int found = useTrie ? trie(iterations) : linearScan(iterations);
+    long elapsed = System.nanoTime() - start;
+    if (found == 0) {
+      throw new IllegalStateException("Nothing was found");
+    }
+    return elapsed / iterations;
+  }
+
+  public static void main(String[] args) {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    UrlMapperBenchmark benchmark = new UrlMapperBenchmark();
+
+    // Warm up both paths before measuring anything.
+    for (int i = 0; i < 5; i++) {
+      benchmark.nanosPerLookup(false, iterations / 10);
+      benchmark.nanosPerLookup(true, iterations / 10);
+    }
+
+    for (int run = 0; run < 5; run++) {
+      long linear = benchmark.nanosPerLookup(false, iterations);
+      long trie = benchmark.nanosPerLookup(true, iterations);
+      System.out.println(String.format("linear scan: %d ns/lookup, trie: %d ns/lookup",
+          linear, trie));
+    }
+  }
+}
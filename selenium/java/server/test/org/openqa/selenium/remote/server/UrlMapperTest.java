@@ -22,8 +22,10 @@ import junit.framework.TestCase;
 import org.openqa.selenium.remote.server.rest.Handler;
 import org.openqa.selenium.remote.server.rest.ResultConfig;
 import org.openqa.selenium.remote.server.rest.ResultType;
+import org.openqa.selenium.remote.server.rest.Route;
 import org.openqa.selenium.remote.server.rest.UrlMapper;
 
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -54,6 +56,60 @@ public class UrlMapperTest extends TestCase {
     assertThat(handler.getSessions(), is(notNullValue()));
   }
 
+  public void testShouldReturnNullWhenNothingIsBoundToTheUrl() throws Exception {
+    UrlMapper mapper = new UrlMapper(new DefaultDriverSessions(), log);
+    mapper.bind("/session/:sessionId/url", StubHandler.class);
+
+    assertNull(mapper.getConfig("/session/1234/title"));
+    assertNull(mapper.getConfig("/session/1234"));
+    assertNull(mapper.getConfig("/session/1234/url/more"));
+  }
+
+  public void testShouldPreferLiteralSegmentsOverParameters() throws Exception {
+    UrlMapper mapper = new UrlMapper(new DefaultDriverSessions(), log);
+    mapper.bind("/session/:sessionId/element/:id", StubHandler.class);
+    mapper.bind("/session/:sessionId/element/active", SessionHandler.class);
+
+    ResultConfig active = mapper.getConfig("/session/1234/element/active");
+    ResultConfig element = mapper.getConfig("/session/1234/element/5");
+
+    assertTrue(active.getHandler("/session/1234/element/active") instanceof SessionHandler);
+    assertTrue(element.getHandler("/session/1234/element/5") instanceof StubHandler);
+  }
+
+  public void testShouldFallBackToParametersWhenTheLiteralBranchDoesNotMatch() throws Exception {
+    UrlMapper mapper = new UrlMapper(new DefaultDriverSessions(), log);
+    mapper.bind("/session/:sessionId/element/active", SessionHandler.class);
+    mapper.bind("/session/:sessionId/element/:id/click", StubHandler.class);
+
+    ResultConfig config = mapper.getConfig("/session/1234/element/active/click");
+
+    assertThat(config, is(notNullValue()));
+    assertTrue(config.getHandler("/session/1234/element/active/click") instanceof StubHandler);
+  }
+
+  public void testShouldKeepTheValuesOfTheParametersOfTheMatchedRoute() throws Exception {
+    UrlMapper mapper = new UrlMapper(new DefaultDriverSessions(), log);
+    mapper.bind("/session/:sessionId/element/active", SessionHandler.class);
+    mapper.bind("/session/:sessionId/element/:id/click", StubHandler.class);
+
+    Route active = mapper.getRoute("/session/1234/element/active");
+    Route click = mapper.getRoute("/session/1234/element/active/click");
+
+    assertEquals(Arrays.asList("1234"), Arrays.asList(active.getParameters()));
+    assertEquals(Arrays.asList("1234", "active"), Arrays.asList(click.getParameters()));
+  }
+
+  public void testShouldReplaceTheHandlerBoundToTheSameRoute() throws Exception {
+    UrlMapper mapper = new UrlMapper(new DefaultDriverSessions(), log);
+    mapper.bind("/session/:sessionId/url", StubHandler.class);
+    mapper.bind("/session/:id/url", SessionHandler.class);
+
+    ResultConfig config = mapper.getConfig("/session/1234/url");
+
+    assertTrue(config.getHandler("/session/1234/url") instanceof SessionHandler);
+  }
+
   public static class SessionHandler implements Handler {
 
     private final DriverSessions sessions;
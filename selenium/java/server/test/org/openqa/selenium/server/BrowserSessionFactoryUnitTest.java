@@ -7,21 +7,13 @@ import java.util.Set;
 import java.util.logging.Handler;
 import java.util.logging.Logger;
 
-import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.server.BrowserSessionFactory.BrowserSessionInfo;
 import org.openqa.selenium.server.browserlaunchers.BrowserLauncherFactory;
-import org.openqa.selenium.server.browserlaunchers.BrowserOptions;
 import org.openqa.selenium.server.browserlaunchers.DummyLauncher;
 import org.openqa.selenium.server.log.LoggingManager;
 import org.openqa.selenium.server.log.StdOutHandler;
 import org.openqa.selenium.server.log.TerseFormatter;
 
-import static org.easymock.EasyMock.expect;
-import static org.easymock.EasyMock.expectLastCall;
-import static org.easymock.EasyMock.isA;
-import static org.easymock.classextension.EasyMock.createMock;
-import static org.easymock.classextension.EasyMock.replay;
-
 public class BrowserSessionFactoryUnitTest extends TestCase {
 
     private static final String SESSION_ID_1 = "testLookupByBrowserAndUrl1";
@@ -50,42 +42,6 @@ public class BrowserSessionFactoryUnitTest extends TestCase {
       }
   }
 
-  public void testBrowserSessionFactorySetsLastSessionIdOfSeleniumDriverResourceHandler() throws Exception {
-
-        final RemoteControlConfiguration configuration;
-        
-        BrowserLauncherFactory blf = createMock(BrowserLauncherFactory.class);
-        DummyLauncher launcherMock = createMock(DummyLauncher.class);
-        
-        configuration = new RemoteControlConfiguration();
-        configuration.setTimeoutInSeconds(1);
-        
-        Capabilities bco = BrowserOptions.newBrowserOptions();
-        
-        BrowserSessionFactory factory = new BrowserSessionFactory(blf) {
-        	@Override
-        	protected FrameGroupCommandQueueSet makeQueueSet(String sessionId,
-        			int port, RemoteControlConfiguration configuration) {
-        		return createMock(FrameGroupCommandQueueSet.class);
-        	}
-        	
-        	@Override
-        	protected FrameGroupCommandQueueSet getQueueSet(String sessionId) {
-        		return createMock(FrameGroupCommandQueueSet.class);
-        	}
-        };
-        
-        expect(blf.getBrowserLauncher(isA(String.class), isA(String.class), 
-                isA(RemoteControlConfiguration.class), isA(Capabilities.class))).andReturn(launcherMock);
-        launcherMock.launchRemoteSession("");
-        expectLastCall().once();
-        replay(launcherMock);
-        replay(blf);
-        factory.createNewRemoteSession("", "", "", bco, true, configuration);
-        String expected = ((BrowserSessionInfo)(factory.activeSessions.toArray()[0])).sessionId;
-        assertEquals(expected, SeleniumDriverResourceHandler.getLastSessionId());
-    }
-    
     public void testInvalidLauncherPreventsNewRemoteSessionCreationWithException() {
         final BrowserSessionFactory factory;
         final RemoteControlConfiguration configuration;
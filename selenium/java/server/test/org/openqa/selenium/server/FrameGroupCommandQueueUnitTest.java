@@ -60,4 +60,45 @@ public class FrameGroupCommandQueueUnitTest extends TestCase {
     FrameGroupCommandQueueSet.clearQueueSet(firstSessionId);
   }
 
+  public void testWaitForLoadTimesOutAfterTheGivenMilliseconds() {
+    FrameGroupCommandQueueSet session1 =
+      FrameGroupCommandQueueSet.makeQueueSet(firstSessionId, RemoteControlConfiguration.DEFAULT_PORT, new RemoteControlConfiguration());
+
+    long start = System.currentTimeMillis();
+    try {
+      session1.waitForLoad(200);
+      fail("Nothing was loading");
+    } catch (RemoteCommandException e) {
+      assertTrue(e.getMessage().contains("timed out waiting for window"));
+    }
+    long elapsed = System.currentTimeMillis() - start;
+    assertTrue("Waited " + elapsed + " ms", elapsed >= 200 && elapsed < 1000);
+
+    FrameGroupCommandQueueSet.clearQueueSet(firstSessionId);
+  }
+
+  public void testWaitForLoadReturnsAsSoonAsTheFrameLoads() throws Exception {
+    final FrameGroupCommandQueueSet session1 =
+      FrameGroupCommandQueueSet.makeQueueSet(firstSessionId, RemoteControlConfiguration.DEFAULT_PORT, new RemoteControlConfiguration());
+    final FrameAddress top = FrameGroupCommandQueueSet.makeFrameAddress("", "top");
+    Thread browser = new Thread() {
+      @Override
+      public void run() {
+        FrameGroupCommandQueueSet.sleepForAtLeast(200);
+        // the page says it loaded, and is asked for its title in return
+        session1.handleCommandResult(null, top, firstQueueId, true, null);
+        session1.handleCommandResult("OK,", top, firstQueueId, false, null);
+      }
+    };
+    browser.setDaemon(true);
+    browser.start();
+
+    long start = System.currentTimeMillis();
+    assertEquals("OK", session1.waitForLoad(10000));
+    long elapsed = System.currentTimeMillis() - start;
+    assertTrue("Waited " + elapsed + " ms", elapsed < 2000);
+
+    FrameGroupCommandQueueSet.clearQueueSet(firstSessionId);
+  }
+
 }
@@ -0,0 +1,101 @@
+package org.openqa.selenium.server;
+
+import junit.framework.TestCase;
+
+import org.openqa.selenium.browserlaunchers.LauncherUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.HashSet;
+import java.util.Set;
+
+public class HostCertificateCacheUnitTest extends TestCase {
+
+  private File root;
+  private File store;
+  private HostCertificateCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    root = File.createTempFile("hostcerts", "");
+    root.delete();
+    root.mkdirs();
+    store = new File(root, "store.bin");
+  }
+
+  @Override
+  protected void tearDown() {
+    if (cache != null) {
+      cache.shutdown();
+    }
+    LauncherUtils.recursivelyDeleteDir(root);
+  }
+
+  public void testShouldMakeTheCertificateForAHostOnlyOnce() throws Exception {
+    cache = new HostCertificateCache(root, null);
+
+    X509Certificate[] chain = cache.getCertificateChain("www.example.com");
+    assertSame(chain[0], cache.getCertificateChain("www.example.com")[0]);
+
+    assertTrue(chain[0].getSubjectX500Principal().getName().startsWith("CN=www.example.com,"));
+    chain[0].verify(chain[1].getPublicKey());
+    assertNotNull(cache.getPrivateKey("www.example.com"));
+  }
+
+  public void testShouldGiveCertificatesMadeInParallelDifferentSerialNumbers() throws Exception {
+    cache = new HostCertificateCache(root, null);
+    for (int i = 0; i < 8; i++) {
+      cache.prepare("host" + i + ".example.com");
+    }
+
+    Set<BigInteger> serialNumbers = new HashSet<BigInteger>();
+    for (int i = 0; i < 8; i++) {
+      String host = "host" + i + ".example.com";
+      serialNumbers.add(certificate(host).getSerialNumber());
+    }
+    assertEquals(8, serialNumbers.size());
+  }
+
+  public void testShouldGiveEachHostItsOwnKeyPair() throws Exception {
+    cache = new HostCertificateCache(root, null);
+    int hosts = HostCertificateCache.KEY_POOL_SIZE * 2 + 1;
+
+    Set<PublicKey> keys = new HashSet<PublicKey>();
+    for (int i = 0; i < hosts; i++) {
+      keys.add(certificate("host" + i + ".example.com").getPublicKey());
+    }
+    assertEquals(hosts, keys.size());
+  }
+
+  public void testShouldReuseTheCertificatesInTheStore() throws Exception {
+    cache = new HostCertificateCache(root, store);
+    X509Certificate first = certificate("www.example.com");
+    cache.shutdown();
+
+    cache = new HostCertificateCache(root, store);
+    X509Certificate second = certificate("www.example.com");
+
+    assertEquals(first, second);
+  }
+
+  public void testShouldIgnoreARecordWhichWasOnlyPartlyWritten() throws Exception {
+    cache = new HostCertificateCache(root, store);
+    X509Certificate first = certificate("www.example.com");
+    cache.shutdown();
+    OutputStream out = new FileOutputStream(store, true);
+    out.write(new byte[] {0, 12, 'w', 'w', 'w'});
+    out.close();
+
+    cache = new HostCertificateCache(root, store);
+
+    assertEquals(first, certificate("www.example.com"));
+  }
+
+  private X509Certificate certificate(String host) throws Exception {
+    return cache.getCertificateChain(host)[0];
+  }
+}
@@ -0,0 +1,144 @@
+package org.openqa.selenium.server;
+
+import junit.framework.TestCase;
+
+import org.openqa.jetty.http.HttpRequest;
+import org.openqa.jetty.http.HttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class InjectionHelperUnitTest extends TestCase {
+
+  public void testShouldFindTagsWhateverTheirCase() {
+    byte[] page = "<!DOCTYPE html><HTML><Head>".getBytes();
+
+    assertEquals(15, InjectionHelper.indexOfIgnoreCase(page, 0, page.length, "<html".getBytes()));
+    assertEquals(21, InjectionHelper.indexOfIgnoreCase(page, 0, page.length, "<head>".getBytes()));
+    assertEquals(-1, InjectionHelper.indexOfIgnoreCase(page, 0, page.length - 1, "<head>".getBytes()));
+    assertEquals(-1, InjectionHelper.indexOfIgnoreCase(page, 0, page.length, "<body".getBytes()));
+  }
+
+  public void testShouldStopReadingThePreviewOnceTheHeadTagHasGoneBy() throws IOException {
+    StringBuilder page = new StringBuilder("<html><head profile=\"x\"><title>t</title>");
+    while (page.length() < 200000) {
+      page.append("<p>lorem ipsum</p>\n");
+    }
+
+    byte[] buf = new byte[102400];
+    int len = InjectionHelper.readPreview(slowly(page.toString(), 7), buf);
+
+    assertTrue("Read " + len + " bytes", len >= 24 && len < 100);
+  }
+
+  public void testShouldFindTagsSplitBetweenReads() throws IOException {
+    byte[] buf = new byte[102400];
+    int len = InjectionHelper.readPreview(slowly("<ht" + "ml><he" + "ad>rest of the page", 3), buf);
+
+    assertTrue("Read " + len + " bytes", len < 20);
+  }
+
+  public void testShouldReadWholePagesWithoutAHead() throws IOException {
+    byte[] buf = new byte[102400];
+    String page = "<html><body>no head here</body></html>";
+
+    assertEquals(page.length(), InjectionHelper.readPreview(slowly(page, 5), buf));
+  }
+
+  public void testShouldPassThroughContentWhichIsNotHtml() throws IOException {
+    StringBuilder script = new StringBuilder("var markup = '<html><head>';\n");
+    while (script.length() < 300000) {
+      script.append("markup += '<p>';\n");
+    }
+    byte[] content = script.toString().getBytes();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    long copied = InjectionHelper.injectJavaScript(request("/app.js"), response("/app.js", "text/javascript"),
+        new ByteArrayInputStream(content), out, "");
+
+    assertEquals(content.length, copied);
+    assertEquals(script.toString(), out.toString());
+  }
+
+  public void testShouldTransformCharactersAndMatchesSplitBetweenReads() throws IOException {
+    // The first 102400 bytes are read as the preview, and then the rest used
+    // to be read and transformed 8192 bytes at a time.
+    int boundary = 102400 + 8192;
+    StringBuilder page = new StringBuilder("<html><head></head><body>");
+    while (page.length() < boundary - 1) {
+      page.append('x');
+    }
+    // two bytes in UTF-8, the first just before the boundary
+    page.append("\u00e9");
+    while (page.length() < boundary + 8192 - 3) {
+      page.append('y');
+    }
+    page.append("SPLIT_TOKEN</body></html>");
+    byte[] content = page.toString().getBytes("UTF-8");
+    assertEquals(boundary - 1, page.indexOf("\u00e9"));
+
+    InjectionHelper.addUserContentTransformation("SPLIT_TOKEN", "replaced");
+    // any resource stands in for the injected script
+    InjectionHelper.setInjectionHtml("/org/openqa/selenium/server/VERSION.txt");
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      long copied = InjectionHelper.injectJavaScript(request("/page.html"),
+          response("/page.html", "text/html; charset=UTF-8"), new ByteArrayInputStream(content), out, "");
+
+      assertEquals(content.length, copied);
+      String written = out.toString("UTF-8");
+      assertTrue(written.contains("x\u00e9y"));
+      assertTrue(written.endsWith("yreplaced</body></html>"));
+    } finally {
+      InjectionHelper.removeUserContentTransformation("SPLIT_TOKEN");
+      InjectionHelper.setInjectionHtml("/core/scripts/injection.html");
+    }
+  }
+
+  private static InputStream slowly(String content, final int chunk) {
+    return new FilterInputStream(new ByteArrayInputStream(content.getBytes())) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, chunk));
+      }
+    };
+  }
+
+  private static HttpRequest request(final String path) {
+    return new HttpRequest() {
+      @Override
+      public String getPath() {
+        return path;
+      }
+
+      @Override
+      public StringBuffer getRequestURL() {
+        return new StringBuffer("http://localhost").append(path);
+      }
+    };
+  }
+
+  private static HttpResponse response(String path, final String contentType) {
+    final HttpRequest request = request(path);
+    return new HttpResponse() {
+      @Override
+      public HttpRequest getHttpRequest() {
+        return request;
+      }
+
+      @Override
+      public String getContentType() {
+        return contentType;
+      }
+
+      @Override
+      public String getCharacterEncoding() {
+        int charset = contentType.indexOf("charset=");
+        return charset == -1 ? null : contentType.substring(charset + "charset=".length());
+      }
+    };
+  }
+}
@@ -0,0 +1,72 @@
+package org.openqa.selenium.server;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+
+public class PostedDataReaderUnitTest extends TestCase {
+
+  public void testShouldReturnPlainDataAsItIs() throws IOException {
+    assertEquals("OK,caf\u00e9 + 100%", read("OK,caf\u00e9 + 100%", 1));
+  }
+
+  public void testShouldReturnAnEmptyBodyAsAnEmptyString() throws IOException {
+    assertEquals("", read("", 1));
+  }
+
+  public void testShouldReturnBodiesShorterThanThePrefix() throws IOException {
+    assertEquals("OK", read("OK", 1));
+    assertEquals("postedData", read("postedData", 3));
+  }
+
+  public void testShouldDecodeUrlEncodedDataLikeTheUrlDecoder() throws IOException {
+    String result = "OK,<p class=\"x\">caf\u00e9 & cr\u00e8me 100% \u4e2d\u6587</p>\n";
+
+    assertEquals(result, read("postedData=" + URLEncoder.encode(result, "UTF-8"), 1000));
+  }
+
+  public void testShouldDecodeEscapesSplitAcrossReads() throws IOException {
+    StringBuilder builder = new StringBuilder("OK,");
+    while (builder.length() < 100000) {
+      builder.append("\u00e9\u4e2d +%&=/\n");
+    }
+    String encoded = "postedData=" + URLEncoder.encode(builder.toString(), "UTF-8");
+
+    // Short reads put the chunk boundaries all over the escapes.
+    for (int chunk = 1; chunk < 12; chunk++) {
+      assertEquals(URLDecoder.decode(encoded.substring(11), "UTF-8"), read(encoded, chunk));
+    }
+  }
+
+  public void testShouldRejectMalformedEscapes() throws IOException {
+    try {
+      read("postedData=OK%2", 1000);
+      fail("Should have rejected the incomplete escape");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+
+    try {
+      read("postedData=OK%zz", 1000);
+      fail("Should have rejected the escape");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  private static String read(String body, final int chunk) throws IOException {
+    byte[] bytes = body.getBytes("UTF-8");
+    InputStream in = new FilterInputStream(new ByteArrayInputStream(bytes)) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, chunk));
+      }
+    };
+    return PostedDataReader.read(in, bytes.length);
+  }
+}
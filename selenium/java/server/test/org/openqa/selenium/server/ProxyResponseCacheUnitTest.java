@@ -0,0 +1,194 @@
+package org.openqa.selenium.server;
+
+import junit.framework.TestCase;
+
+import org.openqa.jetty.http.HttpRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ProxyResponseCacheUnitTest extends TestCase {
+
+  private File directory;
+
+  @Override
+  protected void setUp() throws Exception {
+    directory = File.createTempFile("proxycache", "");
+    directory.delete();
+  }
+
+  @Override
+  protected void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  public void testShouldServeFreshScriptsFromTheCache() throws IOException {
+    ProxyResponseCache cache = new ProxyResponseCache(null, 1024 * 1024, 0);
+    URL url = new URL("http://example.com/app.js");
+
+    assertNull(cache.lookup(url, request("GET")));
+    store(cache, url, request("GET"), "var a;",
+        "Content-Type", "text/javascript", "Cache-Control", "max-age=60");
+
+    ProxyResponseCache.Hit hit = cache.lookup(url, request("GET"));
+    assertTrue(hit.isFresh());
+    assertEquals("var a;", new String(hit.getBody()));
+    assertEquals(1, cache.getHits());
+  }
+
+  public void testShouldRevalidateEntriesWhichAreNoLongerFresh() throws IOException {
+    ProxyResponseCache cache = new ProxyResponseCache(null, 1024 * 1024, 0);
+    URL url = new URL("http://example.com/style.css");
+    store(cache, url, request("GET"), "body {}",
+        "Content-Type", "text/css", "ETag", "\"v1\"", "Cache-Control", "no-cache");
+
+    ProxyResponseCache.Hit hit = cache.lookup(url, request("GET"));
+    assertFalse(hit.isFresh());
+    FakeConnection revalidation = connection(url);
+    cache.addValidators(hit, revalidation);
+    assertEquals("\"v1\"", revalidation.getRequestProperty("If-None-Match"));
+
+    cache.revalidated(hit, connection(url, "Cache-Control", "max-age=60"));
+    assertTrue(cache.lookup(url, request("GET")).isFresh());
+    assertEquals(1, cache.getRevalidations());
+  }
+
+  public void testShouldOnlyCacheStaticResourcesWhichCanBeShared() throws IOException {
+    ProxyResponseCache cache = new ProxyResponseCache(null, 1024 * 1024, 0);
+    URL url = new URL("http://example.com/page");
+
+    assertNull(cache.store(url, request("GET"),
+        connection(url, "Content-Type", "text/html", "Cache-Control", "max-age=60"), 200,
+        new ArrayList<String[]>()));
+    assertNull(cache.store(url, request("GET"),
+        connection(url, "Content-Type", "image/png", "Cache-Control", "private, max-age=60"), 200,
+        new ArrayList<String[]>()));
+    assertNull(cache.store(url, request("GET"),
+        connection(url, "Content-Type", "image/png", "Set-Cookie", "a=b", "ETag", "\"x\""), 200,
+        new ArrayList<String[]>()));
+    // nothing to tell whether it is still good
+    assertNull(cache.store(url, request("GET"), connection(url, "Content-Type", "image/png"), 200,
+        new ArrayList<String[]>()));
+    assertNull(cache.store(url, request("POST"),
+        connection(url, "Content-Type", "image/png", "Cache-Control", "max-age=60"), 200,
+        new ArrayList<String[]>()));
+    assertNull(cache.store(url, request("GET"),
+        connection(url, "Content-Type", "image/png", "Cache-Control", "max-age=60"), 404,
+        new ArrayList<String[]>()));
+  }
+
+  public void testShouldKeepOneEntryPerVariant() throws IOException {
+    ProxyResponseCache cache = new ProxyResponseCache(null, 1024 * 1024, 0);
+    URL url = new URL("http://example.com/app.js");
+    store(cache, url, request("GET", "Accept-Encoding", "gzip"), "zipped",
+        "Content-Type", "text/javascript", "Cache-Control", "max-age=60", "Vary", "Accept-Encoding");
+    store(cache, url, request("GET"), "plain",
+        "Content-Type", "text/javascript", "Cache-Control", "max-age=60", "Vary", "Accept-Encoding");
+
+    assertEquals("zipped",
+        new String(cache.lookup(url, request("GET", "Accept-Encoding", "gzip")).getBody()));
+    assertEquals("plain", new String(cache.lookup(url, request("GET")).getBody()));
+    assertNull(cache.lookup(url, request("GET", "Accept-Encoding", "deflate")));
+  }
+
+  public void testShouldSpillToDiskOnceMemoryIsFull() throws IOException {
+    ProxyResponseCache cache = new ProxyResponseCache(directory, 10, 15);
+    URL first = new URL("http://example.com/1.png");
+    URL second = new URL("http://example.com/2.png");
+    URL third = new URL("http://example.com/3.png");
+
+    store(cache, first, request("GET"), "12345678", "Content-Type", "image/png", "ETag", "\"1\"");
+    store(cache, second, request("GET"), "abcdefgh", "Content-Type", "image/png", "ETag", "\"2\"");
+    assertEquals(8, cache.getMemoryUsed());
+    assertEquals(8, cache.getDiskUsed());
+    assertEquals("12345678", new String(cache.lookup(first, request("GET")).getBody()));
+
+    store(cache, third, request("GET"), "ABCDEFGH", "Content-Type", "image/png", "ETag", "\"3\"");
+    // the second went to disk as well, which only has room for one of them
+    assertNull(cache.lookup(first, request("GET")));
+    assertEquals("abcdefgh", new String(cache.lookup(second, request("GET")).getBody()));
+    assertEquals("ABCDEFGH", new String(cache.lookup(third, request("GET")).getBody()));
+    assertEquals(1, directory.listFiles().length);
+  }
+
+  public void testShouldNotCacheBodiesWhichAreTooBig() throws IOException {
+    ProxyResponseCache cache = new ProxyResponseCache(null, 64 * 1024 * 1024, 0);
+    URL url = new URL("http://example.com/big.png");
+    ProxyResponseCache.Store store = cache.store(url, request("GET"),
+        connection(url, "Content-Type", "image/png", "ETag", "\"x\""), 200, new ArrayList<String[]>());
+
+    OutputStream out = store.tee(new ByteArrayOutputStream());
+    byte[] chunk = new byte[1024 * 1024];
+    for (int i = 0; i <= ProxyResponseCache.MAX_ENTRY_BYTES / chunk.length; i++) {
+      out.write(chunk);
+    }
+    store.commit();
+
+    assertNull(cache.lookup(url, request("GET")));
+  }
+
+  private static void store(ProxyResponseCache cache, URL url, HttpRequest request, String body,
+      String... headers) throws IOException {
+    ProxyResponseCache.Store store =
+        cache.store(url, request, connection(url, headers), 200, new ArrayList<String[]>());
+    OutputStream out = store.tee(new ByteArrayOutputStream());
+    out.write(body.getBytes());
+    store.commit();
+  }
+
+  private static HttpRequest request(String method, String... headers) {
+    HttpRequest request = new HttpRequest();
+    request.setMethod(method);
+    for (int i = 0; i < headers.length; i += 2) {
+      request.setField(headers[i], headers[i + 1]);
+    }
+    return request;
+  }
+
+  private static FakeConnection connection(URL url, String... headers) {
+    FakeConnection connection = new FakeConnection(url);
+    for (int i = 0; i < headers.length; i += 2) {
+      connection.headers.put(headers[i].toLowerCase(), headers[i + 1]);
+    }
+    return connection;
+  }
+
+  private static class FakeConnection extends HttpURLConnection {
+    private final Map<String, String> headers = new HashMap<String, String>();
+
+    FakeConnection(URL url) {
+      super(url);
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+      return headers.get(name.toLowerCase());
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean usingProxy() {
+      return false;
+    }
+  }
+}
@@ -6,9 +6,12 @@ import java.net.URL;
 import java.util.Vector;
 
 import org.junit.Test;
+import org.openqa.jetty.http.HttpFields;
+import org.openqa.jetty.http.HttpRequest;
 import org.openqa.jetty.http.HttpResponse;
 import org.openqa.selenium.server.browserlaunchers.BrowserOptions;
 import org.openqa.selenium.server.commands.CaptureEntirePageScreenshotToStringCommand;
+import org.openqa.selenium.server.commands.CaptureNetworkTrafficCommand;
 import org.openqa.selenium.server.commands.CaptureScreenshotToStringCommand;
 import org.openqa.selenium.server.commands.RetrieveLastRemoteControlLogsCommand;
 import org.openqa.selenium.server.commands.SeleniumCoreCommand;
@@ -22,6 +25,7 @@ import static org.easymock.classextension.EasyMock.replay;
 import static org.easymock.classextension.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 
@@ -33,6 +37,41 @@ public class SeleniumDriverResourceHandlerUnitTest {
   private static String defaultSpeedString = "OK," + defaultSpeed;
   private static String newSpeedString = "OK," + newSpeed;
   
+  @Test
+  public void testProxiedPagesGoToTheSessionOnTheirHost() throws Exception {
+    SeleniumDriverResourceHandler.setDomain("session a", "http://a.example.com/");
+    SeleniumDriverResourceHandler.setDomain("session b", "http://b.example.com:8080/app/");
+    try {
+      assertEquals("session a", SeleniumDriverResourceHandler.getSessionIdFor(
+          proxied("http://a.example.com/page.html", null)));
+      assertEquals("session b", SeleniumDriverResourceHandler.getSessionIdFor(
+          proxied("http://B.example.com:8080/other/page.html", null)));
+      assertEquals("session a", SeleniumDriverResourceHandler.getSessionIdFor(
+          proxied("http://elsewhere.example.com/", "http://a.example.com/page.html")));
+      assertNull(SeleniumDriverResourceHandler.getSessionIdFor(
+          proxied("http://elsewhere.example.com/", null)));
+    } finally {
+      SeleniumDriverResourceHandler.forgetDomain("session a");
+      SeleniumDriverResourceHandler.forgetDomain("session b");
+    }
+  }
+
+  @Test
+  public void testProxiedPagesOnAHostSharedBySessionsGoByTheirUrl() throws Exception {
+    SeleniumDriverResourceHandler.setDomain("session a", "http://a.example.com/");
+    SeleniumDriverResourceHandler.setDomain("session b", "http://a.example.com/");
+    try {
+      assertEquals("session b", SeleniumDriverResourceHandler.getSessionIdFor(proxied(
+          "http://a.example.com/selenium-server/core/RemoteRunner.html?sessionId=session+b", null)));
+      // an application's own parameter doesn't count
+      assertNull(SeleniumDriverResourceHandler.getSessionIdFor(
+          proxied("http://a.example.com/page.html?sessionId=session+b", null)));
+    } finally {
+      SeleniumDriverResourceHandler.forgetDomain("session a");
+      SeleniumDriverResourceHandler.forgetDomain("session b");
+    }
+  }
+
   @Test
   public void testGetDefaultSpeedNullSession() {
     assertEquals(defaultSpeed, CommandQueue.getSpeed());
@@ -182,6 +221,15 @@ public class SeleniumDriverResourceHandlerUnitTest {
                    handler.commandResultsLogMessage(SeleniumCoreCommand.CAPTURE_ENTIRE_PAGE_SCREENSHOT_ID, "a_session_id", "the results"));
   }
 
+  @Test
+  public void commandResultsLogMessageForCaptureNetworkTrafficCommandWhenTheTrafficWasStreamed() {
+      final SeleniumDriverResourceHandler handler;
+
+      handler = new SeleniumDriverResourceHandler(null);
+      assertEquals("Got result: [network traffic] on session a_session_id",
+                   handler.commandResultsLogMessage(CaptureNetworkTrafficCommand.ID, "a_session_id", null));
+  }
+
   @Test
   public void commandResultsLogMessageForRetrieveLastRemoteControlLogsCommandWhenResultsAreAShortString() {
       final SeleniumDriverResourceHandler handler;
@@ -210,4 +258,32 @@ public class SeleniumDriverResourceHandlerUnitTest {
                            "a very very very very very very very very very  long result"));
   }
 
+  private static HttpRequest proxied(final String url, final String referer) throws Exception {
+    final URL parsed = new URL(url);
+    return new HttpRequest() {
+      @Override
+      public String getPath() {
+        return parsed.getPath();
+      }
+
+      @Override
+      public StringBuffer getRequestURL() {
+        return new StringBuffer(url);
+      }
+
+      @Override
+      public String getParameter(String name) {
+        String query = parsed.getQuery();
+        if (query != null && query.startsWith(name + "=")) {
+          return query.substring(name.length() + 1).replace('+', ' ');
+        }
+        return null;
+      }
+
+      @Override
+      public String getField(String name) {
+        return HttpFields.__Referer.equals(name) ? referer : null;
+      }
+    };
+  }
 }
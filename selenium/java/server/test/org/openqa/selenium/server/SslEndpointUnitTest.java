@@ -0,0 +1,87 @@
+package org.openqa.selenium.server;
+
+import junit.framework.TestCase;
+
+import org.openqa.jetty.http.HttpServer;
+import org.openqa.jetty.util.InetAddrPort;
+import org.openqa.selenium.browserlaunchers.LauncherUtils;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+public class SslEndpointUnitTest extends TestCase {
+
+  private File root;
+  private HostCertificateCache certificates;
+  private HttpServer server;
+  private ProxyHandler.SslEndpoint endpoint;
+
+  @Override
+  protected void setUp() throws Exception {
+    root = File.createTempFile("sslendpoint", "");
+    root.delete();
+    root.mkdirs();
+    certificates = new HostCertificateCache(root, null);
+
+    server = new HttpServer();
+    endpoint = new ProxyHandler.SslEndpoint(certificates);
+    server.addListener(endpoint);
+    server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    server.stop();
+    certificates.shutdown();
+    LauncherUtils.recursivelyDeleteDir(root);
+  }
+
+  public void testShouldPresentEachTunnelTheCertificateOfItsHost() throws Exception {
+    assertEquals("www.example.com", handshake("www.example.com"));
+    assertEquals("other.example.org", handshake("other.example.org"));
+    assertEquals("www.example.com", handshake("www.example.com"));
+  }
+
+  private String handshake(String host) throws Exception {
+    Socket tunnel = new Socket(InetAddress.getByName(null), endpoint.getPort());
+    try {
+      endpoint.expect(tunnel.getLocalPort(), host, new InetAddrPort(443));
+
+      SSLContext context = SSLContext.getInstance("TLS");
+      context.init(null, new TrustManager[] {new TrustEverything()}, new SecureRandom());
+      SSLSocket socket = (SSLSocket) context.getSocketFactory()
+          .createSocket(tunnel, host, 443, false);
+      // Use RSA key exchange: the bundled BouncyCastle can't make the RSA-PSS
+      // signatures newer JREs ask for otherwise.
+      socket.setEnabledProtocols(new String[] {"TLSv1.2"});
+      socket.setEnabledCipherSuites(new String[] {"TLS_RSA_WITH_AES_128_CBC_SHA"});
+      socket.startHandshake();
+
+      X509Certificate cert = (X509Certificate) socket.getSession().getPeerCertificates()[0];
+      String subject = cert.getSubjectX500Principal().getName();
+      return subject.substring("CN=".length(), subject.indexOf(','));
+    } finally {
+      tunnel.close();
+    }
+  }
+
+  private static class TrustEverything implements X509TrustManager {
+    public void checkClientTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    public void checkServerTrusted(X509Certificate[] chain, String authType) {
+    }
+
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package org.openqa.selenium.server;
+
+import junit.framework.TestCase;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class UpstreamConnectionsUnitTest extends TestCase {
+
+  public void testShouldKeepCountersForEachHost() throws Exception {
+    UpstreamConnections connections = new UpstreamConnections(4);
+
+    UpstreamConnections.Exchange first = connections.start(new URL("http://Example.com/a.html"));
+    first.sent(10);
+    first.responded();
+    first.received(100);
+    first.finish();
+    connections.start(new URL("http://example.com:80/b.png")).finish();
+    connections.start(new URL("https://example.com/c.html")).finish();
+
+    assertEquals(2, connections.getHosts().size());
+    UpstreamConnections.Host host = first.getHost();
+    assertEquals("http://example.com:80", host.getName());
+    assertEquals(2, host.getRequests());
+    assertEquals(1, host.getFailures());
+    assertEquals(10, host.getBytesSent());
+    assertEquals(100, host.getBytesReceived());
+    assertEquals(0, host.getActive());
+  }
+
+  public void testShouldCapTheRequestsInFlightToAHost() throws Exception {
+    final UpstreamConnections connections = new UpstreamConnections(1);
+    final URL url = new URL("http://example.com/");
+    UpstreamConnections.Exchange first = connections.start(url);
+    // other hosts aren't held up
+    connections.start(new URL("http://example.org/")).finish();
+
+    final CountDownLatch started = new CountDownLatch(1);
+    Thread second = new Thread() {
+      @Override
+      public void run() {
+        try {
+          connections.start(url).finish();
+          started.countDown();
+        } catch (Exception e) {
+          // the test fails on the latch
+        }
+      }
+    };
+    second.start();
+
+    assertFalse(started.await(200, TimeUnit.MILLISECONDS));
+    assertEquals(1, first.getHost().getActive());
+
+    first.finish();
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    second.join();
+    assertEquals(0, first.getHost().getActive());
+  }
+
+  public void testShouldGiveUpWhenNoConnectionToTheHostComesFreeInTime() throws Exception {
+    UpstreamConnections connections = new UpstreamConnections(1, 50);
+    URL url = new URL("http://example.com/");
+    UpstreamConnections.Exchange first = connections.start(url);
+
+    try {
+      connections.start(url);
+      fail("Should have timed out");
+    } catch (TimeoutException expected) {
+      // the request is failed instead
+    }
+    assertEquals(1, first.getHost().getActive());
+
+    first.finish();
+    connections.start(url).finish();
+    assertEquals(0, first.getHost().getActive());
+  }
+
+  public void testShouldOnlyRecordAnExchangeOnce() throws Exception {
+    UpstreamConnections connections = new UpstreamConnections(1);
+    UpstreamConnections.Exchange exchange = connections.start(new URL("http://example.com/"));
+    exchange.finish();
+    exchange.finish();
+
+    assertEquals(1, exchange.getHost().getRequests());
+    assertEquals(0, exchange.getHost().getActive());
+  }
+}
@@ -11,8 +11,10 @@ import static org.junit.Assert.fail;
 
 import org.junit.Test;
 import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.browserlaunchers.Proxies;
 import org.openqa.selenium.browserlaunchers.locators.BrowserInstallation;
 import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.io.FileHandler;
 import org.openqa.selenium.server.RemoteControlConfiguration;
 
 import java.io.File;
@@ -176,6 +178,27 @@ public class FirefoxChromeLauncherUnitTest {
     	
     }    
     
+    @Test
+    public void generatePacAndPrefJs_proxiesAllTrafficWhenOnlyTheSummaryOfTheTrafficIsCaptured() throws Exception {
+    	Capabilities browserOptions = BrowserOptions.newBrowserOptions();
+    	((DesiredCapabilities) browserOptions).setCapability("captureNetworkTrafficSummary", true);
+    	BrowserInstallation browserInstallation = new BrowserInstallation("firefox", null);
+    	FirefoxChromeLauncher launcher = new FirefoxChromeLauncher(browserOptions, configuration, "session", browserInstallation);
+    	File profileDir = File.createTempFile("summary", "profile");
+    	profileDir.delete();
+    	profileDir.mkdir();
+    	launcher.setCustomProfileDir(profileDir);
+
+    	try {
+    		launcher.generatePacAndPrefJs("http://localhost/");
+
+    		assertTrue(Proxies.isProxyRequired(launcher.browserConfigurationOptions));
+    		assertTrue(Proxies.isProxyingAllTraffic(launcher.browserConfigurationOptions));
+    	} finally {
+    		FileHandler.delete(profileDir);
+    	}
+    }
+
     public static class FirefoxChromeLauncherStubbedForShutdown extends FirefoxChromeLauncher {
 
       private boolean killFirefoxProcessCalled = false;
@@ -18,6 +18,15 @@ import org.openqa.jetty.http.HttpResponse;
 import org.openqa.selenium.server.ModifiedIO;
 
 public class CaptureNetworkTrafficCommandTest extends TestCase {
+    private static final String SESSION = "session 1";
+    private static final String OTHER_SESSION = "session 2";
+
+    @Override
+    protected void tearDown() {
+        CaptureNetworkTrafficCommand.remove(SESSION);
+        CaptureNetworkTrafficCommand.remove(OTHER_SESSION);
+    }
+
     public void testJson() throws ParseException, IOException {
         prepare();
         check("json", "json.txt");
@@ -33,8 +42,126 @@ public class CaptureNetworkTrafficCommandTest extends TestCase {
         check("plain", "plain.txt");
     }
 
+    public void testStartingASessionKeepsTheTrafficOfOthers() throws ParseException {
+        prepare();
+        CaptureNetworkTrafficCommand.clear(OTHER_SESSION);
+        assertTrue(new CaptureNetworkTrafficCommand(SESSION, "plain").execute().contains("index3.html"));
+
+        CaptureNetworkTrafficCommand.capture(finishedEntry("http://example.com/"));
+        String other = new CaptureNetworkTrafficCommand(OTHER_SESSION, "plain").execute();
+        assertTrue(other.contains("http://example.com/"));
+        assertFalse(other.contains("index3.html"));
+    }
+
+    public void testTrafficIsOnlyReturnedOnce() throws ParseException {
+        prepare();
+        assertFalse("OK,[]".equals(new CaptureNetworkTrafficCommand(SESSION, "json").execute()));
+
+        assertEquals("OK,[]", new CaptureNetworkTrafficCommand(SESSION, "json").execute());
+    }
+
+    public void testNothingIsCapturedForAnEndedSession() {
+        CaptureNetworkTrafficCommand.clear(SESSION);
+        CaptureNetworkTrafficCommand.remove(SESSION);
+        CaptureNetworkTrafficCommand.capture(finishedEntry("http://example.com/"));
+
+        assertEquals("OK,", new CaptureNetworkTrafficCommand(SESSION, "plain").execute());
+    }
+
+    public void testOnlyTheMostRecentTrafficIsKept() {
+        CaptureNetworkTrafficCommand.clear(SESSION);
+        for (int i = 0; i < CaptureNetworkTrafficCommand.MAX_ENTRIES + 10; i++) {
+            CaptureNetworkTrafficCommand.capture(finishedEntry("http://example.com/" + i));
+        }
+
+        String traffic = new CaptureNetworkTrafficCommand(SESSION, "plain").execute();
+        assertFalse(traffic.contains("http://example.com/9\n"));
+        assertTrue(traffic.contains("http://example.com/10\n"));
+        assertEquals(CaptureNetworkTrafficCommand.MAX_ENTRIES, traffic.split("=====\n").length - 1);
+    }
+
+    public void testTrafficCapturedConcurrentlyIsAllKept() throws InterruptedException {
+        TrafficRing ring = new TrafficRing(4000);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final TrafficRing target = ring;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        target.add(finishedEntry("http://example.com/"));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(4000, ring.take().size());
+        assertEquals(0, ring.getDropped());
+        assertEquals(0, ring.take().size());
+    }
+
+    public void testAStalledWriterDoesNotOverwriteALaterEntry() {
+        TrafficRing ring = new TrafficRing(1);
+        CaptureNetworkTrafficCommand.Entry first = finishedEntry("http://example.com/first");
+        CaptureNetworkTrafficCommand.Entry second = finishedEntry("http://example.com/second");
+        ring.add(first);
+        ring.add(second);
+        // the writer of the first entry only gets to its slot now
+        ring.put(0, first);
+
+        assertEquals(Collections.singletonList(second), ring.take());
+        assertEquals(1, ring.getDropped());
+    }
+
+    public void testSummaryCountsTrafficByHostAndContentType() {
+        CaptureNetworkTrafficCommand.clear(SESSION, true);
+        CaptureNetworkTrafficCommand.capture(timedEntry("http://example.com/a.js", "text/javascript", 100, 10));
+        CaptureNetworkTrafficCommand.capture(timedEntry("http://example.com/b.js", "text/javascript; charset=utf-8", 200, 30));
+        CaptureNetworkTrafficCommand.capture(timedEntry("http://other.com:8080/", "text/html", 50, 1000));
+
+        String summary = new CaptureNetworkTrafficCommand(SESSION, "xml").execute();
+        assertTrue(summary, summary.contains(
+                "<aggregate name=\"example.com\" count=\"2\" bytes=\"300\" p50=\"15\" p90=\"30\" p99=\"30\" maxTimeInMillis=\"30\"/>"));
+        assertTrue(summary, summary.contains("name=\"other.com:8080\" count=\"1\" bytes=\"50\""));
+        assertTrue(summary, summary.contains("name=\"text/javascript\" count=\"2\""));
+        assertFalse(summary, summary.contains("<entry"));
+
+        // taking it starts a new one
+        assertFalse(new CaptureNetworkTrafficCommand(SESSION, "plain").execute().contains("example.com"));
+    }
+
+    private CaptureNetworkTrafficCommand.Entry timedEntry(String url, final String contentType, long bytes, long millis) {
+        CaptureNetworkTrafficCommand.Entry entry = new CaptureNetworkTrafficCommand.Entry("GET", url);
+        Date start = new Date();
+        entry.setStart(start);
+        entry.finish(200, bytes);
+        entry.setEnd(new Date(start.getTime() + millis));
+        entry.addResponseHeader(new HttpResponse() {
+            @Override
+            public Enumeration getFieldNames() {
+                return Collections.enumeration(Collections.singleton("Content-Type"));
+            }
+
+            @Override
+            public String getField(String name) {
+                return contentType;
+            }
+        });
+        return entry;
+    }
+
+    private CaptureNetworkTrafficCommand.Entry finishedEntry(String url) {
+        CaptureNetworkTrafficCommand.Entry entry = new CaptureNetworkTrafficCommand.Entry("GET", url);
+        entry.finish(200, 0);
+        return entry;
+    }
+
     private void check(String type, String file) throws IOException {
-        CaptureNetworkTrafficCommand c = new CaptureNetworkTrafficCommand(type);
+        CaptureNetworkTrafficCommand c = new CaptureNetworkTrafficCommand(SESSION, type);
 
         InputStream is = this.getClass().getResourceAsStream("/org/openqa/selenium/server/commands/" + file);
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -78,7 +205,7 @@ public class CaptureNetworkTrafficCommandTest extends TestCase {
         };
         // end mock data
 
-        CaptureNetworkTrafficCommand.clear();
+        CaptureNetworkTrafficCommand.clear(SESSION);
 
         // entry 1
         CaptureNetworkTrafficCommand.Entry entry = new CaptureNetworkTrafficCommand.Entry("GET", "http://example.com/index.html");
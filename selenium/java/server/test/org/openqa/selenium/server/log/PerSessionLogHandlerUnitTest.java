@@ -3,6 +3,7 @@ package org.openqa.selenium.server.log;
 import junit.framework.TestCase;
 
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -118,4 +119,51 @@ public class PerSessionLogHandlerUnitTest extends TestCase {
                 .getLog("session-two"));
     }
 
+    public void testKeepsEveryRecordOfSessionsLoggingConcurrently() throws Exception {
+        final Formatter formatter;
+
+        formatter = new Formatter() {
+            public String format(LogRecord record) {
+                return record.getMessage() + ";";
+            }
+        };
+
+        final PerSessionLogHandler handler = new PerSessionLogHandler(10, Level.INFO, formatter);
+        final int sessions = 8;
+        final int recordsPerSession = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[sessions];
+        for (int i = 0; i < sessions; i++) {
+            final String sessionId = "session-" + i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    handler.setThreadToSessionMapping(getId(), sessionId);
+                    for (int j = 0; j < recordsPerSession; j++) {
+                        handler.publish(new LogRecord(Level.INFO, String.valueOf(j)));
+                    }
+                    handler.clearThreadToSessionMapping(getId());
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        StringBuilder expected = new StringBuilder();
+        for (int j = 0; j < recordsPerSession; j++) {
+            expected.append(j).append(";");
+        }
+        for (int i = 0; i < sessions; i++) {
+            assertEquals("\n<RC_Logs RC_Session_ID=session-" + i + ">\n" + expected + "\n</RC_Logs>\n",
+                    handler.getLog("session-" + i));
+        }
+    }
+
 }
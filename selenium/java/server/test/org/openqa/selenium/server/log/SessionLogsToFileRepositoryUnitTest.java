@@ -0,0 +1,88 @@
+package org.openqa.selenium.server.log;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * {@link org.openqa.selenium.server.log.SessionLogsToFileRepository} unit test class.
+ */
+public class SessionLogsToFileRepositoryUnitTest extends TestCase {
+
+    public void testRecordsReadBackAsTheyWereWritten() throws IOException {
+        SessionLogsToFileRepository repository = new SessionLogsToFileRepository();
+        StringBuilder longMessage = new StringBuilder();
+        while (longMessage.length() < 100000) {
+            longMessage.append("caf\u00e9 ");
+        }
+        LogRecord plain = record(Level.INFO, longMessage.toString(), 1000);
+        plain.setLoggerName("org.openqa.selenium.server");
+        plain.setThreadID(7);
+        LogRecord withParameters = record(Level.FINE, "{0} took {1}", 2000);
+        withParameters.setParameters(new Object[] {"open", 42});
+        LogRecord withThrown = record(Level.SEVERE, "failed", 3000);
+        withThrown.setThrown(new IllegalStateException("boom"));
+
+        repository.flushRecordsToLogFile("session-1", Arrays.asList(plain, withParameters, withThrown));
+        repository.flush();
+        List<LogRecord> records = repository.getLogRecords("session-1");
+
+        assertEquals(3, records.size());
+        assertEquals(longMessage.toString(), records.get(0).getMessage());
+        assertEquals("org.openqa.selenium.server", records.get(0).getLoggerName());
+        assertEquals(7, records.get(0).getThreadID());
+        assertEquals(1000, records.get(0).getMillis());
+        assertEquals(Level.FINE, records.get(1).getLevel());
+        assertEquals(Arrays.asList("open", "42"), Arrays.asList(records.get(1).getParameters()));
+        assertEquals("boom", records.get(2).getThrown().getMessage());
+    }
+
+    public void testKeepsTheRecordsOfEachSessionApart() throws IOException {
+        SessionLogsToFileRepository repository = new SessionLogsToFileRepository();
+
+        repository.flushRecordsToLogFile("session-1", Arrays.asList(record(Level.INFO, "one", 1)));
+        repository.flushRecordsToLogFile("session-2", Arrays.asList(record(Level.INFO, "two", 2)));
+        repository.flushRecordsToLogFile("session-1", Arrays.asList(record(Level.INFO, "three", 3)));
+        repository.flush();
+
+        assertEquals(Arrays.asList("one", "three"), messages(repository.getLogRecords("session-1")));
+        assertEquals(Arrays.asList("two"), messages(repository.getLogRecords("session-2")));
+
+        repository.removeLogFile("session-1");
+        assertTrue(repository.getLogRecords("session-1").isEmpty());
+        assertEquals(Arrays.asList("two"), messages(repository.getLogRecords("session-2")));
+    }
+
+    public void testReadsOnlyTheRecordsInTheRangeAsked() throws IOException {
+        SessionLogsToFileRepository repository = new SessionLogsToFileRepository();
+
+        repository.flushRecordsToLogFile("session-1",
+                Arrays.asList(record(Level.INFO, "a", 100), record(Level.INFO, "b", 200)));
+        repository.flushRecordsToLogFile("session-1",
+                Arrays.asList(record(Level.INFO, "c", 300), record(Level.INFO, "d", 400)));
+        repository.flush();
+
+        assertEquals(Arrays.asList("b", "c"), messages(repository.getLogRecords("session-1", 150, 350)));
+        assertEquals(Arrays.asList("d"), messages(repository.getLogRecords("session-1", 400, 1000)));
+        assertTrue(repository.getLogRecords("session-1", 500, 1000).isEmpty());
+    }
+
+    private static LogRecord record(Level level, String message, long millis) {
+        LogRecord record = new LogRecord(level, message);
+        record.setMillis(millis);
+        return record;
+    }
+
+    private static List<String> messages(List<LogRecord> records) {
+        List<String> messages = new ArrayList<String>();
+        for (LogRecord record : records) {
+            messages.add(record.getMessage());
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,52 @@
+package org.openqa.selenium.server.mock;
+
+import junit.framework.Assert;
+
+import org.openqa.selenium.server.BrowserChannel;
+import org.openqa.selenium.server.DefaultRemoteCommand;
+import org.openqa.selenium.server.RemoteCommand;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One exchange on a {@link MockPIChannel}: the results of some frames go up,
+ * the commands for the frames come back.
+ */
+public class ChannelRequest extends AsyncHttpRequest {
+    protected ChannelRequest() {}
+
+    /** Post the results and wait for commands in the background.
+     *
+     * @param url the url to contact, including the sessionId and channel parameters
+     * @param body the messages with the results of the frames
+     * @param timeoutInMillis time to wait before giving up on the request
+     * @return request object; used to acquire the commands when they're eventually ready
+     */
+    public static ChannelRequest request(String url, String body, int timeoutInMillis) {
+        ChannelRequest request = new ChannelRequest();
+        AsyncHttpRequest.constructRequest(request, "channelRequest: " + body, url, body, timeoutInMillis);
+        return request;
+    }
+
+    /** Parses the result of the exchange into the command for each frame, by uniqueId */
+    public Map<String, RemoteCommand> getCommands() {
+        Map<String, RemoteCommand> commands = new LinkedHashMap<String, RemoteCommand>();
+        for (BrowserChannel.Message message : BrowserChannel.parse(getResult())) {
+            commands.put(message.getParameter("uniqueId"),
+                DefaultRemoteCommand.parse(message.getContent()));
+        }
+        return commands;
+    }
+
+    public RemoteCommand expectCommand(String uniqueId, String cmd, String arg1, String arg2) {
+        RemoteCommand actual = getCommands().get(uniqueId);
+        RemoteCommand expected = new DefaultRemoteCommand(cmd, arg1, arg2);
+        Assert.assertEquals(cmd + " command for " + uniqueId + " got mangled", expected, actual);
+        return actual;
+    }
+
+    public void expectNoCommands() {
+        Assert.assertEquals("Expected no commands", 0, getCommands().size());
+    }
+}
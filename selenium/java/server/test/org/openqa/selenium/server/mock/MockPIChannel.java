@@ -0,0 +1,61 @@
+package org.openqa.selenium.server.mock;
+
+import org.openqa.selenium.server.BrowserChannel;
+import org.openqa.selenium.server.WindowClosedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Impersonates the frames of a browser in PI mode talking to the server over
+ * a single {@link BrowserChannel}, rather than each frame polling on its own
+ * as {@link MockPIFrame} does. Results are collected until the next exchange.
+ */
+public class MockPIChannel {
+    static Logger log = Logger.getLogger(MockPIChannel.class.getName());
+    final String driverUrl;
+    final String sessionId;
+    final String channelId;
+    final List<BrowserChannel.Message> pending = new ArrayList<BrowserChannel.Message>();
+
+    /**
+     * @param driverUrl the url of the Selenium Server
+     * @param sessionId sessionId, should already exist in the server
+     * @param channelId the id of the channel, one per browser window
+     */
+    public MockPIChannel(String driverUrl, String sessionId, String channelId) {
+        this.driverUrl = driverUrl;
+        this.sessionId = sessionId;
+        this.channelId = channelId;
+    }
+
+    /** Queues the "start" of a top-level frame with a blank window name */
+    public MockPIChannel seleniumStart(String uniqueId) {
+        return add(uniqueId, "&seleniumStart=true", "START");
+    }
+
+    /** Queues the result of the previous command of a frame, e.g. "OK" or "OK,123" */
+    public MockPIChannel sendResult(String uniqueId, String result) {
+        return add(uniqueId, "", result);
+    }
+
+    public MockPIChannel sendClose(String uniqueId) {
+        return add(uniqueId, "&closing=true", WindowClosedException.WINDOW_CLOSED_ERROR);
+    }
+
+    private MockPIChannel add(String uniqueId, String extra, String content) {
+        pending.add(new BrowserChannel.Message("uniqueId=" + uniqueId
+            + "&localFrameAddress=top&seleniumWindowName=" + extra, content));
+        return this;
+    }
+
+    /** Sends the queued results, and asks for the next commands */
+    public ChannelRequest exchange() {
+        String body = BrowserChannel.format(pending);
+        pending.clear();
+        log.info(sessionId + " exchanges " + body);
+        return ChannelRequest.request(driverUrl + "?sessionId=" + sessionId + "&channel=" + channelId,
+            body, AsyncHttpRequest.DEFAULT_TIMEOUT);
+    }
+}
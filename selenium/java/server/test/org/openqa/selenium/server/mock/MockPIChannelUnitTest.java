@@ -0,0 +1,172 @@
+package org.openqa.selenium.server.mock;
+
+import junit.framework.TestCase;
+
+import org.openqa.selenium.server.DefaultRemoteCommand;
+import org.openqa.selenium.server.InjectionHelper;
+import org.openqa.selenium.server.RemoteCommand;
+import org.openqa.selenium.server.RemoteControlConfiguration;
+import org.openqa.selenium.server.SeleniumServer;
+import org.openqa.selenium.server.browserlaunchers.BrowserLauncherFactory;
+
+import java.util.Map;
+
+/**
+ * The scenarios of {@link MockPIFrameUnitTest}, with the frames talking to
+ * the server over a single channel.
+ */
+public class MockPIChannelUnitTest extends TestCase {
+
+    private static final String DRIVER_URL = "http://localhost:4444/selenium-server/driver/";
+    private String sessionId;
+    private SeleniumServer server;
+
+    @Override
+    public void setUp() throws Exception {
+        RemoteControlConfiguration configuration = new RemoteControlConfiguration();
+        configuration.setTimeoutInSeconds(10);
+        configuration.setRetryTimeoutInSeconds(1);
+        configuration.setProxyInjectionModeArg(true);
+
+        server = new SeleniumServer(false, configuration);
+        server.start();
+        BrowserLauncherFactory.addBrowserLauncher("dummy", DummyBrowserLauncher.class);
+        InjectionHelper.setFailOnError(false);
+    }
+
+    @Override
+    public void tearDown() {
+        server.stop();
+        DummyBrowserLauncher.clearSessionId();
+        InjectionHelper.setFailOnError(true);
+    }
+
+    public void testStartSession() {
+        startSession();
+    }
+
+    private MockPIChannel startSession() {
+        // 1. driver requests new session
+        DriverRequest driverRequest = sendCommand("getNewBrowserSession", "*dummy", "http://x");
+        sessionId = waitForSessionId();
+        // 2. browser starts, its frame asks for work over the channel
+        MockPIChannel channel = new MockPIChannel(DRIVER_URL, sessionId, "window1");
+        ChannelRequest channelRequest = channel.seleniumStart("frame1").exchange();
+        // 3. server asks for identification and sets the context
+        channelRequest.expectCommand("frame1", "getTitle", "", "");
+        channelRequest = channel.sendResult("frame1", "OK,selenium remote runner").exchange();
+        channelRequest.expectCommand("frame1", "setContext", sessionId, "");
+        channel.sendResult("frame1", "OK");
+        // 4. server replies "OK,123" to driver
+        ChannelRequest waiting = channel.exchange();
+        driverRequest.expectResult("OK," + sessionId);
+        // nothing else for the browser to do, so the exchange times out empty
+        waiting.expectNoCommands();
+        return channel;
+    }
+
+    public void testCommandReachesAWaitingExchange() {
+        MockPIChannel channel = startSession();
+
+        ChannelRequest channelRequest = channel.exchange();
+        DriverRequest driverRequest = sendCommand("click", "foo", "");
+        channelRequest.expectCommand("frame1", "click", "foo", "");
+        channel.sendResult("frame1", "OK");
+        ChannelRequest waiting = channel.exchange();
+        driverRequest.expectResult("OK");
+        waiting.expectNoCommands();
+    }
+
+    /**
+     * Click, then waitForPageToLoad; the old frame's result, its closing and
+     * the new frame's start all go up in one exchange.
+     */
+    public void testClickThenWaitInOneExchange() {
+        MockPIChannel channel = startSession();
+
+        ChannelRequest channelRequest = channel.exchange();
+        DriverRequest driverRequest = sendCommand("click", "foo", "");
+        channelRequest.expectCommand("frame1", "click", "foo", "");
+        channel.sendResult("frame1", "OK");
+        channelRequest = channel.exchange();
+        driverRequest.expectResult("OK");
+        channelRequest.expectNoCommands();
+
+        driverRequest = sendCommand("waitForPageToLoad", "5000", "");
+        channelRequest = channel.sendClose("frame1").seleniumStart("frame2").exchange();
+        Map<String, RemoteCommand> commands = channelRequest.getCommands();
+        assertEquals(new DefaultRemoteCommand("testComplete", "", ""), commands.get("frame1"));
+        if (!commands.containsKey("frame2")) {
+            channelRequest = channel.exchange();
+            commands = channelRequest.getCommands();
+        }
+        assertEquals(new DefaultRemoteCommand("getTitle", "", ""), commands.get("frame2"));
+        channel.sendResult("frame2", "OK,newpage.html");
+        channelRequest = channel.exchange();
+        driverRequest.expectResult("OK");
+        channelRequest.expectNoCommands();
+
+        channelRequest = channel.exchange();
+        driverRequest = sendCommand("click", "bar", "");
+        channelRequest.expectCommand("frame2", "click", "bar", "");
+        channel.sendResult("frame2", "OK");
+        channelRequest = channel.exchange();
+        driverRequest.expectResult("OK");
+        channelRequest.expectNoCommands();
+    }
+
+    public void testNewExchangeReleasesTheWaitingOne() throws Exception {
+        MockPIChannel channel = startSession();
+
+        ChannelRequest first = channel.exchange();
+        Thread.sleep(100);
+        ChannelRequest second = channel.exchange();
+        first.expectNoCommands();
+
+        DriverRequest driverRequest = sendCommand("click", "foo", "");
+        second.expectCommand("frame1", "click", "foo", "");
+        channel.sendResult("frame1", "OK");
+        ChannelRequest waiting = channel.exchange();
+        driverRequest.expectResult("OK");
+        waiting.expectNoCommands();
+    }
+
+    public void testChannelsOfTwoWindowsDontReleaseEachOther() throws Exception {
+        MockPIChannel channel = startSession();
+
+        ChannelRequest waiting = channel.exchange();
+        Thread.sleep(100);
+        ChannelRequest other = new MockPIChannel(DRIVER_URL, sessionId, "window2").exchange();
+        Thread.sleep(100);
+
+        DriverRequest driverRequest = sendCommand("click", "foo", "");
+        waiting.expectCommand("frame1", "click", "foo", "");
+        other.expectNoCommands();
+        channel.sendResult("frame1", "OK");
+        waiting = channel.exchange();
+        driverRequest.expectResult("OK");
+        waiting.expectNoCommands();
+    }
+
+    private String waitForSessionId() {
+        long finish = System.currentTimeMillis() + AsyncHttpRequest.DEFAULT_TIMEOUT;
+        while (System.currentTimeMillis() < finish) {
+            // DummyBrowserLauncher records its sessionId in a static variable
+            String id = DummyBrowserLauncher.getSessionId();
+            if (id != null) {
+                return id;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        throw new RuntimeException("sessionId never appeared");
+    }
+
+    private DriverRequest sendCommand(String cmd, String arg1, String arg2) {
+        return DriverRequest.request(DRIVER_URL, new DefaultRemoteCommand(cmd, arg1, arg2),
+            sessionId, AsyncHttpRequest.DEFAULT_TIMEOUT);
+    }
+}
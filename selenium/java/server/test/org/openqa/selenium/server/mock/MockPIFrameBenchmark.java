@@ -0,0 +1,181 @@
+package org.openqa.selenium.server.mock;
+
+import org.openqa.selenium.server.DefaultRemoteCommand;
+import org.openqa.selenium.server.InjectionHelper;
+import org.openqa.selenium.server.PostedDataReader;
+import org.openqa.selenium.server.RemoteControlConfiguration;
+import org.openqa.selenium.server.SeleniumServer;
+import org.openqa.selenium.server.browserlaunchers.BrowserLauncherFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Random;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures how long large results, such as the HTML source of a page, take to
+ * get from the browser to the driver, using the mock browser of
+ * {@link MockPIFrameUnitTest}. Also compares reading the posted body with
+ * {@link PostedDataReader} and with the character at a time loop it replaced.
+ *
+ * Run the main method; the numbers are only meaningful relative to each other.
+ */
+public class MockPIFrameBenchmark {
+
+    private static final String DRIVER_URL = "http://localhost:4444/selenium-server/driver/";
+    private static final int TIMEOUT = 60000;
+
+    private SeleniumServer server;
+    private String sessionId;
+    private MockPIFrame frame;
+
+    public void start() throws Exception {
+        RemoteControlConfiguration configuration = new RemoteControlConfiguration();
+        configuration.setTimeoutInSeconds(60);
+        configuration.setProxyInjectionModeArg(true);
+        server = new SeleniumServer(false, configuration);
+        server.start();
+        BrowserLauncherFactory.addBrowserLauncher("dummy", DummyBrowserLauncher.class);
+        InjectionHelper.setFailOnError(false);
+        quietLogging();
+
+        // Same steps as MockPIFrameUnitTest.startSession
+        DriverRequest driverRequest = DriverRequest.request(DRIVER_URL,
+            new DefaultRemoteCommand("getNewBrowserSession", "*dummy", "http://x"), null, TIMEOUT);
+        while (DummyBrowserLauncher.getSessionId() == null) {
+            Thread.sleep(10);
+        }
+        sessionId = DummyBrowserLauncher.getSessionId();
+        frame = new MockPIFrame(DRIVER_URL, sessionId, "frame1");
+        frame.seleniumStart();
+        frame.expectCommand("getTitle", "", "");
+        frame.sendResult("OK,selenium remote runner");
+        frame.expectCommand("setContext", sessionId, "");
+        frame.sendResult("OK");
+        driverRequest.expectResult("OK," + sessionId);
+    }
+
+    public void stop() {
+        server.stop();
+        DummyBrowserLauncher.clearSessionId();
+        InjectionHelper.setFailOnError(true);
+    }
+
+    // The harness logs every body it sends and receives.
+    private static void quietLogging() {
+        Logger root = Logger.getLogger("");
+        root.setLevel(Level.WARNING);
+        for (Handler handler : root.getHandlers()) {
+            handler.setLevel(Level.WARNING);
+        }
+    }
+
+    /**
+     * @param body what the browser posts, either the result or the result
+     *        URL-encoded as "postedData=..."
+     * @return nanoseconds from the driver asking for the source to it
+     *         receiving it.
+     */
+    public long roundTrip(String result, String body) {
+        long start = System.nanoTime();
+        DriverRequest driverRequest = DriverRequest.request(DRIVER_URL,
+            new DefaultRemoteCommand("getHtmlSource", "", ""), sessionId, TIMEOUT);
+        frame.expectCommand("getHtmlSource", "", "");
+        frame.sendResult(body);
+        driverRequest.expectResult(result);
+        return System.nanoTime() - start;
+    }
+
+    /** How SeleniumDriverResourceHandler.readPostedData used to read the body. */
+    public static String readCharByChar(InputStream is) throws IOException {
+        StringBuffer sb = new StringBuffer();
+        InputStreamReader r = new InputStreamReader(is, "UTF-8");
+        int c;
+        while ((c = r.read()) != -1) {
+            sb.append((char) c);
+        }
+        String postedData = sb.toString();
+        if (postedData.startsWith("postedData=")) {
+            postedData = postedData.substring(11);
+            postedData = URLDecoder.decode(postedData, "UTF-8");
+        }
+        return postedData;
+    }
+
+    private static String htmlSource(int megabytes) {
+        Random random = new Random(0);
+        StringBuilder source = new StringBuilder("OK,<html><body>\n");
+        while (source.length() < megabytes * 1024 * 1024) {
+            source.append("<div class=\"row\" id=\"r").append(random.nextInt())
+                .append("\">caf&eacute; &amp; cr&egrave;me 100%</div>\n");
+        }
+        return source.append("</body></html>").toString();
+    }
+
+    private static long millis(long nanos, int iterations) {
+        return nanos / iterations / 1000000;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        MockPIFrameBenchmark benchmark = new MockPIFrameBenchmark();
+        benchmark.start();
+        try {
+            for (int megabytes : new int[] {1, 4}) {
+                String result = htmlSource(megabytes);
+                String encoded = "postedData=" + URLEncoder.encode(result, "UTF-8");
+                byte[] plainBytes = result.getBytes("UTF-8");
+                byte[] encodedBytes = encoded.getBytes("UTF-8");
+
+                long plainTrip = 0;
+                long encodedTrip = 0;
+                long oldPlain = 0;
+                long newPlain = 0;
+                long oldEncoded = 0;
+                long newEncoded = 0;
+                // The first round warms up, the second is measured.
+                for (int round = 0; round < 2; round++) {
+                    plainTrip = 0;
+                    encodedTrip = 0;
+                    oldPlain = 0;
+                    newPlain = 0;
+                    oldEncoded = 0;
+                    newEncoded = 0;
+                    for (int i = 0; i < iterations; i++) {
+                        plainTrip += benchmark.roundTrip(result, result);
+                        encodedTrip += benchmark.roundTrip(result, encoded);
+
+                        long start = System.nanoTime();
+                        readCharByChar(new ByteArrayInputStream(plainBytes));
+                        oldPlain += System.nanoTime() - start;
+                        start = System.nanoTime();
+                        PostedDataReader.read(new ByteArrayInputStream(plainBytes), plainBytes.length);
+                        newPlain += System.nanoTime() - start;
+                        start = System.nanoTime();
+                        readCharByChar(new ByteArrayInputStream(encodedBytes));
+                        oldEncoded += System.nanoTime() - start;
+                        start = System.nanoTime();
+                        PostedDataReader.read(new ByteArrayInputStream(encodedBytes), encodedBytes.length);
+                        newEncoded += System.nanoTime() - start;
+                    }
+                }
+
+                System.out.println(String.format(
+                    "%d MB  round trip: plain %4d ms, encoded %4d ms  "
+                        + "read plain: char at a time %4d ms, buffered %4d ms  "
+                        + "read encoded: char at a time %4d ms, buffered %4d ms",
+                    megabytes, millis(plainTrip, iterations), millis(encodedTrip, iterations),
+                    millis(oldPlain, iterations), millis(newPlain, iterations),
+                    millis(oldEncoded, iterations), millis(newEncoded, iterations)));
+            }
+        } finally {
+            benchmark.stop();
+        }
+    }
+}
@@ -27,6 +27,8 @@ var postResult = "START";
 var debugMode = false;
 var relayToRC = null;
 var proxyInjectionMode = false;
+// set by the server when it runs with -browserChannel, see BrowserChannel below
+var useBrowserChannel = false;
 var uniqueId = 'sel_' + Math.round(100000 * Math.random());
 var seleniumSequenceNumber = 0;
 var cmd8 = "";
@@ -199,8 +201,19 @@ objectExtend(RemoteRunner.prototype, {
         if (postResult == "START") {
             urlParms += "seleniumStart=true";
         }
+        this._sendResult(postResult, urlParms);
+    },
+
+    // Posts the result of the last command and gets the next one, over the channel of the
+    // window if this frame can use it, or on its own otherwise.
+    _sendResult : function(result, urlParms) {
+        var channel = getBrowserChannel();
+        if (channel != null) {
+            channel.send(uniqueId, urlParms + addUrlParams(""), result, fnBind(this._handleCommand, this));
+            return;
+        }
         this.xmlHttpForCommandsAndResults = XmlHttp.create();
-        sendToRC(postResult, urlParms, fnBind(this._HandleHttpResponse, this), this.xmlHttpForCommandsAndResults);
+        sendToRC(result, urlParms, fnBind(this._HandleHttpResponse, this), this.xmlHttpForCommandsAndResults);
     },
 
     commandStarted : function(command) {
@@ -292,15 +305,7 @@ objectExtend(RemoteRunner.prototype, {
                     LOG.error("saw blank string xmlHttpForCommandsAndResults.responseText");
                     return;
                 }
-                var command = this._extractCommand(this.xmlHttpForCommandsAndResults);
-                if (command.command == 'retryLast') {
-                    setTimeout(fnBind(function() {
-                        sendToRC("RETRY", "retry=true", fnBind(this._HandleHttpResponse, this), this.xmlHttpForCommandsAndResults, true);
-                    }, this), 1000);
-                } else {
-                    this.currentCommand = command;
-                    this.continueTestAtCurrentCommand();
-                }
+                this._handleCommand(this.xmlHttpForCommandsAndResults.responseText);
             }
             // Not OK 
             else {
@@ -313,9 +318,21 @@ objectExtend(RemoteRunner.prototype, {
         }
     },
 
-    _extractCommand : function(xmlHttp) {
-        var command, text, json;
-        text = command = xmlHttp.responseText;
+    _handleCommand : function(text) {
+        var command = this._extractCommand(text);
+        if (command.command == 'retryLast') {
+            setTimeout(fnBind(function() {
+                this._sendResult("RETRY", "retry=true");
+            }, this), 1000);
+        } else {
+            this.currentCommand = command;
+            this.continueTestAtCurrentCommand();
+        }
+    },
+
+    _extractCommand : function(text) {
+        var command, json;
+        command = text;
         if (/^json=/.test(text)) {
             eval(text);
             if (json.rest) {
@@ -325,7 +342,7 @@ objectExtend(RemoteRunner.prototype, {
         }
         try {
             var re = new RegExp("^(.*?)\n((.|[\r\n])*)");
-            if (re.exec(xmlHttp.responseText)) {
+            if (re.exec(text)) {
                 command = RegExp.$1;
                 var rest = RegExp.$2;
                 rest = rest.trim();
@@ -334,7 +351,7 @@ objectExtend(RemoteRunner.prototype, {
                 }
             }
             else {
-                command = xmlHttp.responseText;
+                command = text;
             }
         } catch (e) {
             alert('could not get responseText: ' + e.message);
@@ -385,6 +402,117 @@ objectExtend(RemoteRunner.prototype, {
 })
 
 
+// In proxy injection mode, the frames of a window can share one connection to the server
+// instead of each polling for its own commands (see BrowserChannel.java). The channel lives
+// in the top frame of the window; frames which can't reach it, such as those from another
+// domain, poll on their own.
+BrowserChannel = classCreate();
+objectExtend(BrowserChannel.prototype, {
+    initialize : function() {
+        this.id = 'channel_' + Math.round(100000 * Math.random());
+        // what the frames posted since the last exchange
+        this.outgoing = "";
+        // the frames waiting for a command: uniqueId -> function(command)
+        this.waiting = {};
+        this.exchangesInFlight = 0;
+    },
+
+    // Posts a frame's result, and hands the frame's next command to the callback once it comes.
+    send : function(frameId, urlParms, result, callback) {
+        this.waiting[frameId] = callback;
+        this.outgoing += urlParms + "\n" + result.length + "\n" + result;
+        // the server gives the exchange waiting so far back, so this one carries the result now
+        this._exchange();
+    },
+
+    // Stops waiting for a command for a frame which is going away.
+    forget : function(frameId) {
+        delete this.waiting[frameId];
+    },
+
+    _exchange : function() {
+        var body = this.outgoing;
+        this.outgoing = "";
+        var xmlHttp = XmlHttp.create();
+        var url = buildDriverUrl() + "?channel=" + this.id + buildDriverParams() + preventBrowserCaching();
+        this.exchangesInFlight++;
+        xmlHttp.open("POST", url, true);
+        xmlHttp.onreadystatechange = fnBind(function() {
+            if (xmlHttp.readyState == 4) {
+                this.exchangesInFlight--;
+                this._received(xmlHttp);
+            }
+        }, this);
+        xmlHttp.send(body);
+    },
+
+    _received : function(xmlHttp) {
+        if (xmlHttp.status != 200) {
+            LOG.error('channel returned: ' + xmlHttp.status + ": " + xmlHttp.statusText);
+            setTimeout(fnBind(this._keepWaiting, this), 2000);
+            return;
+        }
+        // each command is "uniqueId=<frame>", its length and the command itself
+        var text = xmlHttp.responseText;
+        var position = 0;
+        while (position < text.length) {
+            var endOfParameters = text.indexOf("\n", position);
+            var endOfLength = text.indexOf("\n", endOfParameters + 1);
+            if (endOfLength == -1) {
+                LOG.error("truncated channel response: " + text.substring(position));
+                break;
+            }
+            var frameId = decodeURIComponent(text.substring(position, endOfParameters)
+                .replace(/^uniqueId=/, "").replace(/\+/g, "%20"));
+            var length = parseInt(text.substring(endOfParameters + 1, endOfLength), 10);
+            var command = text.substr(endOfLength + 1, length);
+            position = endOfLength + 1 + length;
+
+            var callback = this.waiting[frameId];
+            delete this.waiting[frameId];
+            if (callback) {
+                try {
+                    callback(command);
+                } catch (e) {
+                    // the frame went away in the meantime
+                    LOG.warn("could not hand " + command + " to " + frameId + ": " + e.message);
+                }
+            }
+        }
+        this._keepWaiting();
+    },
+
+    // As long as a frame waits for a command, one exchange waits for it on the server.
+    _keepWaiting : function() {
+        if (this.exchangesInFlight > 0) {
+            return;
+        }
+        for (var frameId in this.waiting) {
+            this._exchange();
+            return;
+        }
+    }
+});
+
+// Returns the channel of the window this frame is in, or null if the frame has to poll on its own.
+function getBrowserChannel() {
+    if (!(proxyInjectionMode && useBrowserChannel)) {
+        return null;
+    }
+    try {
+        if (window.top == window) {
+            if (window.seleniumBrowserChannel == null) {
+                window.seleniumBrowserChannel = new BrowserChannel();
+            }
+            return window.seleniumBrowserChannel;
+        }
+        // null until the top frame has loaded; throws if it is from another domain
+        return window.top.seleniumBrowserChannel || null;
+    } catch (e) {
+        return null;
+    }
+}
+
 function sendToRC(dataToBePosted, urlParms, callback, xmlHttpObject, async) {
     if (async == null) {
         async = true;